@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * The {@code BenchmarkData} class holds the helpers shared by the JMH
+ * benchmarks and the stand-alone measurements. It does not depend on JMH,
+ * so the footprint and load test targets build without the JMH jars.
+ * @author Dr. Hoss
+ */
+final class BenchmarkData {
+
+    private BenchmarkData() {}
+
+    /**
+     * Gets the info of the generated item with the specified index.
+     * @param index The index of the item.
+     * @return The info of the item.
+     */
+    static String itemInfo(int index) {
+        return "Item number " + index;
+    }
+
+    /**
+     * Sends change log lines to a temporary file instead of {@code log.txt}.
+     * @throws IOException If the temporary file cannot be created.
+     */
+    static void useScratchChangeLog() throws IOException {
+        File logFile = File.createTempFile("benchmark-log", ".txt");
+
+        logFile.deleteOnExit();
+        ChangeLog.setDefault(new ChangeLog(logFile,
+                ChangeLog.FlushPolicy.everyRecords(4096), 65536));
+    }
+
+    /**
+     * Discards standard output, where {@code Inventory} prints a message for
+     * every miss, until the returned stream is passed to
+     * {@code System.setOut} again.
+     * @return The standard output stream that was replaced.
+     */
+    static PrintStream discardOutput() {
+        PrintStream console = System.out;
+
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+                // Discard console messages printed on misses.
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                // Discard console messages printed on misses.
+            }
+        }));
+
+        return console;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * JMH benchmarks for the per-item operations of {@code Inventory}. Every
+ * benchmark runs against an inventory of {@code size} items with a rotating
+ * set of search keys, of which {@code hitRatio} are present in the inventory
+ * and the rest are not. Hits use a different letter case than the stored info
+ * so the case-insensitive path is measured.
+ * <p>
+ * Misses make {@code Inventory} print a "could not be found" message, so
+ * standard output of the forked benchmark JVM is discarded during each trial
+ * and restored after it. Change log lines go to a temporary file instead of
+ * {@code log.txt}.
+ * @author Dr. Hoss
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class InventoryBenchmark {
+
+    private static final int KEY_COUNT = 1024;
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int size;
+
+    @Param({"1.0", "0.5", "0.0"})
+    public double hitRatio;
+
+    private Inventory inv;
+    private String[] keys;
+    private int next;
+    private PrintStream console;
+
+    /**
+     * Builds the inventory and the rotating search keys.
+     * @throws IOException If the temporary change log cannot be created.
+     */
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+
+        BenchmarkData.useScratchChangeLog();
+        console = BenchmarkData.discardOutput();
+        inv = new Inventory("benchmark");
+        for (int i = 0; i < size; i++)
+            inv.addNewItem(new Item(BenchmarkData.itemInfo(i),
+                    Integer.MAX_VALUE / 2));
+        keys = new String[KEY_COUNT];
+        for (int i = 0; i < KEY_COUNT; i++) {
+            if (random.nextDouble() < hitRatio)
+                keys[i] = BenchmarkData.itemInfo(random.nextInt(size))
+                        .toUpperCase();
+            else
+                keys[i] = "missing item " + i;
+        }
+    }
+
+    /**
+     * Flushes the change log and restores standard output after the trial.
+     */
+    @TearDown
+    public void tearDown() {
+        ChangeLog.setDefault(null);
+        System.setOut(console);
+    }
+
+    /**
+     * Measures a case-insensitive lookup.
+     * @return The {@code Item} found, so the lookup cannot be eliminated.
+     */
+    @Benchmark
+    public Item search() {
+        return inv.search(nextKey());
+    }
+
+    /**
+     * Measures adding an {@code Item}. A hit adds to the existing quantity; a
+     * miss inserts a new item and removes it again to keep the size stable.
+     */
+    @Benchmark
+    public void addNewItem() {
+        String key = nextKey();
+        Item existing = inv.search(key);
+
+        inv.addNewItem(new Item(key, 1));
+        if (existing == null)
+            inv.removeItem(key);
+    }
+
+    /**
+     * Measures adding to the quantity of an existing item.
+     */
+    @Benchmark
+    public void addToItem() {
+        inv.addToItem(nextKey(), 1);
+    }
+
+    /**
+     * Measures removing from the quantity of an existing item.
+     */
+    @Benchmark
+    public void removeFromItem() {
+        inv.removeFromItem(nextKey(), 1);
+    }
+
+    /**
+     * Measures resetting every quantity in the inventory.
+     */
+    @Benchmark
+    public void resetAllItems() {
+        inv.resetAllItems();
+    }
+
+    private String nextKey() {
+        next = (next + 1) & (KEY_COUNT - 1);
+        return keys[next];
+    }
+}
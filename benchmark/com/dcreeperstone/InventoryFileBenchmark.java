@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * JMH benchmarks for loading an {@code Inventory} from a file and saving it
+ * again, in each of the supported file formats.
+ * @author Dr. Hoss
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class InventoryFileBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int size;
+
+    @Param({"TEXT", "SNAPSHOT"})
+    public InventoryFormat format;
+
+    private Inventory inv;
+    private File directory;
+    private File savedFile;
+
+    /**
+     * Builds the inventory and saves it once so there is a file to load.
+     * @throws IOException If the scratch directory cannot be created.
+     */
+    @Setup
+    public void setUp() throws IOException {
+        BenchmarkData.useScratchChangeLog();
+        inv = new Inventory("benchmark");
+        for (int i = 0; i < size; i++)
+            inv.addNewItem(new Item(BenchmarkData.itemInfo(i), i));
+        directory = Files.createTempDirectory("inventory-benchmark").toFile();
+        savedFile = new File(directory, "loaded.inv");
+        inv.saveDataTo(directory.getPath(), savedFile.getName(), format);
+    }
+
+    /**
+     * Removes the scratch files and flushes the change log after the trial.
+     */
+    @TearDown
+    public void tearDown() {
+        File[] files = directory.listFiles();
+
+        if (files != null)
+            for (File file : files)
+                file.delete();
+        directory.delete();
+        ChangeLog.setDefault(null);
+    }
+
+    /**
+     * Measures loading the inventory through {@code Inventory(File)}.
+     * @return The loaded inventory, so the load cannot be eliminated.
+     */
+    @Benchmark
+    public Inventory load() {
+        return new Inventory(savedFile);
+    }
+
+    /**
+     * Measures saving the inventory through {@code saveDataTo}.
+     */
+    @Benchmark
+    public void saveDataTo() {
+        inv.saveDataTo(directory.getPath(), "saved.inv", format);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.function.Function;
+
+/**
+ * Compares the memory used by a plain {@code Inventory} and a
+ * {@code CompactInventory} holding the same items. Both are loaded from the
+ * same generated text file, and the heap in use after a full collection is
+ * compared before and after loading, along with the direct buffer memory.
+ * Run it with {@code ant footprint}, optionally passing the item count in
+ * {@code footprint.args}.
+ * @author Dr. Hoss
+ */
+public class InventoryFootprint {
+
+    private static final int DEFAULT_SIZE = 1000000;
+
+    private InventoryFootprint() {}
+
+    /**
+     * Prints the footprint of both layouts.
+     * @param args The number of items to load, one million by default.
+     * @throws IOException If the inventory file cannot be written.
+     */
+    public static void main(String[] args) throws IOException {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_SIZE;
+        File invFile = File.createTempFile("footprint", ".txt");
+        PrintStream out = System.out;
+
+        invFile.deleteOnExit();
+        BenchmarkData.useScratchChangeLog();
+        try (PrintWriter invPW = new PrintWriter(invFile, "UTF-8")) {
+            invPW.println("footprint");
+            for (int i = 0; i < size; i++) {
+                invPW.println(BenchmarkData.itemInfo(i));
+                invPW.println(i % 1000);
+            }
+        }
+        out.printf("%,d items%n", size);
+        report(out, "Inventory", invFile, Inventory::new, size);
+        report(out, "CompactInventory", invFile, CompactInventory::new, size);
+        ChangeLog.setDefault(null);
+    }
+
+    private static void report(PrintStream out, String layout, File invFile,
+            Function<File, Inventory> loader, int size) {
+        long heapBefore = usedHeap();
+        long directBefore = usedDirect();
+        Inventory inv = loader.apply(invFile);
+        long heap = usedHeap() - heapBefore;
+        long direct = usedDirect() - directBefore;
+
+        out.printf("%-17s heap %,13d B  direct %,13d B  "
+                + "%6.1f B/item%n", layout, heap, direct,
+                (double) (heap + direct) / size);
+        if (inv.search(BenchmarkData.itemInfo(size - 1)) == null)
+            throw new IllegalStateException("Inventory did not load.");
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+
+        for (int i = 0; i < 4; i++)
+            System.gc();
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long usedDirect() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(
+                BufferPoolMXBean.class))
+            if (pool.getName().equals("direct"))
+                return pool.getMemoryUsed();
+
+        return 0;
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the throughput and latency of an {@code InventoryServer}. Every
+ * connection sends its requests in pipelined rounds: a round of
+ * {@code depth} requests is written at once and then all of its responses
+ * are read, and the latency of a request is the time from writing its round
+ * to reading its response. Eight in ten requests search for an item, and the
+ * rest add 1 to or remove 1 from an item. Run it with {@code ant loadtest},
+ * passing the arguments in {@code loadtest.args}:
+ * <pre>
+ *   &lt;host:port|local&gt; [connections] [depth] [seconds] [items]
+ * </pre>
+ * With {@code local}, a server for a {@code ConcurrentInventory} of
+ * {@code items} items is started in the same process. A remote server is
+ * expected to hold the same generated items; otherwise most requests are
+ * answered with {@code NOTFOUND}.
+ * @author Dr. Hoss
+ */
+public class InventoryLoadClient {
+
+    private static final int DEFAULT_CONNECTIONS = 4;
+    private static final int DEFAULT_DEPTH = 32;
+    private static final int DEFAULT_SECONDS = 10;
+    private static final int DEFAULT_ITEMS = 100000;
+
+    private InventoryLoadClient() {}
+
+    /**
+     * Runs the load test and prints the results.
+     * @param args The server address and the optional load parameters.
+     * @throws Exception If the server cannot be reached or fails.
+     */
+    public static void main(String[] args) throws Exception {
+        String address = args.length > 0 ? args[0] : "local";
+        int connections = intArg(args, 1, DEFAULT_CONNECTIONS);
+        int depth = intArg(args, 2, DEFAULT_DEPTH);
+        int seconds = intArg(args, 3, DEFAULT_SECONDS);
+        int items = intArg(args, 4, DEFAULT_ITEMS);
+        PrintStream out = System.out;
+        InventoryServer server = null;
+        LatencyHistogram latency = new LatencyHistogram();
+        AtomicLong errors = new AtomicLong();
+        List<Thread> clients = new ArrayList<>();
+        List<Exception> failures = new ArrayList<>();
+        String host;
+        int port;
+        long deadline;
+        long start;
+        double elapsed;
+
+        BenchmarkData.useScratchChangeLog();
+        if (address.equals("local")) {
+            server = new InventoryServer(localInventory(items), 0);
+            server.start();
+            host = InetAddress.getLoopbackAddress().getHostAddress();
+            port = server.getPort();
+        } else {
+            host = address.substring(0, address.lastIndexOf(':'));
+            port = Integer.parseInt(
+                    address.substring(address.lastIndexOf(':') + 1));
+        }
+        start = System.nanoTime();
+        deadline = start + seconds * 1000000000L;
+        for (int i = 0; i < connections; i++) {
+            long seed = i;
+            clients.add(new Thread(() -> {
+                try {
+                    drive(host, port, depth, items, deadline, seed, latency,
+                            errors);
+                } catch (IOException ex) {
+                    synchronized (failures) {
+                        failures.add(ex);
+                    }
+                }
+            }, "InventoryLoadClient-" + i));
+        }
+        clients.forEach(Thread::start);
+        for (Thread client : clients)
+            client.join();
+        elapsed = (System.nanoTime() - start) / 1e9;
+        if (server != null)
+            server.close();
+        if (!failures.isEmpty())
+            throw failures.get(0);
+        out.printf("%d connections, pipeline depth %d, %.1f s%n",
+                connections, depth, elapsed);
+        out.printf("%,d requests, %,.0f requests/s, %,d errors%n",
+                latency.getCount(), latency.getCount() / elapsed,
+                errors.get());
+        out.printf("latency p50 %,d us  p99 %,d us  p99.9 %,d us  "
+                + "max %,d us%n", latency.getPercentile(50) / 1000,
+                latency.getPercentile(99) / 1000,
+                latency.getPercentile(99.9) / 1000, latency.getMax() / 1000);
+        ChangeLog.setDefault(null);
+    }
+
+    private static Inventory localInventory(int items) {
+        Inventory inv = new ConcurrentInventory("load");
+
+        for (int i = 0; i < items; i++)
+            inv.addNewItem(new Item(BenchmarkData.itemInfo(i),
+                    Integer.MAX_VALUE / 2));
+
+        return inv;
+    }
+
+    private static void drive(String host, int port, int depth, int items,
+            long deadline, long seed, LatencyHistogram latency,
+            AtomicLong errors) throws IOException {
+        Random random = new Random(seed);
+        StringBuilder round = new StringBuilder();
+        String response;
+        long sent;
+
+        try (Socket socket = new Socket(host, port)) {
+            OutputStream requests = socket.getOutputStream();
+            BufferedReader responses = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(),
+                            StandardCharsets.UTF_8));
+
+            socket.setTcpNoDelay(true);
+            while (System.nanoTime() < deadline) {
+                round.setLength(0);
+                for (int i = 0; i < depth; i++)
+                    appendRequest(round, random, items);
+                sent = System.nanoTime();
+                requests.write(round.toString()
+                        .getBytes(StandardCharsets.UTF_8));
+                requests.flush();
+                for (int i = 0; i < depth; i++) {
+                    response = responses.readLine();
+                    if (response == null)
+                        throw new IOException("The server closed the "
+                                + "connection.");
+                    latency.record(System.nanoTime() - sent);
+                    if (response.startsWith("ERR"))
+                        errors.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    private static void appendRequest(StringBuilder round, Random random,
+            int items) {
+        int kind = random.nextInt(10);
+        String info = BenchmarkData.itemInfo(random.nextInt(items));
+
+        if (kind < 8)
+            round.append("SEARCH ").append(info);
+        else if (kind == 8)
+            round.append("ADDTO 1 ").append(info);
+        else
+            round.append("REMOVEFROM 1 ").append(info);
+        round.append('\n');
+    }
+
+    private static int intArg(String[] args, int index, int defaultValue) {
+        return args.length > index ? Integer.parseInt(args[index])
+                : defaultValue;
+    }
+}
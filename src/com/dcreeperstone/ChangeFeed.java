@@ -0,0 +1,367 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The {@code ChangeFeed} class publishes every change made to an
+ * {@code Inventory} as a numbered {@code Change} event, so that other
+ * systems can follow the stock without parsing the change log. Events go
+ * into a ring buffer of fixed size without taking any lock: a writer claims
+ * the next sequence number with one atomic increment and stores its event
+ * in the slot of that number, overwriting the event one lap older.
+ * <p>
+ * Each {@code Subscription} reads the ring with its own cursor, in batches,
+ * and only returns the events for items whose info starts with its prefix.
+ * Writers never wait for subscribers. A subscriber that falls more than a
+ * lap behind finds its next events overwritten; the batch it gets then
+ * reports how many events were lost, and the subscription carries on with
+ * the oldest event still held.
+ * <p>
+ * The feed is an {@code InventoryListener}, so it sees what listeners see:
+ * items restored or merged without events are not published.
+ * @author Dr. Hoss
+ */
+public class ChangeFeed implements InventoryListener {
+
+    /**
+     * The {@code Kind} enumeration lists the changes a {@code Change} event
+     * can describe.
+     */
+    public enum Kind {
+
+        /**
+         * An item was added, from quantity 0.
+         */
+        ADDED,
+
+        /**
+         * The quantity of an item changed.
+         */
+        CHANGED,
+
+        /**
+         * An item was removed, down to quantity 0.
+         */
+        REMOVED,
+
+        /**
+         * The quantities of all items were reset to 0. The event has no key
+         * and passes every prefix.
+         */
+        ALL_RESET,
+
+        /**
+         * All items were removed. The event has no key and passes every
+         * prefix.
+         */
+        CLEARED
+    }
+
+    /**
+     * The {@code Change} class is one published event. It is immutable, so
+     * it can be handed to any thread once published.
+     */
+    public static final class Change {
+
+        private final long sequence;
+        private final Kind kind;
+        private final String key;
+        private final int oldQuantity;
+        private final int newQuantity;
+
+        Change(long inSequence, Kind inKind, String inKey, int inOldQuantity,
+                int inNewQuantity) {
+            sequence = inSequence;
+            kind = inKind;
+            key = inKey;
+            oldQuantity = inOldQuantity;
+            newQuantity = inNewQuantity;
+        }
+
+        /**
+         * Gets the number of the event, which grows by 1 with every event.
+         * @return The sequence attribute.
+         */
+        public long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * Gets what kind of change the event describes.
+         * @return The kind attribute.
+         */
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * Gets the case-folded info of the changed item.
+         * @return The key attribute, or {@code null} for a change of all
+         * items.
+         */
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * Gets the quantity of the item before the change.
+         * @return The old quantity attribute.
+         */
+        public int getOldQuantity() {
+            return oldQuantity;
+        }
+
+        /**
+         * Gets the quantity of the item after the change.
+         * @return The new quantity attribute.
+         */
+        public int getNewQuantity() {
+            return newQuantity;
+        }
+
+        @Override
+        public String toString() {
+            return "#" + sequence + " " + kind + (key == null ? ""
+                    : " '" + key + "' " + oldQuantity + " -> " + newQuantity);
+        }
+    }
+
+    /**
+     * The {@code Batch} class holds the events one call to {@code poll}
+     * returned.
+     */
+    public static final class Batch {
+
+        private final List<Change> changes;
+        private final long lostCount;
+
+        Batch(List<Change> inChanges, long inLostCount) {
+            changes = Collections.unmodifiableList(inChanges);
+            lostCount = inLostCount;
+        }
+
+        /**
+         * Gets the events of the batch that passed the prefix, oldest first.
+         * @return The changes attribute.
+         */
+        public List<Change> getChanges() {
+            return changes;
+        }
+
+        /**
+         * Gets the number of events that were overwritten before the
+         * subscription could read them, whatever their key.
+         * @return The lost count attribute.
+         */
+        public long getLostCount() {
+            return lostCount;
+        }
+
+        /**
+         * Checks whether the subscription fell so far behind that events
+         * were lost right before this batch.
+         * @return {@code true} if any event was lost.
+         */
+        public boolean isOverrun() {
+            return lostCount > 0;
+        }
+    }
+
+    /**
+     * The {@code Subscription} class is the cursor of one subscriber. It is
+     * meant to be read by one thread at a time.
+     */
+    public final class Subscription {
+
+        private final String prefix;
+        private long cursor;
+        private long lostCount;
+
+        Subscription(String inPrefix, long inCursor) {
+            prefix = inPrefix;
+            cursor = inCursor;
+        }
+
+        /**
+         * Reads the events published since the last call, up to the
+         * specified number of events. Events that do not pass the prefix are
+         * skipped without counting against the limit, but at most one lap of
+         * the ring is read per call. An event whose writer has claimed its
+         * number but not yet stored it ends the batch, so events always come
+         * in order. A batch ends before any events lost to an overrun, so
+         * that the next batch reports them.
+         * @param maxCount The largest number of events to return.
+         * @return The batch of events, which may be empty.
+         */
+        public Batch poll(int maxCount) {
+            List<Change> changes = new ArrayList<>();
+            long lost = 0;
+            long end = cursor + slots.length();
+            long skipped;
+            Change change;
+
+            while (changes.size() < maxCount && cursor < end
+                    && cursor < claimed.get()) {
+                change = slots.get(index(cursor));
+                if (change == null || change.sequence < cursor)
+                    break;
+                if (change.sequence > cursor) {
+                    // The loss is reported before the events that follow
+                    // it, so a batch never spans one.
+                    if (!changes.isEmpty())
+                        break;
+                    // A writer lapped this subscription: skip to the oldest
+                    // event the ring can still hold.
+                    skipped = Math.max(1,
+                            claimed.get() - slots.length() - cursor);
+                    lost += skipped;
+                    cursor += skipped;
+                    end = cursor + slots.length();
+                    continue;
+                }
+                if (passes(change))
+                    changes.add(change);
+                cursor++;
+            }
+            lostCount += lost;
+
+            return new Batch(changes, lost);
+        }
+
+        /**
+         * Gets the number of the next event the subscription will read.
+         * @return The cursor attribute.
+         */
+        public long getCursor() {
+            return cursor;
+        }
+
+        /**
+         * Gets the number of events lost to overruns since the subscription
+         * was made.
+         * @return The lost count attribute.
+         */
+        public long getLostCount() {
+            return lostCount;
+        }
+
+        private boolean passes(Change change) {
+            return change.key == null || change.key.startsWith(prefix);
+        }
+    }
+
+    /**
+     * The number of events a feed holds unless another size is given.
+     */
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private final AtomicReferenceArray<Change> slots;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong();
+
+    /**
+     * Constructor that initializes a new, empty {@code ChangeFeed} holding
+     * the specified number of events. Add it to an {@code Inventory} with
+     * {@code addListener}.
+     * @param capacity The number of events held, rounded up to a power of 2.
+     */
+    public ChangeFeed(int capacity) {
+        int size = 1;
+
+        if (capacity < 1 || capacity > 1 << 30)
+            throw new IllegalArgumentException("Invalid feed capacity.");
+        while (size < capacity)
+            size <<= 1;
+        slots = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+    }
+
+    /**
+     * Subscribes to the events published from now on for items whose info
+     * starts with the specified prefix, ignoring case.
+     * @param prefix The info prefix, or an empty string for every item.
+     * @return The new subscription.
+     */
+    public Subscription subscribe(String prefix) {
+        return new Subscription(Item.foldCase(prefix), claimed.get());
+    }
+
+    /**
+     * Gets the number the next published event will get.
+     * @return The next sequence number.
+     */
+    public long getNextSequence() {
+        return claimed.get();
+    }
+
+    @Override
+    public void itemAdded(Item item, int quantity) {
+        publish(Kind.ADDED, item.getKey(), 0, quantity);
+    }
+
+    @Override
+    public void quantityChanged(Item item, int oldQuantity, int newQuantity) {
+        publish(Kind.CHANGED, item.getKey(), oldQuantity, newQuantity);
+    }
+
+    @Override
+    public void itemRemoved(Item item, int quantity) {
+        publish(Kind.REMOVED, item.getKey(), quantity, 0);
+    }
+
+    @Override
+    public void allItemsReset() {
+        publish(Kind.ALL_RESET, null, 0, 0);
+    }
+
+    @Override
+    public void inventoryCleared() {
+        publish(Kind.CLEARED, null, 0, 0);
+    }
+
+    /**
+     * Claims the next sequence number and stores the event in its slot. A
+     * writer that stalled between the two steps may find its slot already
+     * holding an event a lap newer, and then drops its own event, which
+     * subscribers report as lost.
+     */
+    private void publish(Kind kind, String key, int oldQuantity,
+            int newQuantity) {
+        long sequence = claimed.getAndIncrement();
+        Change change = new Change(sequence, kind, key, oldQuantity,
+                newQuantity);
+        int slot = index(sequence);
+        Change held;
+
+        do {
+            held = slots.get(slot);
+            if (held != null && held.sequence > sequence)
+                return;
+        } while (!slots.compareAndSet(slot, held, change));
+    }
+
+    private int index(long sequence) {
+        return (int) sequence & mask;
+    }
+}
@@ -0,0 +1,420 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The {@code ChangeLog} class is designed to append change messages to a log
+ * file in the background. Messages are placed on a lock-free queue and a
+ * single writer thread drains them in batches through one long-lived
+ * {@code FileChannel}, so callers never pay for opening the file themselves.
+ * When the buffered messages reach the disk is decided by a
+ * {@code FlushPolicy}, and a shutdown hook writes out anything still pending
+ * when the JVM exits.
+ * <p>
+ * Logging holds up a change to an inventory only when the writer falls
+ * behind: once the queue is full, the caller writes out the queued messages
+ * and its own itself, so no message is dropped for lack of room. A write
+ * that fails loses the messages it held but leaves the writer running for
+ * the next ones; the lost messages are counted, noted in the log once it can
+ * be written again, and reported by {@code InventoryMetrics}.
+ * @author Dr. Hoss
+ */
+public class ChangeLog implements Closeable {
+
+    /**
+     * The {@code FlushPolicy} class describes when the buffered messages of a
+     * {@code ChangeLog} are written to its file.
+     */
+    public static final class FlushPolicy {
+
+        private enum Mode { RECORDS, MILLIS, SYNC }
+
+        private final Mode mode;
+        private final long limit;
+
+        private FlushPolicy(Mode inMode, long inLimit) {
+            if (inLimit < 1)
+                throw new IllegalArgumentException("Flush limit must be "
+                        + "positive.");
+            mode = inMode;
+            limit = inLimit;
+        }
+
+        /**
+         * Creates a policy that writes once the specified number of messages
+         * are pending.
+         * @param records The number of messages to buffer before writing.
+         * @return The new {@code FlushPolicy}.
+         */
+        public static FlushPolicy everyRecords(int records) {
+            return new FlushPolicy(Mode.RECORDS, records);
+        }
+
+        /**
+         * Creates a policy that writes once the oldest pending message has
+         * waited for the specified amount of time.
+         * @param millis The longest time, in milliseconds, to buffer a message.
+         * @return The new {@code FlushPolicy}.
+         */
+        public static FlushPolicy everyMillis(long millis) {
+            return new FlushPolicy(Mode.MILLIS, millis);
+        }
+
+        /**
+         * Creates a policy that writes and forces every batch of messages to
+         * the storage device as soon as it is taken from the queue.
+         * @return The new {@code FlushPolicy}.
+         */
+        public static FlushPolicy syncOnCommit() {
+            return new FlushPolicy(Mode.SYNC, 1);
+        }
+    }
+
+    private static final String DEFAULT_LOG = "log.txt";
+    private static final long DEFAULT_FLUSH_MILLIS = 100;
+    private static final int DEFAULT_CAPACITY = 8192;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final byte[] LINE_SEPARATOR =
+            System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+    private static final long IDLE_PARK_NANOS =
+            TimeUnit.MILLISECONDS.toNanos(50);
+    private static final long CLOSE_TIMEOUT_MILLIS = 5000;
+    private static final LongAdder TOTAL_DROPPED = new LongAdder();
+
+    private static ChangeLog defaultLog;
+
+    private final File file;
+    private final FlushPolicy policy;
+    private final Queue<String> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final int capacity;
+    private final LongAdder droppedCount = new LongAdder();
+    private final Object lock = new Object();
+    private final ByteBuffer buffer;
+    private final Thread writer;
+    private final Thread shutdownHook;
+    private FileChannel channel;
+    private int pending;
+    private long firstPending;
+    private long unreportedDrops;
+    private volatile boolean closed;
+
+    /**
+     * Constructor that opens the specified file for appending and starts the
+     * writer thread.
+     * @param inFile The file to append messages to.
+     * @param inPolicy The policy deciding when messages are written.
+     * @param inCapacity The number of messages that may wait in the queue
+     * before {@code append} writes them out on the calling thread.
+     * @throws IOException If the file cannot be opened.
+     */
+    public ChangeLog(File inFile, FlushPolicy inPolicy, int inCapacity)
+            throws IOException {
+        if (inCapacity < 1)
+            throw new IllegalArgumentException("Invalid queue capacity.");
+        file = inFile;
+        policy = inPolicy;
+        capacity = inCapacity;
+        channel = openFile();
+        buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        writer = new Thread(this::drain, "ChangeLog-" + inFile.getName());
+        writer.setDaemon(true);
+        writer.start();
+        shutdownHook = new Thread(this::close);
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Gets the shared {@code ChangeLog} that appends to {@code log.txt},
+     * opening it on first use.
+     * @return The shared {@code ChangeLog}.
+     * @throws IOException If the log file cannot be opened.
+     */
+    public static synchronized ChangeLog getDefault() throws IOException {
+        if (defaultLog == null)
+            defaultLog = new ChangeLog(new File(DEFAULT_LOG),
+                    FlushPolicy.everyMillis(DEFAULT_FLUSH_MILLIS),
+                    DEFAULT_CAPACITY);
+        return defaultLog;
+    }
+
+    /**
+     * Replaces the shared {@code ChangeLog}, closing the previous one so that
+     * none of its pending messages are lost.
+     * @param inLog The {@code ChangeLog} to share from now on.
+     */
+    public static synchronized void setDefault(ChangeLog inLog) {
+        if (defaultLog != null && defaultLog != inLog)
+            defaultLog.close();
+        defaultLog = inLog;
+    }
+
+    /**
+     * Gets the number of messages that every {@code ChangeLog} of this JVM
+     * together could not write to its file.
+     * @return The total dropped count.
+     */
+    public static long getTotalDroppedCount() {
+        return TOTAL_DROPPED.sum();
+    }
+
+    /**
+     * Gets the file this {@code ChangeLog} appends to.
+     * @return The log file.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Queues a message to be appended to the log as its own line. When the
+     * queue is full, the calling thread writes out the queued messages and
+     * its own before returning, so a caller that outpaces the writer is
+     * slowed down rather than losing messages. A message appended after the
+     * log was closed is written out on the calling thread as well.
+     * @param message The message to append.
+     */
+    public void append(String message) {
+        String unqueued = message;
+        int waiting;
+
+        if (!closed) {
+            waiting = queued.getAndIncrement();
+            if (waiting < capacity) {
+                queue.offer(message);
+                // The writer only sleeps once it has emptied the queue.
+                if (waiting == 0)
+                    LockSupport.unpark(writer);
+                if (!closed)
+                    return;
+                // The writer may have taken its last batch before the
+                // message was queued, so the queue is written out here.
+                unqueued = null;
+            } else
+                queued.decrementAndGet();
+        }
+        writeNow(unqueued);
+    }
+
+    /**
+     * Gets the number of messages that were dropped because the file could
+     * not be written.
+     * @return The dropped count.
+     */
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    /**
+     * Writes out every queued message, stops the writer thread and closes the
+     * log file. Waits a few seconds at most for the writer to stop, then
+     * writes out whatever is still queued itself. Calling this method more
+     * than once has no further effect.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+        }
+        LockSupport.unpark(writer);
+        try {
+            writer.join(CLOSE_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writeNow(null);
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // The JVM is already shutting down and running this very hook.
+        }
+    }
+
+    private void drain() {
+        boolean running = true;
+        long parkNanos;
+        String message;
+
+        while (running) {
+            // Everything queued before the log was closed is still written.
+            running = !closed;
+            synchronized (lock) {
+                try {
+                    reopenIfClosed();
+                    while ((message = queue.poll()) != null) {
+                        queued.decrementAndGet();
+                        bufferPending(message);
+                    }
+                    if (!running || isFlushDue())
+                        flushPending();
+                } catch (IOException e) {
+                    dropPending(e);
+                }
+                parkNanos = pending > 0
+                        && policy.mode == FlushPolicy.Mode.MILLIS
+                        ? TimeUnit.MILLISECONDS.toNanos(Math.max(1,
+                                firstPending + policy.limit
+                                        - System.currentTimeMillis()))
+                        : IDLE_PARK_NANOS;
+            }
+            if (running && queue.isEmpty())
+                LockSupport.parkNanos(this, parkNanos);
+        }
+        synchronized (lock) {
+            closeFile();
+        }
+    }
+
+    /**
+     * Writes out every queued message and then the specified one on the
+     * calling thread, taking the place of the writer meanwhile. Closes the
+     * file again afterwards if the log is closed.
+     */
+    private void writeNow(String message) {
+        String queuedMessage;
+
+        synchronized (lock) {
+            try {
+                reopenIfClosed();
+                while ((queuedMessage = queue.poll()) != null) {
+                    queued.decrementAndGet();
+                    bufferPending(queuedMessage);
+                }
+                if (message != null)
+                    bufferPending(message);
+                flushPending();
+            } catch (IOException e) {
+                dropPending(e);
+            }
+            if (closed)
+                closeFile();
+        }
+    }
+
+    private boolean isFlushDue() {
+        boolean due;
+
+        switch (policy.mode) {
+            case RECORDS:   due = pending >= policy.limit;
+                            break;
+            case MILLIS:    due = System.currentTimeMillis() - firstPending
+                                    >= policy.limit;
+                            break;
+            default:        due = true;
+                            break;
+        }
+
+        return pending > 0 && due;
+    }
+
+    private void bufferPending(String message) throws IOException {
+        if (pending == 0)
+            firstPending = System.currentTimeMillis();
+        pending++;
+        bufferLine(message);
+    }
+
+    /**
+     * Writes the buffered messages, followed by a note of any messages lost
+     * to earlier failed writes, so the gap is visible in the log itself.
+     */
+    private void flushPending() throws IOException {
+        writeBuffer();
+        if (policy.mode == FlushPolicy.Mode.SYNC)
+            channel.force(false);
+        pending = 0;
+        if (unreportedDrops > 0) {
+            bufferLine(unreportedDrops + " change log messages were lost "
+                    + "because the log could not be written.");
+            writeBuffer();
+            unreportedDrops = 0;
+        }
+    }
+
+    private void dropPending(IOException e) {
+        System.err.println(e.getMessage());
+        droppedCount.add(pending);
+        TOTAL_DROPPED.add(pending);
+        unreportedDrops += pending;
+        buffer.clear();
+        pending = 0;
+    }
+
+    /**
+     * Opens the file again if it was closed, either because the log was
+     * closed or because a thread writing to it was interrupted.
+     */
+    private void reopenIfClosed() throws IOException {
+        if (!channel.isOpen())
+            channel = openFile();
+    }
+
+    private FileChannel openFile() throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private void closeFile() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    private void bufferLine(String line) throws IOException {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+
+        if (bytes.length + LINE_SEPARATOR.length > buffer.remaining())
+            writeBuffer();
+        if (bytes.length + LINE_SEPARATOR.length > buffer.capacity()) {
+            writeFully(ByteBuffer.wrap(bytes));
+            writeFully(ByteBuffer.wrap(LINE_SEPARATOR));
+        } else {
+            buffer.put(bytes);
+            buffer.put(LINE_SEPARATOR);
+        }
+    }
+
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        writeFully(buffer);
+        buffer.clear();
+    }
+
+    private void writeFully(ByteBuffer source) throws IOException {
+        while (source.hasRemaining())
+            channel.write(source);
+    }
+}
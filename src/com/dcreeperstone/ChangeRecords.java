@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * The {@code ChangeRecords} class reads and writes the binary change records
+ * shared by {@code InventoryJournal} and the delta segments written by
+ * {@code Inventory.saveChangesTo}. Each record is laid out as a 4 byte
+ * payload length, the payload (8 byte sequence number, 1 byte operation,
+ * 4 byte quantity and the UTF-8 item info) and a 4 byte CRC-32 of the
+ * payload. Records state the resulting quantity of an item rather than the
+ * change to it, so applying a record twice is harmless.
+ * @author Dr. Hoss
+ */
+final class ChangeRecords {
+
+    static final byte SET = 1;
+    static final byte REMOVE = 2;
+    static final byte RESET_ALL = 3;
+    static final byte CLEAR = 4;
+    static final byte CHECKPOINT = 5;
+
+    private static final int HEADER_SIZE = 8 + 1 + 4;
+
+    private final CRC32 checksum;
+    private ByteBuffer record;
+
+    /**
+     * Constructor that initializes a new {@code ChangeRecords} writer with
+     * its own reusable record buffer.
+     */
+    ChangeRecords() {
+        checksum = new CRC32();
+        record = ByteBuffer.allocate(256);
+    }
+
+    /**
+     * Appends one record to the specified channel.
+     * @param channel The channel to write the record to.
+     * @param sequence The sequence number of the record.
+     * @param operation The operation of the record.
+     * @param quantity The resulting quantity of the item.
+     * @param info The info of the item, or the inventory name for a
+     * checkpoint.
+     * @throws IOException If the record cannot be written.
+     */
+    void write(FileChannel channel, long sequence, byte operation,
+            int quantity, String info) throws IOException {
+        byte[] infoBytes = info.getBytes(StandardCharsets.UTF_8);
+        int length = HEADER_SIZE + infoBytes.length;
+
+        if (record.capacity() < length + 8)
+            record = ByteBuffer.allocate(Math.max(length + 8,
+                    record.capacity() * 2));
+        record.clear();
+        record.putInt(length);
+        record.putLong(sequence);
+        record.put(operation);
+        record.putInt(quantity);
+        record.put(infoBytes);
+        checksum.reset();
+        checksum.update(record.array(), 4, length);
+        record.putInt((int) checksum.getValue());
+        record.flip();
+        while (record.hasRemaining())
+            channel.write(record);
+    }
+
+    /**
+     * Opens the specified file for appending records, creating it if needed.
+     * @param file The file to append to.
+     * @return The opened channel.
+     * @throws IOException If the file cannot be opened.
+     */
+    static FileChannel openForAppend(File file) throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Reads the info of the first record of the specified file if that record
+     * is a checkpoint.
+     * @param file The file to read.
+     * @return The checkpoint info, or {@code null} if the file does not start
+     * with a checkpoint.
+     * @throws IOException If the file cannot be read.
+     */
+    static String firstCheckpoint(File file) throws IOException {
+        String info = null;
+        byte[] payload;
+
+        if (file.exists())
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(Files.newInputStream(
+                    file.toPath())))) {
+                payload = read(in, file.length());
+                if (payload != null && payload[8] == CHECKPOINT)
+                    info = infoOf(payload);
+            }
+
+        return info;
+    }
+
+    /**
+     * Applies every record of the specified file to an {@code Inventory}
+     * without telling its listeners, then cuts off a torn record at the end
+     * of the file. In committed-only mode, records are applied in groups that
+     * each end with a checkpoint, and a final group without its checkpoint
+     * is cut off as well. Records numbered at or below the specified
+     * sequence number are skipped, because the state they lead to is already
+     * included in what the {@code Inventory} was loaded from.
+     * @param file The file to replay.
+     * @param inv The {@code Inventory} to apply the records to.
+     * @param committedOnly Whether to apply only groups ended by a
+     * checkpoint.
+     * @param after The sequence number of the last record to skip, or 0 to
+     * apply every record.
+     * @return The sequence number of the last record read, or 0 if none.
+     * @throws IOException If the file cannot be read.
+     */
+    static long replay(File file, Inventory inv, boolean committedOnly,
+            long after) throws IOException {
+        List<byte[]> pending = new ArrayList<>();
+        byte[] payload;
+        long readLength = 0;
+        long validLength = 0;
+        long lastSequence = 0;
+
+        if (!file.exists())
+            return 0;
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(channel)));
+            while ((payload = read(in, channel.size() - readLength)) != null) {
+                readLength += 8 + payload.length;
+                pending.add(payload);
+                if (!committedOnly || payload[8] == CHECKPOINT) {
+                    for (byte[] committed : pending) {
+                        lastSequence = ByteBuffer.wrap(committed).getLong();
+                        if (lastSequence > after)
+                            apply(committed, inv);
+                    }
+                    pending.clear();
+                    validLength = readLength;
+                }
+            }
+            if (validLength < channel.size()) {
+                System.err.println("Discarded an incomplete record at the end "
+                        + "of '" + file.getPath() + "'.");
+                channel.truncate(validLength);
+            }
+        }
+
+        return lastSequence;
+    }
+
+    private static void apply(byte[] payload, Inventory inv) {
+        ByteBuffer fields = ByteBuffer.wrap(payload, 8, payload.length - 8);
+        byte operation = fields.get();
+        int quantity = fields.getInt();
+
+        switch (operation) {
+            case SET:       inv.restoreItem(infoOf(payload), quantity);
+                            break;
+            case REMOVE:    inv.restoreRemoval(infoOf(payload));
+                            break;
+            case RESET_ALL: inv.restoreAll(false);
+                            break;
+            case CLEAR:     inv.restoreAll(true);
+                            break;
+            default:        break;
+        }
+    }
+
+    private static String infoOf(byte[] payload) {
+        return new String(payload, HEADER_SIZE, payload.length - HEADER_SIZE,
+                StandardCharsets.UTF_8);
+    }
+
+    private static byte[] read(DataInputStream in, long available)
+            throws IOException {
+        CRC32 checksum = new CRC32();
+        byte[] payload;
+        int length;
+
+        try {
+            length = in.readInt();
+            if (length < HEADER_SIZE || length > available - 8)
+                return null;
+            payload = new byte[length];
+            in.readFully(payload);
+            checksum.update(payload);
+            if (in.readInt() != (int) checksum.getValue())
+                return null;
+        } catch (EOFException ex) {
+            return null;
+        }
+
+        return payload;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The {@code ChangeTracker} class records which {@code Item} instances of an
+ * {@code Inventory} were added, changed or removed since it was last saved,
+ * so that a save can write only those items. Resetting or clearing the whole
+ * inventory cannot be expressed per item, so it marks the inventory as
+ * needing a full rewrite instead.
+ * <p>
+ * Only the keys of the changed items are recorded, in a concurrent map, and
+ * whether each was changed or removed is read from the {@code Inventory}
+ * when the delta is written. A change to an item already recorded is just a
+ * lookup, so threads changing the inventory never wait for one another here.
+ * @author Dr. Hoss
+ */
+class ChangeTracker implements InventoryListener {
+
+    private final Inventory inv;
+    private final ConcurrentHashMap<String, String> changedKeys;
+    private volatile boolean rewriteNeeded;
+
+    /**
+     * Constructor that initializes a new {@code ChangeTracker} with no
+     * recorded changes.
+     * @param inInv The {@code Inventory} whose changes are recorded.
+     */
+    ChangeTracker(Inventory inInv) {
+        inv = inInv;
+        changedKeys = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public void itemAdded(Item item, int quantity) {
+        record(item);
+    }
+
+    @Override
+    public void quantityChanged(Item item, int oldQuantity,
+            int newQuantity) {
+        record(item);
+    }
+
+    @Override
+    public void itemRemoved(Item item, int quantity) {
+        record(item);
+    }
+
+    @Override
+    public void allItemsReset() {
+        markRewriteNeeded();
+    }
+
+    @Override
+    public void inventoryCleared() {
+        markRewriteNeeded();
+    }
+
+    private void record(Item item) {
+        // Most changes hit an item that is already recorded, and reading the
+        // map takes no lock.
+        if (!changedKeys.containsKey(item.getKey()))
+            changedKeys.putIfAbsent(item.getKey(), item.getInfo());
+    }
+
+    /**
+     * Checks whether nothing changed since the last save.
+     * @return {@code true} if there are no recorded changes.
+     */
+    boolean isClean() {
+        return !rewriteNeeded && changedKeys.isEmpty();
+    }
+
+    /**
+     * Checks whether the recorded changes can be saved as a delta rather
+     * than a full rewrite.
+     * @param itemCount The number of items in the inventory.
+     * @return {@code true} if a delta is possible and worthwhile.
+     */
+    boolean canWriteDelta(int itemCount) {
+        return !rewriteNeeded && changedKeys.size() <= itemCount / 2;
+    }
+
+    /**
+     * Forgets every recorded change, as when the whole inventory is about to
+     * be written out.
+     */
+    void reset() {
+        rewriteNeeded = false;
+        changedKeys.clear();
+    }
+
+    /**
+     * Records that the next save must rewrite the whole inventory.
+     */
+    void markRewriteNeeded() {
+        rewriteNeeded = true;
+        changedKeys.clear();
+    }
+
+    /**
+     * Writes the recorded changes as one committed group of change records
+     * and forgets them. Each key is forgotten before its item is read, so a
+     * change made while the delta is written is recorded again for the next
+     * save.
+     * @param channel The delta file to append to.
+     * @param records The writer for the change records.
+     * @param segment The sequence number to give the records.
+     * @return The number of items written.
+     * @throws IOException If the records cannot be written.
+     */
+    int writeDelta(FileChannel channel, ChangeRecords records, long segment)
+            throws IOException {
+        int written = 0;
+        Item held;
+
+        for (Map.Entry<String, String> entry : changedKeys.entrySet()) {
+            if (!changedKeys.remove(entry.getKey(), entry.getValue()))
+                continue;
+            held = inv.index().get(entry.getKey());
+            if (held != null)
+                records.write(channel, segment, ChangeRecords.SET,
+                        held.getQuantity(), held.getInfo());
+            else
+                records.write(channel, segment, ChangeRecords.REMOVE, 0,
+                        entry.getValue());
+            written++;
+        }
+        records.write(channel, segment, ChangeRecords.CHECKPOINT, written, "");
+        channel.force(false);
+
+        return written;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * The {@code CompactInventory} class is an {@code Inventory} for very large
+ * catalogs. Its items are kept in a {@code CompactItemMap}, which stores the
+ * info of every item as UTF-8 bytes outside of the Java heap and the
+ * quantities in a primitive array, instead of an {@code Item} object, two
+ * strings and a map entry per item. {@code Item} instances are only created
+ * as views when a caller asks for one, for example from {@code search}.
+ * Loading a file adds its records without logging each one.
+ * @author Dr. Hoss
+ */
+public class CompactInventory extends Inventory {
+
+    /**
+     * Constructor that initializes a new {@code CompactInventory} instance
+     * with only the name attribute.
+     * @param inName The name to use for the {@code Inventory}.
+     */
+    public CompactInventory(String inName) {
+        super(inName, new CompactItemMap());
+    }
+
+    /**
+     * Constructor that initializes a {@code CompactInventory} instance with
+     * the specified file and loads the file's contents into the list.
+     * @param invFile The file containing data for the {@code Inventory}.
+     */
+    public CompactInventory(File invFile) {
+        super(invFile, new CompactItemMap());
+    }
+
+    @Override
+    void loadInventory(InventoryReader invReader) throws IOException {
+        while (invReader.next())
+            mergeItem(invReader.getInfo(), invReader.getQuantity());
+    }
+
+    @Override
+    Item storedItem(Item inItem) {
+        return store().get(inItem.getKey());
+    }
+
+    @Override
+    Map<String, Item> newIndex(int generation) {
+        return new CompactItemMap(generation);
+    }
+
+    /**
+     * The map keeps the quantities itself, so a copy would split every
+     * quantity in two; items are added and removed after walks end instead.
+     */
+    @Override
+    Map<String, Item> copyIndex(Map<String, Item> index) {
+        return null;
+    }
+
+    @Override
+    void resetQuantities(int generation) {
+        store().startGeneration(generation);
+    }
+
+    @Override
+    long estimatedBytes() {
+        return store().estimatedBytes();
+    }
+
+    private CompactItemMap store() {
+        return (CompactItemMap) index();
+    }
+}
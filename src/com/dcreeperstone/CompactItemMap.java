@@ -0,0 +1,650 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The {@code CompactItemMap} class stores items without keeping an
+ * {@code Item} object per entry. The info of every item is kept as UTF-8
+ * bytes in a direct {@code ByteBuffer} outside of the Java heap, and the
+ * quantities, hashes and ids sit in plain {@code int} arrays indexed by entry
+ * number. Lookups go through an open-addressing table of entry numbers with
+ * linear probing. {@code Item} instances returned by the map are views that
+ * read and write the stored quantity, and are created only when asked for.
+ * Like the quantity of an {@code Item}, every stored quantity is stamped with
+ * the generation it was last changed in, and reads as 0 once the map has
+ * started a later one.
+ * <p>
+ * Like the {@code HashMap} behind a plain {@code Inventory}, the map is meant
+ * to be used by one thread at a time.
+ * @author Dr. Hoss
+ */
+final class CompactItemMap extends AbstractMap<String, Item> {
+
+    private static final int GOLDEN_RATIO = 0x9E3779B9;
+    private static final int INITIAL_ENTRIES = 16;
+    private static final int INITIAL_BYTES = 1024;
+    private static final int MIN_COMPACT_ENTRIES = 1024;
+    private static final int MIN_COMPACT_BYTES = 65536;
+    private static final int REMOVED = -1;
+
+    private ByteBuffer infos;
+    private int[] offsets;
+    private int[] hashes;
+    private int[] quantities;
+    private int[] generations;
+    private int[] ids;
+    private int[] table;
+    private int shift;
+    private int entryCount;
+    private int size;
+    private int epoch;
+    private int generation;
+    private int nextId;
+    private int deadBytes;
+
+    /**
+     * Constructor that initializes a new, empty {@code CompactItemMap}.
+     */
+    CompactItemMap() {
+        this(0);
+    }
+
+    /**
+     * Constructor that initializes a new, empty {@code CompactItemMap} in the
+     * specified generation.
+     * @param inGeneration The generation to stamp quantities with.
+     */
+    CompactItemMap(int inGeneration) {
+        generation = inGeneration;
+        reset();
+    }
+
+    /**
+     * Estimates the memory used by the map, on and off the Java heap.
+     * @return The estimate in bytes.
+     */
+    long estimatedBytes() {
+        return infos.capacity() + 4L * (table.length + 5L * offsets.length);
+    }
+
+    /**
+     * Starts the specified generation, so the quantity of every entry reads
+     * as 0 until it is changed again. No entry is visited.
+     * @param inGeneration The new generation.
+     */
+    void startGeneration(int inGeneration) {
+        generation = inGeneration;
+    }
+
+    @Override
+    public Item get(Object key) {
+        int entry = key instanceof String ? find((String) key) : -1;
+
+        return entry < 0 ? null : new CompactItem(this, entry, infoOf(entry));
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String && find((String) key) >= 0;
+    }
+
+    /**
+     * Adds or replaces the entry for the key. When the info of an existing
+     * entry changes, its old bytes are counted as dead and reclaimed by the
+     * next compaction.
+     */
+    @Override
+    public Item put(String key, Item value) {
+        int entry = find(key);
+        Item previous;
+        String info;
+
+        if (entry < 0) {
+            insert(key, value);
+            return null;
+        }
+        info = infoOf(entry);
+        previous = new Item(info, quantityOf(entry));
+        if (!info.equals(value.getInfo())) {
+            deadBytes += recordLength(offsets[entry]);
+            offsets[entry] = appendInfo(value.getInfo());
+        }
+        replace(entry, value.getQuantity());
+        compactIfSparse();
+
+        return previous;
+    }
+
+    @Override
+    public Item putIfAbsent(String key, Item value) {
+        int entry = find(key);
+
+        if (entry >= 0)
+            return new CompactItem(this, entry, infoOf(entry));
+        insert(key, value);
+
+        return null;
+    }
+
+    /**
+     * Removes the entry for the key. The returned {@code Item} is a copy
+     * that no longer changes with the map, stamped with the current
+     * generation.
+     */
+    @Override
+    public Item remove(Object key) {
+        int slot = key instanceof String ? findSlot((String) key) : -1;
+        int entry;
+        Item removed;
+
+        if (slot < 0)
+            return null;
+        entry = table[slot] - 1;
+        removed = new Item(infoOf(entry), quantityOf(entry));
+        removed.attach(null, generation);
+        deleteSlot(slot);
+        deadBytes += recordLength(offsets[entry]);
+        offsets[entry] = REMOVED;
+        size--;
+        compactIfSparse();
+
+        return removed;
+    }
+
+    @Override
+    public void clear() {
+        reset();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Collection<Item> values() {
+        return new AbstractCollection<Item>() {
+            @Override
+            public Iterator<Item> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public Set<Map.Entry<String, Item>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Item>>() {
+            @Override
+            public Iterator<Map.Entry<String, Item>> iterator() {
+                EntryIterator items = new EntryIterator();
+
+                return new Iterator<Map.Entry<String, Item>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return items.hasNext();
+                    }
+
+                    @Override
+                    public Map.Entry<String, Item> next() {
+                        Item item = items.next();
+
+                        return new SimpleImmutableEntry<>(item.getKey(), item);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private void reset() {
+        infos = ByteBuffer.allocateDirect(INITIAL_BYTES);
+        offsets = new int[INITIAL_ENTRIES];
+        hashes = new int[INITIAL_ENTRIES];
+        quantities = new int[INITIAL_ENTRIES];
+        generations = new int[INITIAL_ENTRIES];
+        ids = new int[INITIAL_ENTRIES];
+        table = new int[INITIAL_ENTRIES * 2];
+        shift = 32 - Integer.numberOfTrailingZeros(table.length);
+        entryCount = 0;
+        size = 0;
+        deadBytes = 0;
+        epoch++;
+    }
+
+    private int find(String key) {
+        int slot = findSlot(key);
+
+        return slot < 0 ? -1 : table[slot] - 1;
+    }
+
+    private int findSlot(String key) {
+        int hash = key.hashCode();
+        int mask = table.length - 1;
+        int entry;
+
+        for (int slot = home(hash); table[slot] != 0;
+                slot = (slot + 1) & mask) {
+            entry = table[slot] - 1;
+            if (hashes[entry] == hash && matches(offsets[entry], key))
+                return slot;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Checks whether the stored info at the offset folds to the key. The
+     * UTF-8 bytes are decoded and folded one character at a time straight
+     * from the buffer, so no {@code String} is built for a probe.
+     */
+    private boolean matches(int offset, String key) {
+        int length = 0;
+        int position = offset;
+        int end;
+        int read;
+        int c;
+        int k = 0;
+
+        for (int bits = 0; ; bits += 7) {
+            read = infos.get(position++);
+            length |= (read & 0x7F) << bits;
+            if ((read & 0x80) == 0)
+                break;
+        }
+        if (length < key.length())
+            return false;
+        for (end = position + length; position < end; ) {
+            read = infos.get(position++) & 0xFF;
+            if (read < 0x80) {
+                c = read;
+            } else if (read < 0xE0) {
+                c = (read & 0x1F) << 6 | infos.get(position++) & 0x3F;
+            } else if (read < 0xF0) {
+                c = (read & 0x0F) << 12 | (infos.get(position++) & 0x3F) << 6
+                        | infos.get(position++) & 0x3F;
+            } else {
+                c = (read & 0x07) << 18 | (infos.get(position++) & 0x3F) << 12
+                        | (infos.get(position++) & 0x3F) << 6
+                        | infos.get(position++) & 0x3F;
+                if (k + 2 > key.length()
+                        || Item.fold(Character.highSurrogate(c))
+                                != key.charAt(k)
+                        || Item.fold(Character.lowSurrogate(c))
+                                != key.charAt(k + 1))
+                    return false;
+                k += 2;
+                continue;
+            }
+            if (k == key.length() || Item.fold((char) c) != key.charAt(k))
+                return false;
+            k++;
+        }
+
+        return k == key.length();
+    }
+
+    private int home(int hash) {
+        return (hash * GOLDEN_RATIO) >>> shift;
+    }
+
+    private void insert(String key, Item value) {
+        int entry;
+
+        if (entryCount == offsets.length) {
+            offsets = Arrays.copyOf(offsets, entryCount * 2);
+            hashes = Arrays.copyOf(hashes, entryCount * 2);
+            quantities = Arrays.copyOf(quantities, entryCount * 2);
+            generations = Arrays.copyOf(generations, entryCount * 2);
+            ids = Arrays.copyOf(ids, entryCount * 2);
+        }
+        entry = entryCount++;
+        ids[entry] = nextId++;
+        offsets[entry] = appendInfo(value.getInfo());
+        hashes[entry] = key.hashCode();
+        replace(entry, value.getQuantity());
+        size++;
+        if (size * 4 > table.length * 3)
+            rehash(table.length * 2);
+        else
+            link(entry);
+    }
+
+    private void link(int entry) {
+        int mask = table.length - 1;
+        int slot = home(hashes[entry]);
+
+        while (table[slot] != 0)
+            slot = (slot + 1) & mask;
+        table[slot] = entry + 1;
+    }
+
+    /**
+     * Empties a slot and shifts later entries of the same probe run back, so
+     * that no tombstones are needed.
+     */
+    private void deleteSlot(int slot) {
+        int mask = table.length - 1;
+        int hole = slot;
+        int home;
+
+        for (int next = (hole + 1) & mask; table[next] != 0;
+                next = (next + 1) & mask) {
+            home = home(hashes[table[next] - 1]);
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                table[hole] = table[next];
+                hole = next;
+            }
+        }
+        table[hole] = 0;
+    }
+
+    private void rehash(int capacity) {
+        table = new int[capacity];
+        shift = 32 - Integer.numberOfTrailingZeros(capacity);
+        for (int entry = 0; entry < entryCount; entry++)
+            if (offsets[entry] != REMOVED)
+                link(entry);
+    }
+
+    private void compactIfSparse() {
+        if ((entryCount - size > size && entryCount >= MIN_COMPACT_ENTRIES)
+                || (deadBytes > infos.position() / 2
+                        && infos.position() >= MIN_COMPACT_BYTES))
+            compact();
+    }
+
+    /**
+     * Drops removed entries, the info bytes they used and the info bytes
+     * replaced by {@code put}. Entry numbers change, so
+     * views created before look their entry up again by key and id.
+     */
+    private void compact() {
+        ByteBuffer oldInfos = infos;
+        int live = 0;
+        int capacity = INITIAL_ENTRIES;
+
+        infos = ByteBuffer.allocateDirect(Math.max(INITIAL_BYTES,
+                oldInfos.position()));
+        for (int entry = 0; entry < entryCount; entry++) {
+            if (offsets[entry] == REMOVED)
+                continue;
+            hashes[live] = hashes[entry];
+            quantities[live] = quantities[entry];
+            generations[live] = generations[entry];
+            ids[live] = ids[entry];
+            offsets[live] = appendInfo(decode(oldInfos, offsets[entry]));
+            live++;
+        }
+        entryCount = live;
+        deadBytes = 0;
+        while (capacity < live * 2)
+            capacity *= 2;
+        offsets = Arrays.copyOf(offsets, capacity);
+        hashes = Arrays.copyOf(hashes, capacity);
+        quantities = Arrays.copyOf(quantities, capacity);
+        generations = Arrays.copyOf(generations, capacity);
+        ids = Arrays.copyOf(ids, capacity);
+        rehash(capacity * 2);
+        epoch++;
+    }
+
+    private int appendInfo(String info) {
+        byte[] bytes = info.getBytes(StandardCharsets.UTF_8);
+        int offset = infos.position();
+        ByteBuffer grown;
+        long needed = (long) offset + 5 + bytes.length;
+
+        if (needed > infos.capacity()) {
+            if (needed > Integer.MAX_VALUE)
+                throw new IllegalStateException("Item info storage is full.");
+            grown = ByteBuffer.allocateDirect((int) Math.min(Integer.MAX_VALUE,
+                    Math.max(needed, 2L * infos.capacity())));
+            infos.flip();
+            grown.put(infos);
+            infos = grown;
+        }
+        for (int length = bytes.length; ; length >>>= 7) {
+            if (length < 0x80) {
+                infos.put((byte) length);
+                break;
+            }
+            infos.put((byte) (length & 0x7F | 0x80));
+        }
+        infos.put(bytes);
+
+        return offset;
+    }
+
+    /**
+     * Gets the number of bytes used by the info stored at the offset,
+     * including its length prefix.
+     */
+    private int recordLength(int offset) {
+        int length = 0;
+        int position = offset;
+        int read;
+
+        for (int bits = 0; ; bits += 7) {
+            read = infos.get(position++);
+            length |= (read & 0x7F) << bits;
+            if ((read & 0x80) == 0)
+                break;
+        }
+
+        return position - offset + length;
+    }
+
+    private int quantityOf(int entry) {
+        return generations[entry] == generation ? quantities[entry] : 0;
+    }
+
+    /**
+     * Replaces the quantity of an entry in the current generation.
+     * @return The previous quantity, stamped with the current generation.
+     */
+    private long replace(int entry, int quantity) {
+        long previous = Item.stamp(generation, quantityOf(entry));
+
+        quantities[entry] = quantity;
+        generations[entry] = generation;
+
+        return previous;
+    }
+
+    private String infoOf(int entry) {
+        return decode(infos, offsets[entry]);
+    }
+
+    private static String decode(ByteBuffer buffer, int offset) {
+        ByteBuffer reader = buffer.duplicate();
+        int length = 0;
+        int read;
+        byte[] bytes;
+
+        reader.position(offset);
+        for (int bits = 0; ; bits += 7) {
+            read = reader.get();
+            length |= (read & 0x7F) << bits;
+            if ((read & 0x80) == 0)
+                break;
+        }
+        bytes = new byte[length];
+        reader.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The {@code EntryIterator} class walks the live entries in the order
+     * they were added, creating a view for each.
+     */
+    private final class EntryIterator implements Iterator<Item> {
+
+        private int next;
+
+        @Override
+        public boolean hasNext() {
+            while (next < entryCount && offsets[next] == REMOVED)
+                next++;
+
+            return next < entryCount;
+        }
+
+        @Override
+        public Item next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+
+            return new CompactItem(CompactItemMap.this, next,
+                    infoOf(next++));
+        }
+    }
+
+    /**
+     * The {@code CompactItem} class is a view of one entry of the map. Its
+     * quantity methods work on the stored quantity.
+     */
+    private static final class CompactItem extends Item {
+
+        private final CompactItemMap map;
+        private final int id;
+        private int entry;
+        private int epoch;
+
+        CompactItem(CompactItemMap inMap, int inEntry, String info) {
+            super(info, 0);
+            map = inMap;
+            id = inMap.ids[inEntry];
+            entry = inEntry;
+            epoch = inMap.epoch;
+        }
+
+        /**
+         * Gets the entry number of the view, looking it up again if the map
+         * was compacted or cleared since the view was created. A view of an
+         * entry that is gone gets -1, even if an item with the same info was
+         * added again.
+         */
+        private int entry() {
+            int found;
+
+            if (epoch != map.epoch) {
+                found = map.find(getKey());
+                entry = found >= 0 && map.ids[found] == id ? found : -1;
+                epoch = map.epoch;
+            }
+
+            return entry;
+        }
+
+        private int liveEntry() {
+            int current = entry();
+
+            if (current < 0 || map.offsets[current] == REMOVED)
+                throw new IllegalStateException("Item is no longer in the "
+                        + "inventory.");
+
+            return current;
+        }
+
+        @Override
+        public int getQuantity() {
+            int current = entry();
+
+            return current < 0 || map.offsets[current] == REMOVED ? 0
+                    : map.quantityOf(current);
+        }
+
+        @Override
+        long getStamped() {
+            return Item.stamp(map.generation, getQuantity());
+        }
+
+        @Override
+        int getQuantityIn(int generation) {
+            int current = entry();
+
+            return current < 0 || map.offsets[current] == REMOVED
+                    || map.generations[current] != generation ? 0
+                    : map.quantities[current];
+        }
+
+        @Override
+        long getAndAdd(int amount) {
+            int current;
+
+            if (amount < 0)
+                throw new IllegalArgumentException("Cannot add negative "
+                        + "number of items.");
+            current = liveEntry();
+            if (amount > Integer.MAX_VALUE - map.quantityOf(current))
+                throw new IllegalStateException("Cannot add more items than "
+                        + "a quantity can hold.");
+
+            return map.replace(current, map.quantityOf(current) + amount);
+        }
+
+        @Override
+        long getAndRemove(int amount) {
+            int current;
+
+            if (amount < 0)
+                throw new IllegalArgumentException("Cannot remove negative "
+                        + "number of items.");
+            current = liveEntry();
+            if (amount > map.quantityOf(current))
+                throw new IllegalStateException("Cannot remove more items "
+                        + "than exists.");
+
+            return map.replace(current, map.quantityOf(current) - amount);
+        }
+
+        @Override
+        long getAndSet(int inQuantity) {
+            return map.replace(liveEntry(), inQuantity);
+        }
+
+        @Override
+        boolean isSameItem(Item other) {
+            return other instanceof CompactItem
+                    && ((CompactItem) other).map == map
+                    && ((CompactItem) other).entry() == entry();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The {@code ConcurrentInventory} class is an {@code Inventory} that many
+ * threads may update at once. Its {@code Item} instances are indexed in a
+ * {@code ConcurrentHashMap}, and quantities change through the lock-free
+ * updates of {@code Item}, so receiving and picking threads working on
+ * different items never contend with each other. Reports and saves see a
+ * weakly consistent view of the items and never fail because of concurrent
+ * changes.
+ * @author Dr. Hoss
+ */
+public class ConcurrentInventory extends Inventory {
+
+    /**
+     * Constructor that initializes a new {@code ConcurrentInventory} instance
+     * with only the name attribute.
+     * @param inName The name to use for the {@code Inventory}.
+     */
+    public ConcurrentInventory(String inName) {
+        super(inName, new ConcurrentHashMap<>());
+    }
+
+    /**
+     * Constructor that initializes a {@code ConcurrentInventory} instance with
+     * the specified file and loads the file's contents into the list.
+     * @param invFile The file containing data for the {@code Inventory}.
+     */
+    public ConcurrentInventory(File invFile) {
+        super(invFile, new ConcurrentHashMap<>());
+    }
+
+    @Override
+    Map<String, Item> newIndex(int generation) {
+        return new ConcurrentHashMap<>();
+    }
+
+    @Override
+    Map<String, Item> copyIndex(Map<String, Item> index) {
+        return new ConcurrentHashMap<>(index);
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The {@code CsvInventoryReader} class reads item records from a CSV file as
+ * exported by spreadsheets and ERP systems. Fields are separated by commas
+ * and may be quoted, in which case they can hold commas, doubled quotes and
+ * line breaks. By default the first field is the item info and the second
+ * the quantity; a first line whose quantity is not a number is read as a
+ * header, and its {@code info} and {@code quantity} columns are used if it
+ * names them. Spaces around a field are ignored, as are blank lines.
+ * <p>
+ * The file is read one record at a time. A malformed record is consumed
+ * before its {@code InventoryFormatException} is thrown, so the caller can
+ * skip it and go on with the next one.
+ * @author Dr. Hoss
+ */
+public class CsvInventoryReader implements InventoryReader {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Reader reader;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private final List<String> fields = new ArrayList<>();
+    private final StringBuilder field = new StringBuilder();
+    private final String name;
+    private int position;
+    private int limit;
+    private int lineNumber = 1;
+    private int recordLine;
+    private int infoColumn = 0;
+    private int quantityColumn = 1;
+    private boolean started;
+    private boolean headerChecked;
+    private String info;
+    private int quantity;
+
+    /**
+     * Constructor that opens the specified UTF-8 file. The inventory is
+     * named after the file, without its extension.
+     * @param csvFile The CSV file to read.
+     * @throws IOException If the file cannot be opened.
+     */
+    public CsvInventoryReader(File csvFile) throws IOException {
+        this(new InputStreamReader(new FileInputStream(csvFile),
+                StandardCharsets.UTF_8), InventoryExchange.baseName(csvFile));
+    }
+
+    /**
+     * Constructor that reads the records from the specified reader.
+     * @param inReader The source of the CSV data.
+     * @param inName The name to report for the inventory.
+     */
+    public CsvInventoryReader(Reader inReader, String inName) {
+        reader = inReader;
+        name = inName;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Advances to the next record, skipping blank lines and the header.
+     * @return {@code true} if a record was read, or {@code false} at the end
+     * of the file.
+     * @throws IOException If the file cannot be read, or the record has no
+     * item info or no valid quantity.
+     */
+    @Override
+    public boolean next() throws IOException {
+        String text;
+
+        do {
+            if (!readRecord())
+                return false;
+        } while (fields.size() == 1 && fields.get(0).isEmpty());
+        if (!headerChecked) {
+            headerChecked = true;
+            if (isHeader())
+                return next();
+        }
+        if (fields.size() <= Math.max(infoColumn, quantityColumn))
+            throw new InventoryFormatException(recordLine, "expected "
+                    + (Math.max(infoColumn, quantityColumn) + 1)
+                    + " fields but found " + fields.size() + ".");
+        info = fields.get(infoColumn);
+        if (info.isEmpty())
+            throw new InventoryFormatException(recordLine,
+                    "missing item info.");
+        text = fields.get(quantityColumn);
+        quantity = parseQuantity(text);
+        if (quantity < 0)
+            throw new InventoryFormatException(recordLine, "negative "
+                    + "quantity " + quantity + " for item '" + info + "'.");
+
+        return true;
+    }
+
+    @Override
+    public String getInfo() {
+        return info;
+    }
+
+    @Override
+    public int getQuantity() {
+        return quantity;
+    }
+
+    /**
+     * Gets the line number the most recently read record started on.
+     * @return The current line number.
+     */
+    public int getLineNumber() {
+        return recordLine;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /**
+     * Reads the fields of the next record, which ends at the first line
+     * break outside of quotes.
+     * @return {@code false} if the end of the file was reached before any
+     * field.
+     */
+    private boolean readRecord() throws IOException {
+        boolean quoted = false;
+        boolean wasQuoted = false;
+        int c;
+
+        fields.clear();
+        field.setLength(0);
+        recordLine = lineNumber;
+        if (peek() < 0)
+            return false;
+        while (true) {
+            c = read();
+            if (quoted) {
+                if (c < 0)
+                    throw new InventoryFormatException(recordLine,
+                            "unterminated quoted field.");
+                if (c != '"')
+                    field.append((char) c);
+                else if (peek() == '"')
+                    field.append((char) read());
+                else
+                    quoted = false;
+            } else if (c == '"' && !wasQuoted && isBlank(field)) {
+                field.setLength(0);
+                quoted = true;
+                wasQuoted = true;
+            } else if (c == ',') {
+                endField(wasQuoted);
+                wasQuoted = false;
+            } else if (c < 0 || c == '\n' || (c == '\r' && peek() == '\n')) {
+                if (c == '\r')
+                    read();
+                endField(wasQuoted);
+                return true;
+            } else if (!wasQuoted || c != ' ' && c != '\t')
+                field.append((char) c);
+        }
+    }
+
+    private void endField(boolean wasQuoted) {
+        fields.add(wasQuoted ? field.toString() : field.toString().trim());
+        field.setLength(0);
+    }
+
+    private boolean isHeader() throws InventoryFormatException {
+        String column;
+
+        if (fields.size() <= quantityColumn || isNumber(fields.get(quantityColumn)))
+            return false;
+        for (int i = 0; i < fields.size(); i++) {
+            column = fields.get(i);
+            if (column.equalsIgnoreCase("info"))
+                infoColumn = i;
+            else if (column.equalsIgnoreCase("quantity"))
+                quantityColumn = i;
+        }
+        if (infoColumn == quantityColumn)
+            throw new InventoryFormatException(recordLine, "the header names "
+                    + "the same column for info and quantity.");
+
+        return true;
+    }
+
+    private int parseQuantity(String text) throws InventoryFormatException {
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException ex) {
+            throw new InventoryFormatException(recordLine, "invalid quantity '"
+                    + text + "' for item '" + info + "'.");
+        }
+    }
+
+    private static boolean isNumber(String text) {
+        int start = text.startsWith("-") || text.startsWith("+") ? 1 : 0;
+
+        if (start == text.length())
+            return false;
+        for (int i = start; i < text.length(); i++)
+            if (text.charAt(i) < '0' || text.charAt(i) > '9')
+                return false;
+
+        return true;
+    }
+
+    private static boolean isBlank(CharSequence text) {
+        for (int i = 0; i < text.length(); i++)
+            if (text.charAt(i) != ' ' && text.charAt(i) != '\t')
+                return false;
+
+        return true;
+    }
+
+    private int read() throws IOException {
+        int c = peek();
+
+        if (c >= 0) {
+            position++;
+            if (c == '\n')
+                lineNumber++;
+        }
+
+        return c;
+    }
+
+    private int peek() throws IOException {
+        if (position == limit) {
+            limit = reader.read(buffer, 0, buffer.length);
+            position = 0;
+            if (limit < 0) {
+                limit = 0;
+                return -1;
+            }
+            // Spreadsheets often start UTF-8 files with a byte order mark.
+            if (!started && buffer[0] == '\uFEFF')
+                position++;
+            started = true;
+            if (position == limit)
+                return peek();
+        }
+
+        return buffer[position];
+    }
+}
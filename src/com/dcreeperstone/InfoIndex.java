@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * The {@code InfoIndex} class is a secondary index over the case-folded info
+ * of the {@code Item} instances in an {@code Inventory}. A sorted map answers
+ * prefix queries by walking only the matching range, and an index of
+ * three-character substrings (trigrams) answers substring queries by checking
+ * only the items that share the rarest trigram of the query. Queries shorter
+ * than a trigram are answered from a separate index of every one- and
+ * two-character substring, so they never scan the trigrams. The index keeps
+ * itself current by listening to the {@code Inventory}.
+ * <p>
+ * Postings are append-only lists. Removed items stay in them until
+ * stale entries outnumber live items, when the postings are rebuilt, so the
+ * caller must filter results against the live inventory.
+ * @author Dr. Hoss
+ */
+class InfoIndex implements InventoryListener {
+
+    private static final int GRAM_LENGTH = 3;
+
+    private TreeMap<String, Item> sortedItems;
+    private HashMap<String, List<Item>> grams;
+    private HashMap<String, List<Item>> shortGrams;
+    private int staleCount;
+
+    /**
+     * Constructor that initializes a new, empty {@code InfoIndex}.
+     */
+    InfoIndex() {
+        sortedItems = new TreeMap<>();
+        grams = new HashMap<>();
+        shortGrams = new HashMap<>();
+    }
+
+    @Override
+    public synchronized void itemAdded(Item item, int quantity) {
+        sortedItems.put(item.getKey(), item);
+        addGrams(item);
+    }
+
+    @Override
+    public synchronized void itemRemoved(Item item,
+            int quantity) {
+        if (sortedItems.remove(item.getKey(), item)
+                && ++staleCount > sortedItems.size())
+            rebuildGrams();
+    }
+
+    /**
+     * Drops the whole index at once rather than emptying it entry by entry.
+     */
+    @Override
+    public synchronized void inventoryCleared() {
+        sortedItems = new TreeMap<>();
+        grams = new HashMap<>();
+        shortGrams = new HashMap<>();
+        staleCount = 0;
+    }
+
+    /**
+     * Finds the {@code Item} instances whose info starts with the specified
+     * prefix, in alphabetical order of their case-folded info.
+     * @param prefix The case-folded prefix to match.
+     * @param limit The largest number of items to return.
+     * @param live Accepts only items that are still in the inventory.
+     * @return The matching {@code Item} instances.
+     */
+    synchronized List<Item> prefix(String prefix, int limit,
+            Predicate<Item> live) {
+        List<Item> matches = new ArrayList<>();
+
+        for (Map.Entry<String, Item> entry
+                : sortedItems.tailMap(prefix, true).entrySet()) {
+            if (matches.size() >= limit || !entry.getKey().startsWith(prefix))
+                break;
+            if (live.test(entry.getValue()))
+                matches.add(entry.getValue());
+        }
+
+        return matches;
+    }
+
+    /**
+     * Finds the {@code Item} instances whose info contains the specified
+     * text.
+     * @param text The case-folded text to match.
+     * @param limit The largest number of items to return.
+     * @param live Accepts only items that are still in the inventory.
+     * @return The matching {@code Item} instances.
+     */
+    synchronized List<Item> substring(String text, int limit,
+            Predicate<Item> live) {
+        Set<Item> matches = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        if (text.length() >= GRAM_LENGTH)
+            collect(rarestPosting(text), text, limit, live, matches);
+        else if (!text.isEmpty())
+            collect(shortGrams.getOrDefault(text, Collections.emptyList()),
+                    text, limit, live, matches);
+        else
+            collect(new ArrayList<>(sortedItems.values()), text, limit, live,
+                    matches);
+
+        return new ArrayList<>(matches);
+    }
+
+    private static void collect(List<Item> candidates, String text, int limit,
+            Predicate<Item> live, Set<Item> matches) {
+        for (Item item : candidates) {
+            if (matches.size() >= limit)
+                break;
+            if (item.getKey().contains(text) && live.test(item))
+                matches.add(item);
+        }
+    }
+
+    private List<Item> rarestPosting(String text) {
+        List<Item> rarest = null;
+        List<Item> posting;
+
+        for (int i = 0; i + GRAM_LENGTH <= text.length(); i++) {
+            posting = grams.get(text.substring(i, i + GRAM_LENGTH));
+            if (posting == null)
+                return Collections.emptyList();
+            if (rarest == null || posting.size() < rarest.size())
+                rarest = posting;
+        }
+
+        return rarest;
+    }
+
+    private void addGrams(Item item) {
+        String key = item.getKey();
+
+        for (int length = 1; length <= GRAM_LENGTH; length++)
+            for (int i = 0; i + length <= key.length(); i++)
+                post(length == GRAM_LENGTH ? grams : shortGrams,
+                        key.substring(i, i + length), item);
+    }
+
+    private static void post(Map<String, List<Item>> postings, String gram,
+            Item item) {
+        List<Item> posting = postings.computeIfAbsent(gram,
+                unused -> new ArrayList<>());
+
+        // A gram repeated within one key would otherwise be posted twice in
+        // a row for the same item.
+        if (posting.isEmpty() || posting.get(posting.size() - 1) != item)
+            posting.add(item);
+    }
+
+    private void rebuildGrams() {
+        grams.clear();
+        shortGrams.clear();
+        staleCount = 0;
+        for (Item item : sortedItems.values())
+            addGrams(item);
+    }
+}
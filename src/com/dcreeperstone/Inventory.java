@@ -18,26 +18,83 @@
 package com.dcreeperstone;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.PrintWriter;
 import java.io.IOException;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Scanner;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * The {@code Inventory} class is designed to hold a mutable list of many
  * {@code Item} instances. Each {@code Inventory} instance is given its own
- * name attribute and a {@code HashSet<Item>} attribute that ensures no 
- * {@code Item} instances are repeated in the {@code Set}.
+ * name attribute and a {@code HashMap<String, Item>} attribute that indexes
+ * each {@code Item} by the case-folded form of its info, which ensures no 
+ * {@code Item} instances are repeated and lets lookups run in constant time.
+ * <p>
+ * Resetting or clearing the whole list takes constant time as well. Both
+ * start a new generation of the list, in which quantities stamped with an
+ * older generation read as 0; resetting keeps the map, and clearing swaps in
+ * a new, empty one. Each {@code Item} is brought into the new generation
+ * when it is next changed.
  * @author Dr. Hoss
  */
 public class Inventory {
 
+    /**
+     * A rough number of bytes one {@code Item} costs in the default layout:
+     * the map entry, the {@code Item} and its info strings.
+     */
+    private static final int ESTIMATED_ITEM_BYTES = 200;
+
+    /**
+     * Whether every change is followed by a check of the aggregate
+     * statistics against a full scan, set with the system property
+     * {@code inventory.verifyStatistics}. Only meant for tests.
+     */
+    private static final boolean VERIFY_STATISTICS =
+            Boolean.getBoolean("inventory.verifyStatistics");
+    // Where the messages for the operator go, per thread; the console when
+    // unset.
+    private static final ThreadLocal<PrintWriter> MESSAGES =
+            new ThreadLocal<>();
+
     private String name;
-    private HashSet<Item> inventory;
+    private volatile Generation current;
+    private final List<InventoryListener> listeners =
+            new CopyOnWriteArrayList<>();
+    private volatile InfoIndex infoIndex;
+    private volatile StockIndex stockIndex;
+    private volatile ChangeFeed changeFeed;
+    private final ChangeTracker changeTracker = new ChangeTracker(this);
+    private final InventoryMetrics metrics = InventoryMetrics.getDefault();
+    private final Object saveLock = new Object();
+    private volatile File savedFile;
+    private volatile long savedModified;
+    private final List<InventorySnapshot> snapshots =
+            new CopyOnWriteArrayList<>();
+    private final LongAdder[] changesInFlight = {
+        new LongAdder(), new LongAdder()
+    };
+    private volatile int changePhase;
+    // Positive while snapshots are walking the map, negative while items
+    // are being added to or removed from it. Replaced along with the map
+    // when the map is copied for the walks.
+    private volatile AtomicInteger structureGate = new AtomicInteger();
+    // Held for reading while a batch is applied, and for writing while a
+    // reset or clear starts a new generation, so no batch spans one.
+    private final ReentrantReadWriteLock generationLock =
+            new ReentrantReadWriteLock();
 
-    private static final int MAX_LINE_LENGTH = 80;
+    private static final int GATED = 2;
+    private static final long GATE_PAUSE_NANOS =
+            TimeUnit.MICROSECONDS.toNanos(100);
 
     /**
      * Constructor that initializes a new {@code Inventory} instance with only
@@ -46,41 +103,103 @@ public class Inventory {
      * @param inName The name to use for the {@code Inventory}.
      */
     public Inventory(String inName) {
-        inventory = new HashSet<>();
+        this(inName, new HashMap<>());
+    }
+
+    /**
+     * Constructor that initializes a new {@code Inventory} instance with the
+     * name attribute and the map used to index its {@code Item} instances.
+     * @param inName The name to use for the {@code Inventory}.
+     * @param index The empty map that will hold the {@code Item} instances.
+     */
+    protected Inventory(String inName, Map<String, Item> index) {
+        this(inName, index, true);
+    }
+
+    /**
+     * Constructor that initializes a new {@code Inventory} instance for
+     * internal use, optionally without logging its creation.
+     * @param inName The name to use for the {@code Inventory}.
+     * @param index The map that will hold the {@code Item} instances, which
+     * may already hold items keyed by their case-folded info.
+     * @param logCreation Whether to log the creation of the inventory.
+     */
+    Inventory(String inName, Map<String, Item> index, boolean logCreation) {
+        current = new Generation(0, 0, index);
         name = inName;
-        logChanges("'" + inName + "' inventory created.");
+        listeners.add(changeTracker);
+        if (VERIFY_STATISTICS)
+            listeners.add(new StatisticsVerifier());
+        for (Item item : index.values())
+            countAdded(item.attach(this, 0));
+        if (logCreation) {
+            metrics.track(this);
+            logChanges("'" + inName + "' inventory created.");
+        }
     }
 
     /**
      * Constructor that initializes an {@code Inventory} instance with the
-     * specified file and loads the file's contents into the list.
+     * specified file and loads the file's contents into the list. Text files
+     * and binary snapshots are told apart by their first bytes, so either
+     * format can be loaded, and changes saved next to the file by
+     * {@code saveChangesTo} are applied on top. If the file holds a malformed
+     * record, the records before it are kept and the line number of the bad
+     * record is reported, and the same goes for duplicate records whose
+     * quantities add up to more than a quantity can hold.
      * @param invFile The file containing data for the {@code Inventory}.
      */
     public Inventory(File invFile) {
-        try {
-            String invName;
-            Scanner invSC = new Scanner(invFile);
-            
-            invName = invSC.nextLine();
-            inventory = new HashSet<>();
-            name = invName;
-            logChanges("'" + invName + "' inventory loaded from '" 
+        this(invFile, new HashMap<>());
+    }
+
+    /**
+     * Constructor that initializes an {@code Inventory} instance with the
+     * specified file, using the given map to index the loaded {@code Item}
+     * instances.
+     * @param invFile The file containing data for the {@code Inventory}.
+     * @param index The empty map that will hold the {@code Item} instances.
+     */
+    protected Inventory(File invFile, Map<String, Item> index) {
+        long start = System.nanoTime();
+
+        current = new Generation(0, 0, index);
+        listeners.add(changeTracker);
+        if (VERIFY_STATISTICS)
+            listeners.add(new StatisticsVerifier());
+        metrics.track(this);
+        try (InventoryReader invReader =
+                InventoryCompactor.openBase(invFile)) {
+            name = invReader.getName();
+            logChanges("'" + name + "' inventory loaded from '" 
                     + invFile.getPath() + "'.");
-            loadInventory(invSC);
+            loadInventory(invReader);
+            InventoryCompactor.applyDeltas(invFile, this);
+            changeTracker.reset();
+            savedFile = invFile.getAbsoluteFile();
+            savedModified = InventoryCompactor.saveStampOf(invFile);
         } catch (IOException ex) {
-            System.out.println(ex.getMessage());
+            report(ex.getMessage());
+        } catch (IllegalStateException ex) {
+            // Duplicate records whose quantities add up past the limit.
+            report("Could not load '" + invFile.getPath() + "': "
+                    + ex.getMessage());
         }
+        metrics.record(InventoryMetrics.Operation.LOAD, start);
     }
 
-    private void loadInventory(Scanner invSC) {
+    /**
+     * Adds every record of the reader to the list. Called while the
+     * {@code Inventory} is being constructed, so overriding methods must not
+     * rely on fields of the subclass.
+     * @param invReader The reader positioned before the first record.
+     * @throws IOException If a record cannot be read.
+     */
+    void loadInventory(InventoryReader invReader) throws IOException {
         Item tempItem;
-        String tempInfo;
-        int tempQty;
 
-        while (invSC.hasNext()) {
-            tempInfo = invSC.nextLine();
-            tempQty = Integer.parseInt(invSC.nextLine());
-            tempItem = new Item(tempInfo, tempQty);
+        while (invReader.next()) {
+            tempItem = new Item(invReader.getInfo(), invReader.getQuantity());
             addNewItem(tempItem);
         }
     }
@@ -93,29 +212,75 @@ public class Inventory {
         return name;
     }
 
+    /**
+     * Registers a listener that is told about every later change to the list.
+     * @param listener The listener to register.
+     */
+    public void addListener(InventoryListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Unregisters a listener added with {@code addListener}.
+     * @param listener The listener to unregister.
+     */
+    public void removeListener(InventoryListener listener) {
+        listeners.remove(listener);
+    }
+
     /**
      * Adds a new {@code Item} instance to the list. If it already exists, adds
      * the {@code Item} quantity to the present one.
      * @param inItem The {@code Item} instance to add to the list.
+     * @throws IllegalStateException If the sum of the quantities does not fit
+     * in a quantity; the list is left unchanged.
      */
     public void addNewItem(Item inItem) {
+        long start = System.nanoTime();
+        Generation target;
         Item searchItem;
-        
-        searchItem = search(inItem.getInfo());
-        if (searchItem != null)
-            inventory.forEach(item -> {
-                if (item.getInfo().equalsIgnoreCase(searchItem.getInfo())) {
-                    item.addToQuantity(inItem.getQuantity());
-                    logChanges("Added " + inItem.getQuantity() + " to item '"
-                        + inItem.getInfo()
-                        + "' to inventory due to prior existance.");
+        Item stored;
+        long added;
+        int oldQuantity = 0;
+        int quantity = inItem.getQuantity();
+        int phase = beginStructuralChange();
+
+        try {
+            target = current;
+            if (!snapshots.isEmpty())
+                preserveKey(target, inItem.getKey());
+            added = inItem.attach(this, target.number);
+            searchItem = target.index.putIfAbsent(inItem.getKey(), inItem);
+            if (searchItem != null) {
+                try {
+                    oldQuantity = changeBy(searchItem.getAndAdd(quantity),
+                            quantity);
+                } catch (IllegalStateException ex) {
+                    inItem.attach(null, 0);
+                    throw ex;
                 }
-            });
-        else {
-            inventory.add(inItem);
-            logChanges("Added item '" + inItem.getInfo() + "' with quantity "
-                    + inItem.getQuantity() + " to inventory.");
+            } else
+                countAdded(added);
+        } finally {
+            endStructuralChange(phase);
         }
+        stored = searchItem != null ? searchItem : storedItem(inItem);
+        // An Item the list does not hold itself keeps its own quantity.
+        if (stored != inItem)
+            inItem.attach(null, 0);
+        if (searchItem != null) {
+            fireQuantityChanged(searchItem, oldQuantity,
+                    oldQuantity + quantity);
+            logChanges("Added " + quantity + " to item '"
+                    + inItem.getInfo()
+                    + "' to inventory due to prior existance.");
+        } else {
+            for (InventoryListener listener : listeners)
+                listener.itemAdded(stored, quantity);
+            logChanges("Added item '" + stored.getInfo() + "' with quantity "
+                    + quantity + " to inventory.");
+        }
+        metrics.record(InventoryMetrics.Operation.ADD_NEW_ITEM, start);
     }
 
     /**
@@ -126,19 +291,28 @@ public class Inventory {
      * {@code Item}.
      */
     public void addToItem(String key, int amount) {
+        long start = System.nanoTime();
+        Generation target = current;
         Item searchItem;
+        int oldQuantity;
+        int phase;
 
-        searchItem = search(key);
+        searchItem = find(target, key);
         if (searchItem != null) {
-            inventory.forEach(item -> {
-                if (item.getInfo().equalsIgnoreCase(key))
-                    item.addToQuantity(amount);
-            });
+            phase = beginChange();
+            try {
+                preserve(target, searchItem);
+                oldQuantity = changeBy(searchItem.getAndAdd(amount), amount);
+            } finally {
+                endChange(phase);
+            }
+            fireQuantityChanged(searchItem, oldQuantity, oldQuantity + amount);
             logChanges("Attempted to add " + amount
                     + " to quantity of item '" + searchItem.getInfo()
                     + "'.");
         } else
-            System.out.println("Item could not be found in the inventory.");
+            report("Item could not be found in the inventory.");
+        metrics.record(InventoryMetrics.Operation.ADD_TO_ITEM, start);
     }
 
     /**
@@ -146,16 +320,34 @@ public class Inventory {
      * @param key The search key for the desired {@code Item}.
      */
     public void removeItem(String key) {
+        long start = System.nanoTime();
+        Generation target;
         Item searchItem;
+        long removed = 0;
+        int phase = beginStructuralChange();
 
-        searchItem = search(key);
+        try {
+            target = current;
+            if (!snapshots.isEmpty())
+                preserveRemoval(target, find(target, key));
+            searchItem = key != null
+                    ? target.index.remove(Item.foldCase(key)) : null;
+            if (searchItem != null) {
+                removed = searchItem.retire();
+                countRemoved(removed);
+            }
+        } finally {
+            endStructuralChange(phase);
+        }
         if (searchItem != null) {
-            inventory.remove(searchItem);
+            for (InventoryListener listener : listeners)
+                listener.itemRemoved(searchItem, Item.quantityOf(removed));
             logChanges("Removed item '" + searchItem.getInfo()
                     + "' from inventory.");
         } else {
-            System.out.println("Item could not be found in the inventory.");
+            report("Item could not be found in the inventory.");
         }
+        metrics.record(InventoryMetrics.Operation.REMOVE_ITEM, start);
     }
 
     /**
@@ -165,126 +357,923 @@ public class Inventory {
      * @param amount The quantity to remove.
      */
     public void removeFromItem(String key, int amount) {
+        long start = System.nanoTime();
+        Generation target = current;
         Item searchItem;
+        int oldQuantity;
+        int phase;
         
-        searchItem = search(key);
-        if (searchItem != null)
-            inventory.forEach(item -> {
-                if (item.getInfo().equalsIgnoreCase(searchItem.getInfo())) {
-                    item.removeFromQuantity(amount);
-                    logChanges("Attempted to remove " + amount
-                        + " from quantity of item '" + searchItem.getInfo()
-                        + "'.");
+        searchItem = find(target, key);
+        if (searchItem != null) {
+            phase = beginChange();
+            try {
+                preserve(target, searchItem);
+                oldQuantity = changeBy(searchItem.getAndRemove(amount),
+                        -amount);
+            } finally {
+                endChange(phase);
+            }
+            fireQuantityChanged(searchItem, oldQuantity, oldQuantity - amount);
+            logChanges("Attempted to remove " + amount
+                    + " from quantity of item '" + searchItem.getInfo()
+                    + "'.");
+        } else
+            report("Item could not be found in the inventory.");
+        metrics.record(InventoryMetrics.Operation.REMOVE_FROM_ITEM, start);
+    }
+
+    /**
+     * Applies every change in the specified batch in a single pass over the
+     * affected {@code Item} instances and writes one summary line to the log
+     * instead of one line per change. Keys that cannot be found are reported
+     * as missing, and changes that would drive a quantity below 0 are
+     * reported as rejected. In all-or-nothing mode, any missing or rejected
+     * key leaves the whole inventory unchanged. Removals are applied before
+     * additions, so if another thread empties an item while the batch is
+     * being applied, only removals have to be undone, and adding them back
+     * cannot fail. Listeners hear about the changes only once the batch is
+     * known to stand, so they never see a change that was undone. A reset or
+     * clear of the whole list waits for a batch being applied, and a batch
+     * waits for a reset or clear, so every change of a batch, and every undo,
+     * lands in the same generation; other changes of single items may still
+     * come in between.
+     * @param batch The changes to apply.
+     * @param allOrNothing Whether to apply nothing unless every change can
+     * be applied.
+     * @return The outcome of the batch.
+     */
+    public InventoryBatch.Result applyBatch(InventoryBatch batch,
+            boolean allOrNothing) {
+        long start = System.nanoTime();
+        List<Item> targets = new ArrayList<>(batch.size());
+        List<InventoryBatch.Delta> changes = new ArrayList<>(batch.size());
+        List<String> missingKeys = new ArrayList<>();
+        List<String> rejectedKeys = new ArrayList<>();
+        Generation target;
+        Item searchItem;
+        int[] oldQuantities;
+        boolean[] done;
+        int removals = 0;
+        int applied = 0;
+
+        generationLock.readLock().lock();
+        try {
+            target = current;
+            for (Map.Entry<String, InventoryBatch.Delta> entry
+                    : batch.entries()) {
+                searchItem = target.index.get(entry.getKey());
+                if (searchItem == null)
+                    missingKeys.add(entry.getValue().key);
+                else if (!canApply(searchItem, entry.getValue().amount))
+                    rejectedKeys.add(entry.getValue().key);
+                else if (entry.getValue().amount < 0) {
+                    targets.add(removals, searchItem);
+                    changes.add(removals++, entry.getValue());
+                } else if (entry.getValue().amount > 0) {
+                    targets.add(searchItem);
+                    changes.add(entry.getValue());
                 }
-            });
-        else
-            System.out.println("Item could not be found in the inventory.");
+            }
+            if (allOrNothing
+                    && !(missingKeys.isEmpty() && rejectedKeys.isEmpty()))
+                targets.clear();
+            oldQuantities = new int[targets.size()];
+            done = new boolean[targets.size()];
+            for (int i = 0; i < targets.size(); i++) {
+                try {
+                    oldQuantities[i] = applyDelta(target, targets.get(i),
+                            changes.get(i).amount);
+                    done[i] = true;
+                    applied++;
+                } catch (IllegalStateException ex) {
+                    rejectedKeys.add(changes.get(i).key);
+                    if (allOrNothing) {
+                        // Only removals come before a failed removal.
+                        for (int j = i - 1; j >= 0; j--)
+                            applyDelta(target, targets.get(j),
+                                    -changes.get(j).amount);
+                        applied = 0;
+                        break;
+                    }
+                }
+            }
+        } finally {
+            generationLock.readLock().unlock();
+        }
+        if (applied > 0)
+            for (int i = 0; i < targets.size(); i++)
+                if (done[i])
+                    fireQuantityChanged(targets.get(i), oldQuantities[i],
+                            oldQuantities[i] + (int) changes.get(i).amount);
+        logChanges("Applied batch of " + batch.getOperationCount()
+                + " changes to " + applied + " items ("
+                + missingKeys.size() + " missing, " + rejectedKeys.size()
+                + " rejected).");
+        metrics.record(InventoryMetrics.Operation.APPLY_BATCH, start);
+
+        return new InventoryBatch.Result(applied, missingKeys, rejectedKeys);
+    }
+
+    private static boolean canApply(Item item, long amount) {
+        return amount < 0 ? -amount <= item.getQuantity()
+                : item.getQuantity() + amount <= Integer.MAX_VALUE;
+    }
+
+    private int applyDelta(Generation target, Item item, long amount) {
+        int phase = beginChange();
+
+        try {
+            preserve(target, item);
+            return changeBy(amount < 0 ? item.getAndRemove((int) -amount)
+                    : item.getAndAdd((int) amount), (int) amount);
+        } finally {
+            endChange(phase);
+        }
     }
 
     /**
-     * Searches the list for the specified {@code Item} instance.
+     * Searches the list for the specified {@code Item} instance. The search
+     * ignores case, exactly as {@code String.equalsIgnoreCase} does.
      * @param key The search key for the desired {@code Item}.
      * @return The {@code Item} in the list pertaining to the search key.
      */
     public Item search(String key) {
-        Item searchItem = null;
-        boolean itemFound = false;
-        Iterator<Item> it = inventory.iterator();
-
-        while (it.hasNext() && !itemFound) {
-            searchItem = it.next();
-            if (searchItem.getInfo().equalsIgnoreCase(key))
-                itemFound = true;
-            else
-                searchItem = null;
-        }
+        long start = System.nanoTime();
+        Item searchItem = find(key);
+
+        metrics.record(InventoryMetrics.Operation.SEARCH, start);
 
         return searchItem;
     }
 
+    private Item find(String key) {
+        return find(current, key);
+    }
+
+    private static Item find(Generation target, String key) {
+        // Concurrent maps reject a null key rather than not finding it.
+        return key != null ? target.index.get(Item.foldCase(key)) : null;
+    }
+
+    /**
+     * Gets the number of {@code Item} instances in the list.
+     * @return The item count.
+     */
+    public int getItemCount() {
+        return current.index.size();
+    }
+
+    /**
+     * Gets the sum of the quantities of all {@code Item} instances in the
+     * list. The sum is kept up to date by every change, so the list is not
+     * scanned.
+     * @return The total quantity.
+     */
+    public long getTotalQuantity() {
+        return current.totalQuantity.sum();
+    }
+
+    /**
+     * Gets the number of {@code Item} instances in the list whose quantity
+     * is 0. Like {@code getTotalQuantity}, the count is kept up to date by
+     * every change.
+     * @return The number of items out of stock.
+     */
+    public int getZeroQuantityCount() {
+        Generation counted = current;
+
+        return counted.index.size() - (int) counted.stockedCount.sum();
+    }
+
+    /**
+     * Gets the item count, the total quantity and the number of items out of
+     * stock together, all from the same generation of the list. Like the
+     * separate getters, this takes constant time. The items with the largest
+     * or lowest quantities are found with {@code findLargestStock} and
+     * {@code findLowestStock} instead.
+     * @return The summary of the list.
+     */
+    public InventorySummary getSummary() {
+        Generation counted = current;
+        int itemCount = counted.index.size();
+
+        return new InventorySummary(itemCount, counted.totalQuantity.sum(),
+                itemCount - (int) counted.stockedCount.sum());
+    }
+
+    /**
+     * Checks the total quantity, the number of items out of stock and, once
+     * the stock index was built, the largest quantity against a full scan of
+     * the list. Meant for tests; the list must not change during the check.
+     * Setting the system property {@code inventory.verifyStatistics} to
+     * {@code true} checks the total quantity and the out of stock count
+     * after every change.
+     * @throws IllegalStateException If a statistic does not match the list.
+     */
+    public void verifyStatistics() {
+        int largest = -1;
+        StockIndex index = stockIndex;
+        List<Item> indexed;
+
+        verifyCounts();
+        if (index != null) {
+            for (Item item : current.index.values())
+                largest = Math.max(largest, item.getQuantity());
+            indexed = index.largest(1, this::isLive);
+            if ((indexed.isEmpty() ? -1 : indexed.get(0).getQuantity())
+                    != largest)
+                throw new IllegalStateException("Stock index does not hold "
+                        + "the largest quantity " + largest + ".");
+        }
+    }
+
+    private void verifyCounts() {
+        long total = 0;
+        int zeroCount = 0;
+
+        for (Item item : current.index.values()) {
+            total += item.getQuantity();
+            if (item.getQuantity() == 0)
+                zeroCount++;
+        }
+        if (total != getTotalQuantity())
+            throw new IllegalStateException("Total quantity is "
+                    + getTotalQuantity() + " but the items hold " + total
+                    + ".");
+        if (zeroCount != getZeroQuantityCount())
+            throw new IllegalStateException("Out of stock count is "
+                    + getZeroQuantityCount() + " but " + zeroCount
+                    + " items are out of stock.");
+    }
+
+    /**
+     * Finds the {@code Item} instances whose info starts with the specified
+     * prefix, ignoring case, in alphabetical order. The first call builds a
+     * secondary index over the info of every {@code Item}; after that the
+     * cost of a query depends on the number of matches, not on the size of
+     * the list.
+     * @param prefix The prefix to match.
+     * @param limit The largest number of items to return.
+     * @return The matching {@code Item} instances.
+     */
+    public List<Item> searchPrefix(String prefix, int limit) {
+        return getInfoIndex().prefix(Item.foldCase(prefix), limit,
+                this::isLive);
+    }
+
+    /**
+     * Finds the {@code Item} instances whose info contains the specified
+     * text, ignoring case. Like {@code searchPrefix}, the first call builds
+     * a secondary index.
+     * @param text The text to match.
+     * @param limit The largest number of items to return.
+     * @return The matching {@code Item} instances.
+     */
+    public List<Item> searchSubstring(String text, int limit) {
+        return getInfoIndex().substring(Item.foldCase(text), limit,
+                this::isLive);
+    }
+
+    /**
+     * Finds the best matches for a partial item name: the exact match first,
+     * then items starting with the text, then items containing it.
+     * @param text The text to match.
+     * @param count The largest number of items to return.
+     * @return Up to {@code count} matching {@code Item} instances, best
+     * match first.
+     */
+    public List<Item> searchBestMatches(String text, int count) {
+        List<Item> matches = new ArrayList<>(count);
+        Item exact = search(text);
+
+        if (exact != null && count > 0)
+            matches.add(exact);
+        for (Item item : searchPrefix(text, count))
+            if (matches.size() < count && !matches.contains(item))
+                matches.add(item);
+        if (matches.size() < count)
+            for (Item item : searchSubstring(text, count + matches.size()))
+                if (matches.size() < count && !matches.contains(item))
+                    matches.add(item);
+
+        return matches;
+    }
+
+    private InfoIndex getInfoIndex() {
+        InfoIndex index = infoIndex;
+
+        if (index == null)
+            synchronized (this) {
+                index = infoIndex;
+                if (index == null) {
+                    index = new InfoIndex();
+                    addListener(index);
+                    for (Item item : current.index.values())
+                        index.itemAdded(item, item.getQuantity());
+                    infoIndex = index;
+                }
+            }
+
+        return index;
+    }
+
+    /**
+     * Sets the quantity below which the {@code Item} of the search key needs
+     * reordering. The first call builds an index of the quantities of every
+     * {@code Item}, which is kept current as quantities change. Thresholds
+     * are not saved with the list.
+     * @param key The search key for the desired {@code Item}.
+     * @param threshold The reorder threshold; 0 turns reordering off for the
+     * {@code Item}.
+     * @throws IllegalArgumentException If the threshold is negative.
+     */
+    public void setReorderThreshold(String key, int threshold) {
+        Item searchItem;
+
+        if (threshold < 0)
+            throw new IllegalArgumentException("Cannot set negative reorder "
+                    + "threshold.");
+        searchItem = find(key);
+        if (searchItem != null
+                && getStockIndex().setThreshold(searchItem.getKey(),
+                        threshold))
+            logChanges("Set reorder threshold of item '"
+                    + searchItem.getInfo() + "' to " + threshold + ".");
+        else
+            report("Item could not be found in the inventory.");
+    }
+
+    /**
+     * Gets the reorder threshold of the {@code Item} of the search key.
+     * @param key The search key for the desired {@code Item}.
+     * @return The reorder threshold, or 0 if none was set.
+     */
+    public int getReorderThreshold(String key) {
+        StockIndex index = stockIndex;
+
+        return index == null ? 0 : index.getThreshold(Item.foldCase(key));
+    }
+
+    /**
+     * Finds the {@code Item} instances whose quantity is below their reorder
+     * threshold, lowest quantity first. The cost depends on the number of
+     * matches, not on the size of the list.
+     * @param limit The largest number of items to return.
+     * @return The {@code Item} instances that need reordering.
+     */
+    public List<Item> findBelowThreshold(int limit) {
+        return getStockIndex().belowThreshold(limit, this::isLive);
+    }
+
+    /**
+     * Finds the {@code Item} instances with the lowest quantities, lowest
+     * quantity first. Like {@code findBelowThreshold}, the first call builds
+     * an index of the quantities.
+     * @param count The largest number of items to return.
+     * @return Up to {@code count} {@code Item} instances.
+     */
+    public List<Item> findLowestStock(int count) {
+        return getStockIndex().lowest(count, this::isLive);
+    }
+
+    /**
+     * Finds the {@code Item} instances with the largest quantities, largest
+     * quantity first. Like {@code findLowestStock}, the first call builds an
+     * index of the quantities; after that the cost depends on the number of
+     * items returned, and changes keep the index current without waiting
+     * for its queries.
+     * @param count The largest number of items to return.
+     * @return Up to {@code count} {@code Item} instances.
+     */
+    public List<Item> findLargestStock(int count) {
+        return getStockIndex().largest(count, this::isLive);
+    }
+
+    /**
+     * Registers a listener that is told when an {@code Item} falls below its
+     * reorder threshold or is restocked.
+     * @param listener The listener to register.
+     */
+    public void addReorderListener(ReorderListener listener) {
+        getStockIndex().addListener(listener);
+    }
+
+    /**
+     * Unregisters a listener added with {@code addReorderListener}.
+     * @param listener The listener to unregister.
+     */
+    public void removeReorderListener(ReorderListener listener) {
+        getStockIndex().removeListener(listener);
+    }
+
+    /**
+     * Subscribes to the changes made to the list from now on, for the
+     * {@code Item} instances whose info starts with the specified prefix.
+     * The first call starts publishing every change into a
+     * {@code ChangeFeed} shared by all subscriptions; writers never wait for
+     * a subscriber, and one that falls too far behind is told how many
+     * changes it lost.
+     * @param prefix The info prefix, or an empty string for every item.
+     * @return The new subscription.
+     */
+    public ChangeFeed.Subscription subscribeChanges(String prefix) {
+        ChangeFeed feed = changeFeed;
+
+        if (feed == null)
+            synchronized (this) {
+                feed = changeFeed;
+                if (feed == null) {
+                    feed = new ChangeFeed(ChangeFeed.DEFAULT_CAPACITY);
+                    addListener(feed);
+                    changeFeed = feed;
+                }
+            }
+
+        return feed.subscribe(prefix);
+    }
+
+    private StockIndex getStockIndex() {
+        StockIndex index = stockIndex;
+
+        if (index == null)
+            synchronized (this) {
+                index = stockIndex;
+                if (index == null) {
+                    index = new StockIndex();
+                    addListener(index);
+                    for (Item item : current.index.values())
+                        index.itemAdded(item, item.getQuantity());
+                    stockIndex = index;
+                }
+            }
+
+        return index;
+    }
+
+    private boolean isLive(Item item) {
+        Item held = current.index.get(item.getKey());
+
+        return held != null && held.isSameItem(item);
+    }
+
     /**
      * Resets the quantity of the {@code Item} instance of the search key,
      * if it exists in the list.
      * @param key The search key for the desired {@code Item}.
      */
     public void resetItem(String key) {
+        Generation target = current;
         Item searchItem;
+        int oldQuantity;
+        int phase;
         
-        searchItem = search(key);
-        if (searchItem != null)
-            inventory.forEach(item -> {
-                if (item.getInfo().equalsIgnoreCase(searchItem.getInfo())) {
-                    item.resetQuantity();
-                    logChanges("Reset item '" + searchItem.getInfo()
-                        + "' quantity to 0.");
-                }
-            });
-        else
-            System.out.println("Item could not be found in the inventory.");
+        searchItem = find(target, key);
+        if (searchItem != null) {
+            phase = beginChange();
+            try {
+                preserve(target, searchItem);
+                oldQuantity = changeTo(searchItem.getAndReset(), 0);
+            } finally {
+                endChange(phase);
+            }
+            fireQuantityChanged(searchItem, oldQuantity, 0);
+            logChanges("Reset item '" + searchItem.getInfo()
+                    + "' quantity to 0.");
+        } else
+            report("Item could not be found in the inventory.");
     }
 
     /**
-     * Resets the quantities of all {@code Item} instances to 0.
+     * Resets the quantities of all {@code Item} instances to 0. Takes
+     * constant time: a new generation of the list is started, and no
+     * {@code Item} is visited.
      */
     public void resetAllItems() {
-        inventory.forEach(Item::resetQuantity);
+        restoreAll(false);
+        for (InventoryListener listener : listeners)
+            listener.allItemsReset();
         logChanges("Reset all item quantites to 0.");
     }
 
     /**
-     * Removes all {@code Item} instances from the list.
+     * Removes all {@code Item} instances from the list. Takes constant time:
+     * the map holding them is replaced by a new, empty one.
      */
     public void clearInventory() {
-        inventory.clear();
+        restoreAll(true);
+        for (InventoryListener listener : listeners)
+            listener.inventoryCleared();
         logChanges("Removed all items from '" + name + "' inventory.");
     }
 
     /**
-     * Displays all available {@code Item} instances in the list.
+     * Displays all available {@code Item} instances in the list, where the
+     * messages for the operator go.
      */
     public void displayAllItems() {
-        Iterator<Item> it = inventory.iterator();
-        Item currItem;
+        PrintWriter writer = MESSAGES.get();
 
-        if (it.hasNext()) {
-            for (int i = 0; i < (MAX_LINE_LENGTH - name.length()) / 2; i++) {
-                System.out.print("=");
-            }
-            System.out.print(name);
-            if (name.length() % 2 == 0) {
-                for (int i = 0; i < (MAX_LINE_LENGTH - name.length()) / 2; i++)
-                    System.out.print("=");
-            } else {
-                for (int i = 0; i < (MAX_LINE_LENGTH - name.length()) / 2 + 1;
-                        i++) {
-                    System.out.print("=");
-                }
+        try {
+            displayItems(new InventoryRenderer(),
+                    writer == null ? System.out : writer);
+        } catch (IOException ex) {
+            report(ex.getMessage());
+        }
+    }
+
+    /**
+     * Writes the {@code Item} instances in the list to the specified output
+     * target, using the paging and row limits of the given renderer.
+     * @param renderer The renderer that builds the item table.
+     * @param out The target to write the item table to.
+     * @throws IOException If the output target cannot be written.
+     */
+    public void displayItems(InventoryRenderer renderer, Appendable out)
+            throws IOException {
+        try (InventorySnapshot snapshot = snapshot()) {
+            renderer.render(name, snapshot.items(), out);
+        }
+    }
+
+    /**
+     * Takes a point-in-time view of the list. Reports and saves that read
+     * the snapshot see the list exactly as it was when the snapshot was
+     * taken, while other threads keep changing it. Nothing is copied, so a
+     * snapshot is taken in constant time, and it must be closed when it is
+     * no longer needed so that changes stop being recorded for it.
+     * @return The open snapshot.
+     */
+    public InventorySnapshot snapshot() {
+        InventorySnapshot snapshot;
+        Generation taken;
+
+        synchronized (snapshots) {
+            taken = current;
+            snapshot = new InventorySnapshot(this, taken.number,
+                    taken.indexNumber, taken.index, structureGate);
+            snapshots.add(snapshot);
+            // A change that started before the snapshot was registered may
+            // not have recorded its old quantity, so wait for it to finish.
+            // New changes count in the other phase and are not waited for.
+            for (int i = 0; i < changesInFlight.length; i++) {
+                changePhase = 1 - changePhase;
+                while (changesInFlight[1 - changePhase].sum() != 0)
+                    Thread.yield();
             }
-            System.out.println();
-            System.out.format("%-40s%40s\n", "ITEM", "QUANTITY");
-            for (int i = 0; i < MAX_LINE_LENGTH; i++) {
-                System.out.print("-");
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * Stops recording changes for a snapshot that was closed.
+     * @param snapshot The closed snapshot.
+     */
+    void releaseSnapshot(InventorySnapshot snapshot) {
+        snapshots.remove(snapshot);
+    }
+
+    /**
+     * Starts a walk of a map by a snapshot, waiting while items are being
+     * added to or removed from it, which takes no longer than one change.
+     * Walks may overlap, also on one thread.
+     * @param gate The gate of the map the snapshot was taken of.
+     */
+    void beginWalk(AtomicInteger gate) {
+        int state;
+
+        do {
+            while ((state = gate.get()) < 0)
+                LockSupport.parkNanos(this, GATE_PAUSE_NANOS);
+        } while (!gate.compareAndSet(state, state + 1));
+    }
+
+    /**
+     * Ends a walk of a map by a snapshot. May be called from another thread
+     * than the one that started the walk.
+     * @param gate The gate of the map the snapshot was taken of.
+     */
+    void endWalk(AtomicInteger gate) {
+        gate.decrementAndGet();
+    }
+
+    /**
+     * Starts a change that may add an {@code Item} to or remove one from
+     * the map. While a snapshot is open, the change must not run during a
+     * walk of the map, so a change that finds the map being walked copies
+     * it and goes ahead on the copy, leaving the walked map to the
+     * snapshots. Only maps that cannot be copied make the change wait for
+     * the walks to end. Either way this happens outside of the change, so
+     * that snapshots being taken do not wait for it in turn.
+     * @return The phase of the change, marked if it holds the gate.
+     */
+    private int beginStructuralChange() {
+        int phase = beginChange();
+        AtomicInteger gate;
+        int state;
+
+        if (snapshots.isEmpty())
+            return phase;
+        endChange(phase);
+        while (true) {
+            gate = structureGate;
+            state = gate.get();
+            if (state > 0) {
+                if (!copyWalkedIndex(gate))
+                    LockSupport.parkNanos(this, GATE_PAUSE_NANOS);
+            } else if (gate.compareAndSet(state, state - 1)) {
+                // The map is only copied while it is walked, so it is still
+                // the current one unless it was copied before the gate was
+                // taken.
+                if (gate == structureGate)
+                    return beginChange() | GATED;
+                gate.incrementAndGet();
             }
-            System.out.println();
-            while (it.hasNext()) {
-                currItem = it.next();
-                System.out.format("%-40s%40d\n", currItem.getInfo(),
-                        currItem.getQuantity());
+        }
+    }
+
+    private void endStructuralChange(int phase) {
+        endChange(phase & 1);
+        if ((phase & GATED) != 0)
+            structureGate.incrementAndGet();
+    }
+
+    /**
+     * Replaces the map being walked by a copy of it that items can be added
+     * to and removed from at once. The walks keep reading the old map, which
+     * nothing changes the structure of any more, and which holds the same
+     * {@code Item} instances, so changes of a quantity still reach it. The
+     * copy is taken as one more walk, so no item is added or removed during
+     * it.
+     * @param gate The gate of the map being walked.
+     * @return {@code true} if the map was copied, by this or another change,
+     * or {@code false} if it cannot be copied.
+     */
+    private boolean copyWalkedIndex(AtomicInteger gate) {
+        Generation walked;
+        Map<String, Item> copy;
+        int state;
+
+        synchronized (snapshots) {
+            if (gate != structureGate)
+                return true;
+            do {
+                if ((state = gate.get()) <= 0)
+                    return true;
+            } while (!gate.compareAndSet(state, state + 1));
+            try {
+                walked = current;
+                copy = copyIndex(walked.index);
+                if (copy == null)
+                    return false;
+                current = new Generation(walked, copy);
+                structureGate = new AtomicInteger();
+            } finally {
+                gate.decrementAndGet();
             }
-        } 
+        }
+
+        return true;
+    }
+
+    private int beginChange() {
+        int phase = changePhase;
+
+        changesInFlight[phase].increment();
+
+        return phase;
+    }
+
+    private void endChange(int phase) {
+        changesInFlight[phase].decrement();
+    }
+
+    /**
+     * Gets the number of the current generation of the list. Resetting or
+     * clearing the list starts a new one, and a quantity stamped with an
+     * older one reads as 0.
+     * @return The generation number.
+     */
+    int generation() {
+        return current.number;
+    }
+
+    /**
+     * Gets the map that holds the {@code Item} instances of the list.
+     * @return The map of the current generation.
+     */
+    Map<String, Item> index() {
+        return current.index;
+    }
+
+    private int changeBy(long previous, int amount) {
+        return changeTo(previous, Item.quantityOf(previous) + amount);
+    }
+
+    private int changeTo(long previous, int newQuantity) {
+        int oldQuantity = Item.quantityOf(previous);
+        Generation counted = counted(previous);
+
+        if (counted != null) {
+            counted.totalQuantity.add(newQuantity - oldQuantity);
+            if (oldQuantity == 0 && newQuantity != 0)
+                counted.stockedCount.increment();
+            else if (oldQuantity != 0 && newQuantity == 0)
+                counted.stockedCount.decrement();
+        }
+
+        return oldQuantity;
+    }
+
+    private void countAdded(long added) {
+        Generation counted = counted(added);
+
+        if (counted != null) {
+            counted.totalQuantity.add(Item.quantityOf(added));
+            if (Item.quantityOf(added) != 0)
+                counted.stockedCount.increment();
+        }
+    }
+
+    private void countRemoved(long removed) {
+        Generation counted = counted(removed);
+
+        if (counted != null) {
+            counted.totalQuantity.add(-Item.quantityOf(removed));
+            if (Item.quantityOf(removed) != 0)
+                counted.stockedCount.decrement();
+        }
+    }
+
+    /**
+     * Gets the generation whose statistics a change stamped with the
+     * specified generation counts in. A change made in a generation that was
+     * replaced in the meantime only counted there, and is dropped with it.
+     * @return The current generation, or {@code null} if the change was made
+     * in an older one.
+     */
+    private Generation counted(long stamped) {
+        Generation counted = current;
+
+        return counted.number == Item.generationOf(stamped) ? counted : null;
+    }
+
+    /**
+     * Hands the quantity of an {@code Item} about to change to the open
+     * snapshots taken of the same map; a map swapped out by a clear keeps its
+     * items as they are.
+     */
+    private void preserve(Generation target, Item item) {
+        if (item != null)
+            for (InventorySnapshot snapshot : snapshots)
+                snapshot.preserve(item, target.indexNumber);
+    }
+
+    /**
+     * Hands the state of the key about to be added to, or added, to the
+     * open snapshots taken of the same map.
+     */
+    private void preserveKey(Generation target, String key) {
+        Item item = find(target, key);
+
+        if (item != null)
+            preserve(target, item);
         else
-            System.out.println("There are currently no items in the "
-                    + "inventory.");
-        System.out.println();
+            for (InventorySnapshot snapshot : snapshots)
+                snapshot.preserveAbsence(Item.foldCase(key),
+                        target.indexNumber);
+    }
+
+    /**
+     * Hands an {@code Item} about to be removed to the open snapshots taken
+     * of the same map.
+     */
+    private void preserveRemoval(Generation target, Item item) {
+        if (item != null)
+            for (InventorySnapshot snapshot : snapshots)
+                snapshot.preserveRemoval(item, target.indexNumber);
     }
     
     /**
-     * Saves all {@code Item} instances from the list to the specified path.
+     * Checks whether the list changed since it was loaded or last saved.
+     * @return {@code true} if there are changes that were not saved.
+     */
+    public boolean hasUnsavedChanges() {
+        return savedFile == null || !changeTracker.isClean();
+    }
+
+    /**
+     * Checks whether the specified file is the one the list was loaded from
+     * or last saved to, and has not been modified since other than by
+     * compacting its deltas into it.
+     * @param file The file to check.
+     * @return {@code true} if the file was not replaced since.
+     */
+    boolean isSavedTo(File file) {
+        return file.getAbsoluteFile().equals(savedFile)
+                && InventoryCompactor.saveStampOf(file) == savedModified;
+    }
+
+    /**
+     * Saves the changes made since the list was loaded from, or last saved
+     * to, the specified path. When the path is the same and only a small
+     * part of the list changed, only the changed {@code Item} instances are
+     * appended to a delta file next to it, which is merged into the main
+     * file later in the background. Otherwise the whole list is saved, in
+     * the format the file already has. Saves made by several threads at once
+     * take turns.
+     * @param directory The directory for the save path.
+     * @param fileName The name of the file to save the data to.
+     */
+    public void saveChangesTo(String directory, String fileName) {
+        try {
+            writeChangesTo(directory, fileName);
+        } catch (IOException ex) {
+            report(ex.getMessage());
+        }
+    }
+
+    /**
+     * Saves the changes made since the list was loaded from, or last saved
+     * to, the specified path, exactly as {@code saveChangesTo} does, but lets
+     * the caller handle a failed save instead of printing it. A delta that
+     * cannot be written is not an error as long as the whole list can be
+     * saved instead.
+     * @param directory The directory for the save path.
+     * @param fileName The name of the file to save the data to.
+     * @throws IOException If the data cannot be saved.
+     */
+    public void writeChangesTo(String directory, String fileName)
+            throws IOException {
+        long start = System.nanoTime();
+        File target = new File(directory, fileName).getAbsoluteFile();
+        InventoryFormat format = InventoryFormat.TEXT;
+        int written;
+
+        try {
+            synchronized (saveLock) {
+                written = target.equals(savedFile) && target.exists()
+                        && changeTracker.canWriteDelta(getItemCount())
+                        ? InventoryCompactor.appendDelta(target, changeTracker)
+                        : -1;
+            }
+            if (written >= 0) {
+                logChanges("Saved " + written + " changed items to '"
+                        + target.getPath() + "'.");
+                metrics.record(InventoryMetrics.Operation.SAVE, start);
+                return;
+            }
+            if (target.exists() && SnapshotInventoryReader.isSnapshot(target))
+                format = InventoryFormat.SNAPSHOT;
+        } catch (IOException ex) {
+            report(ex.getMessage());
+            changeTracker.markRewriteNeeded();
+        }
+        writeDataTo(directory, fileName, format);
+    }
+
+    /**
+     * Saves all {@code Item} instances from the list to the specified path
+     * in the text format.
      * @param directory The directory for the save path.
      * @param fileName The name of the file to save the data to.
      */
     public void saveDataTo(String directory, String fileName) {
-        PrintWriter invPW;
+        saveDataTo(directory, fileName, InventoryFormat.TEXT);
+    }
+
+    /**
+     * Saves all {@code Item} instances from the list to the specified path
+     * in the specified format. The data is written to a temporary file that
+     * then replaces the old file in one step, so a crash during the save
+     * never leaves a truncated file behind.
+     * @param directory The directory for the save path.
+     * @param fileName The name of the file to save the data to.
+     * @param format The format to save the data in.
+     */
+    public void saveDataTo(String directory, String fileName,
+            InventoryFormat format) {
+        try {
+            writeDataTo(directory, fileName, format);
+        } catch (IOException ex) {
+            report(ex.getMessage());
+        }
+    }
+
+    /**
+     * Saves all {@code Item} instances from the list to the specified path
+     * in the specified format, exactly as {@code saveDataTo} does, but lets
+     * the caller handle a failed save instead of printing it.
+     * @param directory The directory for the save path.
+     * @param fileName The name of the file to save the data to.
+     * @param format The format to save the data in.
+     * @throws IOException If the data cannot be saved.
+     */
+    public void writeDataTo(String directory, String fileName,
+            InventoryFormat format) throws IOException {
+        long start = System.nanoTime();
+        File target;
+        File temp;
         String path;
         
         path = directory + "/" + fileName;
@@ -293,29 +1282,394 @@ public class Inventory {
             File file = new File(directory);
             if (!file.exists())
                 file.mkdir();
-            invPW = new PrintWriter(path);
-            invPW.println(name);
-            inventory.forEach(item -> {
-                invPW.println(item.getInfo());
-                invPW.println(item.getQuantity());
-            });
-            invPW.close();
+            target = new File(path).getAbsoluteFile();
+            temp = new File(path + ".tmp");
+            synchronized (saveLock) {
+                // Changes made while the file is written are recorded again
+                // and go into the next save.
+                changeTracker.reset();
+                writeTo(temp, format);
+                InventoryCompactor.replaceBase(temp, target);
+                savedFile = target;
+                savedModified = InventoryCompactor.saveStampOf(target);
+            }
             logChanges("Inventory saved to '" + path + "'.");
         } catch (IOException ex) {
-            System.out.println(ex.getMessage());
+            changeTracker.markRewriteNeeded();
+            throw ex;
+        } finally {
+            metrics.record(InventoryMetrics.Operation.SAVE, start);
+        }
+    }
+
+    /**
+     * Writes all {@code Item} instances from the list to the specified file
+     * in the specified format, replacing its contents.
+     * @param file The file to write.
+     * @param format The format to write the data in.
+     * @throws IOException If the file cannot be written.
+     */
+    void writeTo(File file, InventoryFormat format) throws IOException {
+        PrintWriter invPW;
+
+        try (InventorySnapshot snapshot = snapshot()) {
+            if (format == InventoryFormat.SNAPSHOT)
+                SnapshotWriter.write(file, name, snapshot.items());
+            else {
+                invPW = new PrintWriter(file, "UTF-8");
+                invPW.println(name);
+                snapshot.items().forEach(item -> {
+                    invPW.println(item.getInfo());
+                    invPW.println(item.getQuantity());
+                });
+                invPW.close();
+                if (invPW.checkError())
+                    throw new IOException("Could not write '"
+                            + file.getPath() + "'.");
+            }
+        }
+    }
+
+    /**
+     * Sets the quantity of the {@code Item} with the specified info, adding
+     * the {@code Item} if it is missing. Used to restore saved state, so
+     * neither listeners nor the change log are told about it.
+     * @param info The info of the {@code Item}.
+     * @param quantity The quantity to restore.
+     */
+    void restoreItem(String info, int quantity) {
+        Item restored = new Item(info, quantity);
+        Generation target;
+        Item searchItem;
+        long added;
+        int phase = beginStructuralChange();
+
+        try {
+            target = current;
+            if (!snapshots.isEmpty())
+                preserveKey(target, info);
+            added = restored.attach(this, target.number);
+            searchItem = target.index.putIfAbsent(restored.getKey(), restored);
+            if (searchItem != null)
+                changeTo(searchItem.getAndSet(quantity), quantity);
+            else
+                countAdded(added);
+        } finally {
+            endStructuralChange(phase);
+        }
+    }
+
+    /**
+     * Removes the {@code Item} with the specified info without telling
+     * listeners or the change log. Used to restore saved state.
+     * @param info The info of the {@code Item}.
+     */
+    void restoreRemoval(String info) {
+        Generation target;
+        Item removed;
+        int phase = beginStructuralChange();
+
+        try {
+            target = current;
+            if (!snapshots.isEmpty())
+                preserveRemoval(target, find(target, info));
+            removed = target.index.remove(Item.foldCase(info));
+            if (removed != null)
+                countRemoved(removed.retire());
+        } finally {
+            endStructuralChange(phase);
+        }
+    }
+
+    /**
+     * Resets or removes every {@code Item} without telling listeners or the
+     * change log. Used to restore saved state.
+     * @param remove Whether to remove the items instead of resetting them.
+     */
+    void restoreAll(boolean remove) {
+        Generation replaced;
+        Map<String, Item> index;
+        int phase;
+
+        generationLock.writeLock().lock();
+        try {
+            // Snapshots are taken under the same lock, so every open
+            // snapshot already knows the map and the generation it reads.
+            synchronized (snapshots) {
+                replaced = current;
+                index = remove ? newIndex(replaced.number + 1)
+                        : replaced.index;
+                if (index == null) {
+                    phase = beginStructuralChange();
+                    try {
+                        // The map may have been copied for the walks.
+                        replaced = current;
+                        snapshots.forEach(InventorySnapshot::preserveAll);
+                        replaced.index.clear();
+                    } finally {
+                        endStructuralChange(phase);
+                    }
+                    index = replaced.index;
+                }
+                current = new Generation(replaced.number + 1, remove
+                        ? replaced.number + 1 : replaced.indexNumber, index);
+                if (!remove)
+                    resetQuantities(current.number);
+            }
+        } finally {
+            generationLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a loaded {@code Item} to the list, or its quantity to the matching
+     * item, without telling listeners or the change log.
+     * @param info The info of the {@code Item}.
+     * @param quantity The quantity of the {@code Item}.
+     */
+    void mergeItem(String info, int quantity) {
+        Item loaded = new Item(info, quantity);
+        Generation target;
+        Item searchItem;
+        long added;
+        int phase = beginStructuralChange();
+
+        try {
+            target = current;
+            if (!snapshots.isEmpty())
+                preserveKey(target, info);
+            added = loaded.attach(this, target.number);
+            searchItem = target.index.putIfAbsent(loaded.getKey(), loaded);
+            if (searchItem != null)
+                changeBy(searchItem.getAndAdd(quantity), quantity);
+            else
+                countAdded(added);
+        } finally {
+            endStructuralChange(phase);
         }
     }
 
+    /**
+     * Applies a batch of imported records to the list. A record for an
+     * {@code Item} the list holds adds to its quantity, or replaces it, and
+     * any other record adds a new item. Listeners are told about every
+     * change, but the change log is left to the importer, which writes one
+     * line for the whole import.
+     * @param infos The info of each record.
+     * @param quantities The quantity of each record.
+     * @param count The number of records in the batch.
+     * @param replace Whether to replace the quantities of held items instead
+     * of adding to them.
+     * @return The number of items added.
+     */
+    int importBatch(String[] infos, int[] quantities, int count,
+            boolean replace) {
+        long start = System.nanoTime();
+        int addedCount = 0;
+
+        for (int i = 0; i < count; i++)
+            if (importItem(infos[i], quantities[i], replace))
+                addedCount++;
+        metrics.record(InventoryMetrics.Operation.IMPORT_BATCH, start);
+
+        return addedCount;
+    }
+
+    private boolean importItem(String info, int quantity, boolean replace) {
+        Item imported = new Item(info, quantity);
+        Generation target;
+        Item searchItem;
+        Item stored;
+        long added;
+        int oldQuantity = 0;
+        int phase = beginStructuralChange();
+
+        try {
+            target = current;
+            if (!snapshots.isEmpty())
+                preserveKey(target, info);
+            added = imported.attach(this, target.number);
+            searchItem = target.index.putIfAbsent(imported.getKey(), imported);
+            if (searchItem == null)
+                countAdded(added);
+            else if (replace)
+                oldQuantity = changeTo(searchItem.getAndSet(quantity),
+                        quantity);
+            else
+                oldQuantity = changeBy(searchItem.getAndAdd(quantity),
+                        quantity);
+        } finally {
+            endStructuralChange(phase);
+        }
+        if (searchItem != null) {
+            fireQuantityChanged(searchItem, oldQuantity,
+                    replace ? quantity : oldQuantity + quantity);
+            return false;
+        }
+        stored = storedItem(imported);
+        for (InventoryListener listener : listeners)
+            listener.itemAdded(stored, quantity);
+
+        return true;
+    }
+
+    /**
+     * Gets the {@code Item} the list holds for an item that was just added.
+     * Storage that keeps items in another form returns a view here, so that
+     * listeners see the stored item.
+     * @param inItem The {@code Item} that was added.
+     * @return The stored {@code Item}.
+     */
+    Item storedItem(Item inItem) {
+        return inItem;
+    }
+
+    /**
+     * Creates the empty map that replaces the list when it is cleared, so
+     * that the old map is dropped at once instead of being emptied. Changes
+     * still being made to the old map are dropped with it.
+     * @param generation The generation the new map starts in.
+     * @return The new map, or {@code null} to clear the map in place.
+     */
+    Map<String, Item> newIndex(int generation) {
+        return index().getClass() == HashMap.class ? new HashMap<>() : null;
+    }
+
+    /**
+     * Copies the map so that items can be added to and removed from the
+     * copy while snapshots walk the original. The copy must hold the same
+     * {@code Item} instances. Called while nothing is added to or removed
+     * from the map.
+     * @param index The map to copy.
+     * @return The copy, or {@code null} if the map cannot be copied, in which
+     * case items are only added or removed once the walks have ended.
+     */
+    Map<String, Item> copyIndex(Map<String, Item> index) {
+        return index.getClass() == HashMap.class ? new HashMap<>(index) : null;
+    }
+
+    /**
+     * Resets the quantities of all {@code Item} instances to 0 in storage
+     * that keeps the quantities itself, after the specified generation was
+     * started. {@code Item} instances read the generation from the list, so
+     * nothing needs to be done for them.
+     * @param generation The generation that was started.
+     */
+    void resetQuantities(int generation) {
+    }
+
+    /**
+     * Sends the messages for the operator, such as a missing item or a
+     * failed save, that the calling thread causes from now on to the
+     * specified writer instead of the console. A session serving one
+     * operator calls it on its own thread.
+     * @param writer The writer for the messages, or {@code null} to send
+     * them to the console again.
+     */
+    static void reportTo(PrintWriter writer) {
+        if (writer == null)
+            MESSAGES.remove();
+        else
+            MESSAGES.set(writer);
+    }
+
+    private static void report(String message) {
+        PrintWriter writer = MESSAGES.get();
+
+        if (writer == null)
+            System.out.println(message);
+        else
+            writer.println(message);
+    }
+
+    /**
+     * Estimates the memory used by the {@code Item} instances in the list.
+     * @return The estimate in bytes.
+     */
+    long estimatedBytes() {
+        return (long) getItemCount() * ESTIMATED_ITEM_BYTES;
+    }
+
+    private void fireQuantityChanged(Item item, int oldQuantity,
+            int newQuantity) {
+        for (InventoryListener listener : listeners)
+            listener.quantityChanged(item, oldQuantity, newQuantity);
+    }
+
     private void logChanges(String message) {
-        FileWriter logFile;
-        PrintWriter logPW;
         try {
-            logFile = new FileWriter("log.txt", true);
-            logPW = new PrintWriter(logFile);
-            logPW.println(message);
-            logPW.close();
+            ChangeLog.getDefault().append(message);
         } catch (IOException e) {
             System.err.println(e.getMessage());
         }
     }
+
+    /**
+     * The {@code Generation} class holds the list between two resets, with
+     * the statistics of its quantities. Resetting the list starts a new
+     * generation over the same map, and clearing it starts one over a new
+     * map; the statistics of the new generation start from 0 either way.
+     * The index number is the number of the generation the map started in,
+     * so it stays the same across resets, and across a copy of the map made
+     * for the snapshots walking it, which also keeps the statistics.
+     */
+    private static final class Generation {
+
+        private final int number;
+        private final int indexNumber;
+        private final Map<String, Item> index;
+        private final LongAdder totalQuantity;
+        private final LongAdder stockedCount;
+
+        Generation(int inNumber, int inIndexNumber,
+                Map<String, Item> inIndex) {
+            number = inNumber;
+            indexNumber = inIndexNumber;
+            index = inIndex;
+            totalQuantity = new LongAdder();
+            stockedCount = new LongAdder();
+        }
+
+        Generation(Generation copied, Map<String, Item> inIndex) {
+            number = copied.number;
+            indexNumber = copied.indexNumber;
+            index = inIndex;
+            totalQuantity = copied.totalQuantity;
+            stockedCount = copied.stockedCount;
+        }
+    }
+
+    /**
+     * The {@code StatisticsVerifier} class checks the total quantity and the
+     * out of stock count after every change, in the mode set by
+     * {@code inventory.verifyStatistics}.
+     */
+    private final class StatisticsVerifier implements InventoryListener {
+
+        @Override
+        public void itemAdded(Item item, int quantity) {
+            verifyCounts();
+        }
+
+        @Override
+        public void quantityChanged(Item item, int oldQuantity,
+                int newQuantity) {
+            verifyCounts();
+        }
+
+        @Override
+        public void itemRemoved(Item item, int quantity) {
+            verifyCounts();
+        }
+
+        @Override
+        public void allItemsReset() {
+            verifyCounts();
+        }
+
+        @Override
+        public void inventoryCleared() {
+            verifyCounts();
+        }
+    }
 }
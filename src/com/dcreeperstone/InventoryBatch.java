@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * The {@code InventoryBatch} class collects many quantity changes so they can
+ * be applied to an {@code Inventory} in a single pass. Changes to the same
+ * {@code Item} are coalesced as they are added, ignoring case just like
+ * {@code Inventory.search}, so each item is looked up and updated only once.
+ * A positive delta adds to the quantity of an item and a negative delta
+ * removes from it.
+ * @author Dr. Hoss
+ */
+public class InventoryBatch {
+
+    /**
+     * The {@code Result} class reports what happened when an
+     * {@code InventoryBatch} was applied.
+     */
+    public static final class Result {
+
+        private final int appliedCount;
+        private final List<String> missingKeys;
+        private final List<String> rejectedKeys;
+
+        Result(int inAppliedCount, List<String> inMissingKeys,
+                List<String> inRejectedKeys) {
+            appliedCount = inAppliedCount;
+            missingKeys = Collections.unmodifiableList(inMissingKeys);
+            rejectedKeys = Collections.unmodifiableList(inRejectedKeys);
+        }
+
+        /**
+         * Gets the number of items whose quantity was changed.
+         * @return The applied count attribute.
+         */
+        public int getAppliedCount() {
+            return appliedCount;
+        }
+
+        /**
+         * Gets the keys that could not be found in the inventory.
+         * @return The missing keys attribute.
+         */
+        public List<String> getMissingKeys() {
+            return missingKeys;
+        }
+
+        /**
+         * Gets the keys whose change would have made the quantity negative
+         * or too large to hold.
+         * @return The rejected keys attribute.
+         */
+        public List<String> getRejectedKeys() {
+            return rejectedKeys;
+        }
+
+        /**
+         * Checks whether every change in the batch was applied.
+         * @return {@code true} if no key was missing or rejected.
+         */
+        public boolean isComplete() {
+            return missingKeys.isEmpty() && rejectedKeys.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return "Applied " + appliedCount + " item changes ("
+                    + missingKeys.size() + " missing, " + rejectedKeys.size()
+                    + " rejected).";
+        }
+    }
+
+    /**
+     * The {@code Delta} class holds the coalesced change for one item.
+     */
+    static final class Delta {
+
+        final String key;
+        long amount;
+
+        Delta(String inKey) {
+            key = inKey;
+        }
+    }
+
+    private final LinkedHashMap<String, Delta> deltas;
+    private int operationCount;
+
+    /**
+     * Constructor that initializes a new, empty {@code InventoryBatch}.
+     */
+    public InventoryBatch() {
+        deltas = new LinkedHashMap<>();
+    }
+
+    /**
+     * Adds a quantity change for the specified item to the batch.
+     * @param key The search key for the desired {@code Item}.
+     * @param delta The amount to add, or to remove if negative.
+     * @return This {@code InventoryBatch}, for chaining calls.
+     * @throws IllegalArgumentException If the key is {@code null}.
+     */
+    public InventoryBatch add(String key, int delta) {
+        Delta itemDelta;
+
+        if (key == null)
+            throw new IllegalArgumentException("Missing item info.");
+        itemDelta = deltas.computeIfAbsent(Item.foldCase(key),
+                folded -> new Delta(key));
+        itemDelta.amount += delta;
+        operationCount++;
+
+        return this;
+    }
+
+    /**
+     * Adds every (key, delta) pair of the specified stream to the batch.
+     * @param changes The changes to add, keyed by item search key.
+     * @return This {@code InventoryBatch}, for chaining calls.
+     */
+    public InventoryBatch addAll(
+            Stream<? extends Map.Entry<String, Integer>> changes) {
+        changes.forEachOrdered(change -> add(change.getKey(),
+                change.getValue()));
+
+        return this;
+    }
+
+    /**
+     * Gets the number of changes added to the batch before coalescing.
+     * @return The operation count attribute.
+     */
+    public int getOperationCount() {
+        return operationCount;
+    }
+
+    /**
+     * Gets the number of distinct items the batch changes.
+     * @return The number of coalesced changes.
+     */
+    public int size() {
+        return deltas.size();
+    }
+
+    /**
+     * Gets the coalesced changes, keyed by case-folded item info.
+     * @return The coalesced changes.
+     */
+    Collection<Map.Entry<String, Delta>> entries() {
+        return deltas.entrySet();
+    }
+}
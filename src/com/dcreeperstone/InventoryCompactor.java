@@ -0,0 +1,328 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The {@code InventoryCompactor} class manages the files behind an
+ * incrementally saved {@code Inventory}: a base file in either save format
+ * and a delta file next to it holding the changes saved since. Compaction
+ * merges the deltas into a new base file in the background. The delta file is
+ * first renamed aside, so saves can keep appending new deltas while the merge
+ * runs, and the merged base replaces the old one with an atomic rename.
+ * <p>
+ * A full save makes the deltas obsolete, and replacing the base and deleting
+ * them cannot be done in one step. The full save is therefore forced to the
+ * storage device and renamed next to the base first, which marks it as
+ * complete; then the deltas are deleted and the full save is renamed over
+ * the base. A crash anywhere in between leaves the completed full save in
+ * place, and the next load finishes the replacement before reading the
+ * base, so old deltas are never applied to a newer base.
+ * @author Dr. Hoss
+ */
+public final class InventoryCompactor {
+
+    private static final String DELTA_SUFFIX = ".delta";
+    private static final String MERGING_SUFFIX = ".delta.merging";
+    private static final String FULL_SUFFIX = ".full";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final ConcurrentHashMap<String, BaseState> STATES =
+            new ConcurrentHashMap<>();
+    private static final ExecutorService BACKGROUND =
+            Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "InventoryCompactor");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /**
+     * The {@code BaseState} class is the lock for one base file and counts
+     * how often the base was replaced by a full save while it is in use. The
+     * count only has to be compared by a compaction, which holds the state
+     * throughout, so the state is dropped once nothing holds it.
+     */
+    private static final class BaseState {
+        long generation;
+        int users;
+    }
+
+    private InventoryCompactor() {}
+
+    /**
+     * Merges the saved deltas of the specified base file into a new base
+     * file. If the base is replaced by a full save while the merge runs, the
+     * merge result is thrown away because the full save is newer.
+     * @param base The base file of the inventory.
+     * @throws IOException If the files cannot be read or written.
+     */
+    public static void compact(File base) throws IOException {
+        BaseState state = acquire(base);
+
+        try {
+            compact(base, state);
+        } finally {
+            release(base);
+        }
+    }
+
+    private static void compact(File base, BaseState state)
+            throws IOException {
+        File merging = mergingFile(base);
+        File temp = new File(base.getPath() + TEMP_SUFFIX + ".merge");
+        Inventory merged;
+        InventoryFormat format;
+        long generation;
+        long modified;
+
+        synchronized (state) {
+            finishFullSave(base, state);
+            if (!merging.exists()) {
+                if (!deltaFile(base).exists())
+                    return;
+                Files.move(deltaFile(base).toPath(), merging.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE);
+            }
+            generation = state.generation;
+        }
+        format = SnapshotInventoryReader.isSnapshot(base)
+                ? InventoryFormat.SNAPSHOT : InventoryFormat.TEXT;
+        try (InventoryReader invReader = InventoryReader.open(base)) {
+            merged = new Inventory(invReader.getName(), new HashMap<>(),
+                    false);
+            while (invReader.next())
+                merged.restoreItem(invReader.getInfo(),
+                        invReader.getQuantity());
+        }
+        ChangeRecords.replay(merging, merged, true, 0);
+        merged.writeTo(temp, format);
+        synchronized (state) {
+            if (generation == state.generation) {
+                // The merged base stands for the same save as the base and
+                // its deltas did, so it keeps the modification time that
+                // tells others which save the file holds.
+                modified = base.lastModified();
+                force(temp);
+                Files.move(temp.toPath(), base.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+                if (!base.setLastModified(modified))
+                    throw new IOException("Cannot keep the modification time "
+                            + "of '" + base.getPath() + "'.");
+                Files.deleteIfExists(merging.toPath());
+            } else
+                Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    /**
+     * Schedules a compaction of the specified base file on the background
+     * thread. Errors are reported on the error stream.
+     * @param base The base file of the inventory.
+     */
+    public static void compactLater(File base) {
+        BACKGROUND.execute(() -> {
+            try {
+                compact(base);
+            } catch (IOException ex) {
+                System.err.println(ex.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Replaces the base file with a freshly written full save and drops the
+     * deltas that the full save makes obsolete. The full save is made
+     * durable and marked as complete before any delta is dropped.
+     * @param temp The file holding the full save.
+     * @param base The base file to replace.
+     * @throws IOException If the base file cannot be replaced.
+     */
+    static void replaceBase(File temp, File base) throws IOException {
+        BaseState state = acquire(base);
+
+        try {
+            synchronized (state) {
+                force(temp);
+                Files.move(temp.toPath(), fullFile(base).toPath(),
+                        StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+                finishFullSave(base, state);
+            }
+        } finally {
+            release(base);
+        }
+    }
+
+    /**
+     * Opens a reader for the specified base file, first finishing the
+     * replacement of the base by a full save that was completed but not yet
+     * moved into place when the process stopped.
+     * @param base The base file of the inventory.
+     * @return A reader positioned before the first item record.
+     * @throws IOException If the base file cannot be replaced or read.
+     */
+    static InventoryReader openBase(File base) throws IOException {
+        BaseState state;
+
+        if (fullFile(base).exists()) {
+            state = acquire(base);
+            try {
+                synchronized (state) {
+                    finishFullSave(base, state);
+                }
+            } finally {
+                release(base);
+            }
+        }
+
+        return InventoryReader.open(base);
+    }
+
+    /**
+     * Gets the modification time of the save the specified base file holds.
+     * Compactions keep the modification time of the base, since the state it
+     * stands for together with its deltas does not change.
+     * @param base The base file of the inventory.
+     * @return The modification time of the save, or 0 if the base does not
+     * exist.
+     */
+    static long saveStampOf(File base) {
+        return base.lastModified();
+    }
+
+    /**
+     * Appends the changes recorded by a {@code ChangeTracker} to the delta
+     * file of the specified base, and schedules a compaction once the deltas
+     * grow past a quarter of the base file.
+     * @param base The base file of the inventory.
+     * @param changes The recorded changes to save.
+     * @return The number of items written.
+     * @throws IOException If the delta file cannot be written.
+     */
+    static int appendDelta(File base, ChangeTracker changes)
+            throws IOException {
+        BaseState state = acquire(base);
+        File delta = deltaFile(base);
+        int written;
+
+        try {
+            synchronized (state) {
+                finishFullSave(base, state);
+                try (FileChannel channel =
+                        ChangeRecords.openForAppend(delta)) {
+                    written = changes.writeDelta(channel, new ChangeRecords(),
+                            System.currentTimeMillis());
+                }
+            }
+        } finally {
+            release(base);
+        }
+        if (delta.length() > base.length() / 4)
+            compactLater(base);
+
+        return written;
+    }
+
+    /**
+     * Applies the saved deltas of the specified base file to an
+     * {@code Inventory} loaded from that base.
+     * @param base The base file of the inventory.
+     * @param inv The {@code Inventory} to apply the deltas to.
+     * @throws IOException If the delta files cannot be read.
+     */
+    static void applyDeltas(File base, Inventory inv) throws IOException {
+        ChangeRecords.replay(mergingFile(base), inv, true, 0);
+        ChangeRecords.replay(deltaFile(base), inv, true, 0);
+    }
+
+    /**
+     * Drops the deltas of the specified base and moves the completed full
+     * save over it, if there is one. Called with the state of the base held.
+     */
+    private static void finishFullSave(File base, BaseState state)
+            throws IOException {
+        File full = fullFile(base);
+
+        if (!full.exists())
+            return;
+        Files.deleteIfExists(deltaFile(base).toPath());
+        Files.deleteIfExists(mergingFile(base).toPath());
+        forceDirectory(base);
+        Files.move(full.toPath(), base.toPath(),
+                StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        forceDirectory(base);
+        state.generation++;
+    }
+
+    private static void force(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    private static void forceDirectory(File base) {
+        File directory = base.getAbsoluteFile().getParentFile();
+
+        try (FileChannel channel = FileChannel.open(directory.toPath(),
+                StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ex) {
+            // Not every platform can open a directory; there the renames
+            // are only as durable as the file system makes them.
+        }
+    }
+
+    private static BaseState acquire(File base) {
+        return STATES.compute(base.getAbsolutePath(), (path, state) -> {
+            BaseState held = state != null ? state : new BaseState();
+
+            held.users++;
+            return held;
+        });
+    }
+
+    private static void release(File base) {
+        STATES.computeIfPresent(base.getAbsolutePath(),
+                (path, state) -> --state.users > 0 ? state : null);
+    }
+
+    private static File deltaFile(File base) {
+        return new File(base.getPath() + DELTA_SUFFIX);
+    }
+
+    private static File mergingFile(File base) {
+        return new File(base.getPath() + MERGING_SUFFIX);
+    }
+
+    private static File fullFile(File base) {
+        return new File(base.getPath() + FULL_SUFFIX);
+    }
+}
@@ -0,0 +1,518 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * The {@code InventoryExchange} class streams the items of an
+ * {@code Inventory} to and from the CSV and JSON Lines files other systems
+ * exchange stock levels in. An import runs as a pipeline: a parser thread
+ * reads and validates the records and hands them over in batches through a
+ * bounded queue, while the calling thread applies each batch to the
+ * inventory and reports the progress. The queue holds only a few batches,
+ * so the parser waits whenever applying falls behind, and a file of any size
+ * is imported in constant memory. Malformed records are skipped and counted
+ * with their line number instead of ending the import.
+ * <p>
+ * An export writes a snapshot of the inventory, so it holds the quantities
+ * of the moment it started while changes go ahead.
+ * @author Dr. Hoss
+ */
+public class InventoryExchange {
+
+    /**
+     * The {@code Format} enumeration lists the file formats items are
+     * exchanged in.
+     */
+    public enum Format {
+
+        /**
+         * Comma-separated values with an {@code info,quantity} header.
+         */
+        CSV,
+
+        /**
+         * One JSON object per line with an {@code info} and a
+         * {@code quantity} member.
+         */
+        JSON_LINES;
+
+        /**
+         * Chooses the format from the extension of a file: {@code .csv} for
+         * CSV, and {@code .jsonl} or {@code .ndjson} for JSON Lines.
+         * @param file The file to import or export.
+         * @return The format of the file.
+         * @throws IllegalArgumentException If the extension is none of them.
+         */
+        public static Format forFile(File file) {
+            String fileName = file.getName().toLowerCase(Locale.ROOT);
+
+            if (fileName.endsWith(".csv"))
+                return CSV;
+            if (fileName.endsWith(".jsonl") || fileName.endsWith(".ndjson"))
+                return JSON_LINES;
+            throw new IllegalArgumentException("'" + file.getPath()
+                    + "' is not a .csv, .jsonl or .ndjson file.");
+        }
+    }
+
+    /**
+     * The {@code Mode} enumeration lists how imported quantities are applied
+     * to items the inventory already holds. Items it does not hold are added
+     * either way.
+     */
+    public enum Mode {
+
+        /**
+         * Adds the imported quantity to the present one, just as
+         * {@code addNewItem} does.
+         */
+        MERGE,
+
+        /**
+         * Replaces the present quantity with the imported one.
+         */
+        REPLACE
+    }
+
+    /**
+     * The {@code ProgressListener} interface is implemented by classes that
+     * report the progress of an import or export. It is called on the thread
+     * that runs the import or export, after every batch.
+     */
+    public interface ProgressListener {
+
+        /**
+         * Called after a batch of records was imported or exported.
+         * @param rowCount The number of records processed so far.
+         * @param rejectedCount The number of malformed records skipped so
+         * far.
+         * @param rowsPerSecond The average throughput so far.
+         */
+        void progress(long rowCount, long rejectedCount, double rowsPerSecond);
+    }
+
+    /**
+     * The {@code Result} class reports what happened when a file was imported
+     * or exported.
+     */
+    public static final class Result {
+
+        private final long rowCount;
+        private final long addedCount;
+        private final long rejectedCount;
+        private final List<String> errors;
+        private final long nanos;
+
+        Result(long inRowCount, long inAddedCount, long inRejectedCount,
+                List<String> inErrors, long inNanos) {
+            rowCount = inRowCount;
+            addedCount = inAddedCount;
+            rejectedCount = inRejectedCount;
+            errors = Collections.unmodifiableList(inErrors);
+            nanos = inNanos;
+        }
+
+        /**
+         * Gets the number of records read or written, including the
+         * rejected ones.
+         * @return The row count attribute.
+         */
+        public long getRowCount() {
+            return rowCount;
+        }
+
+        /**
+         * Gets the number of items an import added to the inventory; the
+         * other applied records changed items it already held.
+         * @return The added count attribute.
+         */
+        public long getAddedCount() {
+            return addedCount;
+        }
+
+        /**
+         * Gets the number of malformed records an import skipped.
+         * @return The rejected count attribute.
+         */
+        public long getRejectedCount() {
+            return rejectedCount;
+        }
+
+        /**
+         * Gets the messages of the first rejected records, each with its
+         * line number.
+         * @return The errors attribute.
+         */
+        public List<String> getErrors() {
+            return errors;
+        }
+
+        /**
+         * Gets the time the import or export took.
+         * @return The elapsed time in seconds.
+         */
+        public double getSeconds() {
+            return nanos / 1e9;
+        }
+
+        /**
+         * Gets the average throughput of the import or export.
+         * @return The number of records processed per second.
+         */
+        public double getRowsPerSecond() {
+            return rowsPerSecond(rowCount, nanos);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Processed %d rows (%d rejected) in %.3f s "
+                    + "(%.0f rows/s).", rowCount, rejectedCount, getSeconds(),
+                    getRowsPerSecond());
+        }
+    }
+
+    /**
+     * The {@code Batch} class carries the records parsed from one stretch of
+     * the file to the thread that applies them.
+     */
+    private static final class Batch {
+
+        private final String[] infos;
+        private final int[] quantities;
+        private final List<String> errors = new ArrayList<>();
+        private int size;
+        private int rowCount;
+        private IOException failure;
+        private boolean last;
+
+        Batch(int capacity) {
+            infos = new String[capacity];
+            quantities = new int[capacity];
+        }
+    }
+
+    private static final int DEFAULT_BATCH_SIZE = 1024;
+    private static final int DEFAULT_QUEUE_CAPACITY = 8;
+    private static final int MAX_REPORTED_ERRORS = 100;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private final Inventory inv;
+    private Mode mode = Mode.MERGE;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    private ProgressListener progressListener;
+
+    /**
+     * Constructor that initializes a new {@code InventoryExchange} for the
+     * specified {@code Inventory}, merging imported quantities.
+     * @param inInv The {@code Inventory} to import into or export from.
+     */
+    public InventoryExchange(Inventory inInv) {
+        inv = inInv;
+    }
+
+    /**
+     * Sets how imported quantities are applied to items the inventory
+     * already holds.
+     * @param inMode The import mode.
+     * @return This {@code InventoryExchange}, for chaining calls.
+     */
+    public InventoryExchange setMode(Mode inMode) {
+        mode = inMode;
+
+        return this;
+    }
+
+    /**
+     * Sets the number of records handed over and applied at a time.
+     * @param inBatchSize The batch size.
+     * @return This {@code InventoryExchange}, for chaining calls.
+     */
+    public InventoryExchange setBatchSize(int inBatchSize) {
+        if (inBatchSize < 1)
+            throw new IllegalArgumentException("Invalid batch size.");
+        batchSize = inBatchSize;
+
+        return this;
+    }
+
+    /**
+     * Sets the number of parsed batches that may wait to be applied before
+     * the parser has to wait itself.
+     * @param inQueueCapacity The queue capacity.
+     * @return This {@code InventoryExchange}, for chaining calls.
+     */
+    public InventoryExchange setQueueCapacity(int inQueueCapacity) {
+        if (inQueueCapacity < 1)
+            throw new IllegalArgumentException("Invalid queue capacity.");
+        queueCapacity = inQueueCapacity;
+
+        return this;
+    }
+
+    /**
+     * Sets the listener that is told about the progress after every batch.
+     * @param listener The progress listener, or {@code null} for none.
+     * @return This {@code InventoryExchange}, for chaining calls.
+     */
+    public InventoryExchange setProgressListener(ProgressListener listener) {
+        progressListener = listener;
+
+        return this;
+    }
+
+    /**
+     * Imports every record of the specified file, choosing the format from
+     * its extension.
+     * @param file The file to import.
+     * @return The outcome of the import.
+     * @throws IOException If the file cannot be read. Records applied before
+     * the failure stay imported.
+     */
+    public Result importFrom(File file) throws IOException {
+        return importFrom(file, Format.forFile(file));
+    }
+
+    /**
+     * Imports every record of the specified file in the specified format.
+     * @param file The file to import.
+     * @param format The format of the file.
+     * @return The outcome of the import.
+     * @throws IOException If the file cannot be read. Records applied before
+     * the failure stay imported.
+     */
+    public Result importFrom(File file, Format format) throws IOException {
+        InventoryReader invReader;
+
+        if (format == Format.CSV)
+            invReader = new CsvInventoryReader(file);
+        else
+            invReader = new JsonLinesInventoryReader(file);
+
+        return importFrom(invReader, file.getPath());
+    }
+
+    /**
+     * Imports every record of the specified reader, which must consume a
+     * malformed record before reporting it. The reader is closed once it is
+     * read to the end or the import fails.
+     * @param invReader The reader of the records to import.
+     * @param source The name of the data for the change log.
+     * @return The outcome of the import.
+     * @throws IOException If the data cannot be read.
+     */
+    Result importFrom(InventoryReader invReader, String source)
+            throws IOException {
+        BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(queueCapacity);
+        Thread parser = new Thread(() -> parse(invReader, queue),
+                "InventoryExchange-parser");
+        List<String> errors = new ArrayList<>();
+        long start = System.nanoTime();
+        long rowCount = 0;
+        long addedCount = 0;
+        long rejectedCount = 0;
+        Batch batch;
+
+        parser.setDaemon(true);
+        parser.start();
+        try {
+            do {
+                batch = queue.take();
+                addedCount += inv.importBatch(batch.infos, batch.quantities,
+                        batch.size, mode == Mode.REPLACE);
+                rowCount += batch.rowCount;
+                rejectedCount += batch.errors.size();
+                for (String error : batch.errors)
+                    if (errors.size() < MAX_REPORTED_ERRORS)
+                        errors.add(error);
+                if (batch.failure != null)
+                    throw batch.failure;
+                if (progressListener != null)
+                    progressListener.progress(rowCount, rejectedCount,
+                            rowsPerSecond(rowCount, System.nanoTime()
+                                    - start));
+            } while (!batch.last);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Import of '" + source
+                    + "' interrupted.");
+        } finally {
+            // Stops the parser if applying failed before the end.
+            parser.interrupt();
+        }
+        logChanges("Imported " + rowCount + " rows from '" + source
+                + "' into '" + inv.getName() + "' inventory ("
+                + rejectedCount + " rejected).");
+
+        return new Result(rowCount, addedCount, rejectedCount, errors,
+                System.nanoTime() - start);
+    }
+
+    /**
+     * Reads the records on the parser thread and queues them in batches,
+     * followed by a last batch that carries any failure.
+     */
+    private void parse(InventoryReader invReader, BlockingQueue<Batch> queue) {
+        Batch batch = new Batch(batchSize);
+
+        try {
+            try (InventoryReader reader = invReader) {
+                while (true) {
+                    try {
+                        if (!reader.next())
+                            break;
+                        batch.infos[batch.size] = reader.getInfo();
+                        batch.quantities[batch.size++] = reader.getQuantity();
+                    } catch (InventoryFormatException ex) {
+                        batch.errors.add(ex.getMessage());
+                    }
+                    if (++batch.rowCount == batchSize) {
+                        queue.put(batch);
+                        batch = new Batch(batchSize);
+                    }
+                }
+            } catch (IOException ex) {
+                batch.failure = ex;
+            }
+            batch.last = true;
+            queue.put(batch);
+        } catch (InterruptedException ex) {
+            // The import was given up, so nobody takes the batch.
+        }
+    }
+
+    /**
+     * Exports every item of the inventory to the specified file, choosing
+     * the format from its extension.
+     * @param file The file to write.
+     * @return The outcome of the export.
+     * @throws IOException If the file cannot be written.
+     */
+    public Result exportTo(File file) throws IOException {
+        return exportTo(file, Format.forFile(file));
+    }
+
+    /**
+     * Exports every item of the inventory to the specified file in the
+     * specified format, replacing its contents.
+     * @param file The file to write.
+     * @param format The format to write the items in.
+     * @return The outcome of the export.
+     * @throws IOException If the file cannot be written.
+     */
+    public Result exportTo(File file, Format format) throws IOException {
+        long start = System.nanoTime();
+        long rowCount = 0;
+
+        try (InventorySnapshot snapshot = inv.snapshot();
+                Writer out = new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(file), StandardCharsets.UTF_8),
+                        WRITE_BUFFER_SIZE)) {
+            if (format == Format.CSV)
+                out.write("info,quantity\n");
+            for (Item item : snapshot.items()) {
+                if (format == Format.CSV)
+                    writeCsv(out, item);
+                else
+                    writeJson(out, item);
+                if (++rowCount % batchSize == 0 && progressListener != null)
+                    progressListener.progress(rowCount, 0, rowsPerSecond(
+                            rowCount, System.nanoTime() - start));
+            }
+        }
+        logChanges("Exported " + rowCount + " rows from '" + inv.getName()
+                + "' inventory to '" + file.getPath() + "'.");
+
+        return new Result(rowCount, 0, 0, new ArrayList<>(),
+                System.nanoTime() - start);
+    }
+
+    private static void writeCsv(Writer out, Item item) throws IOException {
+        String info = item.getInfo();
+        boolean quoted = info.isEmpty() || info.trim().length() < info.length()
+                || info.indexOf(',') >= 0 || info.indexOf('"') >= 0
+                || info.indexOf('\n') >= 0 || info.indexOf('\r') >= 0;
+
+        if (quoted)
+            out.write('"' + info.replace("\"", "\"\"") + '"');
+        else
+            out.write(info);
+        out.write(',');
+        out.write(Integer.toString(item.getQuantity()));
+        out.write('\n');
+    }
+
+    private static void writeJson(Writer out, Item item) throws IOException {
+        String info = item.getInfo();
+        char c;
+
+        out.write("{\"info\":\"");
+        for (int i = 0; i < info.length(); i++) {
+            c = info.charAt(i);
+            if (c == '"' || c == '\\')
+                out.write('\\');
+            if (c >= ' ')
+                out.write(c);
+            else
+                out.write(String.format("\\u%04x", (int) c));
+        }
+        out.write("\",\"quantity\":");
+        out.write(Integer.toString(item.getQuantity()));
+        out.write("}\n");
+    }
+
+    /**
+     * Gets the name of a file without its extension, which exchanged files
+     * use as the name of their inventory.
+     * @param file The exchanged file.
+     * @return The base name of the file.
+     */
+    static String baseName(File file) {
+        String fileName = file.getName();
+        int dot = fileName.lastIndexOf('.');
+
+        return dot > 0 ? fileName.substring(0, dot) : fileName;
+    }
+
+    private static double rowsPerSecond(long rowCount, long nanos) {
+        return nanos > 0 ? rowCount * 1e9 / nanos : 0.0;
+    }
+
+    private static void logChanges(String message) {
+        try {
+            ChangeLog.getDefault().append(message);
+        } catch (IOException ex) {
+            System.err.println(ex.getMessage());
+        }
+    }
+}
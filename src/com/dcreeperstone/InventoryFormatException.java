@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import java.io.IOException;
+
+/**
+ * The {@code InventoryFormatException} class signals that an inventory file
+ * holds a record that cannot be read. It carries the line number of the bad
+ * record so the file can be fixed by hand.
+ * @author Dr. Hoss
+ */
+public class InventoryFormatException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int lineNumber;
+
+    /**
+     * Constructor that initializes a new {@code InventoryFormatException}
+     * with the offending line number and a description of the problem.
+     * @param inLineNumber The line number of the malformed record.
+     * @param message The description of the problem.
+     */
+    public InventoryFormatException(int inLineNumber, String message) {
+        super("Line " + inLineNumber + ": " + message);
+        lineNumber = inLineNumber;
+    }
+
+    /**
+     * Constructor that initializes a new {@code InventoryFormatException}
+     * for data that has no line structure, such as a binary snapshot.
+     * @param message The description of the problem.
+     */
+    public InventoryFormatException(String message) {
+        super(message);
+        lineNumber = 0;
+    }
+
+    /**
+     * Gets the line number of the malformed record.
+     * @return The line number attribute, or 0 if the data has no lines.
+     */
+    public int getLineNumber() {
+        return lineNumber;
+    }
+}
@@ -17,47 +17,130 @@
  */
 package com.dcreeperstone;
 
+import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.File;
-import java.util.Scanner;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * The {@code InventoryHandler} class is designed to handle all actions dealing
  * with an {@code Inventory} instance, including updating its contents and
- * saving it to a file.
+ * saving it to a file. Each handler runs one operator session, reading the
+ * operator's input from its own reader and writing the menus and results to
+ * its own writer, so many sessions can run at once on separate threads.
+ * Sessions that load the same file share its {@code Inventory}. Quitting or
+ * closing the input ends only the session.
  * @author Dr. Hoss
  */
-public class InventoryHandler {
+public class InventoryHandler implements Runnable {
 
-    private InventoryHandler() {}
+    private static final int MAX_SUGGESTIONS = 5;
+    private static final int MAX_CACHED_INVENTORIES = 16;
+
+    // Inventories loaded from files are shared by every session, so they
+    // must allow changes from several threads.
+    private static final InventoryManager MANAGER = new InventoryManager(
+            MAX_CACHED_INVENTORIES, Runtime.getRuntime().maxMemory() / 4,
+            ConcurrentInventory::new);
+
+    private final BufferedReader in;
+    private final PrintWriter out;
+    private InventoryJournal journal;
+    private Inventory managed;
+    private boolean ended;
+
+    /**
+     * Constructor that initializes a new {@code InventoryHandler} session
+     * that reads the operator's input from the specified reader and writes
+     * to the specified writer.
+     * @param inReader The source of the operator's input.
+     * @param outWriter The target for the menus and results.
+     */
+    public InventoryHandler(Reader inReader, Writer outWriter) {
+        in = new BufferedReader(inReader);
+        out = new PrintWriter(outWriter);
+    }
+
+    /**
+     * Creates a session for the operator at the console.
+     * @return The console session.
+     */
+    public static InventoryHandler console() {
+        return new InventoryHandler(new InputStreamReader(System.in),
+                new OutputStreamWriter(System.out));
+    }
 
     /**
      * Provides the main functionality for processing many {@code Inventory}
-     * instances.
+     * instances, until the operator quits or the input ends.
      */
-    public static void run() {
+    @Override
+    public void run() {
         Inventory inv;
-        Scanner kbd = new Scanner(System.in);
-        char runAgain;
-        
-        do {
-            inv = getNewInventory();
-            if (inv != null) {
-                processInventory(inv);
-                saveInventory(inv);
+
+        // Missing items and failed saves are told to this operator, not to
+        // the console of the process.
+        Inventory.reportTo(out);
+        try {
+            do {
+                inv = getNewInventory();
+                if (ended)
+                    break;
+                if (inv != null) {
+                    try {
+                        processInventory(inv);
+                        saveInventory(inv);
+                    } finally {
+                        releaseInventory();
+                    }
+                }
+                else
+                    out.println("Error generating new inventory.");
+            } while (readChoice("Process a new inventory? (Y/N) ") == 'Y');
+        } catch (IOException ex) {
+            // The operator went away, which ends the session.
+        } finally {
+            releaseInventory();
+            Inventory.reportTo(null);
+            out.flush();
+        }
+    }
+
+    /**
+     * Hands the inventory of the session back to the shared journal or
+     * cache it came from, so that it can be closed or dropped once no other
+     * session uses it.
+     */
+    private void releaseInventory() {
+        if (managed != null) {
+            MANAGER.release(managed);
+            managed = null;
+        }
+        if (journal != null) {
+            try {
+                journal.release();
+            } catch (IOException ex) {
+                out.println(ex.getMessage());
             }
-            else
-                System.out.println("Error generating new inventory.");
-            System.out.print("Process a new inventory? (Y/N) ");
-            runAgain = kbd.nextLine().toUpperCase().charAt(0);
-        } while (runAgain == 'Y');
+            journal = null;
+        }
     }
-    
+
     /**
      * Gets an {@code Inventory} instance from either a file or creates a new
      * instance.
      * @return A new {@code Inventory} instance based on the user's choice.
+     * @throws IOException If the input ends.
      */
-    public static Inventory getNewInventory() {
+    public Inventory getNewInventory() throws IOException {
         Inventory inv;
         char startChoice;
         
@@ -67,38 +150,41 @@ public class InventoryHandler {
         return inv;
     }
     
-    private static void showStartMenu() {
-        System.out.println("START MENU OPTIONS:");
-        System.out.println("1. (L)oad an existing inventory from a file.");
-        System.out.println("2. (C)reate a new inventory.");
-        System.out.println("3. (Q)uit.");
+    private void showStartMenu() {
+        out.println("START MENU OPTIONS:");
+        out.println("1. (L)oad an existing inventory from a file.");
+        out.println("2. (C)reate a new inventory.");
+        out.println("3. (M)erge several inventory files into one.");
+        out.println("4. (Q)uit.");
     }
     
     /**
      * Gets the user choice to load an existing {@code Inventory}, create a new
-     * {@code Inventory}, or quit the program.
+     * {@code Inventory}, merge several inventory files, or quit the session.
      * @return The user's inventory generation choice.
+     * @throws IOException If the input ends.
      */
-    public static char getStartChoice() {
-        Scanner kbd = new Scanner(System.in);
+    public char getStartChoice() throws IOException {
         char startChoice;
         
         showStartMenu();
         do {
-            System.out.print("Enter your choice: ");
-            startChoice = kbd.nextLine().toUpperCase().charAt(0);
-        } while (startChoice != 'Q' 
-                && startChoice != 'L' && startChoice != 'C');
+            startChoice = readChoice("Enter your choice: ");
+        } while (startChoice != 'Q' && startChoice != 'L'
+                && startChoice != 'C' && startChoice != 'M');
         
         return startChoice;
     }
     
     /**
      * Gets a new {@code Inventory} instance from a file or creates one.
+     * Quitting ends the session.
      * @param startChoice The user's inventory generation choice.
-     * @return A new {@code Inventory} instance based on the choice provided.
+     * @return A new {@code Inventory} instance based on the choice provided,
+     * or {@code null} if the user quit.
+     * @throws IOException If the input ends.
      */
-    public static Inventory performStartChoice(char startChoice) {
+    public Inventory performStartChoice(char startChoice) throws IOException {
         Inventory inv;
         
         inv = null;
@@ -107,7 +193,9 @@ public class InventoryHandler {
                         break;
             case 'C':   inv = createNewInventory();
                         break;
-            case 'Q':   System.exit(0);
+            case 'M':   inv = mergeInventoryFiles();
+                        break;
+            case 'Q':   ended = true;
                         break;
         }
         
@@ -116,20 +204,72 @@ public class InventoryHandler {
     
     /**
      * Generates a new {@code Inventory} instance using the user specified path.
+     * If the path is a directory, it is opened as an {@code InventoryJournal}
+     * and every change to the inventory is journaled there. Sessions that
+     * open the same directory share its journal and inventory. Recently used
+     * files are kept in memory, so loading one of them again is instant.
      * @return An {@code Inventory} instance with contents loaded from a file.
+     * @throws IOException If the input ends.
      */
-    public static Inventory loadExistingInventory() {
+    public Inventory loadExistingInventory() throws IOException {
         File invFile;
-        Scanner kbd = new Scanner(System.in);
         Inventory inv;
         String invPath;
         
         inv = null;
-        System.out.print("Enter the path where the inventory is found: ");
-        invPath = kbd.nextLine();
+        invPath = readLine("Enter the path where the inventory is found: ");
         invFile = new File(invPath);
-        if (invFile.exists())
-            inv = new Inventory(invFile);
+        if (invFile.isDirectory()) {
+            try {
+                journal = InventoryJournal.share(invFile, invFile.getName());
+                inv = journal.getInventory();
+            } catch (IOException ex) {
+                out.println(ex.getMessage());
+            }
+        } else if (invFile.exists()) {
+            try {
+                inv = MANAGER.get(invFile);
+                managed = inv;
+            } catch (IOException ex) {
+                out.println(ex.getMessage());
+            }
+        }
+        
+        return inv;
+    }
+    
+    /**
+     * Generates a new {@code Inventory} instance from several inventory files
+     * read in parallel. The user enters either a directory, whose files are
+     * all merged, or a list of files separated by the path separator.
+     * @return An {@code Inventory} instance holding the merged contents.
+     * @throws IOException If the input ends.
+     */
+    public Inventory mergeInventoryFiles() throws IOException {
+        File invFile;
+        Inventory inv;
+        List<File> invFiles;
+        String invPaths;
+        String invName = null;
+        
+        inv = null;
+        invPaths = readLine("Enter a directory or the inventory files to "
+                + "merge, separated by '" + File.pathSeparator + "': ");
+        invFile = new File(invPaths);
+        if (!invFile.isDirectory())
+            invName = readLine("Enter a name for the merged inventory: ");
+        try {
+            if (invFile.isDirectory())
+                inv = InventoryLoader.loadDirectory(invFile);
+            else {
+                invFiles = new ArrayList<>();
+                for (String invPath : invPaths.split(File.pathSeparator))
+                    invFiles.add(new File(invPath.trim()));
+                inv = InventoryLoader.load(invName, invFiles);
+            }
+        } catch (IOException ex) {
+            out.println(ex.getMessage());
+        }
         
         return inv;
     }
@@ -137,14 +277,13 @@ public class InventoryHandler {
     /**
      * Generates a new {@code Inventory} instance using the user specified name.
      * @return A new {@code Inventory} with the specified name.
+     * @throws IOException If the input ends.
      */
-    public static Inventory createNewInventory() {
-        Scanner kbd = new Scanner(System.in);
+    public Inventory createNewInventory() throws IOException {
         Inventory inv;
         String invName;
         
-        System.out.print("Enter a name for the inventory: ");
-        invName = kbd.nextLine();
+        invName = readLine("Enter a name for the inventory: ");
         inv = new Inventory(invName);
         
         return inv;
@@ -154,28 +293,34 @@ public class InventoryHandler {
      * Repeatedly gets the user's choice to manipulate the provided 
      * {@code Inventory} instance.
      * @param inv The {@code Inventory} to process continually.
+     * @throws IOException If the input ends.
      */
-    public static void processInventory(Inventory inv) {
+    public void processInventory(Inventory inv) throws IOException {
         int userChoice;
         
         do {
             userChoice = getUserChoice();
-            performChoice(inv, userChoice);
+            try {
+                performChoice(inv, userChoice);
+            } catch (IllegalArgumentException | IllegalStateException
+                    | UncheckedIOException ex) {
+                out.println(ex.getMessage());
+            }
         } while (userChoice != 10);
     }
     
-    private static void showOperationMenu() {
-        System.out.println("Inventory operations are as follows:");
-        System.out.println("1.  Add a new item to the inventory.");
-        System.out.println("2.  Add a quantity to an existing item.");
-        System.out.println("3.  Remove a quantity from an existing item.");
-        System.out.println("4.  Remove an existing item from the inventory.");
-        System.out.println("5.  Reset an existing item quantity.");
-        System.out.println("6.  Reset all item quantities.");
-        System.out.println("7.  Clear all items from the inventory.");
-        System.out.println("8.  Display all existing items in the inventory.");
-        System.out.println("9.  Search for an existing item.");
-        System.out.println("10.  Exit and save inventory to a file.");
+    private void showOperationMenu() {
+        out.println("Inventory operations are as follows:");
+        out.println("1.  Add a new item to the inventory.");
+        out.println("2.  Add a quantity to an existing item.");
+        out.println("3.  Remove a quantity from an existing item.");
+        out.println("4.  Remove an existing item from the inventory.");
+        out.println("5.  Reset an existing item quantity.");
+        out.println("6.  Reset all item quantities.");
+        out.println("7.  Clear all items from the inventory.");
+        out.println("8.  Display all existing items in the inventory.");
+        out.println("9.  Search for an existing item.");
+        out.println("10.  Exit and save inventory to a file.");
     }
     
     /**
@@ -185,15 +330,14 @@ public class InventoryHandler {
      * an {@code Item} instance, or exit and save the {@code Inventory} contents
      * to a file.
      * @return The user manipulation choice.
+     * @throws IOException If the input ends.
      */
-    public static int getUserChoice() {
-        Scanner kbd = new Scanner(System.in);
+    public int getUserChoice() throws IOException {
         int userChoice;
         
         showOperationMenu();
         do {
-            System.out.print("Enter your choice: ");
-            userChoice = kbd.nextInt();
+            userChoice = readInt("Enter your choice: ");
         } while (userChoice < 1 || userChoice > 10);
         
         return userChoice;
@@ -204,8 +348,10 @@ public class InventoryHandler {
      * {@code Inventory} instance.
      * @param inv The {@code Inventory} to process.
      * @param userChoice The operation chosen by the user.
+     * @throws IOException If the input ends.
      */
-    public static void performChoice(Inventory inv, int userChoice) {
+    public void performChoice(Inventory inv, int userChoice)
+            throws IOException {
         switch (userChoice) {
             case 1:     addNewItemToInventory(inv);
                         break;
@@ -221,65 +367,68 @@ public class InventoryHandler {
                         break;
             case 7:     inv.clearInventory();
                         break;
-            case 8:     inv.displayAllItems();
+            case 8:     inv.displayItems(new InventoryRenderer(), out);
                         break;
             case 9:     searchForInventoryItem(inv);
                         break;
-            case 10:    saveInventory(inv);
-                        System.exit(0);
-                        break;
+            case 10:    break;
         }
     }
     
     /**
-     * Saves the contents of the {@code Inventory} to a file.
+     * Saves the contents of the {@code Inventory} to a file. Saving back to
+     * the file the inventory was loaded from only writes the changes.
      * @param inv The {@code Inventory} instance to be processed.
+     * @throws IOException If the input ends.
      */
-    public static void saveInventory(Inventory inv) {
-        Scanner kbd = new Scanner(System.in);
+    public void saveInventory(Inventory inv) throws IOException {
         String directory, fileName;
         
-        System.out.print("Enter the save directory for the inventory: ");
-        directory = kbd.nextLine();
-        System.out.print("Enter the save name for the inventory: ");
-        fileName = kbd.nextLine();
-        inv.saveDataTo(directory, fileName);
+        directory = readLine("Enter the save directory for the inventory: ");
+        fileName = readLine("Enter the save name for the inventory: ");
+        inv.saveChangesTo(directory, fileName);
     }
 
     /**
      * Searches the list of the {@code Inventory} instance for a desired
-     * {@code Item}.
+     * {@code Item}. If there is no exact match, items whose info starts with
+     * or contains the search text are suggested instead.
      * @param inv 
+     * @throws IOException If the input ends.
      */
-    public static void searchForInventoryItem(Inventory inv) {
-        Scanner kbd = new Scanner(System.in);
+    public void searchForInventoryItem(Inventory inv) throws IOException {
         Item searchItem;
+        List<Item> matches;
         String key;
         
-        System.out.print("What item do you want to search for? ");
-        key = kbd.nextLine();
+        key = readLine("What item do you want to search for? ");
         searchItem = inv.search(key);
         if (searchItem != null)
-            System.out.println("Item found: \n" + searchItem);
-        else
-            System.out.println("Item could not be found in the inventory.");
+            out.println("Item found: \n" + searchItem);
+        else {
+            out.println("Item could not be found in the inventory.");
+            matches = inv.searchBestMatches(key, MAX_SUGGESTIONS);
+            if (!matches.isEmpty()) {
+                out.println("Similar items:");
+                for (Item match : matches)
+                    out.println(match);
+            }
+        }
     }
 
     /**
      * Allows the user to add a new {@code Item} instance to the list of the
      * {@code Inventory} instance.
      * @param inv The {@code Inventory} to be processed.
+     * @throws IOException If the input ends.
      */
-    public static void addNewItemToInventory(Inventory inv) {
-        Scanner kbd = new Scanner(System.in);
+    public void addNewItemToInventory(Inventory inv) throws IOException {
         Item inItem;
         String inInfo;
         int inQuantity;
         
-        System.out.print("Enter the item's info: ");
-        inInfo = kbd.nextLine();
-        System.out.print("Enter the item quantity: ");
-        inQuantity = kbd.nextInt();
+        inInfo = readLine("Enter the item's info: ");
+        inQuantity = readInt("Enter the item quantity: ");
         inItem = new Item(inInfo, inQuantity);
         inv.addNewItem(inItem);
     }
@@ -288,61 +437,104 @@ public class InventoryHandler {
      * Allows the user to add a specified quantity to a desired {@code Item}
      * instance in the list if it exists.
      * @param inv The {@code Inventory} to be processed.
+     * @throws IOException If the input ends.
      */
-    public static void addToInventoryItem(Inventory inv) {
-        Scanner kbd = new Scanner(System.in);
+    public void addToInventoryItem(Inventory inv) throws IOException {
         String key;
         int inQuantity;
         
-        System.out.print("Enter the item name to add a quantity to: ");
-        key = kbd.nextLine();
-        System.out.print("Enter the amount to add to the item: ");
-        inQuantity = kbd.nextInt();
-        inv.addToItem(key, inQuantity);
+        key = readLine("Enter the item name to add a quantity to: ");
+        if (existing(inv, key)) {
+            inQuantity = readInt("Enter the amount to add to the item: ");
+            inv.addToItem(key, inQuantity);
+        }
     }
 
     /**
      * Allows the user to remove a specified quantity from a desired 
      * {@code Item} instance in the list if it exists.
      * @param inv The {@code Inventory} to be processed.
+     * @throws IOException If the input ends.
      */
-    public static void removeFromInventoryItem(Inventory inv) {
-        Scanner kbd = new Scanner(System.in);
+    public void removeFromInventoryItem(Inventory inv) throws IOException {
         String key;
         int inQuantity;
         
-        System.out.print("Enter the item name to remove a quantity from: ");
-        key = kbd.nextLine();
-        System.out.print("Enter the amount to remove the item: ");
-        inQuantity = kbd.nextInt();
-        inv.removeFromItem(key, inQuantity);
+        key = readLine("Enter the item name to remove a quantity from: ");
+        if (existing(inv, key)) {
+            inQuantity = readInt("Enter the amount to remove the item: ");
+            inv.removeFromItem(key, inQuantity);
+        }
     }
 
     /**
      * Allows the user to remove a desired {@code Item} instance from the list 
      * if it exists.
      * @param inv The {@code Inventory} to be processed.
+     * @throws IOException If the input ends.
      */
-    public static void removeInventoryItem(Inventory inv) {
-        Scanner kbd = new Scanner(System.in);
+    public void removeInventoryItem(Inventory inv) throws IOException {
         String key;
         
-        System.out.print("Enter the item name to remove from the inventory: ");
-        key = kbd.nextLine();
-        inv.removeItem(key);
+        key = readLine("Enter the item name to remove from the inventory: ");
+        if (existing(inv, key))
+            inv.removeItem(key);
     }
 
     /**
      * Allows the user to reset the quantity of a desired {@code Item} instance
      * in the list if it exists.
      * @param inv The {@code Inventory} to be processed.
+     * @throws IOException If the input ends.
      */
-    public static void resetInventoryItem(Inventory inv) {
-        Scanner kbd = new Scanner(System.in);
+    public void resetInventoryItem(Inventory inv) throws IOException {
         String key;
         
-        System.out.print("Enter the item name to reset the quantity of: ");
-        key = kbd.nextLine();
-        inv.resetItem(key);
+        key = readLine("Enter the item name to reset the quantity of: ");
+        if (existing(inv, key))
+            inv.resetItem(key);
+    }
+
+    /**
+     * Tells the operator when an item is missing, here rather than on the
+     * console of the process.
+     */
+    private boolean existing(Inventory inv, String key) {
+        if (inv.search(key) != null)
+            return true;
+        out.println("Item could not be found in the inventory.");
+
+        return false;
+    }
+
+    private String readLine(String prompt) throws IOException {
+        String line;
+
+        out.print(prompt);
+        out.flush();
+        line = in.readLine();
+        if (line == null)
+            throw new EOFException("The session input ended.");
+
+        return line;
+    }
+
+    private char readChoice(String prompt) throws IOException {
+        String line = readLine(prompt).trim();
+
+        return line.isEmpty() ? ' ' : Character.toUpperCase(line.charAt(0));
+    }
+
+    private int readInt(String prompt) throws IOException {
+        String line;
+
+        while (true) {
+            line = readLine(prompt).trim();
+            try {
+                return Integer.parseInt(line);
+            } catch (NumberFormatException ex) {
+                out.println("'" + line + "' is not a whole number.");
+            }
+        }
     }
 }
@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * The {@code InventoryJournal} class makes every change to an
+ * {@code Inventory} durable before the call that made it returns, without
+ * rewriting the whole inventory. Each change is appended to a journal file
+ * as a record with a sequence number, and every so often the journal is
+ * compacted into a binary snapshot and started afresh. Opening a journal
+ * directory rebuilds the latest state by loading the snapshot and replaying
+ * the journal on top.
+ * <p>
+ * The journal is a redo log rather than a write-ahead log: a change is
+ * recorded right after it is made in memory, so a crash in between loses
+ * that change, but never one that has returned, because by default every
+ * record is forced to the storage device first. A change whose record cannot
+ * be written stays made in memory, but the call that made it fails with an
+ * {@code UncheckedIOException}.
+ * <p>
+ * Records state the resulting quantity of an item rather than the change to
+ * it, so replaying a record twice is harmless. The quantity is read from the
+ * item held under the key when the record is written, so when one thread
+ * removes an item while another adds it back, the last record for the key
+ * still holds the state it ended in. A reset or clear is recorded as a new
+ * snapshot, for the same reason. Each snapshot notes the sequence number of
+ * the last record it includes, and opening the journal skips the records at
+ * or below it, so a crash between writing a snapshot and truncating the
+ * journal cannot bring back quantities from before a reset or clear. A
+ * record torn by a crash fails its checksum and is cut off when the journal
+ * is opened. The record layout is described by {@code ChangeRecords}.
+ * <p>
+ * Sessions that work on the same directory share one journal through
+ * {@code share}, and the journal is closed when the last of them releases
+ * it.
+ * @author Dr. Hoss
+ */
+public class InventoryJournal implements InventoryListener, Closeable {
+
+    private static final String SNAPSHOT_FILE = "snapshot.invs";
+    private static final String JOURNAL_FILE = "journal.log";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final long DEFAULT_COMPACT_RECORDS = 100000;
+    private static final Map<File, InventoryJournal> SHARED = new HashMap<>();
+
+    private final File directory;
+    private final Inventory inv;
+    private final boolean syncEachRecord;
+    private final long compactThreshold;
+    private final ChangeRecords records;
+    private FileChannel channel;
+    private long sequence;
+    private long recordsSinceCompaction;
+    private int shareCount;
+
+    private InventoryJournal(File inDirectory, Inventory inInv, long inSequence,
+            boolean inSyncEachRecord, long inCompactThreshold)
+            throws IOException {
+        directory = inDirectory;
+        inv = inInv;
+        sequence = inSequence;
+        syncEachRecord = inSyncEachRecord;
+        compactThreshold = inCompactThreshold;
+        records = new ChangeRecords();
+        channel = ChangeRecords.openForAppend(journalFile());
+    }
+
+    /**
+     * Opens the journal in the specified directory, rebuilding its
+     * {@code Inventory} from the snapshot and journal found there. Every
+     * record is forced to the storage device, and the journal is compacted
+     * every 100,000 records.
+     * @param inDirectory The directory holding the journal and snapshot.
+     * @param inName The name for the {@code Inventory} if the directory holds
+     * no saved state yet.
+     * @return The opened journal, attached to its rebuilt {@code Inventory}.
+     * @throws IOException If the saved state cannot be read.
+     */
+    public static InventoryJournal open(File inDirectory, String inName)
+            throws IOException {
+        return open(inDirectory, inName, Inventory::new, true,
+                DEFAULT_COMPACT_RECORDS);
+    }
+
+    /**
+     * Gets the journal open in the specified directory, opening it if no
+     * session holds it yet. The shared {@code Inventory} allows changes from
+     * several threads, and every record is forced to the storage device.
+     * Each call must be matched by a call to {@code release}.
+     * @param inDirectory The directory holding the journal and snapshot.
+     * @param inName The name for the {@code Inventory} if the directory holds
+     * no saved state yet.
+     * @return The shared journal, attached to its {@code Inventory}.
+     * @throws IOException If the saved state cannot be read.
+     */
+    public static InventoryJournal share(File inDirectory, String inName)
+            throws IOException {
+        File key = inDirectory.getCanonicalFile();
+        InventoryJournal shared;
+
+        synchronized (SHARED) {
+            shared = SHARED.get(key);
+            if (shared == null) {
+                shared = open(key, inName, ConcurrentInventory::new, true,
+                        DEFAULT_COMPACT_RECORDS);
+                SHARED.put(key, shared);
+            }
+            shared.shareCount++;
+        }
+
+        return shared;
+    }
+
+    /**
+     * Gives up one hold on a journal obtained from {@code share}, closing it
+     * once no session holds it any more. A journal obtained from
+     * {@code open} is closed right away.
+     * @throws IOException If the journal cannot be closed.
+     */
+    public void release() throws IOException {
+        synchronized (SHARED) {
+            if (shareCount > 0 && --shareCount > 0)
+                return;
+            SHARED.remove(directory, this);
+        }
+        close();
+    }
+
+    /**
+     * Opens the journal in the specified directory, rebuilding its
+     * {@code Inventory} from the snapshot and journal found there.
+     * @param inDirectory The directory holding the journal and snapshot.
+     * @param inName The name for the {@code Inventory} if the directory holds
+     * no saved state yet.
+     * @param factory Creates the empty {@code Inventory} with a given name.
+     * @param syncEachRecord Whether to force every record to the storage
+     * device before the change returns.
+     * @param compactThreshold The number of records after which the journal
+     * is compacted into a new snapshot.
+     * @return The opened journal, attached to its rebuilt {@code Inventory}.
+     * @throws IOException If the saved state cannot be read.
+     */
+    public static InventoryJournal open(File inDirectory, String inName,
+            Function<String, ? extends Inventory> factory,
+            boolean syncEachRecord, long compactThreshold)
+            throws IOException {
+        File snapshot = new File(inDirectory, SNAPSHOT_FILE);
+        File journal = new File(inDirectory, JOURNAL_FILE);
+        InventoryJournal opened;
+        Inventory inv;
+        String checkpointName;
+        long covered = 0;
+        long lastSequence;
+
+        if (!inDirectory.exists() && !inDirectory.mkdirs())
+            throw new IOException("Cannot create journal directory '"
+                    + inDirectory.getPath() + "'.");
+        if (snapshot.exists())
+            try (SnapshotInventoryReader invReader =
+                    new SnapshotInventoryReader(snapshot)) {
+                inv = factory.apply(invReader.getName());
+                while (invReader.next())
+                    inv.restoreItem(invReader.getInfo(),
+                            invReader.getQuantity());
+                covered = invReader.getSequence();
+            }
+        else {
+            checkpointName = ChangeRecords.firstCheckpoint(journal);
+            inv = factory.apply(checkpointName != null ? checkpointName
+                    : inName);
+        }
+        lastSequence = ChangeRecords.replay(journal, inv, false, covered);
+        opened = new InventoryJournal(inDirectory, inv,
+                Math.max(covered, lastSequence), syncEachRecord,
+                compactThreshold);
+        if (lastSequence == 0)
+            opened.append(ChangeRecords.CHECKPOINT, 0, inv.getName());
+        inv.addListener(opened);
+
+        return opened;
+    }
+
+    /**
+     * Gets the {@code Inventory} whose changes are journaled.
+     * @return The journaled {@code Inventory}.
+     */
+    public Inventory getInventory() {
+        return inv;
+    }
+
+    /**
+     * Gets the sequence number of the most recent record.
+     * @return The sequence attribute.
+     */
+    public synchronized long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Writes the current state of the {@code Inventory} to a new snapshot and
+     * starts a new, empty journal. Both files are replaced atomically, and
+     * the snapshot notes the last record it includes, so that the records of
+     * the old journal are skipped if a crash leaves it in place.
+     * @throws IOException If the snapshot or journal cannot be written.
+     */
+    public synchronized void compact() throws IOException {
+        File snapshot = new File(directory, SNAPSHOT_FILE);
+        File tempSnapshot = new File(directory, SNAPSHOT_FILE + TEMP_SUFFIX);
+        File tempJournal = new File(directory, JOURNAL_FILE + TEMP_SUFFIX);
+
+        try (InventorySnapshot frozen = inv.snapshot()) {
+            SnapshotWriter.write(tempSnapshot, frozen.getName(),
+                    frozen.items(), sequence);
+        }
+        Files.move(tempSnapshot.toPath(), snapshot.toPath(),
+                StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        channel.force(false);
+        channel.close();
+        channel = ChangeRecords.openForAppend(tempJournal);
+        append(ChangeRecords.CHECKPOINT, 0, inv.getName());
+        channel.force(false);
+        channel.close();
+        Files.move(tempJournal.toPath(), journalFile().toPath(),
+                StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        channel = ChangeRecords.openForAppend(journalFile());
+        recordsSinceCompaction = 0;
+    }
+
+    /**
+     * Stops journaling changes, forces the journal to the storage device and
+     * closes it.
+     * @throws IOException If the journal cannot be closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        inv.removeListener(this);
+        if (channel.isOpen()) {
+            channel.force(false);
+            channel.close();
+        }
+    }
+
+    @Override
+    public void itemAdded(Item item, int quantity) {
+        record(item);
+    }
+
+    @Override
+    public void quantityChanged(Item item, int oldQuantity, int newQuantity) {
+        record(item);
+    }
+
+    @Override
+    public void itemRemoved(Item item, int quantity) {
+        record(item);
+    }
+
+    @Override
+    public void allItemsReset() {
+        recordSnapshot();
+    }
+
+    @Override
+    public void inventoryCleared() {
+        recordSnapshot();
+    }
+
+    private synchronized void record(Item item) {
+        Item held;
+
+        try {
+            // The item is looked up here, under the journal lock, so that the
+            // last record for a key always holds its latest state even when
+            // several threads change, remove or add it back at once.
+            held = inv.index().get(item.getKey());
+            if (held != null)
+                append(ChangeRecords.SET, held.getQuantity(), held.getInfo());
+            else
+                append(ChangeRecords.REMOVE, 0, item.getInfo());
+            if (syncEachRecord)
+                channel.force(false);
+            if (++recordsSinceCompaction >= compactThreshold)
+                compact();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Records a reset or clear by compacting, since a change made just after
+     * it could otherwise be recorded just before it.
+     */
+    private synchronized void recordSnapshot() {
+        try {
+            compact();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private void append(byte operation, int quantity, String info)
+            throws IOException {
+        records.write(channel, ++sequence, operation, quantity, info);
+    }
+
+    private File journalFile() {
+        return new File(directory, JOURNAL_FILE);
+    }
+}
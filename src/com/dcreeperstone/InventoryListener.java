@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+/**
+ * The {@code InventoryListener} interface is implemented by classes that need
+ * to follow every change made to an {@code Inventory}. Listeners are called on
+ * the thread that made the change, right after it was made, so they should
+ * return quickly. When a {@code ConcurrentInventory} is changed by many
+ * threads, its listeners are called from all of them and must be thread-safe.
+ * The quantities passed to a listener are the ones the change itself read and
+ * wrote, which the {@code Item} may no longer hold by the time the listener
+ * runs. Every method does nothing by default.
+ * @author Dr. Hoss
+ */
+public interface InventoryListener {
+
+    /**
+     * Called after a new {@code Item} was added to the inventory.
+     * @param item The added {@code Item}.
+     * @param quantity The quantity the {@code Item} was added with.
+     */
+    default void itemAdded(Item item, int quantity) {
+    }
+
+    /**
+     * Called after the quantity of an {@code Item} in the inventory changed.
+     * @param item The changed {@code Item}.
+     * @param oldQuantity The quantity before the change.
+     * @param newQuantity The quantity after the change.
+     */
+    default void quantityChanged(Item item, int oldQuantity, int newQuantity) {
+    }
+
+    /**
+     * Called after an {@code Item} was removed from the inventory.
+     * @param item The removed {@code Item}.
+     * @param quantity The quantity the {@code Item} had when it was removed.
+     */
+    default void itemRemoved(Item item, int quantity) {
+    }
+
+    /**
+     * Called after the quantities of all {@code Item} instances were reset
+     * to 0.
+     */
+    default void allItemsReset() {
+    }
+
+    /**
+     * Called after all {@code Item} instances were removed from the
+     * inventory.
+     */
+    default void inventoryCleared() {
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The {@code InventoryLoader} class combines many inventory files, such as
+ * one file per warehouse, into a single {@code Inventory}. The files are
+ * read in parallel on a {@code ForkJoinPool}, each into its own partial map,
+ * and the partial maps are merged pairwise as the reads finish. Items with
+ * the same info have their quantities summed, just as {@code addNewItem}
+ * does for duplicates, and the info of the first file listed is kept. A sum
+ * that does not fit in a quantity fails the load.
+ * @author Dr. Hoss
+ */
+public final class InventoryLoader {
+
+    private static final String[] SKIPPED_SUFFIXES =
+            { ".delta", ".delta.merging", ".full", ".tmp", ".tmp.merge" };
+
+    private InventoryLoader() {}
+
+    /**
+     * Loads every inventory file in the specified directory and merges them
+     * into one {@code Inventory} named after the directory. Hidden files and
+     * the delta and temporary files kept next to saved inventories are
+     * skipped.
+     * @param directory The directory holding the inventory files.
+     * @return The merged {@code Inventory}.
+     * @throws IOException If the directory or one of its files cannot be read.
+     */
+    public static Inventory loadDirectory(File directory) throws IOException {
+        File[] files = directory.listFiles(InventoryLoader::isInventoryFile);
+
+        if (files == null)
+            throw new IOException("'" + directory.getPath()
+                    + "' is not a readable directory.");
+        Arrays.sort(files);
+
+        return load(directory.getName(), Arrays.asList(files));
+    }
+
+    /**
+     * Loads the specified inventory files in parallel on the common
+     * {@code ForkJoinPool} and merges them into one {@code Inventory}.
+     * @param name The name to use for the merged {@code Inventory}.
+     * @param files The inventory files to merge.
+     * @return The merged {@code Inventory}.
+     * @throws IOException If one of the files cannot be read.
+     */
+    public static Inventory load(String name, List<File> files)
+            throws IOException {
+        return load(name, files, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Loads the specified inventory files in parallel on the given pool and
+     * merges them into one {@code Inventory}.
+     * @param name The name to use for the merged {@code Inventory}.
+     * @param files The inventory files to merge.
+     * @param pool The pool to read the files on.
+     * @return The merged {@code Inventory}.
+     * @throws IOException If one of the files cannot be read, or the
+     * quantities of an item add up to more than a quantity can hold.
+     */
+    public static Inventory load(String name, List<File> files,
+            ForkJoinPool pool) throws IOException {
+        File[] fileArray = files.toArray(new File[0]);
+        Map<String, Item> merged;
+        Inventory inv;
+
+        try {
+            merged = pool.invoke(new LoadTask(fileArray, 0, fileArray.length));
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+        inv = new Inventory(name, merged, false);
+        try {
+            ChangeLog.getDefault().append("'" + name + "' inventory merged "
+                    + "from " + fileArray.length + " files.");
+        } catch (IOException ex) {
+            System.err.println(ex.getMessage());
+        }
+
+        return inv;
+    }
+
+    /**
+     * The {@code LoadTask} class reads a range of the files, splitting the
+     * range in half until a single file is left, and merges the results.
+     */
+    private static final class LoadTask
+            extends RecursiveTask<Map<String, Item>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final File[] files;
+        private final int from;
+        private final int to;
+
+        LoadTask(File[] inFiles, int inFrom, int inTo) {
+            files = inFiles;
+            from = inFrom;
+            to = inTo;
+        }
+
+        @Override
+        protected Map<String, Item> compute() {
+            LoadTask left;
+            Map<String, Item> right;
+            int middle;
+
+            if (to - from <= 1)
+                return from < to ? readFile(files[from]) : new HashMap<>();
+            middle = (from + to) >>> 1;
+            left = new LoadTask(files, from, middle);
+            left.fork();
+            right = new LoadTask(files, middle, to).compute();
+
+            return merge(left.join(), right);
+        }
+    }
+
+    private static Map<String, Item> readFile(File file) {
+        Map<String, Item> partial = new HashMap<>();
+        String name;
+
+        try {
+            try (InventoryReader invReader =
+                    InventoryCompactor.openBase(file)) {
+                name = invReader.getName();
+                while (invReader.next())
+                    addItem(partial, new Item(invReader.getInfo(),
+                            invReader.getQuantity()));
+            }
+            InventoryCompactor.applyDeltas(file,
+                    new Inventory(name, partial, false));
+        } catch (IOException | IllegalStateException ex) {
+            throw readFailure(file, ex);
+        } catch (UncheckedIOException ex) {
+            throw readFailure(file, ex.getCause());
+        }
+
+        return partial;
+    }
+
+    private static UncheckedIOException readFailure(File file, Exception ex) {
+        return new UncheckedIOException(new IOException("'" + file.getPath()
+                + "': " + ex.getMessage(), ex));
+    }
+
+    private static Map<String, Item> merge(Map<String, Item> first,
+            Map<String, Item> second) {
+        Item replaced;
+
+        if (first.size() >= second.size()) {
+            for (Item item : second.values())
+                addItem(first, item);
+            return first;
+        }
+        // Walk the smaller map, but let the items of the first one win.
+        for (Item item : first.values()) {
+            replaced = second.put(item.getKey(), item);
+            if (replaced != null)
+                item.setQuantity(sum(item, replaced.getQuantity()));
+        }
+
+        return second;
+    }
+
+    private static void addItem(Map<String, Item> partial, Item item) {
+        Item searchItem = partial.putIfAbsent(item.getKey(), item);
+
+        if (searchItem != null)
+            searchItem.setQuantity(sum(searchItem, item.getQuantity()));
+    }
+
+    private static int sum(Item item, int quantity) {
+        try {
+            return Math.addExact(item.getQuantity(), quantity);
+        } catch (ArithmeticException ex) {
+            throw new UncheckedIOException(new InventoryFormatException(
+                    "Total quantity of item '" + item.getInfo()
+                    + "' is larger than " + Integer.MAX_VALUE + "."));
+        }
+    }
+
+    private static boolean isInventoryFile(File file) {
+        if (!file.isFile() || file.isHidden())
+            return false;
+        for (String suffix : SKIPPED_SUFFIXES)
+            if (file.getName().endsWith(suffix))
+                return false;
+
+        return true;
+    }
+}
@@ -0,0 +1,428 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+/**
+ * The {@code InventoryManager} class keeps the recently used
+ * {@code Inventory} instances loaded from files, so that opening a file
+ * again returns the inventory already in memory instead of parsing the file
+ * again. Inventories are keyed by the canonical path of their file and are
+ * only reused while the file still holds the save the inventory was loaded
+ * from or last saved to; a file changed by anyone else is loaded again.
+ * Compacting the deltas of a file does not count as a change.
+ * <p>
+ * Every inventory returned by {@code get} is in use until it is handed back
+ * to {@code release}, and an inventory in use is never dropped or replaced,
+ * so every caller of the same file shares one copy. The manager holds at
+ * most a given number of inventories and, by their estimated memory, at
+ * most a given number of bytes; when more are in use, the bounds are met
+ * again as they are released. The least recently used inventories are
+ * dropped first, and an inventory with unsaved changes is saved back to its
+ * file before it is dropped. If the file was changed by someone else in the
+ * meantime, it is left alone and the unsaved inventory is written next to
+ * it, with {@code .conflict} appended to its name, instead. An inventory
+ * whose changes cannot be saved is not dropped; it stays held, and is tried
+ * again the next time the bounds are met, so its changes are never lost.
+ * <p>
+ * Files are loaded and saved outside the manager's lock, so a slow file
+ * only holds up the callers that need that file. Callers that ask for a
+ * file while it is being loaded wait for that one load and share its
+ * result.
+ * @author Dr. Hoss
+ */
+public class InventoryManager {
+
+    private static final String CONFLICT_SUFFIX = ".conflict";
+
+    private final int maxInventories;
+    private final long maxBytes;
+    private final Function<File, Inventory> loader;
+    private final LinkedHashMap<File, Held> inventories =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private long hitCount;
+    private long missCount;
+
+    /**
+     * The {@code Held} class is one held {@code Inventory}, the load that
+     * produces it, and the number of callers using it. The inventory is
+     * {@code null} until it is loaded, and an inventory being saved to be
+     * dropped is marked so that it is not picked twice.
+     */
+    private static final class Held {
+
+        private final CompletableFuture<Inventory> loaded =
+                new CompletableFuture<>();
+        private Inventory inv;
+        private int users;
+        private boolean saving;
+    }
+
+    /**
+     * Constructor that initializes a new, empty {@code InventoryManager}
+     * that loads files as plain {@code Inventory} instances.
+     * @param inMaxInventories The largest number of inventories to keep.
+     * @param inMaxBytes The largest estimated memory of the inventories to
+     * keep, in bytes.
+     */
+    public InventoryManager(int inMaxInventories, long inMaxBytes) {
+        this(inMaxInventories, inMaxBytes, Inventory::new);
+    }
+
+    /**
+     * Constructor that initializes a new, empty {@code InventoryManager}
+     * that loads files with the specified loader, for example
+     * {@code CompactInventory::new}.
+     * @param inMaxInventories The largest number of inventories to keep.
+     * @param inMaxBytes The largest estimated memory of the inventories to
+     * keep, in bytes.
+     * @param inLoader The function that loads an {@code Inventory} from a
+     * file.
+     */
+    public InventoryManager(int inMaxInventories, long inMaxBytes,
+            Function<File, Inventory> inLoader) {
+        if (inMaxInventories < 1 || inMaxBytes < 0)
+            throw new IllegalArgumentException("Invalid cache bounds.");
+        maxInventories = inMaxInventories;
+        maxBytes = inMaxBytes;
+        loader = inLoader;
+    }
+
+    /**
+     * Gets the {@code Inventory} of the specified file and marks it as in
+     * use until it is passed to {@code release}. The file is loaded unless
+     * its inventory is already held and either in use or the file was not
+     * changed since. An inventory in use is returned even if the file was
+     * changed, since replacing it would leave its users working on a copy
+     * nobody else sees. An unused inventory held for a file that was
+     * changed is dropped and the file loaded again; if the dropped
+     * inventory had unsaved changes, they are written to a conflict file
+     * instead of over the changed file, and the call fails so the caller
+     * learns about it. If those changes cannot be written at all, the
+     * inventory stays held and the call fails. The returned inventory stays
+     * held even if it alone exceeds the memory bound.
+     * @param invFile The file containing data for the {@code Inventory}.
+     * @return The {@code Inventory} of the file.
+     * @throws IOException If the file does not exist, cannot be loaded, its
+     * path cannot be resolved, or unsaved changes had to be written to a
+     * conflict file.
+     */
+    public Inventory get(File invFile) throws IOException {
+        File key = invFile.getCanonicalFile();
+        Held held;
+        Held stale = null;
+        boolean loading = false;
+        Inventory inv;
+
+        synchronized (this) {
+            held = inventories.get(key);
+            if (held != null && held.inv != null && held.users == 0
+                    && !held.saving && !held.inv.isSavedTo(key)) {
+                stale = held;
+                held = null;
+            }
+            if (held != null) {
+                hitCount++;
+                held.users++;
+            } else {
+                missCount++;
+                loading = true;
+                held = new Held();
+                held.users++;
+                inventories.put(key, held);
+            }
+        }
+        inv = loading ? load(key, invFile, held, stale) : await(held);
+        // Held inventories grow as they are changed.
+        trim(key);
+
+        return inv;
+    }
+
+    /**
+     * Marks an {@code Inventory} returned by {@code get} as no longer in use
+     * by the caller. Each call of {@code get} is matched by one call of
+     * {@code release}. Once no caller uses it, the inventory may be dropped
+     * to meet the bounds.
+     * @param inv The {@code Inventory} to release.
+     */
+    public void release(Inventory inv) {
+        synchronized (this) {
+            if (!unuse(inv))
+                return;
+        }
+        trim(null);
+    }
+
+    /**
+     * Saves every held {@code Inventory} that has unsaved changes to its
+     * file. Every inventory is tried even if one fails.
+     * @throws IOException If any inventory could not be saved; the others
+     * are attached as suppressed exceptions.
+     */
+    public void flush() throws IOException {
+        Map<File, Inventory> held = new LinkedHashMap<>();
+        IOException failure = null;
+
+        synchronized (this) {
+            inventories.forEach((invFile, entry) -> {
+                if (entry.inv != null)
+                    held.put(invFile, entry.inv);
+            });
+        }
+        for (Map.Entry<File, Inventory> entry : held.entrySet())
+            try {
+                saveIfChanged(entry.getKey(), entry.getValue());
+            } catch (IOException ex) {
+                if (failure == null)
+                    failure = ex;
+                else
+                    failure.addSuppressed(ex);
+            }
+        if (failure != null)
+            throw failure;
+    }
+
+    /**
+     * Saves every held {@code Inventory} and drops the ones not in use.
+     * Inventories whose changes could not be saved stay held.
+     * @throws IOException If any inventory could not be saved.
+     */
+    public void clear() throws IOException {
+        try {
+            flush();
+        } finally {
+            synchronized (this) {
+                inventories.values().removeIf(held -> held.users == 0
+                        && held.inv != null && !held.saving
+                        && !held.inv.hasUnsavedChanges());
+            }
+        }
+    }
+
+    /**
+     * Gets the number of inventories held.
+     * @return The inventory count.
+     */
+    public synchronized int size() {
+        return inventories.size();
+    }
+
+    /**
+     * Gets the number of calls to {@code get} that returned a held
+     * inventory.
+     * @return The hit count attribute.
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Gets the number of calls to {@code get} that loaded the file.
+     * @return The miss count attribute.
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Loads the file of a new entry, after first saving the unsaved changes
+     * of the stale inventory it replaces, and hands the result to every
+     * caller waiting for it. If the load fails, the entry is dropped again,
+     * unless the stale inventory could not be saved, which is then put back
+     * so its changes are kept.
+     */
+    private Inventory load(File key, File invFile, Held held, Held stale)
+            throws IOException {
+        boolean staleSaved = stale == null;
+        File conflict = null;
+        Inventory inv;
+
+        try {
+            if (stale != null) {
+                conflict = saveIfChanged(key, stale.inv);
+                staleSaved = true;
+            }
+            if (conflict != null)
+                throw new IOException("'" + invFile.getPath() + "' was "
+                        + "changed by someone else while its inventory had "
+                        + "unsaved changes, which were saved to '"
+                        + conflict.getPath() + "' instead.");
+            if (!key.isFile())
+                throw new FileNotFoundException("'" + invFile.getPath()
+                        + "' is not an inventory file.");
+            inv = loader.apply(key);
+        } catch (IOException | RuntimeException ex) {
+            synchronized (this) {
+                if (inventories.get(key) == held) {
+                    if (staleSaved)
+                        inventories.remove(key);
+                    else
+                        inventories.put(key, stale);
+                }
+            }
+            held.loaded.completeExceptionally(ex);
+            throw ex;
+        }
+        synchronized (this) {
+            held.inv = inv;
+        }
+        held.loaded.complete(inv);
+
+        return inv;
+    }
+
+    /**
+     * Waits for the load of an entry another caller started. A caller that
+     * stops waiting, or whose load failed, no longer uses the entry.
+     */
+    private Inventory await(Held held) throws IOException {
+        Throwable cause;
+
+        try {
+            return held.loaded.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            synchronized (this) {
+                held.users--;
+            }
+            throw new InterruptedIOException("Interrupted while waiting "
+                    + "for an inventory to load.");
+        } catch (ExecutionException ex) {
+            cause = ex.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Marks one use of an {@code Inventory} as over.
+     * @return {@code true} if the inventory was held and in use.
+     */
+    private boolean unuse(Inventory inv) {
+        for (Held held : inventories.values())
+            if (held.inv == inv && held.users > 0) {
+                held.users--;
+                return true;
+            }
+        return false;
+    }
+
+    /**
+     * Drops the least recently used inventories that are not in use until
+     * both bounds are met, keeping the one just requested. The victims are
+     * picked under the lock but saved outside it, and each one is only
+     * dropped once its changes are saved.
+     */
+    private void trim(File requested) {
+        long bytes = 0;
+        int count;
+        List<Map.Entry<File, Held>> victims = new ArrayList<>();
+        Iterator<Map.Entry<File, Held>> eldest;
+        Map.Entry<File, Held> entry;
+        Held held;
+
+        synchronized (this) {
+            count = inventories.size();
+            for (Held each : inventories.values())
+                if (each.inv != null && !each.saving)
+                    bytes += each.inv.estimatedBytes();
+            eldest = inventories.entrySet().iterator();
+            while (eldest.hasNext() && (count > maxInventories
+                    || bytes > maxBytes)) {
+                entry = eldest.next();
+                held = entry.getValue();
+                if (held.users > 0 || held.inv == null || held.saving
+                        || entry.getKey().equals(requested))
+                    continue;
+                held.saving = true;
+                bytes -= held.inv.estimatedBytes();
+                count--;
+                victims.add(entry);
+            }
+        }
+        for (Map.Entry<File, Held> victim : victims)
+            writeBack(victim.getKey(), victim.getValue());
+    }
+
+    /**
+     * Saves an inventory picked to be dropped and drops it, unless the save
+     * failed or it was taken into use or changed again in the meantime.
+     */
+    private void writeBack(File invFile, Held held) {
+        boolean saved = false;
+        File conflict;
+
+        try {
+            conflict = saveIfChanged(invFile, held.inv);
+            saved = true;
+            if (conflict != null)
+                System.err.println("'" + invFile.getPath() + "' was changed "
+                        + "by someone else while its inventory had unsaved "
+                        + "changes, which were saved to '"
+                        + conflict.getPath() + "' instead.");
+        } catch (IOException ex) {
+            System.err.println("Kept the inventory of '" + invFile.getPath()
+                    + "' in memory because its changes could not be saved: "
+                    + ex.getMessage());
+        }
+        synchronized (this) {
+            held.saving = false;
+            if (saved && held.users == 0 && inventories.get(invFile) == held
+                    && !held.inv.hasUnsavedChanges())
+                inventories.remove(invFile);
+        }
+    }
+
+    /**
+     * Saves an {@code Inventory} with unsaved changes back to its file,
+     * unless the file was changed by someone else since it was loaded or
+     * saved. The changes are then written to a conflict file next to it.
+     * @return The conflict file, or {@code null} if there was no conflict.
+     * @throws IOException If the changes could not be saved.
+     */
+    private File saveIfChanged(File invFile, Inventory inv)
+            throws IOException {
+        File conflict;
+
+        if (!inv.hasUnsavedChanges())
+            return null;
+        if (inv.isSavedTo(invFile)) {
+            inv.writeChangesTo(invFile.getParent(), invFile.getName());
+            return null;
+        }
+        conflict = new File(invFile.getPath() + CONFLICT_SUFFIX);
+        inv.writeDataTo(conflict.getParent(), conflict.getName(),
+                InventoryFormat.TEXT);
+
+        return conflict;
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * The {@code InventoryMetrics} class records how often each {@code Inventory}
+ * operation runs and how long it takes, along with the number of items held
+ * by the live inventories, an estimate of their memory and the number of
+ * change log messages that could not be written. Durations go into a
+ * {@code LatencyHistogram} per operation, so recording costs two clock reads
+ * and a few atomic increments and can stay on in production.
+ * <p>
+ * The shared instance is registered with the platform MBean server under
+ * {@code com.dcreeperstone:type=InventoryMetrics}, with one more MBean per
+ * operation. Setting the system property {@code inventory.metrics.dumpMillis}
+ * writes a report to the change log at that interval.
+ * @author Dr. Hoss
+ */
+public final class InventoryMetrics implements InventoryMetricsMBean {
+
+    /**
+     * The operations whose latency is recorded.
+     */
+    public enum Operation {
+        SEARCH("search"),
+        ADD_NEW_ITEM("addNewItem"),
+        ADD_TO_ITEM("addToItem"),
+        REMOVE_FROM_ITEM("removeFromItem"),
+        REMOVE_ITEM("removeItem"),
+        SAVE("save"),
+        LOAD("load"),
+        IMPORT_BATCH("importBatch"),
+        APPLY_BATCH("applyBatch");
+
+        private final String label;
+
+        Operation(String inLabel) {
+            label = inLabel;
+        }
+
+        /**
+         * Gets the name the operation is reported under.
+         * @return The operation name.
+         */
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private static final String DOMAIN = "com.dcreeperstone";
+    private static final String DUMP_PROPERTY = "inventory.metrics.dumpMillis";
+
+    private static InventoryMetrics defaultMetrics;
+
+    private final Map<Operation, LatencyHistogram> histograms =
+            new EnumMap<>(Operation.class);
+    private final Set<Inventory> inventories =
+            Collections.newSetFromMap(new WeakHashMap<>());
+    private ScheduledExecutorService dumper;
+    private ScheduledFuture<?> dump;
+
+    /**
+     * Constructor that initializes a new {@code InventoryMetrics} instance
+     * with nothing recorded.
+     */
+    public InventoryMetrics() {
+        for (Operation operation : Operation.values())
+            histograms.put(operation, new LatencyHistogram());
+    }
+
+    /**
+     * Gets the shared {@code InventoryMetrics} that every {@code Inventory}
+     * records into, creating it on first use. Starting the platform MBean
+     * server takes a noticeable time, so the MBeans are registered on a
+     * background thread.
+     * @return The shared {@code InventoryMetrics}.
+     */
+    public static synchronized InventoryMetrics getDefault() {
+        Thread registrar;
+        Long dumpMillis;
+
+        if (defaultMetrics == null) {
+            defaultMetrics = new InventoryMetrics();
+            registrar = new Thread(defaultMetrics::register,
+                    "InventoryMetrics-JMX");
+            registrar.setDaemon(true);
+            registrar.start();
+            dumpMillis = Long.getLong(DUMP_PROPERTY);
+            if (dumpMillis != null && dumpMillis > 0)
+                defaultMetrics.startDump(dumpMillis, message -> {
+                    try {
+                        ChangeLog.getDefault().append(message);
+                    } catch (IOException ex) {
+                        System.err.println(ex.getMessage());
+                    }
+                });
+        }
+
+        return defaultMetrics;
+    }
+
+    /**
+     * Records that an operation finished.
+     * @param operation The operation that ran.
+     * @param startNanos The value of {@code System.nanoTime} when it started.
+     */
+    public void record(Operation operation, long startNanos) {
+        histograms.get(operation).record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Adds an {@code Inventory} to the item count and memory estimate for as
+     * long as it is reachable.
+     * @param inv The {@code Inventory} to track.
+     */
+    public void track(Inventory inv) {
+        synchronized (inventories) {
+            inventories.add(inv);
+        }
+    }
+
+    /**
+     * Gets the management view of one operation.
+     * @param operation The operation.
+     * @return The latency metrics of the operation.
+     */
+    public InventoryOperationMBean getOperation(Operation operation) {
+        LatencyHistogram histogram = histograms.get(operation);
+
+        return new InventoryOperationMBean() {
+            @Override
+            public long getCount() {
+                return histogram.getCount();
+            }
+
+            @Override
+            public double getMeanNanos() {
+                return histogram.getMean();
+            }
+
+            @Override
+            public long getP50Nanos() {
+                return histogram.getPercentile(50);
+            }
+
+            @Override
+            public long getP99Nanos() {
+                return histogram.getPercentile(99);
+            }
+
+            @Override
+            public long getP999Nanos() {
+                return histogram.getPercentile(99.9);
+            }
+
+            @Override
+            public long getMaxNanos() {
+                return histogram.getMax();
+            }
+        };
+    }
+
+    @Override
+    public long getItemCount() {
+        long count = 0;
+
+        for (Inventory inv : liveInventories())
+            count += inv.getItemCount();
+
+        return count;
+    }
+
+    @Override
+    public long getEstimatedMemoryBytes() {
+        long bytes = 0;
+
+        for (Inventory inv : liveInventories())
+            bytes += inv.estimatedBytes();
+
+        return bytes;
+    }
+
+    @Override
+    public int getInventoryCount() {
+        return liveInventories().size();
+    }
+
+    @Override
+    public long getDroppedLogMessages() {
+        return ChangeLog.getTotalDroppedCount();
+    }
+
+    @Override
+    public String report() {
+        StringBuilder text = new StringBuilder();
+        InventoryOperationMBean metrics;
+
+        text.append(String.format("Metrics: %d inventories, %d items, "
+                + "~%d KiB", getInventoryCount(), getItemCount(),
+                getEstimatedMemoryBytes() / 1024));
+        if (getDroppedLogMessages() > 0)
+            text.append(String.format(", %d log messages lost",
+                    getDroppedLogMessages()));
+        for (Operation operation : Operation.values()) {
+            metrics = getOperation(operation);
+            if (metrics.getCount() == 0)
+                continue;
+            text.append(String.format("%n  %-16s count=%d mean=%.0fns "
+                    + "p50=%dns p99=%dns p99.9=%dns max=%dns",
+                    operation.getLabel(), metrics.getCount(),
+                    metrics.getMeanNanos(), metrics.getP50Nanos(),
+                    metrics.getP99Nanos(), metrics.getP999Nanos(),
+                    metrics.getMaxNanos()));
+        }
+
+        return text.toString();
+    }
+
+    @Override
+    public void reset() {
+        histograms.values().forEach(LatencyHistogram::reset);
+    }
+
+    /**
+     * Passes a report to the specified sink at a fixed interval on a
+     * background thread, replacing any earlier dump schedule.
+     * @param periodMillis The interval between reports, in milliseconds.
+     * @param sink The consumer of the reports.
+     */
+    public synchronized void startDump(long periodMillis,
+            Consumer<String> sink) {
+        stopDump();
+        if (dumper == null)
+            dumper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "InventoryMetrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+        dump = dumper.scheduleAtFixedRate(() -> sink.accept(report()),
+                periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the periodic reports.
+     */
+    public synchronized void stopDump() {
+        if (dump != null)
+            dump.cancel(false);
+        dump = null;
+    }
+
+    private List<Inventory> liveInventories() {
+        synchronized (inventories) {
+            return new ArrayList<>(inventories);
+        }
+    }
+
+    private void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        try {
+            server.registerMBean(this,
+                    new ObjectName(DOMAIN + ":type=InventoryMetrics"));
+            for (Operation operation : Operation.values())
+                server.registerMBean(new StandardMBean(
+                        getOperation(operation), InventoryOperationMBean.class),
+                        new ObjectName(DOMAIN + ":type=InventoryMetrics,"
+                                + "operation=" + operation.getLabel()));
+        } catch (JMException ex) {
+            System.err.println(ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+/**
+ * The {@code InventoryMetricsMBean} interface is the management view of the
+ * totals recorded by {@code InventoryMetrics}.
+ * @author Dr. Hoss
+ */
+public interface InventoryMetricsMBean {
+
+    /**
+     * Gets the number of items held by the live inventories.
+     * @return The item count.
+     */
+    long getItemCount();
+
+    /**
+     * Gets the estimated memory used by the items of the live
+     * inventories.
+     * @return The estimate in bytes.
+     */
+    long getEstimatedMemoryBytes();
+
+    /**
+     * Gets the number of live inventories.
+     * @return The inventory count.
+     */
+    int getInventoryCount();
+
+    /**
+     * Gets the number of change log messages that could not be written.
+     * @return The dropped message count.
+     */
+    long getDroppedLogMessages();
+
+    /**
+     * Builds a report of every metric, one operation per line.
+     * @return The report.
+     */
+    String report();
+
+    /**
+     * Forgets every recorded duration.
+     */
+    void reset();
+}
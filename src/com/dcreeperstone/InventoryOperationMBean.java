@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+/**
+ * The {@code InventoryOperationMBean} interface is the management view of
+ * the latency of one {@code Inventory} operation.
+ * @author Dr. Hoss
+ */
+public interface InventoryOperationMBean {
+
+    /**
+     * Gets the number of times the operation ran.
+     * @return The count.
+     */
+    long getCount();
+
+    /**
+     * Gets the mean duration of the operation.
+     * @return The mean in nanoseconds.
+     */
+    double getMeanNanos();
+
+    /**
+     * Gets the median duration of the operation.
+     * @return The median in nanoseconds.
+     */
+    long getP50Nanos();
+
+    /**
+     * Gets the 99th percentile duration of the operation.
+     * @return The percentile in nanoseconds.
+     */
+    long getP99Nanos();
+
+    /**
+     * Gets the 99.9th percentile duration of the operation.
+     * @return The percentile in nanoseconds.
+     */
+    long getP999Nanos();
+
+    /**
+     * Gets the longest duration of the operation.
+     * @return The maximum in nanoseconds.
+     */
+    long getMaxNanos();
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The {@code InventoryReader} interface is designed to stream the records of
+ * a saved {@code Inventory} one at a time. The inventory name is available as
+ * soon as the reader is opened, after which each call to {@code next}
+ * advances to the following item record.
+ * @author Dr. Hoss
+ */
+public interface InventoryReader extends Closeable {
+
+    /**
+     * Opens a reader for the specified file, choosing the binary snapshot
+     * format when the file starts with its magic bytes and the text format
+     * otherwise.
+     * @param invFile The file containing data for the {@code Inventory}.
+     * @return A reader positioned before the first item record.
+     * @throws IOException If the file cannot be read.
+     */
+    static InventoryReader open(File invFile) throws IOException {
+        InventoryReader invReader;
+
+        if (SnapshotInventoryReader.isSnapshot(invFile))
+            invReader = new SnapshotInventoryReader(invFile);
+        else
+            invReader = new TextInventoryReader(invFile);
+
+        return invReader;
+    }
+
+    /**
+     * Gets the name of the saved {@code Inventory}.
+     * @return The inventory name.
+     */
+    String getName();
+
+    /**
+     * Advances to the next item record.
+     * @return {@code true} if a record was read, or {@code false} at the end
+     * of the data.
+     * @throws IOException If the data cannot be read or is malformed.
+     */
+    boolean next() throws IOException;
+
+    /**
+     * Gets the info of the current item record.
+     * @return The item info.
+     */
+    String getInfo();
+
+    /**
+     * Gets the quantity of the current item record.
+     * @return The item quantity.
+     */
+    int getQuantity();
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * The {@code InventoryRenderer} class renders the item table shown by
+ * {@code Inventory.displayAllItems}. The table is built in a reusable buffer
+ * and handed to the output target in large chunks rather than one call per
+ * character or row. Output can go to any {@code Appendable}, such as a
+ * {@code PrintStream}, a {@code Writer} for a file, or a
+ * {@code StringBuilder}. Rows can be paged, limited, or restricted to the
+ * items with the largest quantities. The items are counted while they are
+ * rendered, so a paged or limited table stops reading them after its last
+ * row; its footer then says more items follow instead of giving the total.
+ * @author Dr. Hoss
+ */
+public class InventoryRenderer {
+
+    private static final int MAX_LINE_LENGTH = 80;
+    private static final int COLUMN_WIDTH = MAX_LINE_LENGTH / 2;
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int TOP_CAPACITY = 1024;
+    private static final String NEW_LINE = System.lineSeparator();
+
+    private final StringBuilder buffer;
+    private int offset;
+    private int limit;
+    private boolean topOnly;
+
+    /**
+     * Constructor that initializes a new {@code InventoryRenderer} that
+     * renders every row.
+     */
+    public InventoryRenderer() {
+        buffer = new StringBuilder(CHUNK_SIZE + MAX_LINE_LENGTH * 2);
+        limit = Integer.MAX_VALUE;
+    }
+
+    /**
+     * Restricts the rendered rows to one page of the table.
+     * @param pageNumber The page to render, starting at 1.
+     * @param pageSize The number of rows on each page.
+     * @return This {@code InventoryRenderer}, for chaining calls.
+     */
+    public InventoryRenderer page(int pageNumber, int pageSize) {
+        if (pageNumber < 1 || pageSize < 1)
+            throw new IllegalArgumentException("Page number and size must be "
+                    + "positive.");
+        offset = (int) Math.min(Integer.MAX_VALUE,
+                (long) (pageNumber - 1) * pageSize);
+        limit = pageSize;
+
+        return this;
+    }
+
+    /**
+     * Restricts the rendered rows to the first rows of the table.
+     * @param maxRows The largest number of rows to render.
+     * @return This {@code InventoryRenderer}, for chaining calls.
+     */
+    public InventoryRenderer limit(int maxRows) {
+        if (maxRows < 0)
+            throw new IllegalArgumentException("Row limit cannot be negative.");
+        offset = 0;
+        limit = maxRows;
+
+        return this;
+    }
+
+    /**
+     * Restricts the rendered rows to the items with the largest quantities,
+     * listed from the largest quantity down.
+     * @param count The number of items to render.
+     * @return This {@code InventoryRenderer}, for chaining calls.
+     */
+    public InventoryRenderer top(int count) {
+        limit(count);
+        topOnly = true;
+
+        return this;
+    }
+
+    /**
+     * Renders the table of the specified items to the output target.
+     * @param name The name of the {@code Inventory}, shown in the banner.
+     * @param items The {@code Item} instances to render.
+     * @param out The target to write the table to.
+     * @throws IOException If the output target cannot be written.
+     */
+    public void render(String name, Collection<Item> items, Appendable out)
+            throws IOException {
+        Iterator<Item> rows;
+        int[] counted = new int[1];
+        int total = -1;
+        int index = 0;
+        int rendered = 0;
+        Item item;
+
+        buffer.setLength(0);
+        if (topOnly) {
+            rows = largest(items, counted).iterator();
+            total = counted[0];
+        } else
+            rows = items.iterator();
+        if (topOnly ? total == 0 : !rows.hasNext())
+            buffer.append("There are currently no items in the inventory.")
+                    .append(NEW_LINE);
+        else {
+            appendBanner(name);
+            while (rendered < limit && rows.hasNext()) {
+                item = rows.next();
+                if (index++ < offset)
+                    continue;
+                appendRow(item.getInfo(), item.getQuantity());
+                rendered++;
+                if (buffer.length() >= CHUNK_SIZE) {
+                    out.append(buffer);
+                    buffer.setLength(0);
+                }
+            }
+            // Every item was seen unless the rows stopped at the limit.
+            if (!topOnly && !rows.hasNext())
+                total = index;
+            if (total < 0)
+                buffer.append("Showing ").append(rendered)
+                        .append(" items; more items follow.").append(NEW_LINE);
+            else if (rendered < total)
+                buffer.append("Showing ").append(rendered).append(" of ")
+                        .append(total).append(" items.").append(NEW_LINE);
+        }
+        buffer.append(NEW_LINE);
+        out.append(buffer);
+        buffer.setLength(0);
+    }
+
+    private void appendBanner(String name) {
+        int padding = Math.max(0, (MAX_LINE_LENGTH - name.length()) / 2);
+
+        repeat('=', padding);
+        buffer.append(name);
+        repeat('=', name.length() % 2 == 0 ? padding : padding + 1);
+        buffer.append(NEW_LINE);
+        pad("ITEM", COLUMN_WIDTH, false);
+        pad("QUANTITY", COLUMN_WIDTH, true);
+        buffer.append('\n');
+        repeat('-', MAX_LINE_LENGTH);
+        buffer.append(NEW_LINE);
+    }
+
+    private void appendRow(String info, int quantity) {
+        pad(info, COLUMN_WIDTH, false);
+        pad(Integer.toString(quantity), COLUMN_WIDTH, true);
+        buffer.append('\n');
+    }
+
+    private void pad(String text, int width, boolean rightAligned) {
+        if (rightAligned)
+            repeat(' ', width - text.length());
+        buffer.append(text);
+        if (!rightAligned)
+            repeat(' ', width - text.length());
+    }
+
+    private void repeat(char c, int count) {
+        for (int i = 0; i < count; i++)
+            buffer.append(c);
+    }
+
+    private List<Item> largest(Collection<Item> items, int[] counted) {
+        Comparator<Item> byQuantity =
+                Comparator.comparingInt(Item::getQuantity);
+        PriorityQueue<Item> smallestFirst = new PriorityQueue<>(
+                Math.max(1, Math.min(limit, TOP_CAPACITY)), byQuantity);
+        List<Item> result;
+
+        for (Item item : items) {
+            counted[0]++;
+            if (smallestFirst.size() < limit)
+                smallestFirst.add(item);
+            else if (limit > 0 && item.getQuantity()
+                    > smallestFirst.peek().getQuantity()) {
+                smallestFirst.poll();
+                smallestFirst.add(item);
+            }
+        }
+        result = new ArrayList<>(smallestFirst);
+        result.sort(byQuantity.reversed());
+
+        return result;
+    }
+}
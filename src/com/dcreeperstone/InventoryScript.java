@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Locale;
+
+/**
+ * The {@code InventoryScript} class runs a command script against an
+ * {@code Inventory} without any menus or prompts. Each line of the script
+ * holds one command followed by its arguments, where the item info always
+ * comes last and may contain spaces:
+ * <pre>
+ *   add &lt;quantity&gt; &lt;info&gt;
+ *   addto &lt;amount&gt; &lt;info&gt;
+ *   remove &lt;info&gt;
+ *   removefrom &lt;amount&gt; &lt;info&gt;
+ *   reset &lt;info&gt;
+ *   resetall
+ *   clear
+ *   search &lt;info&gt;
+ *   threshold &lt;threshold&gt; &lt;info&gt;
+ *   save &lt;directory&gt; &lt;fileName&gt;
+ *   import &lt;merge|replace&gt; &lt;file&gt;
+ *   export &lt;file&gt;
+ * </pre>
+ * Files are imported and exported as CSV or JSON Lines, chosen by their
+ * extension.
+ * Blank lines and lines starting with {@code #} are ignored. Commands that
+ * fail are reported on the error stream with their line number, and a summary
+ * of throughput and error counts is printed once the script ends.
+ * @author Dr. Hoss
+ */
+public class InventoryScript {
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final BufferedReader scriptReader;
+    private final Inventory inv;
+    private long lineNumber;
+    private long commandCount;
+    private long errorCount;
+    private long searchCount;
+    private long searchHits;
+
+    /**
+     * Constructor that initializes a new {@code InventoryScript} that reads
+     * its commands from the specified reader.
+     * @param inReader The source of the script commands.
+     * @param inInv The {@code Inventory} to apply the commands to.
+     */
+    public InventoryScript(Reader inReader, Inventory inInv) {
+        scriptReader = new BufferedReader(inReader, READ_BUFFER_SIZE);
+        inv = inInv;
+    }
+
+    /**
+     * Runs a script from the command line arguments. The first argument is
+     * the script path, or {@code -} to read the script from standard input.
+     * The optional second argument is an inventory file to load before the
+     * script runs; otherwise the script starts with an empty inventory.
+     * @param args The script path and optional inventory file.
+     */
+    public static void run(String[] args) {
+        Inventory inv;
+        Reader inReader;
+
+        if (args.length < 1) {
+            System.err.println("Usage: --script <script|-> [inventory file]");
+            return;
+        }
+        if (args.length > 1)
+            inv = new Inventory(new File(args[1]));
+        else
+            inv = new Inventory("script");
+        try {
+            if (args[0].equals("-"))
+                inReader = new InputStreamReader(System.in,
+                        StandardCharsets.UTF_8);
+            else
+                inReader = Files.newBufferedReader(Paths.get(args[0]),
+                        StandardCharsets.UTF_8);
+            new InventoryScript(inReader, inv).run();
+        } catch (IOException ex) {
+            System.err.println(ex.getMessage());
+        }
+    }
+
+    /**
+     * Applies every command of the script to the {@code Inventory} and prints
+     * a summary once the script ends.
+     * @throws IOException If the script cannot be read.
+     */
+    public void run() throws IOException {
+        String line;
+        long startTime;
+        double seconds;
+
+        startTime = System.nanoTime();
+        try {
+            while ((line = scriptReader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (!line.isEmpty() && line.charAt(0) != '#')
+                    perform(line);
+            }
+        } finally {
+            scriptReader.close();
+        }
+        seconds = (System.nanoTime() - startTime) / 1e9;
+        System.out.format("Processed %d commands in %.3f s (%.0f commands/s)"
+                + " with %d errors; %d of %d searches found an item.%n",
+                commandCount, seconds,
+                seconds > 0 ? commandCount / seconds : 0.0, errorCount,
+                searchHits, searchCount);
+    }
+
+    /**
+     * Gets the number of commands processed so far.
+     * @return The command count attribute.
+     */
+    public long getCommandCount() {
+        return commandCount;
+    }
+
+    /**
+     * Gets the number of commands that failed so far.
+     * @return The error count attribute.
+     */
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    private void perform(String line) {
+        int split = line.indexOf(' ');
+        String command = split < 0 ? line : line.substring(0, split);
+        String args = split < 0 ? "" : line.substring(split + 1).trim();
+
+        commandCount++;
+        try {
+            switch (command.toLowerCase(Locale.ROOT)) {
+                case "add":         inv.addNewItem(new Item(info(args, true),
+                                            amount(args)));
+                                    break;
+                case "addto":       inv.addToItem(existing(info(args, true)),
+                                            amount(args));
+                                    break;
+                case "remove":      inv.removeItem(existing(args));
+                                    break;
+                case "removefrom":  inv.removeFromItem(
+                                            existing(info(args, true)),
+                                            amount(args));
+                                    break;
+                case "reset":       inv.resetItem(existing(args));
+                                    break;
+                case "resetall":    inv.resetAllItems();
+                                    break;
+                case "clear":       inv.clearInventory();
+                                    break;
+                case "search":      searchCount++;
+                                    if (inv.search(args) != null)
+                                        searchHits++;
+                                    break;
+                case "threshold":   inv.setReorderThreshold(
+                                            existing(info(args, true)),
+                                            amount(args));
+                                    break;
+                case "save":        inv.writeDataTo(firstWord(args),
+                                            info(args, false),
+                                            InventoryFormat.TEXT);
+                                    break;
+                case "import":      importFile(mode(args),
+                                            info(args, false));
+                                    break;
+                case "export":      System.out.println(
+                                            new InventoryExchange(inv)
+                                            .exportTo(new File(args)));
+                                    break;
+                default:            fail("unknown command '" + command
+                                            + "'.");
+            }
+        } catch (IllegalArgumentException | IllegalStateException
+                | IOException ex) {
+            error(ex.getMessage());
+        }
+    }
+
+    private void importFile(InventoryExchange.Mode mode, String fileName)
+            throws IOException {
+        InventoryExchange.Result result = new InventoryExchange(inv)
+                .setMode(mode).importFrom(new File(fileName));
+
+        System.out.println(result);
+        for (String message : result.getErrors())
+            System.err.println(fileName + ": " + message);
+    }
+
+    private InventoryExchange.Mode mode(String args) {
+        String mode = firstWord(args);
+
+        try {
+            return InventoryExchange.Mode.valueOf(
+                    mode.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalArgumentException("invalid import mode '" + mode
+                    + "'.");
+        }
+    }
+
+    private String existing(String key) {
+        if (inv.search(key) == null)
+            fail("item '" + key + "' could not be found in the inventory.");
+        return key;
+    }
+
+    private int amount(String args) {
+        String number = firstWord(args);
+
+        try {
+            return Integer.parseInt(number);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("invalid amount '" + number
+                    + "'.");
+        }
+    }
+
+    private String info(String args, boolean numbered) {
+        int split = args.indexOf(' ');
+
+        if (split < 0)
+            fail("missing " + (numbered ? "item info" : "file name") + ".");
+        return args.substring(split + 1).trim();
+    }
+
+    private static String firstWord(String args) {
+        int split = args.indexOf(' ');
+
+        return split < 0 ? args : args.substring(0, split);
+    }
+
+    private void fail(String message) {
+        throw new IllegalArgumentException(message);
+    }
+
+    private void error(String message) {
+        errorCount++;
+        System.err.println("Line " + lineNumber + ": " + message);
+    }
+}
@@ -0,0 +1,590 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * The {@code InventoryServer} class serves an {@code Inventory} to other
+ * programs over TCP. Like {@code InventorySessionServer}, it listens on the
+ * loopback address only, since requests are not authenticated. Every
+ * connection sends one request per line and gets one response line per
+ * request, in the same order:
+ * <pre>
+ *   SEARCH &lt;info&gt;                 ITEM &lt;quantity&gt; &lt;info&gt; | NOTFOUND
+ *   ADD &lt;quantity&gt; &lt;info&gt;         OK
+ *   ADDTO &lt;amount&gt; &lt;info&gt;         OK | NOTFOUND
+ *   REMOVEFROM &lt;amount&gt; &lt;info&gt;    OK | NOTFOUND
+ *   REMOVE &lt;info&gt;                 OK | NOTFOUND
+ *   RESET &lt;info&gt;                  OK | NOTFOUND
+ *   RESETALL                      OK
+ *   COUNT                         OK &lt;item count&gt;
+ *   BATCH &lt;lines&gt;                 OK &lt;applied&gt; &lt;missing&gt; &lt;rejected&gt;
+ *   SAVE                          OK | ERR &lt;message&gt;
+ * </pre>
+ * {@code BATCH} is followed by the given number of lines, each holding a
+ * signed amount and an item info, which are applied together with
+ * {@code applyBatch}. {@code SAVE} writes the inventory to the file the
+ * server was given, and to no other path; a server without a file answers
+ * it with an error. A request that fails gets {@code ERR} and a message.
+ * <p>
+ * Requests may be pipelined: a client can send many requests without waiting
+ * for their responses. All requests are handled on one selector thread,
+ * every complete line that arrived is handled before the responses are
+ * written, and the responses to all of them go out in a single write. A
+ * connection is not read again until its responses were written, so a
+ * client that does not read its responses cannot make the server buffer
+ * without bound. The one exception to the selector thread is {@code SAVE},
+ * whose disk I/O runs on a background thread. The connection that sent it
+ * is not read again until the save has finished and its real result was
+ * queued, so its later requests still see the saved state and get their
+ * responses in order. Other connections are served meanwhile, and since the
+ * save writes from a snapshot, their changes do not wait for it: items
+ * added or removed during the save go to a copy of the map the snapshot
+ * walks. A {@code CompactInventory} cannot copy its map and holds such
+ * changes back until the save has finished, stopping the selector thread
+ * with them, so it should not be served if {@code SAVE} is used. If other
+ * threads change the inventory as well, it should be a
+ * {@code ConcurrentInventory}.
+ * @author Dr. Hoss
+ */
+public class InventoryServer implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    private final Inventory inv;
+    private final File saveFile;
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final ByteBuffer readBuffer =
+            ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final Queue<Runnable> completions =
+            new ConcurrentLinkedQueue<>();
+    private final ExecutorService saver =
+            Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "InventoryServer-save");
+                thread.setDaemon(true);
+                return thread;
+            });
+    private Thread selectorThread;
+    private volatile boolean closed;
+
+    /**
+     * Constructor that initializes a new {@code InventoryServer} listening on
+     * the specified port of the loopback address, without a file to save
+     * to. Requests are not handled until {@code start} is called.
+     * @param inInv The {@code Inventory} to serve.
+     * @param port The TCP port to listen on, or 0 for any free port.
+     * @throws IOException If the port cannot be opened.
+     */
+    public InventoryServer(Inventory inInv, int port) throws IOException {
+        this(inInv, null, port);
+    }
+
+    /**
+     * Constructor that initializes a new {@code InventoryServer} listening on
+     * the specified port of the loopback address. Requests are not handled
+     * until {@code start} is called.
+     * @param inInv The {@code Inventory} to serve.
+     * @param inSaveFile The file {@code SAVE} writes the inventory to, or
+     * {@code null} to refuse {@code SAVE}.
+     * @param port The TCP port to listen on, or 0 for any free port.
+     * @throws IOException If the port cannot be opened.
+     */
+    public InventoryServer(Inventory inInv, File inSaveFile, int port)
+            throws IOException {
+        inv = inInv;
+        saveFile = inSaveFile == null ? null : inSaveFile.getAbsoluteFile();
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.bind(new InetSocketAddress(
+                    InetAddress.getLoopbackAddress(), port));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException ex) {
+            close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Serves an inventory from the command line arguments until the process
+     * is stopped. The first argument is the port; the optional second
+     * argument is an inventory file to load, which is also the file
+     * {@code SAVE} writes to. Otherwise the server starts with an empty
+     * inventory and refuses {@code SAVE}.
+     * @param args The port and optional inventory file.
+     */
+    public static void run(String[] args) {
+        Inventory served;
+        File invFile;
+        InventoryServer server;
+
+        if (args.length < 1) {
+            System.err.println("Usage: --serve <port> [inventory file]");
+            return;
+        }
+        try {
+            invFile = args.length > 1 ? new File(args[1]) : null;
+            if (invFile != null)
+                served = new ConcurrentInventory(invFile);
+            else
+                served = new ConcurrentInventory("server");
+            server = new InventoryServer(served, invFile,
+                    Integer.parseInt(args[0]));
+            System.out.println("Serving '" + served.getName()
+                    + "' on port " + server.getPort() + ".");
+            server.start();
+            server.selectorThread.join();
+        } catch (IOException | NumberFormatException ex) {
+            System.err.println(ex.getMessage());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Gets the port the server listens on.
+     * @return The local port.
+     */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Starts handling requests on a new selector thread.
+     */
+    public synchronized void start() {
+        if (selectorThread != null || closed)
+            return;
+        selectorThread = new Thread(this::serve, "InventoryServer");
+        selectorThread.start();
+    }
+
+    /**
+     * Stops handling requests and closes every connection.
+     * @throws IOException If the listening port cannot be closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        saver.shutdown();
+        try {
+            serverChannel.close();
+        } finally {
+            // The selector thread closes the connections on its way out.
+            if (selectorThread == null)
+                selector.close();
+            else
+                selector.wakeup();
+        }
+    }
+
+    private void serve() {
+        Runnable completion;
+
+        try {
+            while (!closed) {
+                selector.select();
+                while ((completion = completions.poll()) != null)
+                    completion.run();
+                for (SelectionKey key : selector.selectedKeys())
+                    handle(key);
+                selector.selectedKeys().clear();
+            }
+        } catch (IOException ex) {
+            System.err.println(ex.getMessage());
+        } finally {
+            saver.shutdown();
+            for (SelectionKey key : selector.keys())
+                closeQuietly(key);
+            closeQuietly(selector);
+        }
+    }
+
+    private static void closeQuietly(SelectionKey key) {
+        try {
+            key.channel().close();
+        } catch (IOException ex) {
+            // The connection is dropped either way.
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ex) {
+            System.err.println(ex.getMessage());
+        }
+    }
+
+    private void handle(SelectionKey key) {
+        Connection connection;
+
+        if (!key.isValid())
+            return;
+        if (key.isAcceptable()) {
+            try {
+                accept();
+            } catch (IOException ex) {
+                System.err.println(ex.getMessage());
+            }
+            return;
+        }
+        connection = (Connection) key.attachment();
+        try {
+            if (key.isWritable())
+                connection.write();
+            else if (key.isReadable())
+                connection.read();
+        } catch (IOException | IllegalArgumentException ex) {
+            key.cancel();
+            closeQuietly(key);
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+
+        if (channel == null)
+            return;
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        new Connection(channel);
+    }
+
+    /**
+     * The {@code Connection} class holds the unfinished request line and the
+     * unsent responses of one client, and the input that arrived after a
+     * {@code SAVE} that is still running.
+     */
+    private final class Connection {
+
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final StringBuilder responses = new StringBuilder();
+        private byte[] line = new byte[256];
+        private int lineLength;
+        private ByteBuffer output;
+        private InventoryBatch batch;
+        private int batchLines;
+        private String batchError;
+        private ByteBuffer held;
+        private boolean saving;
+
+        Connection(SocketChannel inChannel) throws IOException {
+            channel = inChannel;
+            key = inChannel.register(selector, SelectionKey.OP_READ, this);
+        }
+
+        /**
+         * Handles every complete request line that arrived and writes their
+         * responses.
+         */
+        void read() throws IOException {
+            int count;
+
+            readBuffer.clear();
+            count = channel.read(readBuffer);
+            if (count < 0) {
+                key.cancel();
+                channel.close();
+                return;
+            }
+            readBuffer.flip();
+            consume(readBuffer);
+            write();
+        }
+
+        /**
+         * Handles the complete request lines of the input until a
+         * {@code SAVE} starts, and holds the rest of the input until it has
+         * finished.
+         */
+        private void consume(ByteBuffer input) {
+            byte next;
+
+            while (input.hasRemaining() && !saving) {
+                next = input.get();
+                if (next == '\n') {
+                    perform(decodeLine());
+                    lineLength = 0;
+                } else
+                    append(next);
+            }
+            if (!input.hasRemaining())
+                held = null;
+            else if (input != held) {
+                held = ByteBuffer.allocate(input.remaining());
+                held.put(input);
+                held.flip();
+            }
+        }
+
+        /**
+         * Queues the result of a finished {@code SAVE} and goes on with the
+         * requests that arrived while it ran. Called on the selector thread.
+         */
+        private void finishSave(String result) {
+            saving = false;
+            respond(result);
+            if (!key.isValid())
+                return;
+            try {
+                if (held != null)
+                    consume(held);
+                write();
+            } catch (IOException | IllegalArgumentException ex) {
+                key.cancel();
+                closeQuietly(key);
+            }
+        }
+
+        /**
+         * Writes the pending responses, and stops reading requests until the
+         * client has taken all of them.
+         */
+        void write() throws IOException {
+            if (output == null || !output.hasRemaining()) {
+                if (responses.length() == 0)
+                    return;
+                output = ByteBuffer.wrap(responses.toString()
+                        .getBytes(StandardCharsets.UTF_8));
+                responses.setLength(0);
+            }
+            channel.write(output);
+            key.interestOps(output.hasRemaining() ? SelectionKey.OP_WRITE
+                    : saving ? 0 : SelectionKey.OP_READ);
+        }
+
+        private void append(byte next) {
+            if (lineLength == line.length) {
+                if (line.length >= MAX_LINE_LENGTH)
+                    throw new IllegalArgumentException("Request line is too "
+                            + "long.");
+                line = Arrays.copyOf(line, line.length * 2);
+            }
+            line[lineLength++] = next;
+        }
+
+        private String decodeLine() {
+            int length = lineLength;
+
+            if (length > 0 && line[length - 1] == '\r')
+                length--;
+
+            return new String(line, 0, length, StandardCharsets.UTF_8);
+        }
+
+        private void perform(String request) {
+            int split = request.indexOf(' ');
+            String command = split < 0 ? request : request.substring(0, split);
+            String args = split < 0 ? "" : request.substring(split + 1).trim();
+
+            try {
+                if (batch != null)
+                    addToBatch(request);
+                else
+                    respond(performCommand(command.toUpperCase(Locale.ROOT),
+                            args));
+            } catch (IllegalArgumentException | IllegalStateException ex) {
+                respond("ERR " + ex.getMessage());
+            }
+        }
+
+        private String performCommand(String command, String args) {
+            String key;
+            int quantity;
+
+            switch (command) {
+                case "SEARCH":
+                    return found(inv.search(args));
+                case "ADD":
+                    quantity = amount(args);
+                    if (quantity < 0)
+                        throw new IllegalArgumentException("Cannot have a "
+                                + "negative number of items.");
+                    inv.addNewItem(new Item(info(args), quantity));
+                    return "OK";
+                case "ADDTO":
+                    key = info(args);
+                    if (inv.search(key) == null)
+                        return "NOTFOUND";
+                    inv.addToItem(key, amount(args));
+                    return "OK";
+                case "REMOVEFROM":
+                    key = info(args);
+                    if (inv.search(key) == null)
+                        return "NOTFOUND";
+                    inv.removeFromItem(key, amount(args));
+                    return "OK";
+                case "REMOVE":
+                    if (inv.search(args) == null)
+                        return "NOTFOUND";
+                    inv.removeItem(args);
+                    return "OK";
+                case "RESET":
+                    if (inv.search(args) == null)
+                        return "NOTFOUND";
+                    inv.resetItem(args);
+                    return "OK";
+                case "RESETALL":
+                    inv.resetAllItems();
+                    return "OK";
+                case "COUNT":
+                    return "OK " + inv.getItemCount();
+                case "BATCH":
+                    batchLines = amount(args);
+                    if (batchLines < 0)
+                        throw new IllegalArgumentException("Invalid batch "
+                                + "size.");
+                    batch = new InventoryBatch();
+                    return batchLines == 0 ? applyBatch() : null;
+                case "SAVE":
+                    if (!args.isEmpty())
+                        throw new IllegalArgumentException("SAVE takes no "
+                                + "arguments.");
+                    return save();
+                default:
+                    throw new IllegalArgumentException("Unknown command '"
+                            + command + "'.");
+            }
+        }
+
+        /**
+         * Adds one line to the batch being received. A batch with a bad line
+         * is not applied at all, and gets one error response.
+         */
+        private void addToBatch(String request) {
+            String args = request.trim();
+
+            try {
+                batch.add(info(args), amount(args));
+            } catch (IllegalArgumentException ex) {
+                if (batchError == null)
+                    batchError = ex.getMessage();
+            }
+            if (--batchLines == 0)
+                respond(applyBatch());
+        }
+
+        /**
+         * Starts writing the inventory to the file of the server on the
+         * background thread. The response is queued when the save has
+         * finished, and no more requests are read until then.
+         */
+        private String save() {
+            if (saveFile == null)
+                throw new IllegalStateException("The server has no "
+                        + "inventory file to save to.");
+            try {
+                saver.execute(() -> {
+                    String result = saveResult();
+
+                    completions.add(() -> finishSave(result));
+                    selector.wakeup();
+                });
+            } catch (RejectedExecutionException ex) {
+                throw new IllegalStateException("The server is closing.");
+            }
+            saving = true;
+
+            return null;
+        }
+
+        private String saveResult() {
+            try {
+                inv.writeDataTo(saveFile.getParent(), saveFile.getName(),
+                        InventoryFormat.TEXT);
+                return "OK";
+            } catch (IOException | RuntimeException ex) {
+                return "ERR " + ex.getMessage();
+            }
+        }
+
+        private String applyBatch() {
+            InventoryBatch.Result result;
+            String error = batchError;
+
+            result = error == null ? inv.applyBatch(batch, false) : null;
+            batch = null;
+            batchError = null;
+            if (result == null)
+                return "ERR " + error;
+
+            return "OK " + result.getAppliedCount() + " "
+                    + result.getMissingKeys().size() + " "
+                    + result.getRejectedKeys().size();
+        }
+
+        private void respond(String response) {
+            if (response != null)
+                responses.append(response).append('\n');
+        }
+    }
+
+    private static String found(Item item) {
+        return item == null ? "NOTFOUND"
+                : "ITEM " + item.getQuantity() + " " + item.getInfo();
+    }
+
+    private static int amount(String args) {
+        String number = firstWord(args);
+
+        try {
+            return Integer.parseInt(number);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Invalid amount '" + number
+                    + "'.");
+        }
+    }
+
+    private static String info(String args) {
+        int split = args.indexOf(' ');
+
+        if (split < 0)
+            throw new IllegalArgumentException("Missing item info.");
+
+        return args.substring(split + 1).trim();
+    }
+
+    private static String firstWord(String args) {
+        int split = args.indexOf(' ');
+
+        return split < 0 ? args : args.substring(0, split);
+    }
+}
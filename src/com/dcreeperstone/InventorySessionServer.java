@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The {@code InventorySessionServer} class lets many operators work with the
+ * inventory menus at once. Every connection gets its own
+ * {@code InventoryHandler} session on its own thread, reading the operator's
+ * input from the connection and writing the menus back to it, so a plain
+ * {@code telnet} or {@code nc} client is enough. Sessions that load the same
+ * file share its {@code Inventory}. Ending a session only closes its
+ * connection. The server listens on the loopback address only, since the
+ * menus can read and write any file the process can.
+ * @author Dr. Hoss
+ */
+public class InventorySessionServer implements Closeable {
+
+    private final ServerSocket serverSocket;
+    private final Set<Socket> sessions = ConcurrentHashMap.newKeySet();
+    private Thread acceptThread;
+    private int sessionNumber;
+    private volatile boolean closed;
+
+    /**
+     * Constructor that initializes a new {@code InventorySessionServer}
+     * listening on the specified port of the loopback address. Sessions are
+     * not started until {@code start} is called.
+     * @param port The TCP port to listen on, or 0 for any free port.
+     * @throws IOException If the port cannot be opened.
+     */
+    public InventorySessionServer(int port) throws IOException {
+        serverSocket = new ServerSocket(port, 0,
+                InetAddress.getLoopbackAddress());
+    }
+
+    /**
+     * Serves operator sessions from the command line arguments until the
+     * process is stopped. The only argument is the port.
+     * @param args The port.
+     */
+    public static void run(String[] args) {
+        InventorySessionServer server;
+
+        if (args.length < 1) {
+            System.err.println("Usage: --sessions <port>");
+            return;
+        }
+        try {
+            server = new InventorySessionServer(Integer.parseInt(args[0]));
+            System.out.println("Serving operator sessions on port "
+                    + server.getPort() + ".");
+            server.start();
+            server.acceptThread.join();
+        } catch (IOException | NumberFormatException ex) {
+            System.err.println(ex.getMessage());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Gets the port the server listens on.
+     * @return The local port.
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Gets the number of sessions currently open.
+     * @return The session count.
+     */
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Starts accepting connections on a new thread.
+     */
+    public synchronized void start() {
+        if (acceptThread != null || closed)
+            return;
+        acceptThread = new Thread(this::accept, "InventorySessionServer");
+        acceptThread.start();
+    }
+
+    /**
+     * Stops accepting connections and ends every open session.
+     * @throws IOException If the listening port cannot be closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        try {
+            serverSocket.close();
+        } finally {
+            for (Socket socket : sessions)
+                closeQuietly(socket);
+        }
+    }
+
+    private void accept() {
+        Thread session;
+
+        try {
+            while (!closed) {
+                Socket socket = serverSocket.accept();
+                sessions.add(socket);
+                // A session closed by close() before it was added is ended
+                // here instead.
+                if (closed) {
+                    closeQuietly(socket);
+                    break;
+                }
+                session = new Thread(() -> serve(socket),
+                        "InventorySession-" + ++sessionNumber);
+                session.start();
+            }
+        } catch (SocketException ex) {
+            // The server was closed.
+        } catch (IOException ex) {
+            System.err.println(ex.getMessage());
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            new InventoryHandler(new InputStreamReader(
+                    socket.getInputStream(), StandardCharsets.UTF_8),
+                    new OutputStreamWriter(socket.getOutputStream(),
+                            StandardCharsets.UTF_8)).run();
+        } catch (IOException ex) {
+            // The connection was dropped before the session started.
+        } finally {
+            sessions.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ex) {
+            // The session ends either way.
+        }
+    }
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * The {@code InventorySnapshot} class is a frozen view of an
+ * {@code Inventory} at the moment it was taken. Taking a snapshot copies
+ * nothing: the snapshot reads the live map of the {@code Inventory} and
+ * tells the old state of every item apart from the new one by version.
+ * While the snapshot is open, the {@code Inventory} hands it the state of
+ * every {@code Item} right before the item is first changed, removed or
+ * added, so the snapshot keeps reporting the old quantity of a changed item,
+ * keeps a removed item and skips an added one, while the change goes ahead
+ * on the live map.
+ * <p>
+ * Reading the snapshot walks the live map, so items must not be added to
+ * or removed from it during the walk. An {@code Inventory} that is asked to
+ * add or remove an item while its map is being walked copies the map once
+ * and goes on with the copy, leaving the walked map to the snapshot, so
+ * neither waits for the other; changes of a quantity reach both maps, which
+ * share their {@code Item} instances. Only a map that keeps the quantities
+ * itself, like the one of a {@code CompactInventory}, cannot be copied, and
+ * items are then added or removed only once the walk has ended. An
+ * iteration of {@code items} that is abandoned unfinished counts as a walk
+ * until the snapshot is closed, so such a snapshot must always be closed.
+ * Snapshots cost nothing once they are closed, and little while
+ * they are open: one map entry for each item changed since. Resetting or
+ * clearing the whole {@code Inventory} starts a new generation and leaves
+ * the stored quantities in place, so the snapshot keeps reading the
+ * quantities of the generation it was taken in without recording anything.
+ * @author Dr. Hoss
+ */
+public final class InventorySnapshot implements AutoCloseable {
+
+    /**
+     * The {@code Frozen} class holds the state of an {@code Item} when the
+     * snapshot was taken, recorded right before its first change.
+     */
+    private static final class Frozen {
+
+        final Item item;
+        final int quantity;
+        final boolean removed;
+
+        Frozen(Item inItem, int inQuantity, boolean inRemoved) {
+            item = inItem;
+            quantity = inQuantity;
+            removed = inRemoved;
+        }
+    }
+
+    /**
+     * Marks a key that was not in the map when the snapshot was taken.
+     */
+    private static final Frozen ABSENT = new Frozen(null, 0, false);
+
+    private final Inventory owner;
+    private final String name;
+    private final int generation;
+    private final int indexNumber;
+    private final Map<String, Item> index;
+    private final AtomicInteger gate;
+    private final Map<String, Frozen> preserved = new ConcurrentHashMap<>();
+    private final AtomicInteger openWalks = new AtomicInteger();
+    private volatile int size = -1;
+
+    /**
+     * Constructor that initializes a new {@code InventorySnapshot} instance
+     * of the specified map. The {@code Inventory} registers it before any
+     * change it must see is made.
+     * @param inOwner The {@code Inventory} the snapshot is taken of.
+     * @param inGeneration The generation of the {@code Inventory} when the
+     * snapshot is taken.
+     * @param inIndexNumber The number of the generation the map of the
+     * {@code Inventory} started in.
+     * @param inIndex The map holding the {@code Item} instances.
+     * @param inGate The gate that keeps items from being added to or
+     * removed from the map while it is walked.
+     */
+    InventorySnapshot(Inventory inOwner, int inGeneration, int inIndexNumber,
+            Map<String, Item> inIndex, AtomicInteger inGate) {
+        owner = inOwner;
+        name = inOwner.getName();
+        generation = inGeneration;
+        indexNumber = inIndexNumber;
+        index = inIndex;
+        gate = inGate;
+    }
+
+    /**
+     * Records the quantity of an {@code Item} before it is changed, unless
+     * an older state was already recorded. Items of a map the snapshot was
+     * not taken of are ignored, even if they have the same info as one of
+     * its items.
+     * @param item The {@code Item} about to change.
+     * @param inIndexNumber The number of the generation the map holding the
+     * {@code Item} started in.
+     */
+    void preserve(Item item, int inIndexNumber) {
+        if (inIndexNumber == indexNumber
+                && !preserved.containsKey(item.getKey()))
+            preserved.putIfAbsent(item.getKey(), new Frozen(item,
+                    item.getQuantityIn(generation), false));
+    }
+
+    /**
+     * Records an {@code Item} before it is removed from the map, together
+     * with the quantity it had when the snapshot was taken.
+     * @param item The {@code Item} about to be removed.
+     * @param inIndexNumber The number of the generation the map holding the
+     * {@code Item} started in.
+     */
+    void preserveRemoval(Item item, int inIndexNumber) {
+        if (inIndexNumber == indexNumber)
+            preserved.compute(item.getKey(), (key, frozen) -> frozen == null
+                    ? new Frozen(item, item.getQuantityIn(generation), true)
+                    : frozen == ABSENT || frozen.removed ? frozen
+                    : new Frozen(frozen.item, frozen.quantity, true));
+    }
+
+    /**
+     * Records that the specified key was not in the map before an
+     * {@code Item} is added under it, unless an older state was already
+     * recorded.
+     * @param key The case-folded key about to be added.
+     * @param inIndexNumber The number of the generation the map started in.
+     */
+    void preserveAbsence(String key, int inIndexNumber) {
+        if (inIndexNumber == indexNumber)
+            preserved.putIfAbsent(key, ABSENT);
+    }
+
+    /**
+     * Records every {@code Item} of the map as removed before the whole
+     * {@code Inventory} is cleared in place. Called while items cannot be
+     * added or removed.
+     */
+    void preserveAll() {
+        for (Item item : index.values())
+            preserveRemoval(item, indexNumber);
+    }
+
+    /**
+     * Gets the name the {@code Inventory} had when the snapshot was taken.
+     * @return The name attribute.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the number of {@code Item} instances in the snapshot. The items
+     * are counted by one walk the first time, without copying them.
+     * @return The item count.
+     */
+    public int size() {
+        int[] counted = new int[1];
+
+        if (size < 0) {
+            forEachOf(index.values(), key -> true, item -> counted[0]++);
+            size = counted[0];
+        }
+
+        return size;
+    }
+
+    /**
+     * Gets the map the snapshot reads.
+     * @return The map of the generation the snapshot was taken in.
+     */
+    Map<String, Item> index() {
+        return index;
+    }
+
+    /**
+     * Hands every {@code Item} of one part of the snapshot to the specified
+     * action, as it was when the snapshot was taken. The part is given by
+     * the live items it holds now and by which keys belong to it, so parts
+     * of the map can be walked on separate threads.
+     * @param liveItems The items the part of the map holds now.
+     * @param inPart Accepts the keys that belong to the part.
+     * @param action The action to hand each detached {@code Item} to.
+     */
+    void forEachOf(Iterable<Item> liveItems, Predicate<String> inPart,
+            Consumer<Item> action) {
+        Item frozen;
+
+        owner.beginWalk(gate);
+        try {
+            for (Item item : liveItems) {
+                frozen = frozen(item);
+                if (frozen != null)
+                    action.accept(frozen);
+            }
+            for (Map.Entry<String, Frozen> removed : preserved.entrySet())
+                if (isDropped(removed) && inPart.test(removed.getKey()))
+                    action.accept(new Item(removed.getValue().item.getInfo(),
+                            removed.getValue().quantity));
+        } finally {
+            owner.endWalk(gate);
+        }
+    }
+
+    /**
+     * Gets a copy of a live {@code Item} as it was when the snapshot was
+     * taken.
+     * @param item The {@code Item} held by the map.
+     * @return A detached {@code Item} with the frozen quantity, or
+     * {@code null} if the item is not part of the snapshot here.
+     */
+    private Item frozen(Item item) {
+        // The stored quantity is read first: if it already holds a later
+        // change, the old state was recorded before that change was made.
+        int quantity = item.getQuantityIn(generation);
+        Frozen old = preserved.get(item.getKey());
+
+        if (old == null)
+            return new Item(item.getInfo(), quantity);
+        if (old == ABSENT)
+            return null;
+
+        return new Item(old.item.getInfo(), old.quantity);
+    }
+
+    /**
+     * Checks whether a recorded state is that of an {@code Item} removed
+     * from the walked map, and so not reached by walking the map. The
+     * structure of the map does not change during a walk: an item removed
+     * during the walk is removed from a copy, so it is reached in the map
+     * and handed out from its recorded state there.
+     * @param recorded The case-folded key and its recorded state.
+     * @return {@code true} if the item must be handed out separately.
+     */
+    private boolean isDropped(Map.Entry<String, Frozen> recorded) {
+        return recorded.getValue().removed
+                && !index.containsKey(recorded.getKey());
+    }
+
+    /**
+     * Gets the {@code Item} instances of the snapshot. Each one is copied
+     * with its frozen quantity as it is reached, so changing the copies does
+     * not change the {@code Inventory}. Until the iteration ends or the
+     * snapshot is closed, an {@code Inventory} whose map cannot be copied
+     * holds back items being added or removed, so an iteration that is
+     * abandoned must be followed by closing the snapshot.
+     * @return The {@code Item} instances as they were when the snapshot was
+     * taken.
+     */
+    public Collection<Item> items() {
+        return new AbstractCollection<Item>() {
+            @Override
+            public Iterator<Item> iterator() {
+                return new Walk();
+            }
+
+            @Override
+            public int size() {
+                return InventorySnapshot.this.size();
+            }
+        };
+    }
+
+    /**
+     * Stops recording changes of the {@code Inventory} for this snapshot,
+     * and ends any iteration of it that was left unfinished.
+     */
+    @Override
+    public void close() {
+        owner.releaseSnapshot(this);
+        while (openWalks.getAndUpdate(walks -> Math.max(0, walks - 1)) > 0)
+            owner.endWalk(gate);
+    }
+
+    /**
+     * The {@code Walk} class iterates the live items of the snapshot and
+     * then its removed ones, keeping items from being added to or removed
+     * from the walked map from its first step until its last.
+     */
+    private final class Walk implements Iterator<Item> {
+
+        private Iterator<Item> live;
+        private Iterator<Map.Entry<String, Frozen>> removed;
+        private Item next;
+        private boolean started;
+        private boolean finished;
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && !finished)
+                advance();
+
+            return next != null;
+        }
+
+        @Override
+        public Item next() {
+            Item current;
+
+            if (!hasNext())
+                throw new NoSuchElementException();
+            current = next;
+            next = null;
+
+            return current;
+        }
+
+        private void advance() {
+            Map.Entry<String, Frozen> recorded;
+
+            if (!started) {
+                started = true;
+                owner.beginWalk(gate);
+                openWalks.incrementAndGet();
+                live = index.values().iterator();
+                removed = preserved.entrySet().iterator();
+            }
+            while (next == null && live.hasNext())
+                next = frozen(live.next());
+            while (next == null && removed.hasNext()) {
+                recorded = removed.next();
+                if (isDropped(recorded))
+                    next = new Item(recorded.getValue().item.getInfo(),
+                            recorded.getValue().quantity);
+            }
+            if (next == null) {
+                finished = true;
+                // A snapshot closed during the walk already ended it.
+                if (openWalks.getAndUpdate(walks -> Math.max(0, walks - 1))
+                        > 0)
+                    owner.endWalk(gate);
+            }
+        }
+    }
+}
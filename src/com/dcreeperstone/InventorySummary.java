@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+/**
+ * The {@code InventorySummary} class holds the aggregate statistics of an
+ * {@code Inventory} at one moment: the number of items, the sum of their
+ * quantities and the number of items out of stock. The {@code Inventory}
+ * keeps these up to date with every change, so a summary is taken in
+ * constant time, without scanning the items, and all of its values come
+ * from the same generation of the inventory.
+ * @author Dr. Hoss
+ */
+public final class InventorySummary {
+
+    private final int itemCount;
+    private final long totalQuantity;
+    private final int zeroQuantityCount;
+
+    InventorySummary(int inItemCount, long inTotalQuantity,
+            int inZeroQuantityCount) {
+        itemCount = inItemCount;
+        totalQuantity = inTotalQuantity;
+        zeroQuantityCount = inZeroQuantityCount;
+    }
+
+    /**
+     * Gets the number of {@code Item} instances.
+     * @return The item count attribute.
+     */
+    public int getItemCount() {
+        return itemCount;
+    }
+
+    /**
+     * Gets the sum of the quantities of all {@code Item} instances.
+     * @return The total quantity attribute.
+     */
+    public long getTotalQuantity() {
+        return totalQuantity;
+    }
+
+    /**
+     * Gets the number of {@code Item} instances whose quantity is 0.
+     * @return The zero quantity count attribute.
+     */
+    public int getZeroQuantityCount() {
+        return zeroQuantityCount;
+    }
+
+    /**
+     * Gets the number of {@code Item} instances that are in stock.
+     * @return The number of items whose quantity is above 0.
+     */
+    public int getStockedCount() {
+        return itemCount - zeroQuantityCount;
+    }
+
+    @Override
+    public String toString() {
+        return itemCount + " items, " + totalQuantity + " units, "
+                + zeroQuantityCount + " out of stock.";
+    }
+}
@@ -17,6 +17,8 @@
  */
 package com.dcreeperstone;
 
+import java.util.Arrays;
+
 /**
  * Demonstrates usage of the {@code InventoryHandler} class for running the
  * process that manipulates the contents of an {@code Inventory} instance.
@@ -27,9 +29,22 @@ public class InventoryTracker {
     private InventoryTracker() {}
     
     /**
+     * Runs the interactive menus, or with {@code --script <script|->
+     * [inventory file]} runs a command script without any prompts, or with
+     * {@code --serve <port> [inventory file]} serves the inventory over TCP,
+     * or with {@code --sessions <port>} serves the menus to many operators
+     * at once.
      * @param args the command line arguments
      */
     public static void main(String[] args) {
-        InventoryHandler.run();
+        if (args.length > 0 && args[0].equals("--script"))
+            InventoryScript.run(Arrays.copyOfRange(args, 1, args.length));
+        else if (args.length > 0 && args[0].equals("--serve"))
+            InventoryServer.run(Arrays.copyOfRange(args, 1, args.length));
+        else if (args.length > 0 && args[0].equals("--sessions"))
+            InventorySessionServer.run(Arrays.copyOfRange(args, 1,
+                    args.length));
+        else
+            InventoryHandler.console().run();
     }
 }
\ No newline at end of file
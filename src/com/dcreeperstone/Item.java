@@ -17,15 +17,35 @@
  */
 package com.dcreeperstone;
 
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
 /**
  * The {@code Item} class is designed to hold attributes pertaining to a 
  * real-world item object. Each {@code Item} is given a description and a 
- * quantity count for usage in the {@code Inventory} class.
+ * quantity count for usage in the {@code Inventory} class. The quantity is
+ * updated with compare-and-set operations, so many threads may change the
+ * same {@code Item} without locking it.
+ * <p>
+ * The quantity is stamped with the generation of the {@code Inventory} it
+ * was last changed in. Resetting or clearing the inventory starts a new
+ * generation, and a quantity stamped with an older one reads as 0 until the
+ * {@code Item} is changed again, so the inventory never has to visit its
+ * items. An {@code Item} that is not held by an inventory reads its quantity
+ * whatever it is stamped with.
  * @author Dr. Hoss
  */
 public class Item {
     private final String info;
-    private int quantity;
+    private final String key;
+    private volatile long state;
+    private volatile Inventory owner;
+    
+    private static final AtomicLongFieldUpdater<Item> STATE =
+            AtomicLongFieldUpdater.newUpdater(Item.class, "state");
+    // The generation stamped on an Item taken out of its Inventory. No
+    // Inventory reaches it, so changes that lose the race with the removal
+    // are never counted.
+    private static final int REMOVED = Integer.MIN_VALUE;
     
     /**
      * Constructor that initializes the {@code info} attribute with the 
@@ -43,11 +63,12 @@ public class Item {
      * @param inQuantity The initial quantity of the {@code Item}.
      */
     public Item(String inInfo, int inQuantity) {
-        if (quantity < 0)
+        if (inQuantity < 0)
             throw new IllegalArgumentException("Cannot have a negative number "
                     + "of items.");
         info = inInfo;
-        quantity = inQuantity;
+        key = foldCase(inInfo);
+        state = stamp(0, inQuantity);
     }
     
     /**
@@ -58,52 +79,314 @@ public class Item {
         return info;
     }
     
+    /**
+     * Gets the case-folded form of the info attribute that is used to index
+     * the {@code Item} inside of an {@code Inventory}.
+     * @return The case-folded info attribute.
+     */
+    String getKey() {
+        return key;
+    }
+    
     /**
      * Gets the value of the quantity attribute.
      * @return The quantity attribute.
      */
     public int getQuantity() {
-        return quantity;
+        long current = state;
+
+        return generationOf(current) == REMOVED
+                || generationOf(current) == generation(current)
+                ? quantityOf(current) : 0;
+    }
+
+    /**
+     * Gets the quantity attribute stamped with the current generation of the
+     * {@code Inventory} holding the {@code Item}.
+     * @return The stamped quantity.
+     */
+    long getStamped() {
+        return current(state);
+    }
+
+    /**
+     * Gets the quantity the {@code Item} had in the specified generation,
+     * provided it was not changed in a later one.
+     * @param generation The generation to read.
+     * @return The quantity, or 0 if the stamped generation is older.
+     */
+    int getQuantityIn(int generation) {
+        long current = state;
+
+        return generationOf(current) == generation ? quantityOf(current) : 0;
+    }
+
+    /**
+     * Attaches the {@code Item} to the {@code Inventory} about to hold it,
+     * stamping its stored quantity with the specified generation. Called
+     * before the {@code Item} is shared with other threads, or after it is
+     * known not to be held.
+     * @param inOwner The {@code Inventory} holding the {@code Item}, or
+     * {@code null} to detach it.
+     * @param generation The generation to stamp the quantity with.
+     * @return The stamped quantity.
+     */
+    long attach(Inventory inOwner, int generation) {
+        long stamped = stamp(generation, quantityOf(state));
+
+        owner = inOwner;
+        state = stamped;
+
+        return stamped;
+    }
+
+    /**
+     * Marks the {@code Item} as taken out of the {@code Inventory} holding
+     * it, in the same atomic step that reads its quantity. A change that
+     * loses the race with the removal then leaves the quantity alone and
+     * returns a quantity stamped with a generation no {@code Inventory}
+     * counts, so the statistics only ever count the quantity read here. The
+     * removed {@code Item} keeps reading as that quantity.
+     * @return The quantity before the removal, stamped with the generation
+     * it was made in.
+     */
+    long retire() {
+        long current;
+        long previous;
+
+        do {
+            current = state;
+            if (generationOf(current) == REMOVED)
+                return stamp(generation(current), 0);
+            previous = current(current);
+        } while (!STATE.compareAndSet(this, current,
+                stamp(REMOVED, quantityOf(previous))));
+
+        return previous;
     }
     
     /**
-     * Adds the specified amount to the quantity attribute.
+     * Adds the specified amount to the quantity attribute. Only the
+     * {@code Item} itself changes, so an {@code Item} held by an
+     * {@code Inventory} is changed through the inventory instead, which keeps
+     * its statistics and listeners up to date.
      * @param amount The amount to add to the quantity attribute.
      */
-    public void addToQuantity(int amount) {
+    void addToQuantity(int amount) {
+        getAndAdd(amount);
+    }
+    
+    /**
+     * Adds the specified amount to the quantity attribute and returns the
+     * quantity it had before.
+     * @param amount The amount to add to the quantity attribute.
+     * @return The previous quantity, stamped with the generation the change
+     * was made in.
+     * @throws IllegalStateException If the sum does not fit in the quantity
+     * attribute; the quantity is left unchanged.
+     */
+    long getAndAdd(int amount) {
+        long current;
+        long previous;
+
         if (amount < 0)
             throw new IllegalArgumentException("Cannot add negative number of "
                     + "items.");
-        quantity += amount;
+        do {
+            current = state;
+            if (generationOf(current) == REMOVED)
+                return current;
+            previous = current(current);
+            if (amount > Integer.MAX_VALUE - quantityOf(previous))
+                throw new IllegalStateException("Cannot add more items than "
+                        + "a quantity can hold.");
+        } while (!STATE.compareAndSet(this, current, stamp(
+                generationOf(previous), quantityOf(previous) + amount)));
+
+        return previous;
     }
     
     /**
      * Removes the specified amount from the quantity attribute 
-     * if possible.
+     * if possible. Like {@code addToQuantity}, only the {@code Item} itself
+     * changes.
+     * @param amount The amount to remove from the quantity attribute.
+     */
+    void removeFromQuantity(int amount) {
+        getAndRemove(amount);
+    }
+    
+    /**
+     * Removes the specified amount from the quantity attribute if possible
+     * and returns the quantity it had before.
      * @param amount The amount to remove from the quantity attribute.
+     * @return The previous quantity, stamped with the generation the change
+     * was made in.
      */
-    public void removeFromQuantity(int amount) {
+    long getAndRemove(int amount) {
+        long current;
+        long previous;
+        
         if (amount < 0)
             throw new IllegalArgumentException("Cannot remove negative number "
                     + "of items.");
-        if (amount > quantity)
-            throw new IllegalStateException("Cannot remove more items than "
-                    + "exists.");
-        quantity -= amount;
+        do {
+            current = state;
+            if (generationOf(current) == REMOVED)
+                return current;
+            previous = current(current);
+            if (amount > quantityOf(previous))
+                throw new IllegalStateException("Cannot remove more items than "
+                        + "exists.");
+        } while (!STATE.compareAndSet(this, current, stamp(
+                generationOf(previous), quantityOf(previous) - amount)));
+        
+        return previous;
+    }
+    
+    /**
+     * Resets the quantity attribute to 0. Like {@code addToQuantity}, only
+     * the {@code Item} itself changes.
+     */
+    void resetQuantity() {
+        getAndReset();
+    }
+    
+    /**
+     * Resets the quantity attribute to 0 and returns the quantity it had
+     * before.
+     * @return The previous quantity, stamped with the generation the change
+     * was made in.
+     */
+    long getAndReset() {
+        return getAndSet(0);
+    }
+    
+    /**
+     * Replaces the quantity attribute. Used when restoring saved state, where
+     * the quantity is known rather than a change to it.
+     * @param inQuantity The new quantity.
+     */
+    void setQuantity(int inQuantity) {
+        getAndSet(inQuantity);
+    }
+    
+    /**
+     * Replaces the quantity attribute and returns the quantity it had before.
+     * @param inQuantity The new quantity.
+     * @return The previous quantity, stamped with the generation the change
+     * was made in.
+     */
+    long getAndSet(int inQuantity) {
+        long current;
+        long previous;
+        
+        do {
+            current = state;
+            if (generationOf(current) == REMOVED)
+                return current;
+            previous = current(current);
+        } while (!STATE.compareAndSet(this, current,
+                stamp(generationOf(previous), inQuantity)));
+        
+        return previous;
+    }
+    
+    /**
+     * Checks whether the specified {@code Item} stands for the same stored
+     * item as this one. Storage that hands out views of its items compares
+     * the stored item rather than the view.
+     * @param other The {@code Item} to compare with.
+     * @return {@code true} if both stand for the same stored item.
+     */
+    boolean isSameItem(Item other) {
+        return this == other;
+    }
+    
+    /**
+     * Stamps a quantity with a generation.
+     * @param generation The generation.
+     * @param quantity The quantity.
+     * @return The stamped quantity.
+     */
+    static long stamp(int generation, int quantity) {
+        return (long) generation << 32 | quantity & 0xFFFFFFFFL;
     }
     
     /**
-     * Resets the quantity attribute to 0.
+     * Gets the generation of a stamped quantity.
+     * @param stamped The stamped quantity.
+     * @return The generation.
      */
-    public void resetQuantity() {
-        quantity = 0;
+    static int generationOf(long stamped) {
+        return (int) (stamped >>> 32);
+    }
+    
+    /**
+     * Gets the quantity of a stamped quantity.
+     * @param stamped The stamped quantity.
+     * @return The quantity.
+     */
+    static int quantityOf(long stamped) {
+        return (int) stamped;
+    }
+    
+    /**
+     * Gets the current generation, read after the state it is compared with:
+     * the generation of the owning {@code Inventory}, or the stamped one if
+     * there is no owner.
+     */
+    private int generation(long current) {
+        Inventory inv = owner;
+        
+        return inv == null ? generationOf(current) : inv.generation();
+    }
+    
+    /**
+     * Normalizes a state to the current generation, where a quantity stamped
+     * with an older one is 0.
+     */
+    private long current(long current) {
+        int generation = generation(current);
+        
+        return stamp(generation, generationOf(current) == generation
+                ? quantityOf(current) : 0);
+    }
+    
+    /**
+     * Folds the case of the specified text so that two strings that are equal
+     * by {@code String.equalsIgnoreCase} always fold to the same value.
+     * @param text The text to fold.
+     * @return The case-folded text, or {@code null} if the text is null.
+     */
+    static String foldCase(String text) {
+        char[] folded;
+        int i;
+        
+        if (text == null)
+            return null;
+        i = 0;
+        while (i < text.length() && text.charAt(i) == fold(text.charAt(i)))
+            i++;
+        if (i == text.length())
+            return text;
+        folded = text.toCharArray();
+        for (; i < folded.length; i++)
+            folded[i] = fold(folded[i]);
+        
+        return new String(folded);
+    }
+    
+    static char fold(char c) {
+        return Character.toLowerCase(Character.toUpperCase(c));
     }
     
     @Override
     public String toString() {
         String res;
         
-        res = String.format("Item info:  %s\nQuantity:  %d\n", info, quantity);
+        res = String.format("Item info:  %s\nQuantity:  %d\n", info,
+                getQuantity());
         
         return res;
     }
@@ -0,0 +1,322 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The {@code JsonLinesInventoryReader} class reads item records from a JSON
+ * Lines file, where every non-blank line holds one JSON object such as
+ * <pre>
+ *   {"info": "Copper wire", "quantity": 120}
+ * </pre>
+ * The {@code info} member must be a string and the {@code quantity} member a
+ * whole number; any other members are skipped, whatever their value.
+ * <p>
+ * The file is read one line at a time. A malformed record is consumed before
+ * its {@code InventoryFormatException} is thrown, so the caller can skip it
+ * and go on with the next one.
+ * @author Dr. Hoss
+ */
+public class JsonLinesInventoryReader implements InventoryReader {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final BufferedReader reader;
+    private final StringBuilder text = new StringBuilder();
+    private final String name;
+    private String line;
+    private int position;
+    private int lineNumber;
+    private String info;
+    private int quantity;
+
+    /**
+     * Constructor that opens the specified UTF-8 file. The inventory is
+     * named after the file, without its extension.
+     * @param jsonFile The JSON Lines file to read.
+     * @throws IOException If the file cannot be opened.
+     */
+    public JsonLinesInventoryReader(File jsonFile) throws IOException {
+        this(new InputStreamReader(new FileInputStream(jsonFile),
+                StandardCharsets.UTF_8), InventoryExchange.baseName(jsonFile));
+    }
+
+    /**
+     * Constructor that reads the records from the specified reader.
+     * @param inReader The source of the JSON Lines data.
+     * @param inName The name to report for the inventory.
+     */
+    public JsonLinesInventoryReader(Reader inReader, String inName) {
+        reader = new BufferedReader(inReader, BUFFER_SIZE);
+        name = inName;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Advances to the next record, skipping blank lines.
+     * @return {@code true} if a record was read, or {@code false} at the end
+     * of the file.
+     * @throws IOException If the file cannot be read, or the line is not an
+     * object with an item info and a valid quantity.
+     */
+    @Override
+    public boolean next() throws IOException {
+        do {
+            line = reader.readLine();
+            if (line == null)
+                return false;
+            lineNumber++;
+            position = 0;
+            skipSpace();
+        } while (position == line.length());
+        parseRecord();
+
+        return true;
+    }
+
+    @Override
+    public String getInfo() {
+        return info;
+    }
+
+    @Override
+    public int getQuantity() {
+        return quantity;
+    }
+
+    /**
+     * Gets the line number of the most recently read record.
+     * @return The current line number.
+     */
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private void parseRecord() throws InventoryFormatException {
+        boolean hasInfo = false;
+        boolean hasQuantity = false;
+        String member;
+
+        // A byte order mark can only come first in the file.
+        if (lineNumber == 1 && line.charAt(position) == '\uFEFF') {
+            position++;
+            skipSpace();
+        }
+        info = null;
+        expect('{');
+        skipSpace();
+        if (!accept('}')) {
+            do {
+                skipSpace();
+                member = parseString();
+                skipSpace();
+                expect(':');
+                skipSpace();
+                if (member.equals("info")) {
+                    if (peek() != '"')
+                        throw fail("the info must be a string.");
+                    info = parseString();
+                    hasInfo = true;
+                } else if (member.equals("quantity")) {
+                    quantity = parseQuantity();
+                    hasQuantity = true;
+                } else
+                    skipValue();
+                skipSpace();
+            } while (accept(','));
+            expect('}');
+        }
+        skipSpace();
+        if (position < line.length())
+            throw fail("unexpected text after the record.");
+        if (!hasInfo || info.isEmpty())
+            throw fail("missing item info.");
+        if (!hasQuantity)
+            throw fail("missing quantity for item '" + info + "'.");
+        if (quantity < 0)
+            throw fail("negative quantity " + quantity + " for item '" + info
+                    + "'.");
+    }
+
+    private String parseString() throws InventoryFormatException {
+        char c;
+
+        expect('"');
+        text.setLength(0);
+        while (true) {
+            if (position == line.length())
+                throw fail("unterminated string.");
+            c = line.charAt(position++);
+            if (c == '"')
+                return text.toString();
+            if (c != '\\')
+                text.append(c);
+            else if (position == line.length())
+                throw fail("unterminated string.");
+            else {
+                c = line.charAt(position++);
+                switch (c) {
+                    case 'b':   text.append('\b');
+                                break;
+                    case 'f':   text.append('\f');
+                                break;
+                    case 'n':   text.append('\n');
+                                break;
+                    case 'r':   text.append('\r');
+                                break;
+                    case 't':   text.append('\t');
+                                break;
+                    case 'u':   text.append(parseHex());
+                                break;
+                    case '"':
+                    case '\\':
+                    case '/':   text.append(c);
+                                break;
+                    default:    throw fail("invalid escape '\\" + c + "'.");
+                }
+            }
+        }
+    }
+
+    private char parseHex() throws InventoryFormatException {
+        int value;
+
+        if (position + 4 > line.length())
+            throw fail("invalid unicode escape.");
+        try {
+            value = Integer.parseInt(line.substring(position, position + 4),
+                    16);
+        } catch (NumberFormatException ex) {
+            throw fail("invalid unicode escape.");
+        }
+        position += 4;
+
+        return (char) value;
+    }
+
+    private int parseQuantity() throws InventoryFormatException {
+        int start = position;
+        long value = 0;
+        boolean negative = accept('-');
+
+        if (position == line.length() || !isDigit(peek()))
+            throw fail("the quantity must be a whole number.");
+        while (position < line.length() && isDigit(peek())) {
+            value = value * 10 + (line.charAt(position++) - '0');
+            if (value > (long) Integer.MAX_VALUE + 1)
+                throw fail("quantity " + line.substring(start, position)
+                        + "... is too large.");
+        }
+        if (position < line.length() && ".eE".indexOf(peek()) >= 0)
+            throw fail("the quantity must be a whole number.");
+        if (negative)
+            value = -value;
+        if (value > Integer.MAX_VALUE)
+            throw fail("quantity " + value + " is too large.");
+
+        return (int) value;
+    }
+
+    /**
+     * Skips a value of a member that is not read, including any objects and
+     * arrays nested in it.
+     */
+    private void skipValue() throws InventoryFormatException {
+        char close;
+
+        switch (peek()) {
+            case '"':   parseString();
+                        return;
+            case '{':
+            case '[':   close = peek() == '{' ? '}' : ']';
+                        position++;
+                        skipSpace();
+                        if (accept(close))
+                            return;
+                        do {
+                            skipSpace();
+                            if (close == '}') {
+                                parseString();
+                                skipSpace();
+                                expect(':');
+                                skipSpace();
+                            }
+                            skipValue();
+                            skipSpace();
+                        } while (accept(','));
+                        expect(close);
+                        return;
+            default:    if (position == line.length()
+                                || ",}] \t".indexOf(peek()) >= 0)
+                            throw fail("missing value.");
+                        while (position < line.length()
+                                && ",}] \t".indexOf(peek()) < 0)
+                            position++;
+        }
+    }
+
+    private void skipSpace() {
+        while (position < line.length() && (line.charAt(position) == ' '
+                || line.charAt(position) == '\t'
+                || line.charAt(position) == '\r'))
+            position++;
+    }
+
+    private char peek() {
+        return position < line.length() ? line.charAt(position) : 0;
+    }
+
+    private boolean accept(char c) {
+        if (peek() != c || position == line.length())
+            return false;
+        position++;
+
+        return true;
+    }
+
+    private void expect(char c) throws InventoryFormatException {
+        if (!accept(c))
+            throw fail(position == line.length() ? "expected '" + c
+                    + "' at the end of the line." : "expected '" + c
+                    + "' but found '" + line.charAt(position) + "'.");
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private InventoryFormatException fail(String message) {
+        return new InventoryFormatException(lineNumber, message);
+    }
+}
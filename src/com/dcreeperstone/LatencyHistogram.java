@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The {@code LatencyHistogram} class counts durations in buckets whose width
+ * grows with the value, in the manner of an HdrHistogram. Every power of two
+ * is split into 32 equal sub-buckets, so any percentile is reported within
+ * about 3% of the true value while the whole range of a {@code long} fits in
+ * under two thousand counters. Every bucket is a {@code LongAdder}, so
+ * threads recording into the same bucket at the same time add to separate
+ * cells instead of contending for one counter. The mean and maximum are
+ * worked out from the buckets with the same precision.
+ * @author Dr. Hoss
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS];
+
+    /**
+     * Constructor that initializes a new, empty {@code LatencyHistogram}.
+     */
+    LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++)
+            counts[i] = new LongAdder();
+    }
+
+    /**
+     * Records one duration.
+     * @param nanos The duration in nanoseconds; negative values count as 0.
+     */
+    void record(long nanos) {
+        counts[bucketOf(Math.max(0, nanos))].increment();
+    }
+
+    /**
+     * Gets the number of recorded durations.
+     * @return The count.
+     */
+    long getCount() {
+        long count = 0;
+
+        for (int i = 0; i < BUCKETS; i++)
+            count += counts[i].sum();
+
+        return count;
+    }
+
+    /**
+     * Gets the mean of the recorded durations.
+     * @return The mean in nanoseconds, or 0 if nothing was recorded.
+     */
+    double getMean() {
+        double total = 0;
+        long count = 0;
+        long bucketCount;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            bucketCount = counts[i].sum();
+            if (bucketCount > 0) {
+                total += bucketCount
+                        * ((lowestValueOf(i) + highestValueOf(i)) / 2.0);
+                count += bucketCount;
+            }
+        }
+
+        return count == 0 ? 0 : total / count;
+    }
+
+    /**
+     * Gets the longest recorded duration.
+     * @return The upper bound of the highest bucket in use, in nanoseconds,
+     * or 0 if nothing was recorded.
+     */
+    long getMax() {
+        for (int i = BUCKETS - 1; i >= 0; i--)
+            if (counts[i].sum() > 0)
+                return highestValueOf(i);
+
+        return 0;
+    }
+
+    /**
+     * Gets the duration below which the specified fraction of the recorded
+     * durations fall.
+     * @param percentile The percentile, between 0 and 100.
+     * @return The upper bound of the bucket holding the percentile, in
+     * nanoseconds, or 0 if nothing was recorded.
+     */
+    long getPercentile(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        long rank;
+        long seen = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts[i].sum();
+            count += snapshot[i];
+        }
+        if (count == 0)
+            return 0;
+        rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank)
+                return highestValueOf(i);
+        }
+
+        return getMax();
+    }
+
+    /**
+     * Forgets every recorded duration.
+     */
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++)
+            counts[i].reset();
+    }
+
+    private static int bucketOf(long value) {
+        int exponent;
+
+        if (value < SUB_COUNT)
+            return (int) value;
+        exponent = 63 - Long.numberOfLeadingZeros(value);
+
+        return (exponent - SUB_BITS + 1) * SUB_COUNT
+                + (int) (value >>> (exponent - SUB_BITS)) - SUB_COUNT;
+    }
+
+    private static long lowestValueOf(int bucket) {
+        int shift;
+
+        if (bucket < SUB_COUNT)
+            return bucket;
+        shift = bucket / SUB_COUNT - 1;
+
+        return (long) (bucket % SUB_COUNT + SUB_COUNT) << shift;
+    }
+
+    private static long highestValueOf(int bucket) {
+        int shift;
+
+        if (bucket < SUB_COUNT)
+            return bucket;
+        shift = bucket / SUB_COUNT - 1;
+
+        return ((long) (bucket % SUB_COUNT + SUB_COUNT + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+/**
+ * The {@code ReorderListener} interface is implemented by classes that need
+ * to know when the stock of an {@code Item} falls below its reorder threshold
+ * or is brought back up to it. Unlike an {@code InventoryListener}, it is
+ * only called when an item crosses its threshold, not on every change.
+ * Listeners are called after the change was made, on the thread that made
+ * it or, if another thread was updating the stock index at the time, on that
+ * thread, which applies the change for it. Every method does nothing by
+ * default.
+ * @author Dr. Hoss
+ */
+public interface ReorderListener {
+
+    /**
+     * Called after the quantity of an {@code Item} fell below its reorder
+     * threshold, or its threshold was raised above its quantity.
+     * @param item The {@code Item} that needs reordering.
+     * @param quantity The quantity of the {@code Item}.
+     * @param threshold The reorder threshold of the {@code Item}.
+     */
+    default void belowThreshold(Item item, int quantity, int threshold) {
+    }
+
+    /**
+     * Called after the quantity of an {@code Item} that was below its reorder
+     * threshold reached the threshold again, or its threshold was lowered to
+     * its quantity or below.
+     * @param item The restocked {@code Item}.
+     * @param quantity The quantity of the {@code Item}.
+     * @param threshold The reorder threshold of the {@code Item}.
+     */
+    default void restocked(Item item, int quantity, int threshold) {
+    }
+}
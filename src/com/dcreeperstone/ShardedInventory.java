@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
+
+/**
+ * The {@code ShardedInventory} class is an {@code Inventory} whose
+ * {@code Item} instances are hash-partitioned by their case-folded info into
+ * independent shards, each with its own lock. Single-item operations only
+ * lock the shard of their item, and whole-inventory operations such as
+ * loading the inventory and saving it in the text format work on every shard
+ * in parallel.
+ * @author Dr. Hoss
+ */
+public class ShardedInventory extends Inventory {
+
+    private static final int DEFAULT_SHARDS =
+            4 * Runtime.getRuntime().availableProcessors();
+    private static final int LOAD_BATCH_SIZE = 8192;
+    private static final byte[] LINE_SEPARATOR =
+            System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int CHUNKS_PER_SHARD = 2;
+    private static final ByteBuffer END_OF_SHARD = ByteBuffer.allocate(0);
+
+    /**
+     * The {@code ShardChunks} class encodes the items of one shard into
+     * chunks of a bounded size and queues each full chunk for the thread
+     * that writes the file.
+     */
+    private static final class ShardChunks {
+
+        private final BlockingQueue<ByteBuffer> queue;
+        private ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+        private boolean abandoned;
+
+        ShardChunks(BlockingQueue<ByteBuffer> inQueue) {
+            queue = inQueue;
+        }
+
+        void add(Item item) {
+            byte[] info = item.getInfo().getBytes(StandardCharsets.UTF_8);
+            byte[] quantity = Integer.toString(item.getQuantity())
+                    .getBytes(StandardCharsets.US_ASCII);
+            int length = info.length + quantity.length
+                    + 2 * LINE_SEPARATOR.length;
+
+            if (chunk.remaining() < length) {
+                chunk.flip();
+                send(chunk);
+                chunk = ByteBuffer.allocate(Math.max(CHUNK_SIZE, length));
+            }
+            chunk.put(info).put(LINE_SEPARATOR);
+            chunk.put(quantity).put(LINE_SEPARATOR);
+        }
+
+        /**
+         * Queues the last chunk of the shard and the end marker.
+         * @return {@code false} if the save was given up.
+         */
+        boolean finish() {
+            chunk.flip();
+            send(chunk);
+            send(END_OF_SHARD);
+
+            return !abandoned;
+        }
+
+        private void send(ByteBuffer filled) {
+            if (!abandoned) {
+                try {
+                    queue.put(filled);
+                } catch (InterruptedException ex) {
+                    // The save was given up, so nobody takes the chunks.
+                    abandoned = true;
+                }
+            }
+        }
+    }
+
+    private final int shardCount;
+
+    /**
+     * Constructor that initializes a new {@code ShardedInventory} instance
+     * with only the name attribute and four shards per processor.
+     * @param inName The name to use for the {@code Inventory}.
+     */
+    public ShardedInventory(String inName) {
+        this(inName, DEFAULT_SHARDS);
+    }
+
+    /**
+     * Constructor that initializes a new {@code ShardedInventory} instance
+     * with the name attribute and the specified number of shards.
+     * @param inName The name to use for the {@code Inventory}.
+     * @param shardCount The number of shards to partition the items into.
+     */
+    public ShardedInventory(String inName, int shardCount) {
+        this(inName, new ShardedMap(shardCount));
+    }
+
+    private ShardedInventory(String inName, ShardedMap index) {
+        super(inName, index);
+        shardCount = index.shardCount();
+    }
+
+    /**
+     * Constructor that initializes a {@code ShardedInventory} instance with
+     * the specified file, four shards per processor, and loads the file's
+     * contents into the list.
+     * @param invFile The file containing data for the {@code Inventory}.
+     */
+    public ShardedInventory(File invFile) {
+        this(invFile, DEFAULT_SHARDS);
+    }
+
+    /**
+     * Constructor that initializes a {@code ShardedInventory} instance with
+     * the specified file and number of shards, and loads the file's contents
+     * into the list.
+     * @param invFile The file containing data for the {@code Inventory}.
+     * @param shardCount The number of shards to partition the items into.
+     */
+    public ShardedInventory(File invFile, int shardCount) {
+        this(invFile, new ShardedMap(shardCount));
+    }
+
+    private ShardedInventory(File invFile, ShardedMap index) {
+        super(invFile, index);
+        shardCount = index.shardCount();
+    }
+
+    /**
+     * Gets the number of shards the items are partitioned into.
+     * @return The shard count.
+     */
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    /**
+     * Reads the records on the calling thread, since the file can only be
+     * parsed in order, and adds each batch of them to their shards in
+     * parallel, so only one batch is held at a time. Loaded items are not
+     * changes, so neither listeners nor the change log are told about them.
+     */
+    @Override
+    void loadInventory(InventoryReader invReader) throws IOException {
+        String[] infos = new String[LOAD_BATCH_SIZE];
+        int[] quantities = new int[LOAD_BATCH_SIZE];
+        int count;
+
+        do {
+            count = 0;
+            while (count < LOAD_BATCH_SIZE && invReader.next()) {
+                infos[count] = invReader.getInfo();
+                quantities[count] = invReader.getQuantity();
+                count++;
+            }
+            IntStream.range(0, count).parallel()
+                    .forEach(i -> mergeItem(infos[i], quantities[i]));
+        } while (count == LOAD_BATCH_SIZE);
+    }
+
+    @Override
+    Map<String, Item> newIndex(int generation) {
+        return new ShardedMap(shardCount);
+    }
+
+    @Override
+    Map<String, Item> copyIndex(Map<String, Item> index) {
+        return ((ShardedMap) index).copy();
+    }
+
+    /**
+     * Writes the text format from a snapshot. Render threads claim the
+     * shards in order and encode each of them into chunks of a bounded size,
+     * while the calling thread writes the chunks of one shard after another
+     * as they arrive. Each shard queues only a few chunks, so a render thread
+     * that gets ahead of the file waits, and the memory a save needs does not
+     * grow with the inventory.
+     */
+    @Override
+    void writeTo(File file, InventoryFormat format) throws IOException {
+        List<BlockingQueue<ByteBuffer>> queues = new ArrayList<>();
+        AtomicInteger nextShard = new AtomicInteger();
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        Thread[] renderers = new Thread[Math.min(shardCount,
+                Runtime.getRuntime().availableProcessors())];
+        ByteBuffer chunk;
+
+        if (format != InventoryFormat.TEXT) {
+            super.writeTo(file, format);
+            return;
+        }
+        for (int i = 0; i < shardCount; i++)
+            queues.add(new ArrayBlockingQueue<>(CHUNKS_PER_SHARD));
+        try (InventorySnapshot snapshot = snapshot();
+                FileChannel channel = FileChannel.open(file.toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int i = 0; i < renderers.length; i++) {
+                renderers[i] = new Thread(() -> renderShards(snapshot, queues,
+                        nextShard, failure), "ShardedInventory-renderer-" + i);
+                renderers[i].setDaemon(true);
+                renderers[i].start();
+            }
+            try {
+                writeFully(channel, ByteBuffer.wrap(
+                        getName().getBytes(StandardCharsets.UTF_8)));
+                writeFully(channel, ByteBuffer.wrap(LINE_SEPARATOR));
+                for (BlockingQueue<ByteBuffer> queue : queues) {
+                    while ((chunk = queue.take()) != END_OF_SHARD)
+                        writeFully(channel, chunk);
+                    if (failure.get() != null)
+                        throw failure.get();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Save of '" + getName()
+                        + "' interrupted.");
+            } finally {
+                // The snapshot must not close while a shard is walked.
+                stopRenderers(renderers);
+            }
+        }
+    }
+
+    private static void renderShards(InventorySnapshot snapshot,
+            List<BlockingQueue<ByteBuffer>> queues, AtomicInteger nextShard,
+            AtomicReference<RuntimeException> failure) {
+        ShardedMap index = (ShardedMap) snapshot.index();
+        ShardChunks chunks;
+        boolean writing = true;
+        int shard;
+
+        while (writing
+                && (shard = nextShard.getAndIncrement()) < queues.size()) {
+            int walked = shard;
+
+            chunks = new ShardChunks(queues.get(shard));
+            try {
+                snapshot.forEachOf(index.copyShard(shard),
+                        key -> index.shardOf(key) == walked, chunks::add);
+            } catch (RuntimeException ex) {
+                failure.compareAndSet(null, ex);
+            }
+            writing = chunks.finish();
+        }
+    }
+
+    private static void stopRenderers(Thread[] renderers) {
+        boolean interrupted = false;
+
+        for (Thread renderer : renderers)
+            if (renderer != null)
+                renderer.interrupt();
+        for (Thread renderer : renderers)
+            while (renderer != null && renderer.isAlive()) {
+                try {
+                    renderer.join();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer)
+            throws IOException {
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+    }
+}
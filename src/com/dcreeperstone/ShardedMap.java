@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
+
+/**
+ * The {@code ShardedMap} class indexes {@code Item} instances by their
+ * case-folded info across a fixed number of shards. Each shard is a
+ * {@code HashMap} with its own read-write lock, so threads working on
+ * different shards never wait for each other, and whole-map operations can
+ * run on every shard in parallel. Iterating the map copies one shard at a
+ * time, so iterators are weakly consistent and never fail because of
+ * concurrent changes.
+ * @author Dr. Hoss
+ */
+final class ShardedMap extends AbstractMap<String, Item> {
+
+    private static final int GOLDEN_RATIO = 0x9E3779B9;
+
+    /**
+     * The {@code Shard} class holds one part of the map and its lock.
+     */
+    private static final class Shard {
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        HashMap<String, Item> items = new HashMap<>();
+    }
+
+    private final Shard[] shards;
+
+    /**
+     * Constructor that initializes a new, empty {@code ShardedMap}.
+     * @param shardCount The number of shards to spread the items over.
+     */
+    ShardedMap(int shardCount) {
+        if (shardCount < 1)
+            throw new IllegalArgumentException("Shard count must be "
+                    + "positive.");
+        shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++)
+            shards[i] = new Shard();
+    }
+
+    /**
+     * Gets the number of shards.
+     * @return The shard count.
+     */
+    int shardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Gets the shard that holds the specified key. The shard is picked from
+     * the high bits of a mixed hash, so the keys of one shard still spread
+     * over the buckets of its {@code HashMap}, which uses the low bits. A
+     * {@code null} key belongs to the first shard, as in a {@code HashMap}.
+     * @param key The case-folded key.
+     * @return The index of the shard.
+     */
+    int shardOf(Object key) {
+        long mixed = key == null ? 0
+                : (key.hashCode() * GOLDEN_RATIO) & 0xFFFFFFFFL;
+
+        return (int) ((mixed * shards.length) >>> 32);
+    }
+
+    /**
+     * Copies the map, one shard at a time. The copy holds the same
+     * {@code Item} instances.
+     * @return The copy.
+     */
+    ShardedMap copy() {
+        ShardedMap copy = new ShardedMap(shards.length);
+        Shard source;
+
+        for (int i = 0; i < shards.length; i++) {
+            source = shards[i];
+            source.lock.readLock().lock();
+            try {
+                copy.shards[i].items = new HashMap<>(source.items);
+            } finally {
+                source.lock.readLock().unlock();
+            }
+        }
+
+        return copy;
+    }
+
+    /**
+     * Copies the items of one shard.
+     * @param shard The index of the shard.
+     * @return The items the shard held.
+     */
+    List<Item> copyShard(int shard) {
+        Shard target = shards[shard];
+
+        target.lock.readLock().lock();
+        try {
+            return new ArrayList<>(target.items.values());
+        } finally {
+            target.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Item get(Object key) {
+        Shard target = shards[shardOf(key)];
+
+        target.lock.readLock().lock();
+        try {
+            return target.items.get(key);
+        } finally {
+            target.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public Item put(String key, Item value) {
+        Shard target = shards[shardOf(key)];
+
+        target.lock.writeLock().lock();
+        try {
+            return target.items.put(key, value);
+        } finally {
+            target.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Item putIfAbsent(String key, Item value) {
+        Shard target = shards[shardOf(key)];
+
+        target.lock.writeLock().lock();
+        try {
+            return target.items.putIfAbsent(key, value);
+        } finally {
+            target.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Item remove(Object key) {
+        Shard target = shards[shardOf(key)];
+
+        target.lock.writeLock().lock();
+        try {
+            return target.items.remove(key);
+        } finally {
+            target.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes every item. Each shard drops its whole table in parallel,
+     * rather than emptying it bucket by bucket.
+     */
+    @Override
+    public void clear() {
+        IntStream.range(0, shards.length).parallel().forEach(i -> {
+            Shard target = shards[i];
+
+            target.lock.writeLock().lock();
+            try {
+                target.items = new HashMap<>();
+            } finally {
+                target.lock.writeLock().unlock();
+            }
+        });
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+
+        for (Shard target : shards) {
+            target.lock.readLock().lock();
+            try {
+                size += target.items.size();
+            } finally {
+                target.lock.readLock().unlock();
+            }
+        }
+
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public Collection<Item> values() {
+        return new AbstractCollection<Item>() {
+            @Override
+            public Iterator<Item> iterator() {
+                return new ShardIterator();
+            }
+
+            @Override
+            public int size() {
+                return ShardedMap.this.size();
+            }
+        };
+    }
+
+    @Override
+    public Set<Map.Entry<String, Item>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Item>>() {
+            @Override
+            public Iterator<Map.Entry<String, Item>> iterator() {
+                ShardIterator items = new ShardIterator();
+
+                return new Iterator<Map.Entry<String, Item>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return items.hasNext();
+                    }
+
+                    @Override
+                    public Map.Entry<String, Item> next() {
+                        Item item = items.next();
+
+                        return new SimpleImmutableEntry<>(item.getKey(), item);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return ShardedMap.this.size();
+            }
+        };
+    }
+
+    /**
+     * The {@code ShardIterator} class walks a copy of one shard at a time.
+     */
+    private final class ShardIterator implements Iterator<Item> {
+
+        private Iterator<Item> current = new ArrayList<Item>().iterator();
+        private int nextShard;
+
+        @Override
+        public boolean hasNext() {
+            while (!current.hasNext() && nextShard < shards.length)
+                current = copyShard(nextShard++).iterator();
+
+            return current.hasNext();
+        }
+
+        @Override
+        public Item next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+
+            return current.next();
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * The {@code SnapshotInventoryReader} class reads the binary snapshot format
+ * written by {@code SnapshotWriter}. Large snapshots are memory-mapped rather
+ * than copied onto the heap. The checksum is verified and the string table is
+ * decoded when the reader is opened, so {@code next} only has to read the
+ * fixed-width item table.
+ * @author Dr. Hoss
+ */
+public class SnapshotInventoryReader implements InventoryReader {
+
+    private static final long MAP_THRESHOLD = 16L * 1024 * 1024;
+
+    private final ByteBuffer data;
+    private final String[] strings;
+    private final String name;
+    private final int itemCount;
+    private final long sequence;
+    private int itemsRead;
+    private String info;
+    private int quantity;
+
+    /**
+     * Constructor that opens the specified snapshot, verifies its checksum and
+     * reads its header and string table.
+     * @param invFile The snapshot file containing data for the
+     * {@code Inventory}.
+     * @throws IOException If the file cannot be read or is not a valid
+     * snapshot.
+     */
+    public SnapshotInventoryReader(File invFile) throws IOException {
+        int nameIndex;
+        int stringCount;
+        short version;
+
+        data = readFile(invFile);
+        version = checkHeader();
+        if (data.limit() < (version > 1 ? SnapshotWriter.HEADER_SIZE
+                : SnapshotWriter.HEADER_SIZE - 8))
+            throw new InventoryFormatException("Snapshot is truncated.");
+        nameIndex = data.getInt();
+        stringCount = data.getInt();
+        itemCount = data.getInt();
+        sequence = version > 1 ? data.getLong() : 0;
+        if (stringCount < 0 || itemCount < 0 || (long) itemCount
+                * SnapshotWriter.ITEM_SIZE > data.limit() - data.position())
+            throw new InventoryFormatException("Snapshot has invalid table "
+                    + "sizes.");
+        strings = readStrings(stringCount);
+        if (data.remaining() != (long) itemCount * SnapshotWriter.ITEM_SIZE)
+            throw new InventoryFormatException("Snapshot item table does not "
+                    + "match its item count.");
+        name = stringAt(nameIndex);
+    }
+
+    /**
+     * Checks whether the specified file starts with the magic bytes of the
+     * binary snapshot format.
+     * @param invFile The file to check.
+     * @return {@code true} if the file is a binary snapshot.
+     * @throws IOException If the file cannot be read.
+     */
+    public static boolean isSnapshot(File invFile) throws IOException {
+        byte[] magic = new byte[SnapshotWriter.MAGIC.length];
+        int read = 0;
+        int count;
+
+        try (InputStream in = Files.newInputStream(invFile.toPath())) {
+            do {
+                count = in.read(magic, read, magic.length - read);
+                if (count > 0)
+                    read += count;
+            } while (count >= 0 && read < magic.length);
+        }
+
+        return read == magic.length
+                && Arrays.equals(magic, SnapshotWriter.MAGIC);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the sequence number of the last journal record the snapshot
+     * includes.
+     * @return The sequence attribute, or 0 if the snapshot was not written
+     * by a journal.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    @Override
+    public boolean next() throws IOException {
+        boolean found = itemsRead < itemCount;
+
+        if (found) {
+            info = stringAt(data.getInt());
+            quantity = data.getInt();
+            if (quantity < 0)
+                throw new InventoryFormatException("Snapshot has negative "
+                        + "quantity " + quantity + " for item '" + info
+                        + "'.");
+            itemsRead++;
+        }
+
+        return found;
+    }
+
+    @Override
+    public String getInfo() {
+        return info;
+    }
+
+    @Override
+    public int getQuantity() {
+        return quantity;
+    }
+
+    @Override
+    public void close() {
+        // The mapping is released when the buffer is garbage collected.
+    }
+
+    private static ByteBuffer readFile(File invFile) throws IOException {
+        ByteBuffer contents;
+        long size;
+
+        try (FileChannel channel = FileChannel.open(invFile.toPath(),
+                StandardOpenOption.READ)) {
+            size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new InventoryFormatException("Snapshot is too large to "
+                        + "read.");
+            if (size >= MAP_THRESHOLD)
+                contents = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            else {
+                contents = ByteBuffer.allocate((int) size);
+                while (contents.hasRemaining()
+                        && channel.read(contents) >= 0) {
+                    // Keep reading until the buffer is full.
+                }
+                contents.flip();
+            }
+        }
+
+        return contents;
+    }
+
+    private short checkHeader() throws InventoryFormatException {
+        byte[] magic = new byte[SnapshotWriter.MAGIC.length];
+        CRC32 checksum = new CRC32();
+        ByteBuffer body;
+        int stored;
+        short version;
+
+        if (data.limit() < SnapshotWriter.MAGIC.length + 4
+                + SnapshotWriter.CHECKSUM_SIZE)
+            throw new InventoryFormatException("Snapshot is truncated.");
+        data.get(magic);
+        if (!Arrays.equals(magic, SnapshotWriter.MAGIC))
+            throw new InventoryFormatException("File is not an inventory "
+                    + "snapshot.");
+        version = data.getShort();
+        if (version < 1 || version > SnapshotWriter.VERSION)
+            throw new InventoryFormatException("Unsupported snapshot version "
+                    + version + ".");
+        data.getShort();
+        stored = data.getInt(data.limit() - SnapshotWriter.CHECKSUM_SIZE);
+        body = data.duplicate();
+        body.position(0);
+        body.limit(data.limit() - SnapshotWriter.CHECKSUM_SIZE);
+        checksum.update(body);
+        if ((int) checksum.getValue() != stored)
+            throw new InventoryFormatException("Snapshot checksum does not "
+                    + "match; the file is corrupt.");
+        data.limit(data.limit() - SnapshotWriter.CHECKSUM_SIZE);
+
+        return version;
+    }
+
+    private String[] readStrings(int stringCount)
+            throws InventoryFormatException {
+        String[] table = new String[stringCount];
+        byte[] scratch = new byte[256];
+        int length;
+
+        for (int i = 0; i < stringCount; i++) {
+            if (data.remaining() < 4)
+                throw new InventoryFormatException("Snapshot string table is "
+                        + "truncated.");
+            length = data.getInt();
+            if (length < 0 || length > data.remaining())
+                throw new InventoryFormatException("Snapshot string " + i
+                        + " has an invalid length.");
+            if (length > scratch.length)
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            data.get(scratch, 0, length);
+            table[i] = new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+
+        return table;
+    }
+
+    private String stringAt(int index) throws InventoryFormatException {
+        if (index < 0 || index >= strings.length)
+            throw new InventoryFormatException("Snapshot refers to missing "
+                    + "string " + index + ".");
+        return strings[index];
+    }
+}
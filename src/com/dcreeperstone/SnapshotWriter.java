@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * The {@code SnapshotWriter} class writes an {@code Inventory} in the binary
+ * snapshot format. All values are big-endian and laid out as follows:
+ * <pre>
+ *   magic        8 bytes   0x89 'I' 'N' 'V' '\r' '\n' 0x1A '\n'
+ *   version      2 bytes
+ *   reserved     2 bytes
+ *   name         4 bytes   index of the inventory name in the string table
+ *   strings      4 bytes   number of entries in the string table
+ *   items        4 bytes   number of entries in the item table
+ *   sequence     8 bytes   last journal record the snapshot covers
+ *   string table           per string: 4 byte length, then UTF-8 bytes
+ *   item table             per item: 4 byte string index, 4 byte quantity
+ *   checksum     4 bytes   CRC-32 of every byte before it
+ * </pre>
+ * Equal strings are stored once in the string table. The sequence field was
+ * added in version 2 and is 0 for a snapshot written outside a journal;
+ * version 1 snapshots, which lack it, are still read.
+ * @author Dr. Hoss
+ */
+public class SnapshotWriter {
+
+    static final byte[] MAGIC = {
+        (byte) 0x89, 'I', 'N', 'V', '\r', '\n', 0x1A, '\n'
+    };
+    static final short VERSION = 2;
+    static final int HEADER_SIZE = MAGIC.length + 24;
+    static final int ITEM_SIZE = 8;
+    static final int CHECKSUM_SIZE = 4;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final CRC32 checksum;
+
+    private SnapshotWriter(FileChannel inChannel) {
+        channel = inChannel;
+        buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        checksum = new CRC32();
+    }
+
+    /**
+     * Writes the specified inventory name and items to a file in the binary
+     * snapshot format, replacing any previous contents of the file.
+     * @param file The file to write the snapshot to.
+     * @param name The name of the {@code Inventory}.
+     * @param items The {@code Item} instances of the {@code Inventory}.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void write(File file, String name, Collection<Item> items)
+            throws IOException {
+        write(file, name, items, 0, false);
+    }
+
+    /**
+     * Writes the specified inventory name and items to a file in the binary
+     * snapshot format, noting the last journal record they include, and
+     * forces the file to the storage device.
+     * @param file The file to write the snapshot to.
+     * @param name The name of the {@code Inventory}.
+     * @param items The {@code Item} instances of the {@code Inventory}.
+     * @param sequence The sequence number of the last journal record the
+     * items include.
+     * @throws IOException If the file cannot be written.
+     */
+    static void write(File file, String name, Collection<Item> items,
+            long sequence) throws IOException {
+        write(file, name, items, sequence, true);
+    }
+
+    private static void write(File file, String name, Collection<Item> items,
+            long sequence, boolean force) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            new SnapshotWriter(channel).writeSnapshot(name, items, sequence);
+            if (force)
+                channel.force(false);
+        }
+    }
+
+    private void writeSnapshot(String name, Collection<Item> items,
+            long sequence) throws IOException {
+        HashMap<String, Integer> indexes = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        int[] itemIndexes = new int[items.size()];
+        int[] quantities = new int[items.size()];
+        int nameIndex;
+        int count = 0;
+
+        nameIndex = intern(name, indexes, strings);
+        for (Item item : items) {
+            if (count == itemIndexes.length)
+                break;
+            itemIndexes[count] = intern(item.getInfo(), indexes, strings);
+            quantities[count] = item.getQuantity();
+            count++;
+        }
+
+        buffer.put(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.putShort((short) 0);
+        buffer.putInt(nameIndex);
+        buffer.putInt(strings.size());
+        buffer.putInt(count);
+        buffer.putLong(sequence);
+        for (String text : strings)
+            putString(text);
+        for (int i = 0; i < count; i++) {
+            ensureRemaining(ITEM_SIZE);
+            buffer.putInt(itemIndexes[i]);
+            buffer.putInt(quantities[i]);
+        }
+        flushBuffer();
+        buffer.putInt((int) checksum.getValue());
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+    }
+
+    private static int intern(String text, HashMap<String, Integer> indexes,
+            List<String> strings) {
+        Integer index = indexes.get(text);
+
+        if (index == null) {
+            index = strings.size();
+            indexes.put(text, index);
+            strings.add(text);
+        }
+
+        return index;
+    }
+
+    private void putString(String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        int offset = 0;
+        int length;
+
+        ensureRemaining(4);
+        buffer.putInt(bytes.length);
+        while (offset < bytes.length) {
+            if (!buffer.hasRemaining())
+                flushBuffer();
+            length = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, length);
+            offset += length;
+        }
+    }
+
+    private void ensureRemaining(int size) throws IOException {
+        if (buffer.remaining() < size)
+            flushBuffer();
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        checksum.update(buffer.array(), 0, buffer.limit());
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+}
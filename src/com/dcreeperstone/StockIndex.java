@@ -0,0 +1,430 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * The {@code StockIndex} class is a secondary index over the quantities of
+ * the {@code Item} instances in an {@code Inventory}. Every item is kept in a
+ * set ordered by quantity, and the items whose quantity is below their
+ * reorder threshold are also kept in a second set with the same order, so
+ * both the lowest stock and the items that need reordering are found by
+ * walking only as many entries as are returned. The index keeps itself
+ * current by listening to the {@code Inventory}; each change moves one entry
+ * in {@code O(log n)}.
+ * <p>
+ * Resetting the whole {@code Inventory} leaves every quantity at 0, so the
+ * entries already zeroed by an earlier reset are kept in a third set ordered
+ * by info, and a reset only moves the entries changed since the last one
+ * into it. That work was already paid for by the changes themselves, so a
+ * reset never sorts the whole index. Queries merge the zeroed entries, all
+ * of quantity 0, with the ones ordered by quantity. Items with a threshold
+ * are checked on every reset and are never left among the zeroed entries.
+ * <p>
+ * Writers never wait for the index. A reported change is queued, and the
+ * thread that holds the lock of the index applies every queued change before
+ * it lets go; a writer that finds the lock free takes it and applies the
+ * queue itself, while one that finds it taken goes on at once. Queries take
+ * the lock and apply the queue first, so they always see every change that
+ * was reported before they started. Reorder listeners are called by the
+ * thread that applied the crossing change, after it released the lock.
+ * <p>
+ * The quantity is read from the {@code Item} when its change is applied
+ * rather than taken from the event, so changes reported out of order by
+ * several threads still leave the index with the latest quantity. Like
+ * {@code InfoIndex}, the caller must filter results against the live
+ * inventory, since items restored without events are not seen.
+ * @author Dr. Hoss
+ */
+class StockIndex implements InventoryListener {
+
+    private static final Comparator<Entry> BY_QUANTITY =
+            Comparator.comparingInt((Entry entry) -> entry.quantity)
+                    .thenComparing(entry -> entry.item.getKey());
+    private static final Comparator<Entry> BY_KEY =
+            Comparator.comparing((Entry entry) -> entry.item.getKey());
+    private static final Comparator<Entry> IN_ORDER =
+            Comparator.comparingInt((Entry entry) -> entry.zeroed ? 0
+                    : entry.quantity)
+                    .thenComparing(entry -> entry.item.getKey());
+
+    private HashMap<String, Entry> entries;
+    private TreeSet<Entry> byQuantity;
+    private TreeSet<Entry> zeroed;
+    private TreeSet<Entry> belowThreshold;
+    private Set<Entry> withThreshold;
+    private List<Runnable> crossings;
+    private final List<ReorderListener> listeners;
+    private final ReentrantLock lock;
+    private final Queue<Runnable> pending;
+
+    /**
+     * Constructor that initializes a new, empty {@code StockIndex}.
+     */
+    StockIndex() {
+        entries = new HashMap<>();
+        byQuantity = new TreeSet<>(BY_QUANTITY);
+        zeroed = new TreeSet<>(BY_KEY);
+        belowThreshold = new TreeSet<>(BY_QUANTITY);
+        withThreshold = new HashSet<>();
+        crossings = new ArrayList<>();
+        listeners = new CopyOnWriteArrayList<>();
+        lock = new ReentrantLock();
+        pending = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * Registers a listener that is told when an item crosses its threshold.
+     * @param listener The listener to register.
+     */
+    void addListener(ReorderListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Unregisters a listener added with {@code addListener}.
+     * @param listener The listener to unregister.
+     */
+    void removeListener(ReorderListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Adds an {@code Item} without a reorder threshold, replacing any entry
+     * the index still holds for the same info.
+     */
+    @Override
+    public void itemAdded(Item item, int quantity) {
+        submit(() -> {
+            Entry entry = new Entry(item);
+
+            remove(item);
+            entries.put(item.getKey(), entry);
+            byQuantity.add(entry);
+        });
+    }
+
+    @Override
+    public void quantityChanged(Item item, int oldQuantity, int newQuantity) {
+        submit(() -> {
+            Entry entry = entries.get(item.getKey());
+
+            if (entry != null)
+                update(entry);
+        });
+    }
+
+    @Override
+    public void itemRemoved(Item item, int quantity) {
+        submit(() -> remove(item));
+    }
+
+    /**
+     * Moves the entries changed since the last reset to the zeroed entries,
+     * then checks the items with a threshold, since only they can cross it.
+     */
+    @Override
+    public void allItemsReset() {
+        submit(() -> {
+            for (Entry entry : byQuantity) {
+                entry.zeroed = true;
+                zeroed.add(entry);
+            }
+            byQuantity = new TreeSet<>(BY_QUANTITY);
+            belowThreshold = new TreeSet<>(BY_QUANTITY);
+            for (Entry entry : withThreshold)
+                update(entry);
+        });
+    }
+
+    @Override
+    public void inventoryCleared() {
+        submit(() -> {
+            entries = new HashMap<>();
+            byQuantity = new TreeSet<>(BY_QUANTITY);
+            zeroed = new TreeSet<>(BY_KEY);
+            belowThreshold = new TreeSet<>(BY_QUANTITY);
+            withThreshold = new HashSet<>();
+        });
+    }
+
+    /**
+     * Sets the reorder threshold of an {@code Item} in the index.
+     * @param key The case-folded info of the {@code Item}.
+     * @param threshold The new threshold; 0 turns reordering off for the
+     * {@code Item}.
+     * @return {@code false} if the {@code Item} is not in the index.
+     */
+    boolean setThreshold(String key, int threshold) {
+        Entry entry;
+
+        lock();
+        try {
+            entry = entries.get(key);
+            if (entry == null)
+                return false;
+            entry.threshold = threshold;
+            if (threshold > 0)
+                withThreshold.add(entry);
+            else
+                withThreshold.remove(entry);
+            update(entry);
+
+            return true;
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Gets the reorder threshold of an {@code Item} in the index.
+     * @param key The case-folded info of the {@code Item}.
+     * @return The threshold, or 0 if the {@code Item} has none or is not in
+     * the index.
+     */
+    int getThreshold(String key) {
+        Entry entry;
+
+        lock();
+        try {
+            entry = entries.get(key);
+
+            return entry == null ? 0 : entry.threshold;
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Finds the {@code Item} instances whose quantity is below their reorder
+     * threshold, lowest quantity first.
+     * @param limit The largest number of items to return.
+     * @param live Accepts only items that are still in the inventory.
+     * @return The matching {@code Item} instances.
+     */
+    List<Item> belowThreshold(int limit, Predicate<Item> live) {
+        lock();
+        try {
+            return first(belowThreshold.iterator(),
+                    Collections.emptyIterator(), IN_ORDER, limit, live);
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Finds the {@code Item} instances with the lowest quantities, lowest
+     * quantity first.
+     * @param count The largest number of items to return.
+     * @param live Accepts only items that are still in the inventory.
+     * @return The matching {@code Item} instances.
+     */
+    List<Item> lowest(int count, Predicate<Item> live) {
+        lock();
+        try {
+            return first(byQuantity.iterator(), zeroed.iterator(), IN_ORDER,
+                    count, live);
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Finds the {@code Item} instances with the largest quantities, largest
+     * quantity first.
+     * @param count The largest number of items to return.
+     * @param live Accepts only items that are still in the inventory.
+     * @return The matching {@code Item} instances.
+     */
+    List<Item> largest(int count, Predicate<Item> live) {
+        lock();
+        try {
+            return first(byQuantity.descendingIterator(),
+                    zeroed.descendingIterator(), IN_ORDER.reversed(), count,
+                    live);
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Queues a change and applies the queue unless another thread holds the
+     * lock, in which case that thread applies the change before it lets go.
+     */
+    private void submit(Runnable change) {
+        pending.add(change);
+        if (lock.tryLock())
+            release();
+    }
+
+    /**
+     * Takes the lock for a query and applies the queued changes.
+     */
+    private void lock() {
+        Runnable change;
+
+        lock.lock();
+        while ((change = pending.poll()) != null)
+            change.run();
+    }
+
+    /**
+     * Applies the queued changes and releases the lock, then calls the
+     * reorder listeners for the crossings found. A change queued after the
+     * queue was emptied, by a thread that found the lock taken, is applied
+     * by taking the lock again.
+     */
+    private void release() {
+        List<Runnable> crossed;
+        Runnable change;
+
+        do {
+            while ((change = pending.poll()) != null)
+                change.run();
+            crossed = null;
+            if (!crossings.isEmpty()) {
+                crossed = crossings;
+                crossings = new ArrayList<>();
+            }
+            lock.unlock();
+            if (crossed != null)
+                crossed.forEach(Runnable::run);
+        } while (!pending.isEmpty() && lock.tryLock());
+    }
+
+    private void remove(Item item) {
+        Entry entry = entries.remove(item.getKey());
+
+        if (entry != null) {
+            if (entry.zeroed)
+                zeroed.remove(entry);
+            else {
+                byQuantity.remove(entry);
+                belowThreshold.remove(entry);
+            }
+            withThreshold.remove(entry);
+        }
+    }
+
+    /**
+     * Takes entries from two iterators that are each sorted by the order,
+     * merging them into that order.
+     */
+    private static List<Item> first(Iterator<Entry> ordered,
+            Iterator<Entry> zeroedEntries, Comparator<Entry> order, int limit,
+            Predicate<Item> live) {
+        List<Item> items = new ArrayList<>();
+        Entry nextOrdered = ordered.hasNext() ? ordered.next() : null;
+        Entry nextZeroed = zeroedEntries.hasNext() ? zeroedEntries.next()
+                : null;
+        Entry entry;
+
+        while (items.size() < limit
+                && (nextOrdered != null || nextZeroed != null)) {
+            if (nextZeroed == null || (nextOrdered != null
+                    && order.compare(nextOrdered, nextZeroed) < 0)) {
+                entry = nextOrdered;
+                nextOrdered = ordered.hasNext() ? ordered.next() : null;
+            } else {
+                entry = nextZeroed;
+                nextZeroed = zeroedEntries.hasNext() ? zeroedEntries.next()
+                        : null;
+            }
+            if (live.test(entry.item))
+                items.add(entry.item);
+        }
+
+        return items;
+    }
+
+    /**
+     * Moves an entry to the current quantity of its {@code Item}. Listeners
+     * must not be called while the index is locked, so a crossing is kept
+     * to be reported after the lock is released.
+     */
+    private void update(Entry entry) {
+        int quantity = entry.item.getQuantity();
+        boolean below = quantity < entry.threshold;
+
+        if (entry.zeroed) {
+            zeroed.remove(entry);
+            entry.zeroed = false;
+            entry.quantity = quantity;
+            byQuantity.add(entry);
+            if (below)
+                belowThreshold.add(entry);
+        } else if (quantity != entry.quantity) {
+            byQuantity.remove(entry);
+            if (entry.below)
+                belowThreshold.remove(entry);
+            entry.quantity = quantity;
+            byQuantity.add(entry);
+            if (below)
+                belowThreshold.add(entry);
+        } else if (below && !entry.below)
+            belowThreshold.add(entry);
+        else if (!below && entry.below)
+            belowThreshold.remove(entry);
+        if (below == entry.below)
+            return;
+        entry.below = below;
+        crossings.add(crossing(entry.item, quantity, entry.threshold, below));
+    }
+
+    private Runnable crossing(Item item, int quantity, int threshold,
+            boolean below) {
+        return () -> {
+            for (ReorderListener listener : listeners)
+                if (below)
+                    listener.belowThreshold(item, quantity, threshold);
+                else
+                    listener.restocked(item, quantity, threshold);
+        };
+    }
+
+    /**
+     * The {@code Entry} class is the indexed state of one {@code Item}.
+     */
+    private static final class Entry {
+
+        private final Item item;
+        private int quantity;
+        private int threshold;
+        private boolean below;
+        private boolean zeroed;
+
+        Entry(Item inItem) {
+            item = inItem;
+            quantity = inItem.getQuantity();
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The {@code TextInventoryReader} class reads the line-based format written by
+ * {@code Inventory.saveDataTo}: the inventory name on the first line, followed
+ * by alternating item info and quantity lines. The file is streamed through a
+ * large buffer filled from a {@code FileChannel}, lines are found by scanning
+ * the raw bytes, and quantities are parsed from those bytes directly, so the
+ * only {@code String} created per record is the item info.
+ * @author Dr. Hoss
+ */
+public class TextInventoryReader implements InventoryReader {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final FileChannel channel;
+    private ByteBuffer buffer;
+    private byte[] data;
+    private int position;
+    private int limit;
+    private int lineStart;
+    private int lineEnd;
+    private int lineNumber;
+    private boolean endOfFile;
+    private final String name;
+    private String info;
+    private int quantity;
+
+    /**
+     * Constructor that opens the specified file and reads the inventory name
+     * from its first line.
+     * @param invFile The file containing data for the {@code Inventory}.
+     * @throws IOException If the file cannot be read or has no name line.
+     */
+    public TextInventoryReader(File invFile) throws IOException {
+        channel = FileChannel.open(invFile.toPath(), StandardOpenOption.READ);
+        buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        data = buffer.array();
+        try {
+            if (!nextLine())
+                throw new InventoryFormatException(1,
+                        "missing inventory name.");
+            name = lineToString();
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Advances to the next info and quantity line pair. A blank line where an
+     * info line is expected is the info of an item if a quantity line follows
+     * it, as for an item saved with an empty info, and is skipped as a
+     * separator between records otherwise.
+     * @return {@code true} if a record was read, or {@code false} at the end
+     * of the file.
+     * @throws IOException If the file cannot be read, or an info line has no
+     * valid quantity line after it.
+     */
+    @Override
+    public boolean next() throws IOException {
+        boolean found = nextLine();
+        boolean quantityFound = false;
+
+        while (found && !quantityFound && isBlankLine()) {
+            info = lineToString();
+            found = nextLine();
+            quantityFound = found && isQuantityLine();
+        }
+        if (found) {
+            if (!quantityFound) {
+                info = lineToString();
+                if (!nextLine())
+                    throw new InventoryFormatException(lineNumber + 1,
+                            "missing quantity for item '" + info + "'.");
+            }
+            quantity = parseQuantity();
+            if (quantity < 0)
+                throw new InventoryFormatException(lineNumber, "negative "
+                        + "quantity " + quantity + " for item '" + info
+                        + "'.");
+        }
+
+        return found;
+    }
+
+    @Override
+    public String getInfo() {
+        return info;
+    }
+
+    @Override
+    public int getQuantity() {
+        return quantity;
+    }
+
+    /**
+     * Gets the line number of the most recently read line.
+     * @return The current line number.
+     */
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private boolean nextLine() throws IOException {
+        int scan = position;
+
+        while (true) {
+            while (scan < limit && data[scan] != '\n')
+                scan++;
+            if (scan < limit || (endOfFile && position < limit)) {
+                lineStart = position;
+                lineEnd = scan;
+                if (lineEnd > lineStart && data[lineEnd - 1] == '\r')
+                    lineEnd--;
+                position = scan < limit ? scan + 1 : limit;
+                lineNumber++;
+                return true;
+            }
+            if (endOfFile)
+                return false;
+            scan -= position;
+            fill();
+        }
+    }
+
+    private void fill() throws IOException {
+        ByteBuffer larger;
+
+        if (position == 0 && limit == data.length) {
+            larger = ByteBuffer.allocate(data.length * 2);
+            larger.put(data, 0, limit);
+            buffer = larger;
+            data = buffer.array();
+        } else {
+            System.arraycopy(data, position, data, 0, limit - position);
+            buffer.clear();
+            buffer.position(limit - position);
+        }
+        limit -= position;
+        position = 0;
+        buffer.limit(data.length);
+        while (buffer.hasRemaining() && !endOfFile)
+            endOfFile = channel.read(buffer) < 0;
+        limit = buffer.position();
+    }
+
+    private boolean isBlankLine() {
+        int i = lineStart;
+
+        while (i < lineEnd && Character.isWhitespace(data[i]))
+            i++;
+
+        return i == lineEnd;
+    }
+
+    private boolean isQuantityLine() {
+        int i = lineStart;
+        int digitStart;
+
+        while (i < lineEnd && (data[i] == ' ' || data[i] == '\t'))
+            i++;
+        if (i < lineEnd && (data[i] == '-' || data[i] == '+'))
+            i++;
+        digitStart = i;
+        while (i < lineEnd && data[i] >= '0' && data[i] <= '9')
+            i++;
+        if (i == digitStart)
+            return false;
+        while (i < lineEnd && (data[i] == ' ' || data[i] == '\t'))
+            i++;
+
+        return i == lineEnd;
+    }
+
+    private String lineToString() {
+        return new String(data, lineStart, lineEnd - lineStart,
+                StandardCharsets.UTF_8);
+    }
+
+    private int parseQuantity() throws InventoryFormatException {
+        int start = lineStart;
+        int end = lineEnd;
+        boolean negative = false;
+        long value = 0;
+
+        while (start < end && (data[start] == ' ' || data[start] == '\t'))
+            start++;
+        while (end > start && (data[end - 1] == ' ' || data[end - 1] == '\t'))
+            end--;
+        if (start < end && (data[start] == '-' || data[start] == '+')) {
+            negative = data[start] == '-';
+            start++;
+        }
+        if (start == end)
+            throw badQuantity();
+        for (int i = start; i < end; i++) {
+            if (data[i] < '0' || data[i] > '9')
+                throw badQuantity();
+            value = value * 10 + (data[i] - '0');
+            if (value > (long) Integer.MAX_VALUE + 1)
+                throw badQuantity();
+        }
+        if (negative)
+            value = -value;
+        if (value > Integer.MAX_VALUE)
+            throw badQuantity();
+
+        return (int) value;
+    }
+
+    private InventoryFormatException badQuantity() {
+        return new InventoryFormatException(lineNumber, "invalid quantity '"
+                + lineToString() + "' for item '" + info + "'.");
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests the {@code ChangeFeed} of an {@code Inventory}: events come in
+ * order and filtered by prefix, carry the quantities of their own change
+ * even if the item changed again before the feed heard of it, a subscriber
+ * that falls a lap behind is told how many events it lost, and concurrent
+ * writers never lose or repeat a sequence number.
+ * @author Dr. Hoss
+ */
+public class ChangeFeedTest {
+
+    private static final int THREADS = 8;
+    private static final int CHANGES = 10000;
+
+    @BeforeClass
+    public static void useScratchChangeLog() throws IOException {
+        TestSupport.useScratchChangeLog();
+    }
+
+    @Test
+    public void eventsFollowChangesInOrder() {
+        Inventory inv = new Inventory("feed");
+        ChangeFeed.Subscription all = inv.subscribeChanges("");
+        ChangeFeed.Subscription widgets = inv.subscribeChanges("WIDGET");
+        List<ChangeFeed.Change> changes;
+
+        TestSupport.discardMessages();
+        inv.addNewItem(new Item("Widget A", 5));
+        inv.addNewItem(new Item("Gadget", 2));
+        inv.addToItem("widget a", 3);
+        inv.removeItem("Gadget");
+        inv.resetAllItems();
+        inv.clearInventory();
+
+        changes = all.poll(100).getChanges();
+        assertEquals(6, changes.size());
+        assertChange(changes.get(0), ChangeFeed.Kind.ADDED, "widget a", 0, 5);
+        assertChange(changes.get(1), ChangeFeed.Kind.ADDED, "gadget", 0, 2);
+        assertChange(changes.get(2), ChangeFeed.Kind.CHANGED, "widget a", 5,
+                8);
+        assertChange(changes.get(3), ChangeFeed.Kind.REMOVED, "gadget", 2, 0);
+        assertEquals(ChangeFeed.Kind.ALL_RESET, changes.get(4).getKind());
+        assertNull(changes.get(4).getKey());
+        assertEquals(ChangeFeed.Kind.CLEARED, changes.get(5).getKind());
+        for (int i = 1; i < changes.size(); i++)
+            assertEquals(changes.get(i - 1).getSequence() + 1,
+                    changes.get(i).getSequence());
+        assertTrue(all.poll(100).getChanges().isEmpty());
+
+        changes = widgets.poll(100).getChanges();
+        assertEquals(4, changes.size());
+        assertEquals(ChangeFeed.Kind.ADDED, changes.get(0).getKind());
+        assertEquals(ChangeFeed.Kind.CHANGED, changes.get(1).getKind());
+        assertEquals(ChangeFeed.Kind.ALL_RESET, changes.get(2).getKind());
+        assertEquals(ChangeFeed.Kind.CLEARED, changes.get(3).getKind());
+    }
+
+    @Test
+    public void eventsCarryTheQuantitiesOfTheirChange() {
+        Inventory inv = new Inventory("feed");
+        ChangeFeed.Subscription all;
+        List<ChangeFeed.Change> changes;
+
+        TestSupport.discardMessages();
+        // Changes the item before the feed hears of the addition, just as
+        // another thread could.
+        inv.addListener(new InventoryListener() {
+            @Override
+            public void itemAdded(Item item, int quantity) {
+                inv.addToItem(item.getInfo(), 3);
+            }
+        });
+        all = inv.subscribeChanges("");
+        inv.addNewItem(new Item("Widget", 5));
+        inv.removeItem("Widget");
+
+        changes = all.poll(100).getChanges();
+        assertEquals(3, changes.size());
+        assertChange(changes.get(0), ChangeFeed.Kind.CHANGED, "widget", 5, 8);
+        assertChange(changes.get(1), ChangeFeed.Kind.ADDED, "widget", 0, 5);
+        assertChange(changes.get(2), ChangeFeed.Kind.REMOVED, "widget", 8, 0);
+    }
+
+    @Test
+    public void overrunReportsLostEvents() {
+        ChangeFeed feed = new ChangeFeed(16);
+        ChangeFeed.Subscription late = feed.subscribe("");
+        Item item = new Item("Widget", 1);
+        ChangeFeed.Batch batch;
+
+        for (int i = 0; i < 40; i++)
+            feed.quantityChanged(item, i, i + 1);
+        batch = late.poll(100);
+        assertTrue(batch.isOverrun());
+        assertEquals(24, batch.getLostCount());
+        assertEquals(16, batch.getChanges().size());
+        assertEquals(24, batch.getChanges().get(0).getSequence());
+        assertEquals(24, batch.getChanges().get(0).getOldQuantity());
+        assertTrue(late.poll(100).getChanges().isEmpty());
+        assertFalse(late.poll(100).isOverrun());
+        assertEquals(24, late.getLostCount());
+        assertEquals(40, late.getCursor());
+    }
+
+    @Test
+    public void concurrentWritersPublishEveryEvent()
+            throws InterruptedException {
+        ChangeFeed feed = new ChangeFeed(THREADS * CHANGES);
+        ChangeFeed.Subscription all = feed.subscribe("");
+        List<ChangeFeed.Change> changes = new ArrayList<>();
+        int[] lastQuantity = new int[THREADS];
+        ChangeFeed.Batch batch;
+        int thread;
+
+        TestSupport.runConcurrently(THREADS, number -> {
+            Item item = new Item("Thread " + number, 0);
+
+            for (int i = 0; i < CHANGES; i++)
+                feed.quantityChanged(item, i, i + 1);
+        });
+        do {
+            batch = all.poll(1000);
+            assertFalse(batch.isOverrun());
+            changes.addAll(batch.getChanges());
+        } while (!batch.getChanges().isEmpty());
+
+        assertEquals(THREADS * CHANGES, changes.size());
+        for (int i = 0; i < changes.size(); i++) {
+            assertEquals(i, changes.get(i).getSequence());
+            thread = Integer.parseInt(changes.get(i).getKey()
+                    .substring("thread ".length()));
+            assertEquals(lastQuantity[thread],
+                    changes.get(i).getOldQuantity());
+            lastQuantity[thread] = changes.get(i).getNewQuantity();
+        }
+    }
+
+    private static void assertChange(ChangeFeed.Change change,
+            ChangeFeed.Kind kind, String key, int oldQuantity,
+            int newQuantity) {
+        assertEquals(kind, change.getKind());
+        assertEquals(key, change.getKey());
+        assertEquals(oldQuantity, change.getOldQuantity());
+        assertEquals(newQuantity, change.getNewQuantity());
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Test;
+
+/**
+ * Tests that a {@code ChangeLog} writes every message it is given, in the
+ * order each thread appended them, when the queue overflows, when messages
+ * race with closing the log, and after it is closed.
+ * @author Dr. Hoss
+ */
+public class ChangeLogTest {
+
+    private static final int THREADS = 8;
+    private static final int MESSAGES = 20000;
+
+    @Test
+    public void overflowingQueueLosesNothing()
+            throws IOException, InterruptedException {
+        File file = File.createTempFile("change-log", ".txt");
+        ChangeLog log = new ChangeLog(file,
+                ChangeLog.FlushPolicy.everyRecords(1000), 16);
+
+        TestSupport.runConcurrently(THREADS, number -> {
+            for (int i = 0; i < MESSAGES; i++)
+                log.append(number + " " + i);
+        });
+        log.close();
+
+        assertEquals(0, log.getDroppedCount());
+        assertLines(file, THREADS * MESSAGES);
+    }
+
+    @Test
+    public void messagesRacingCloseAreWritten()
+            throws IOException, InterruptedException {
+        File file = File.createTempFile("change-log", ".txt");
+        ChangeLog log = new ChangeLog(file,
+                ChangeLog.FlushPolicy.everyMillis(50), 1024);
+        CountDownLatch started = new CountDownLatch(THREADS);
+        Thread closer = new Thread(() -> {
+            try {
+                started.await();
+            } catch (InterruptedException ex) {
+                return;
+            }
+            log.close();
+        });
+
+        closer.start();
+        TestSupport.runConcurrently(THREADS, number -> {
+            started.countDown();
+            for (int i = 0; i < MESSAGES; i++)
+                log.append(number + " " + i);
+        });
+        closer.join();
+
+        assertEquals(0, log.getDroppedCount());
+        assertLines(file, THREADS * MESSAGES);
+    }
+
+    @Test
+    public void messageAfterCloseIsWritten() throws IOException {
+        File file = File.createTempFile("change-log", ".txt");
+        ChangeLog log = new ChangeLog(file,
+                ChangeLog.FlushPolicy.syncOnCommit(), 4);
+
+        log.append("0 0");
+        log.close();
+        log.append("0 1");
+        assertLines(file, 2);
+    }
+
+    /**
+     * Checks that the file holds the specified number of lines and that the
+     * lines of each thread come in the order it appended them.
+     */
+    private static void assertLines(File file, int count) throws IOException {
+        List<String> lines = Files.readAllLines(file.toPath(),
+                StandardCharsets.UTF_8);
+        int[] next = new int[THREADS];
+        String[] fields;
+        int thread;
+
+        assertEquals(count, lines.size());
+        for (String line : lines) {
+            fields = line.split(" ");
+            thread = Integer.parseInt(fields[0]);
+            assertEquals(next[thread], Integer.parseInt(fields[1]));
+            next[thread]++;
+        }
+        assertTrue(file.delete());
+    }
+}
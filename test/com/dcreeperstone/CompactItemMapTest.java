@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests the {@code CompactItemMap} against a {@code HashMap} of the same
+ * entries, through enough changes of info and removals to make it compact
+ * its bytes and rehash its table several times, and a
+ * {@code CompactInventory} built on it through changes and a save.
+ * @author Dr. Hoss
+ */
+public class CompactItemMapTest {
+
+    private static final int KEYS = 2000;
+    private static final int OPERATIONS = 100000;
+
+    @BeforeClass
+    public static void useScratchChangeLog() throws IOException {
+        TestSupport.useScratchChangeLog();
+        TestSupport.discardMessages();
+    }
+
+    @Test
+    public void randomChangesMatchHashMap() {
+        CompactItemMap map = new CompactItemMap();
+        Map<String, Item> expected = new HashMap<>();
+        Random random = new Random(42);
+        Item item;
+        Item previous;
+        String info;
+
+        for (int i = 0; i < OPERATIONS; i++) {
+            info = infoOf(random.nextInt(KEYS), random);
+            item = new Item(info, random.nextInt(1000));
+            switch (random.nextInt(4)) {
+                case 0:
+                case 1:
+                    previous = map.put(item.getKey(), item);
+                    assertSame(expected.put(item.getKey(), item), previous);
+                    break;
+                case 2:
+                    previous = map.putIfAbsent(item.getKey(), item);
+                    assertSame(expected.putIfAbsent(item.getKey(), item),
+                            previous);
+                    break;
+                default:
+                    previous = map.remove(item.getKey());
+                    assertSame(expected.remove(item.getKey()), previous);
+                    break;
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        assertContents(expected, map);
+    }
+
+    @Test
+    public void lookupIgnoresCaseBeyondAscii() {
+        CompactItemMap map = new CompactItemMap();
+        Item item = new Item("\u00C5ngstr\u00F6m Gauge \u00DCnit", 4);
+
+        map.put(item.getKey(), item);
+        assertNotNull(map.get(Item.foldCase(
+                "\u00E5NGSTR\u00D6M gauge \u00FCNIT")));
+        assertTrue(map.containsKey(Item.foldCase(
+                "\u00C5NGSTR\u00D6M GAUGE \u00DCNIT")));
+        assertFalse(map.containsKey(Item.foldCase("Angstrom Gauge Unit")));
+        assertEquals("\u00C5ngstr\u00F6m Gauge \u00DCnit",
+                map.get(item.getKey()).getInfo());
+    }
+
+    @Test
+    public void newGenerationReadsZeroUntilChanged() {
+        CompactItemMap map = new CompactItemMap();
+        Item item;
+
+        for (int i = 0; i < KEYS; i++) {
+            item = new Item("Item " + i, i + 1);
+            map.put(item.getKey(), item);
+        }
+        map.startGeneration(1);
+        for (Item stored : map.values())
+            assertEquals(0, stored.getQuantity());
+        item = new Item("Item 7", 3);
+        map.put(item.getKey(), item);
+        assertEquals(3, map.get(item.getKey()).getQuantity());
+        assertEquals(0, map.get(Item.foldCase("Item 8")).getQuantity());
+    }
+
+    @Test
+    public void removedItemNoLongerFollowsMap() {
+        CompactItemMap map = new CompactItemMap();
+        Item item = new Item("Widget", 5);
+        Item removed;
+
+        map.put(item.getKey(), item);
+        removed = map.remove(item.getKey());
+        assertEquals(5, removed.getQuantity());
+        map.put(item.getKey(), new Item("Widget", 9));
+        assertEquals(5, removed.getQuantity());
+        assertNull(map.remove(Item.foldCase("Gadget")));
+    }
+
+    @Test
+    public void clearEmptiesMap() {
+        CompactItemMap map = new CompactItemMap();
+        Item item;
+
+        for (int i = 0; i < KEYS; i++) {
+            item = new Item("Item " + i, i);
+            map.put(item.getKey(), item);
+        }
+        map.clear();
+        assertEquals(0, map.size());
+        assertFalse(map.values().iterator().hasNext());
+        assertNull(map.get(Item.foldCase("Item 1")));
+    }
+
+    @Test
+    public void inventoryChangesReachStorageAndSave() throws IOException {
+        File dir = Files.createTempDirectory("compact").toFile();
+        CompactInventory inv = new CompactInventory("compact");
+        CompactInventory loaded;
+
+        for (int i = 0; i < KEYS; i++)
+            inv.addNewItem(new Item("Item " + i, i));
+        inv.addToItem("item 5", 10);
+        inv.removeFromItem("ITEM 6", 6);
+        inv.removeItem("Item 7");
+        assertEquals(15, inv.search("Item 5").getQuantity());
+        assertEquals(0, inv.search("Item 6").getQuantity());
+        assertNull(inv.search("Item 7"));
+        inv.verifyStatistics();
+
+        inv.writeDataTo(dir.getPath(), "compact.txt", InventoryFormat.TEXT);
+        loaded = new CompactInventory(new File(dir, "compact.txt"));
+        assertEquals(KEYS - 1, loaded.getItemCount());
+        assertEquals(inv.getTotalQuantity(), loaded.getTotalQuantity());
+        assertEquals(15, loaded.search("Item 5").getQuantity());
+        loaded.resetAllItems();
+        assertEquals(0, loaded.search("Item 5").getQuantity());
+        loaded.verifyStatistics();
+    }
+
+    /**
+     * Makes the info of a key in a random case and with a random amount of
+     * padding, so that replacing it changes the length of the stored bytes.
+     */
+    private static String infoOf(int key, Random random) {
+        StringBuilder info = new StringBuilder(random.nextBoolean()
+                ? "ITEM " : "item ");
+
+        info.append(key);
+        for (int i = random.nextInt(40); i > 0; i--)
+            info.append('.');
+
+        return info.toString();
+    }
+
+    private static void assertSame(Item expected, Item actual) {
+        if (expected == null) {
+            assertNull(actual);
+            return;
+        }
+        assertNotNull(actual);
+        assertEquals(expected.getInfo(), actual.getInfo());
+        assertEquals(expected.getQuantity(), actual.getQuantity());
+    }
+
+    private static void assertContents(Map<String, Item> expected,
+            CompactItemMap map) {
+        Map<String, Item> seen = new HashMap<>();
+
+        for (Map.Entry<String, Item> entry : map.entrySet())
+            assertNull(seen.put(entry.getKey(), entry.getValue()));
+        assertEquals(expected.size(), seen.size());
+        for (Map.Entry<String, Item> entry : expected.entrySet()) {
+            assertSame(entry.getValue(), seen.get(entry.getKey()));
+            assertSame(entry.getValue(), map.get(entry.getKey()));
+        }
+    }
+}
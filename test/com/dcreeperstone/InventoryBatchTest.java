@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests applying an {@code InventoryBatch}, rolling it back, and keeping it
+ * apart from a reset of the whole {@code Inventory} made meanwhile.
+ * @author Dr. Hoss
+ */
+public class InventoryBatchTest {
+
+    @BeforeClass
+    public static void useScratchChangeLog() throws IOException {
+        TestSupport.useScratchChangeLog();
+        TestSupport.discardMessages();
+    }
+
+    @Test
+    public void nullKeyIsRejected() {
+        try {
+            new InventoryBatch().add(null, 1);
+            fail("A null key was accepted.");
+        } catch (IllegalArgumentException expected) {
+            // The batch never reaches the inventory.
+        }
+    }
+
+    @Test
+    public void missingAndRejectedKeysAreReported() {
+        Inventory inv = new ConcurrentInventory("batch");
+        InventoryBatch.Result result;
+
+        inv.addNewItem(new Item("Bolt", 5));
+        inv.addNewItem(new Item("Nut", 1));
+        result = inv.applyBatch(new InventoryBatch().add("bolt", -2)
+                .add("Nut", -3).add("Gear", 1), false);
+        assertEquals(1, result.getAppliedCount());
+        assertEquals("Gear", result.getMissingKeys().get(0));
+        assertEquals("Nut", result.getRejectedKeys().get(0));
+        assertEquals(3, inv.search("Bolt").getQuantity());
+
+        result = inv.applyBatch(new InventoryBatch().add("Bolt", -1)
+                .add("Nut", -3), true);
+        assertEquals(0, result.getAppliedCount());
+        assertEquals(3, inv.search("Bolt").getQuantity());
+        assertEquals(1, inv.search("Nut").getQuantity());
+        inv.verifyStatistics();
+    }
+
+    @Test
+    public void rollbackStaysInTheGenerationOfTheBatch() throws Exception {
+        Inventory inv = new Inventory("batch");
+        Thread[] reset = new Thread[1];
+        InventoryBatch.Result result;
+
+        // The first removal starts a reset of the whole inventory, which
+        // must wait until the batch has been rolled back.
+        inv.addNewItem(new Item("First", 5) {
+            @Override
+            long getAndRemove(int amount) {
+                long previous = super.getAndRemove(amount);
+
+                reset[0] = new Thread(inv::resetAllItems);
+                reset[0].start();
+                try {
+                    reset[0].join(200);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+
+                return previous;
+            }
+        });
+        // The second removal fails as if another thread had emptied it.
+        inv.addNewItem(new Item("Second", 5) {
+            @Override
+            long getAndRemove(int amount) {
+                throw new IllegalStateException("Emptied meanwhile.");
+            }
+        });
+        result = inv.applyBatch(new InventoryBatch().add("First", -2)
+                .add("Second", -1), true);
+        reset[0].join(10000);
+        assertFalse(reset[0].isAlive());
+        assertEquals(0, result.getAppliedCount());
+        assertTrue(result.getRejectedKeys().contains("Second"));
+        // The undo went to the old generation, which the reset left behind.
+        assertEquals(0, inv.search("First").getQuantity());
+        assertEquals(0, inv.getTotalQuantity());
+        inv.verifyStatistics();
+    }
+}
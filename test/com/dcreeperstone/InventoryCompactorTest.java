@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests saving only the changed items of an {@code Inventory} as deltas next
+ * to its base file, merging them into the base, and loading after a crash
+ * in the middle of replacing the base with a full save.
+ * @author Dr. Hoss
+ */
+public class InventoryCompactorTest {
+
+    private static final int ITEMS = 100;
+
+    @BeforeClass
+    public static void useScratchChangeLog() throws IOException {
+        TestSupport.useScratchChangeLog();
+        TestSupport.discardMessages();
+    }
+
+    @Test
+    public void deltasApplyOnLoadAndMergeIntoBase() throws IOException {
+        File dir = Files.createTempDirectory("deltas").toFile();
+        File base = new File(dir, "inventory.txt");
+        Inventory inv = filled("deltas");
+        Inventory loaded;
+        long modified;
+
+        inv.writeDataTo(dir.getPath(), base.getName(), InventoryFormat.TEXT);
+        modified = base.lastModified();
+        inv.addToItem("Item 4", 100);
+        inv.removeItem("Item 7");
+        inv.addNewItem(new Item("New item", 3));
+        inv.saveChangesTo(dir.getPath(), base.getName());
+        assertTrue(new File(dir, "inventory.txt.delta").exists());
+        assertEquals(modified, base.lastModified());
+        assertState(new Inventory(base));
+
+        InventoryCompactor.compact(base);
+        assertFalse(new File(dir, "inventory.txt.delta").exists());
+        assertEquals(modified, base.lastModified());
+        assertTrue(inv.isSavedTo(base));
+        loaded = new Inventory(base);
+        assertState(loaded);
+        assertFalse(loaded.hasUnsavedChanges());
+    }
+
+    @Test
+    public void completedFullSaveWinsOverOldDeltas() throws IOException {
+        File dir = Files.createTempDirectory("deltas").toFile();
+        File base = new File(dir, "inventory.txt");
+        Inventory inv = deltaSaved(dir, base);
+        Inventory loaded;
+
+        // A full save that was marked complete, but the crash came before
+        // the old deltas were dropped and it was moved over the base.
+        inv.addToItem("Item 4", 1);
+        inv.writeTo(new File(dir, "inventory.txt.full"),
+                InventoryFormat.TEXT);
+
+        loaded = new Inventory(base);
+        assertEquals(104 + 1, loaded.search("Item 4").getQuantity());
+        assertFalse(new File(dir, "inventory.txt.full").exists());
+        assertFalse(new File(dir, "inventory.txt.delta").exists());
+        // Loading again must not bring the old deltas back either.
+        assertEquals(105, new Inventory(base).search("Item 4")
+                .getQuantity());
+    }
+
+    @Test
+    public void unfinishedFullSaveIsIgnored() throws IOException {
+        File dir = Files.createTempDirectory("deltas").toFile();
+        File base = new File(dir, "inventory.txt");
+        Inventory inv = deltaSaved(dir, base);
+
+        // A full save still being written when the crash came.
+        inv.clearInventory();
+        inv.writeTo(new File(dir, "inventory.txt.tmp"),
+                InventoryFormat.TEXT);
+
+        assertState(new Inventory(base));
+        assertEquals(ITEMS,
+                InventoryLoader.loadDirectory(dir).getItemCount());
+    }
+
+    @Test
+    public void fullSaveDropsDeltas() throws IOException {
+        File dir = Files.createTempDirectory("deltas").toFile();
+        File base = new File(dir, "inventory.txt");
+        Inventory inv = deltaSaved(dir, base);
+
+        inv.addToItem("Item 4", 1);
+        inv.writeDataTo(dir.getPath(), base.getName(), InventoryFormat.TEXT);
+        assertFalse(new File(dir, "inventory.txt.delta").exists());
+        assertFalse(new File(dir, "inventory.txt.full").exists());
+        assertEquals(105, new Inventory(base).search("Item 4")
+                .getQuantity());
+    }
+
+    private static Inventory filled(String name) {
+        Inventory inv = new Inventory(name);
+
+        for (int i = 0; i < ITEMS; i++)
+            inv.addNewItem(new Item("Item " + i, i));
+
+        return inv;
+    }
+
+    /**
+     * Saves a filled inventory in full, then saves the changes checked by
+     * {@code assertState} as a delta.
+     */
+    private static Inventory deltaSaved(File dir, File base)
+            throws IOException {
+        Inventory inv = filled("deltas");
+
+        inv.writeDataTo(dir.getPath(), base.getName(), InventoryFormat.TEXT);
+        inv.addToItem("Item 4", 100);
+        inv.removeItem("Item 7");
+        inv.addNewItem(new Item("New item", 3));
+        inv.saveChangesTo(dir.getPath(), base.getName());
+        assertTrue(new File(dir, "inventory.txt.delta").exists());
+
+        return inv;
+    }
+
+    private static void assertState(Inventory loaded) {
+        assertEquals(ITEMS, loaded.getItemCount());
+        assertEquals(104, loaded.search("Item 4").getQuantity());
+        assertNull(loaded.search("Item 7"));
+        assertEquals(3, loaded.search("New item").getQuantity());
+        loaded.verifyStatistics();
+    }
+}
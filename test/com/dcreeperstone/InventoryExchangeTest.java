@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests importing and exporting items as CSV and JSON Lines through
+ * {@code InventoryExchange}: exported files import with the same items, even
+ * infos that need quoting or escaping, malformed records are skipped with
+ * their line number while the others are applied, and held items are merged
+ * into or replaced as the mode says.
+ * @author Dr. Hoss
+ */
+public class InventoryExchangeTest {
+
+    private static final int ITEMS = 5000;
+    private static final List<String> AWKWARD_INFOS = Arrays.asList(
+            "Nuts, hex", "12\" ruler", "Two\nlines", "  Padded  ",
+            "Back\\slash", "Tab\there", "Caf\u00e9 cr\u00e8me", "\"");
+
+    @BeforeClass
+    public static void useScratchChangeLog() throws IOException {
+        TestSupport.useScratchChangeLog();
+        TestSupport.discardMessages();
+    }
+
+    @Test
+    public void csvRoundTrips() throws IOException {
+        roundTrip("inventory.csv");
+    }
+
+    @Test
+    public void jsonLinesRoundTrips() throws IOException {
+        roundTrip("inventory.jsonl");
+    }
+
+    @Test
+    public void malformedCsvRowsAreSkipped() throws IOException {
+        File file = write("stock.csv", "quantity,info\n"
+                + "4,Bolt\n"
+                + "x,Nut\n"
+                + "\n"
+                + "-2,Washer\n"
+                + "7\n"
+                + "5,\"Screw, wood\"\n"
+                + "3,\"Unterminated\n");
+        Inventory inv = new Inventory("stock");
+        InventoryExchange.Result result =
+                new InventoryExchange(inv).importFrom(file);
+
+        assertEquals(2, inv.getItemCount());
+        assertEquals(4, inv.search("Bolt").getQuantity());
+        assertEquals(5, inv.search("Screw, wood").getQuantity());
+        assertEquals(4, result.getRejectedCount());
+        assertEquals(2, result.getAddedCount());
+        assertLines(result, 3, 5, 6, 8);
+    }
+
+    @Test
+    public void malformedJsonLinesAreSkipped() throws IOException {
+        File file = write("stock.jsonl", "{\"info\": \"Bolt\", \"quantity\": 4,"
+                + " \"bin\": [1, {\"a\": null}]}\n"
+                + "{\"info\": \"Nut\", \"quantity\": 1.5}\n"
+                + "\n"
+                + "{\"quantity\": 2}\n"
+                + "[\"Washer\", 2]\n"
+                + "{\"info\": \"Screw\", \"quantity\": 5}\n"
+                + "{\"info\": \"Pin\", \"quantity\": -1}\n");
+        Inventory inv = new Inventory("stock");
+        InventoryExchange.Result result =
+                new InventoryExchange(inv).importFrom(file);
+
+        assertEquals(2, inv.getItemCount());
+        assertEquals(4, inv.search("Bolt").getQuantity());
+        assertEquals(5, inv.search("Screw").getQuantity());
+        assertEquals(4, result.getRejectedCount());
+        assertLines(result, 2, 4, 5, 7);
+    }
+
+    @Test
+    public void modesMergeOrReplaceHeldItems() throws IOException {
+        File file = write("stock.csv", "Bolt,4\nNut,6\nBolt,1\n");
+        Inventory merged = new Inventory("merged");
+        Inventory replaced = new Inventory("replaced");
+
+        merged.addNewItem(new Item("Bolt", 10));
+        replaced.addNewItem(new Item("Bolt", 10));
+        assertEquals(1, new InventoryExchange(merged).importFrom(file)
+                .getAddedCount());
+        new InventoryExchange(replaced)
+                .setMode(InventoryExchange.Mode.REPLACE).importFrom(file);
+        assertEquals(15, merged.search("Bolt").getQuantity());
+        assertEquals(1, replaced.search("Bolt").getQuantity());
+        assertEquals(6, merged.search("Nut").getQuantity());
+        assertEquals(6, replaced.search("Nut").getQuantity());
+    }
+
+    private static void roundTrip(String fileName) throws IOException {
+        File file = new File(Files.createTempDirectory("exchange").toFile(),
+                fileName);
+        Inventory inv = new Inventory("exchange");
+        Inventory imported = new Inventory("imported");
+        List<Long> progress = new ArrayList<>();
+        InventoryExchange.Result result;
+
+        for (int i = 0; i < ITEMS; i++)
+            inv.addNewItem(new Item("Item " + i, i));
+        for (String info : AWKWARD_INFOS)
+            inv.addNewItem(new Item(info, info.length()));
+        assertEquals(ITEMS + AWKWARD_INFOS.size(),
+                new InventoryExchange(inv).exportTo(file).getRowCount());
+
+        result = new InventoryExchange(imported).setBatchSize(100)
+                .setQueueCapacity(1)
+                .setProgressListener((rows, rejected, rate) ->
+                        progress.add(rows))
+                .importFrom(file);
+        assertEquals(0, result.getRejectedCount());
+        assertEquals(ITEMS + AWKWARD_INFOS.size(), result.getAddedCount());
+        assertEquals(inv.getItemCount(), imported.getItemCount());
+        assertEquals(inv.getTotalQuantity(), imported.getTotalQuantity());
+        for (int i = 0; i < ITEMS; i++)
+            assertEquals(i, imported.search("Item " + i).getQuantity());
+        for (String info : AWKWARD_INFOS)
+            assertEquals(info, imported.search(info).getInfo());
+        assertEquals(Long.valueOf(result.getRowCount()),
+                progress.get(progress.size() - 1));
+        assertTrue(progress.size() > ITEMS / 100);
+    }
+
+    private static File write(String fileName, String contents)
+            throws IOException {
+        File file = new File(Files.createTempDirectory("exchange").toFile(),
+                fileName);
+
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+
+        return file;
+    }
+
+    private static void assertLines(InventoryExchange.Result result,
+            int... lines) {
+        assertEquals(lines.length, result.getErrors().size());
+        for (int i = 0; i < lines.length; i++)
+            assertTrue(result.getErrors().get(i),
+                    result.getErrors().get(i).startsWith("Line " + lines[i]
+                            + ": "));
+    }
+}
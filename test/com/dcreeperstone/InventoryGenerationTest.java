@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests resetting and clearing an {@code Inventory} in constant time with
+ * generations: every quantity reads as 0 once a reset started a new
+ * generation, items changed afterwards count again, and a cleared list can
+ * be filled again and saved and loaded with the same contents, also when
+ * resets race with changes from other threads.
+ * @author Dr. Hoss
+ */
+public class InventoryGenerationTest {
+
+    private static final int ITEMS = 1000;
+
+    @BeforeClass
+    public static void useScratchChangeLog() throws IOException {
+        TestSupport.useScratchChangeLog();
+    }
+
+    @Test
+    public void plainInventoryRoundTrips() throws IOException {
+        roundTrip(() -> new Inventory("plain"), Inventory::new);
+    }
+
+    @Test
+    public void compactInventoryRoundTrips() throws IOException {
+        roundTrip(() -> new CompactInventory("compact"),
+                CompactInventory::new);
+    }
+
+    @Test
+    public void shardedInventoryRoundTrips() throws IOException {
+        roundTrip(() -> new ShardedInventory("sharded", 4),
+                ShardedInventory::new);
+    }
+
+    @Test
+    public void heldItemReadsZeroAfterReset() {
+        Inventory inv = new Inventory("held");
+        Item held;
+
+        inv.addNewItem(new Item("Widget", 5));
+        held = inv.search("widget");
+        inv.resetAllItems();
+        assertEquals(0, held.getQuantity());
+        inv.addToItem("Widget", 2);
+        assertEquals(2, held.getQuantity());
+        assertEquals(2, inv.getTotalQuantity());
+    }
+
+    @Test
+    public void snapshotKeepsQuantitiesFromBeforeReset() {
+        Inventory inv = new Inventory("snapshot");
+        Map<String, Integer> seen = new HashMap<>();
+
+        for (int i = 0; i < ITEMS; i++)
+            inv.addNewItem(new Item("Item " + i, i));
+        try (InventorySnapshot snapshot = inv.snapshot()) {
+            inv.resetAllItems();
+            inv.clearInventory();
+            inv.addNewItem(new Item("Item 1", 99));
+            snapshot.items().forEach(item -> seen.put(item.getInfo(),
+                    item.getQuantity()));
+        }
+        assertEquals(ITEMS, seen.size());
+        for (int i = 0; i < ITEMS; i++)
+            assertEquals(Integer.valueOf(i), seen.get("Item " + i));
+        assertEquals(99, inv.getTotalQuantity());
+    }
+
+    @Test
+    public void resetsDuringConcurrentChangesKeepCounts()
+            throws InterruptedException {
+        Inventory inv = new ConcurrentInventory("racing");
+        InventorySummary summary;
+        long total = 0;
+
+        TestSupport.discardMessages();
+        for (int i = 0; i < ITEMS; i++)
+            inv.addNewItem(new Item("Item " + i, 1));
+        assertEquals(1, inv.findLargestStock(1).get(0).getQuantity());
+        TestSupport.runConcurrently(4, thread -> {
+            for (int i = 0; i < ITEMS * 20; i++)
+                if (thread == 0 && i % 500 == 0)
+                    inv.resetAllItems();
+                else
+                    inv.addToItem("Item " + (i % ITEMS), 1);
+        });
+        inv.verifyStatistics();
+        summary = inv.getSummary();
+        for (int i = 0; i < ITEMS; i++)
+            total += inv.search("Item " + i).getQuantity();
+        assertEquals(ITEMS, summary.getItemCount());
+        assertEquals(total, summary.getTotalQuantity());
+        inv.resetAllItems();
+        assertEquals(0, inv.getSummary().getTotalQuantity());
+        assertEquals(ITEMS, inv.getSummary().getZeroQuantityCount());
+    }
+
+    private static void roundTrip(Supplier<Inventory> factory,
+            Function<File, Inventory> loader)
+            throws IOException {
+        Inventory inv = factory.get();
+        File dir = Files.createTempDirectory("generations").toFile();
+        Inventory loaded;
+
+        for (int i = 0; i < ITEMS; i++)
+            inv.addNewItem(new Item("Item " + i, i + 1));
+        assertEquals((long) ITEMS * (ITEMS + 1) / 2, inv.getTotalQuantity());
+
+        inv.resetAllItems();
+        assertEquals(ITEMS, inv.getItemCount());
+        assertEquals(0, inv.getTotalQuantity());
+        assertEquals(ITEMS, inv.getZeroQuantityCount());
+        assertEquals(0, inv.search("Item 10").getQuantity());
+        inv.addToItem("Item 10", 7);
+        inv.verifyStatistics();
+        assertEquals(7, inv.getTotalQuantity());
+        assertEquals(ITEMS - 1, inv.getZeroQuantityCount());
+
+        inv.clearInventory();
+        assertEquals(0, inv.getItemCount());
+        assertNull(inv.search("Item 10"));
+        for (int i = 0; i < ITEMS; i += 2)
+            inv.addNewItem(new Item("Item " + i, 3));
+        inv.verifyStatistics();
+        assertEquals(ITEMS / 2, inv.getItemCount());
+        assertEquals(3L * (ITEMS / 2), inv.getTotalQuantity());
+
+        inv.writeDataTo(dir.getPath(), "inventory.txt", InventoryFormat.TEXT);
+        loaded = loader.apply(new File(dir, "inventory.txt"));
+        assertEquals(inv.getItemCount(), loaded.getItemCount());
+        assertEquals(inv.getTotalQuantity(), loaded.getTotalQuantity());
+        for (int i = 0; i < ITEMS; i++)
+            if (i % 2 == 0)
+                assertEquals(3, loaded.search("Item " + i).getQuantity());
+            else
+                assertNull(loaded.search("Item " + i));
+        assertNotNull(loaded.search("ITEM 0"));
+    }
+}
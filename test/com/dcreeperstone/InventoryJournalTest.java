@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests rebuilding an {@code Inventory} from its {@code InventoryJournal}:
+ * changes survive reopening, a crash that leaves the old journal next to a
+ * newer snapshot brings back nothing the snapshot replaced, and a torn
+ * record at the end of the journal is cut off.
+ * @author Dr. Hoss
+ */
+public class InventoryJournalTest {
+
+    private static final int ITEMS = 100;
+
+    @BeforeClass
+    public static void useScratchChangeLog() throws IOException {
+        TestSupport.useScratchChangeLog();
+        TestSupport.discardMessages();
+    }
+
+    @Test
+    public void changesSurviveReopening() throws IOException {
+        File dir = Files.createTempDirectory("journal").toFile();
+        InventoryJournal journal = InventoryJournal.open(dir, "journaled");
+        Inventory inv = journal.getInventory();
+
+        for (int i = 0; i < ITEMS; i++)
+            inv.addNewItem(new Item("Item " + i, i));
+        inv.addToItem("Item 5", 10);
+        inv.removeFromItem("Item 9", 4);
+        inv.removeItem("Item 3");
+        journal.close();
+
+        journal = InventoryJournal.open(dir, "ignored");
+        inv = journal.getInventory();
+        assertEquals("journaled", inv.getName());
+        assertEquals(ITEMS - 1, inv.getItemCount());
+        assertEquals(15, inv.search("Item 5").getQuantity());
+        assertEquals(5, inv.search("Item 9").getQuantity());
+        assertNull(inv.search("Item 3"));
+        inv.verifyStatistics();
+        journal.close();
+    }
+
+    @Test
+    public void staleJournalAfterResetIsSkipped() throws IOException {
+        crashAfterSnapshot(false);
+    }
+
+    @Test
+    public void staleJournalAfterClearIsSkipped() throws IOException {
+        crashAfterSnapshot(true);
+    }
+
+    @Test
+    public void tornRecordIsCutOff() throws IOException {
+        File dir = Files.createTempDirectory("journal").toFile();
+        File log = new File(dir, "journal.log");
+        InventoryJournal journal = InventoryJournal.open(dir, "torn");
+        long length;
+
+        journal.getInventory().addNewItem(new Item("Widget", 4));
+        journal.getInventory().addToItem("Widget", 3);
+        journal.close();
+        length = log.length();
+        // Half a record: a length that promises more bytes than follow.
+        Files.write(log.toPath(), new byte[] {0, 0, 0, 40, 0, 0, 0, 1},
+                StandardOpenOption.APPEND);
+
+        journal = InventoryJournal.open(dir, "torn");
+        assertEquals(7, journal.getInventory().search("Widget")
+                .getQuantity());
+        assertEquals(length, log.length());
+        journal.getInventory().addToItem("Widget", 1);
+        journal.close();
+
+        journal = InventoryJournal.open(dir, "torn");
+        assertEquals(8, journal.getInventory().search("Widget")
+                .getQuantity());
+        journal.close();
+    }
+
+    /**
+     * Puts back the journal from before a reset or clear, as if a crash hit
+     * after the new snapshot was moved into place but before the journal was
+     * replaced, and checks that reopening keeps the reset or clear.
+     */
+    private static void crashAfterSnapshot(boolean clear)
+            throws IOException {
+        File dir = Files.createTempDirectory("journal").toFile();
+        File log = new File(dir, "journal.log");
+        File stale = new File(dir, "stale.log");
+        InventoryJournal journal = InventoryJournal.open(dir, "crashed");
+        Inventory inv = journal.getInventory();
+
+        for (int i = 0; i < ITEMS; i++)
+            inv.addNewItem(new Item("Item " + i, i + 1));
+        Files.copy(log.toPath(), stale.toPath());
+        if (clear)
+            inv.clearInventory();
+        else
+            inv.resetAllItems();
+        inv.addNewItem(new Item("After", 2));
+        journal.close();
+        Files.move(stale.toPath(), log.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+
+        journal = InventoryJournal.open(dir, "crashed");
+        inv = journal.getInventory();
+        assertEquals(clear ? 0 : ITEMS, inv.getItemCount());
+        assertEquals(0, inv.getTotalQuantity());
+        // The record of the item added after the snapshot was lost with the
+        // journal that held it; nothing older came back in its place.
+        assertNull(inv.search("After"));
+        inv.addToItem("Item 1", clear ? 0 : 6);
+        journal.close();
+
+        journal = InventoryJournal.open(dir, "crashed");
+        assertEquals(clear ? 0 : 6, journal.getInventory()
+                .getTotalQuantity());
+        journal.close();
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests merging inventory files with {@code InventoryLoader}: quantities of
+ * the same item are summed across files, and a sum that does not fit in a
+ * quantity fails the load instead of wrapping around.
+ * @author Dr. Hoss
+ */
+public class InventoryLoaderTest {
+
+    private static final int HALF = Integer.MAX_VALUE / 2 + 1;
+
+    @BeforeClass
+    public static void useScratchChangeLog() throws IOException {
+        TestSupport.useScratchChangeLog();
+        TestSupport.discardMessages();
+    }
+
+    @Test
+    public void quantitiesAreSummedAcrossFiles() throws IOException {
+        File dir = Files.createTempDirectory("loader").toFile();
+        Inventory merged;
+
+        write(dir, "a.txt", "a\nBolt\n4\nNut\n1\n");
+        write(dir, "b.txt", "b\nbolt\n6\n");
+        write(dir, "c.txt", "c\nWasher\n2\nBOLT\n1\n");
+        merged = InventoryLoader.loadDirectory(dir);
+        assertEquals(3, merged.getItemCount());
+        assertEquals(11, merged.search("Bolt").getQuantity());
+        assertEquals("Bolt", merged.search("bolt").getInfo());
+        assertEquals(14, merged.getTotalQuantity());
+    }
+
+    @Test
+    public void overflowAcrossFilesFailsTheLoad() throws IOException {
+        File dir = Files.createTempDirectory("loader").toFile();
+
+        assertOverflow(Arrays.asList(write(dir, "a.txt", "a\nBolt\n" + HALF
+                + "\n"), write(dir, "b.txt", "b\nBolt\n" + HALF + "\n")));
+    }
+
+    @Test
+    public void overflowWithinFileFailsTheLoad() throws IOException {
+        File dir = Files.createTempDirectory("loader").toFile();
+        File file = write(dir, "a.txt", "a\nBolt\n" + HALF + "\nbolt\n"
+                + HALF + "\n");
+
+        assertOverflow(Arrays.asList(file));
+        assertEquals(HALF, new Inventory(file).search("Bolt").getQuantity());
+    }
+
+    private static void assertOverflow(List<File> files) {
+        try {
+            InventoryLoader.load("merged", files);
+            fail("Quantities past the limit were merged.");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("'Bolt'"));
+        }
+    }
+
+    private static File write(File dir, String fileName, String contents)
+            throws IOException {
+        File file = new File(dir, fileName);
+
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+
+        return file;
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests sharing, evicting and writing back the inventories held by an
+ * {@code InventoryManager}, including failed saves, files changed by
+ * someone else, and callers asking for a file while it loads.
+ * @author Dr. Hoss
+ */
+public class InventoryManagerTest {
+
+    @BeforeClass
+    public static void useScratchChangeLog() throws IOException {
+        TestSupport.useScratchChangeLog();
+        TestSupport.discardMessages();
+    }
+
+    @Test
+    public void callersShareOneCopy() throws IOException {
+        File dir = Files.createTempDirectory("manager").toFile();
+        InventoryManager manager = new InventoryManager(4, Long.MAX_VALUE);
+        File file = saved(dir, "a.txt", 1);
+        Inventory first = manager.get(file);
+
+        assertSame(first, manager.get(file));
+        assertEquals(1, manager.getMissCount());
+        assertEquals(1, manager.getHitCount());
+        manager.release(first);
+        manager.release(first);
+        assertEquals(1, manager.size());
+    }
+
+    @Test
+    public void evictionSavesChanges() throws IOException {
+        File dir = Files.createTempDirectory("manager").toFile();
+        InventoryManager manager = new InventoryManager(1, Long.MAX_VALUE);
+        File first = saved(dir, "a.txt", 1);
+        File second = saved(dir, "b.txt", 2);
+        Inventory inv = manager.get(first);
+
+        inv.addToItem("Item", 10);
+        manager.release(inv);
+        manager.release(manager.get(second));
+        assertEquals(1, manager.size());
+        assertEquals(11, new Inventory(first).search("Item").getQuantity());
+    }
+
+    @Test
+    public void failedWriteBackKeepsInventory() throws IOException {
+        File dir = Files.createTempDirectory("manager").toFile();
+        File sub = new File(dir, "sub");
+        InventoryManager manager = new InventoryManager(1, Long.MAX_VALUE);
+        File first;
+        File second = saved(dir, "b.txt", 2);
+        Inventory inv;
+
+        assertTrue(sub.mkdir());
+        first = saved(sub, "a.txt", 1);
+        inv = manager.get(first);
+        inv.addToItem("Item", 10);
+        // Neither the file nor a conflict file next to it can be written.
+        Files.delete(first.toPath());
+        Files.delete(sub.toPath());
+        assertTrue(sub.createNewFile());
+        manager.release(inv);
+        manager.release(manager.get(second));
+        assertEquals(2, manager.size());
+        try {
+            manager.clear();
+            fail("The failed save was not reported.");
+        } catch (IOException expected) {
+            assertEquals(1, manager.size());
+        }
+
+        // Once the directory is back, the changes are written out.
+        Files.delete(sub.toPath());
+        assertTrue(sub.mkdir());
+        manager.clear();
+        assertEquals(0, manager.size());
+        assertEquals(11, new Inventory(new File(sub, "a.txt.conflict"))
+                .search("Item").getQuantity());
+    }
+
+    @Test
+    public void changedFileGetsConflictFile() throws IOException {
+        File dir = Files.createTempDirectory("manager").toFile();
+        InventoryManager manager = new InventoryManager(4, Long.MAX_VALUE);
+        File file = saved(dir, "a.txt", 1);
+        Inventory inv = manager.get(file);
+
+        inv.addToItem("Item", 10);
+        manager.release(inv);
+        saved(dir, "a.txt", 5);
+        assertTrue(file.setLastModified(file.lastModified() - 10000));
+        try {
+            manager.get(file);
+            fail("The conflict was not reported.");
+        } catch (IOException expected) {
+            assertEquals(11, new Inventory(new File(dir, "a.txt.conflict"))
+                    .search("Item").getQuantity());
+        }
+        inv = manager.get(file);
+        assertEquals(5, inv.search("Item").getQuantity());
+        manager.release(inv);
+    }
+
+    @Test
+    public void loadsRunOutsideTheLock() throws Exception {
+        File dir = Files.createTempDirectory("manager").toFile();
+        File slow = saved(dir, "slow.txt", 1);
+        File fast = saved(dir, "fast.txt", 2);
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch proceed = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        InventoryManager manager = new InventoryManager(4, Long.MAX_VALUE,
+                file -> {
+                    loads.incrementAndGet();
+                    if (file.getName().equals(slow.getName())) {
+                        loading.countDown();
+                        try {
+                            proceed.await();
+                        } catch (InterruptedException ex) {
+                            throw new UncheckedIOException(
+                                    new IOException(ex));
+                        }
+                    }
+                    return new Inventory(file);
+                });
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        Future<Inventory> first;
+        Future<Inventory> second;
+
+        try {
+            first = pool.submit(() -> manager.get(slow));
+            assertTrue(loading.await(10, TimeUnit.SECONDS));
+            second = pool.submit(() -> manager.get(slow));
+            // Another file loads while the slow one is still loading.
+            manager.release(manager.get(fast));
+            assertFalse(first.isDone());
+            proceed.countDown();
+            assertSame(first.get(10, TimeUnit.SECONDS),
+                    second.get(10, TimeUnit.SECONDS));
+            assertEquals(2, loads.get());
+            assertEquals(2, manager.getMissCount());
+            assertEquals(1, manager.getHitCount());
+        } finally {
+            proceed.countDown();
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Saves an inventory of one item with the specified quantity.
+     */
+    private static File saved(File dir, String name, int quantity)
+            throws IOException {
+        Inventory inv = new Inventory(name);
+
+        inv.addNewItem(new Item("Item", quantity));
+        inv.writeDataTo(dir.getPath(), name, InventoryFormat.TEXT);
+
+        return new File(dir, name);
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Tests the tables of {@code InventoryRenderer}: rows are paged, limited or
+ * restricted to the largest quantities, the items are only walked once, and
+ * a limited table stops reading them after its last row.
+ * @author Dr. Hoss
+ */
+public class InventoryRendererTest {
+
+    private static final int ITEMS = 1000;
+
+    @Test
+    public void limitStopsReadingAfterLastRow() throws Exception {
+        CountingItems items = new CountingItems(ITEMS);
+        String table = render(new InventoryRenderer().limit(3), items);
+
+        assertTrue(table.contains("Item 2 "));
+        assertFalse(table.contains("Item 3 "));
+        assertTrue(table.contains("Showing 3 items; more items follow."));
+        assertTrue(items.read <= 4);
+    }
+
+    @Test
+    public void pagePastTheEndCountsEveryItem() throws Exception {
+        CountingItems items = new CountingItems(ITEMS);
+        String table = render(new InventoryRenderer().page(3, 500), items);
+
+        assertTrue(table.contains("Showing 0 of " + ITEMS + " items."));
+        assertEquals(ITEMS, items.read);
+    }
+
+    @Test
+    public void fullTableHasNoFooter() throws Exception {
+        CountingItems items = new CountingItems(ITEMS);
+        String table = render(new InventoryRenderer(), items);
+
+        assertTrue(table.contains("Item 999 "));
+        assertFalse(table.contains("Showing"));
+        assertEquals(ITEMS, items.read);
+    }
+
+    @Test
+    public void topWalksItemsOnce() throws Exception {
+        CountingItems items = new CountingItems(ITEMS);
+        String table = render(new InventoryRenderer().top(2), items);
+
+        assertTrue(table.indexOf("Item 999 ") < table.indexOf("Item 998 "));
+        assertFalse(table.contains("Item 997 "));
+        assertTrue(table.contains("Showing 2 of " + ITEMS + " items."));
+        assertEquals(ITEMS, items.read);
+    }
+
+    @Test
+    public void emptyInventoryHasNoTable() throws Exception {
+        assertTrue(render(new InventoryRenderer(), new CountingItems(0))
+                .startsWith("There are currently no items"));
+        assertTrue(render(new InventoryRenderer().top(5), new CountingItems(0))
+                .startsWith("There are currently no items"));
+    }
+
+    private static String render(InventoryRenderer renderer,
+            Collection<Item> items) throws Exception {
+        StringBuilder out = new StringBuilder();
+
+        renderer.render("test", items, out);
+
+        return out.toString();
+    }
+
+    /**
+     * The {@code CountingItems} class counts the items read from it and,
+     * like a snapshot, has no size without walking every item, so the
+     * renderer must not ask for it.
+     */
+    private static final class CountingItems
+            extends AbstractCollection<Item> {
+
+        private final List<Item> items = new ArrayList<>();
+        private int read;
+
+        CountingItems(int count) {
+            for (int i = 0; i < count; i++)
+                items.add(new Item("Item " + i, i));
+        }
+
+        @Override
+        public Iterator<Item> iterator() {
+            Iterator<Item> it = items.iterator();
+
+            return new Iterator<Item>() {
+                @Override
+                public boolean hasNext() {
+                    return it.hasNext();
+                }
+
+                @Override
+                public Item next() {
+                    read++;
+                    return it.next();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            throw new UnsupportedOperationException("Walks every item.");
+        }
+    }
+}
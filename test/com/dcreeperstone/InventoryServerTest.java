@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Iterator;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests the request protocol of {@code InventoryServer}, pipelined requests,
+ * and changes sent by one connection while another one saves.
+ * @author Dr. Hoss
+ */
+public class InventoryServerTest {
+
+    private static final int TIMEOUT_MILLIS = 10000;
+
+    @BeforeClass
+    public static void useScratchChangeLog() throws IOException {
+        TestSupport.useScratchChangeLog();
+        TestSupport.discardMessages();
+    }
+
+    @Test
+    public void requestsGetTheirResponses() throws IOException {
+        Inventory inv = new ConcurrentInventory("served");
+
+        try (InventoryServer server = started(inv);
+                Client client = new Client(server)) {
+            assertEquals("OK", client.call("ADD 5 Red Widget"));
+            assertEquals("ITEM 5 Red Widget", client.call("search red widget"));
+            assertEquals("OK", client.call("ADDTO 3 Red Widget"));
+            assertEquals("OK", client.call("REMOVEFROM 2 Red Widget"));
+            assertEquals("ITEM 6 Red Widget", client.call("SEARCH Red Widget"));
+            assertEquals("NOTFOUND", client.call("ADDTO 1 Blue Widget"));
+            assertEquals("OK 1", client.call("COUNT"));
+            assertEquals("OK", client.call("RESET Red Widget"));
+            assertEquals("ITEM 0 Red Widget", client.call("SEARCH Red Widget"));
+            assertEquals("ERR Invalid amount 'x'.", client.call("ADD x Gear"));
+            assertTrue(client.call("JUMP").startsWith("ERR Unknown command"));
+            assertTrue(client.call("SAVE").startsWith("ERR "));
+            assertEquals("OK", client.call("REMOVE Red Widget"));
+            assertEquals("NOTFOUND", client.call("REMOVE Red Widget"));
+            assertEquals("OK 0", client.call("COUNT"));
+        }
+    }
+
+    @Test
+    public void batchIsAppliedTogether() throws IOException {
+        Inventory inv = new ConcurrentInventory("served");
+
+        inv.addNewItem(new Item("Bolt", 10));
+        try (InventoryServer server = started(inv);
+                Client client = new Client(server)) {
+            // Amounts for one item are summed and applied once.
+            client.send("BATCH 3\n-4 Bolt\n2 Bolt\n1 Nut\n");
+            assertEquals("OK 1 1 0", client.read());
+            assertEquals("ITEM 8 Bolt", client.call("SEARCH Bolt"));
+            client.send("BATCH 2\n1 Bolt\nbad\n");
+            assertTrue(client.read().startsWith("ERR "));
+            assertEquals("ITEM 8 Bolt", client.call("SEARCH Bolt"));
+        }
+    }
+
+    @Test
+    public void pipelinedResponsesKeepTheirOrder() throws IOException {
+        Inventory inv = new ConcurrentInventory("served");
+        StringBuilder requests = new StringBuilder();
+        int count = 2000;
+
+        for (int i = 0; i < count; i++)
+            requests.append("ADD 1 Item ").append(i % 10).append('\n')
+                    .append("SEARCH Item ").append(i % 10).append('\n');
+        try (InventoryServer server = started(inv);
+                Client client = new Client(server)) {
+            client.send(requests.toString());
+            for (int i = 0; i < count; i++) {
+                assertEquals("OK", client.read());
+                assertEquals("ITEM " + (i / 10 + 1) + " Item " + i % 10,
+                        client.read());
+            }
+        }
+    }
+
+    @Test
+    public void changesGoAheadDuringSave() throws IOException {
+        File dir = Files.createTempDirectory("server").toFile();
+        File saveFile = new File(dir, "served.txt");
+        Inventory inv = new ConcurrentInventory("served");
+        Iterator<Item> walk;
+
+        for (int i = 0; i < 1000; i++)
+            inv.addNewItem(new Item("Item " + i, i));
+        try (InventoryServer server = started(inv, saveFile);
+                Client saving = new Client(server);
+                Client changing = new Client(server);
+                InventorySnapshot slowSave = inv.snapshot()) {
+            // An unfinished walk, as a long save would leave open.
+            walk = slowSave.items().iterator();
+            walk.next();
+            saving.send("SAVE\n");
+            assertEquals("OK", changing.call("ADD 1 New item"));
+            assertEquals("OK", changing.call("REMOVE Item 3"));
+            assertEquals("OK 1000", changing.call("COUNT"));
+            assertEquals("OK", saving.read());
+            assertEquals("OK", saving.call("ADD 1 New item"));
+        }
+        assertEquals(2, inv.search("New item").getQuantity());
+        assertTrue(new Inventory(saveFile).getItemCount() >= 999);
+    }
+
+    private static InventoryServer started(Inventory inv)
+            throws IOException {
+        return started(inv, null);
+    }
+
+    private static InventoryServer started(Inventory inv, File saveFile)
+            throws IOException {
+        InventoryServer server = new InventoryServer(inv, saveFile, 0);
+
+        server.start();
+
+        return server;
+    }
+
+    /**
+     * The {@code Client} class is one connection to the server, reading
+     * response lines with a timeout.
+     */
+    private static final class Client implements AutoCloseable {
+
+        private final Socket socket;
+        private final OutputStream out;
+        private final BufferedReader in;
+
+        Client(InventoryServer server) throws IOException {
+            socket = new Socket(InetAddress.getLoopbackAddress(),
+                    server.getPort());
+            socket.setSoTimeout(TIMEOUT_MILLIS);
+            out = socket.getOutputStream();
+            in = new BufferedReader(new InputStreamReader(
+                    socket.getInputStream(), StandardCharsets.UTF_8));
+        }
+
+        void send(String requests) throws IOException {
+            out.write(requests.getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+
+        String read() throws IOException {
+            return in.readLine();
+        }
+
+        String call(String request) throws IOException {
+            send(request + "\n");
+            return read();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests that adding and removing items goes ahead while a snapshot of the
+ * {@code Inventory} is being walked, and that the walk still sees the
+ * {@code Inventory} as it was when the snapshot was taken.
+ * @author Dr. Hoss
+ */
+public class InventorySnapshotTest {
+
+    private static final int ITEMS = 1000;
+
+    @BeforeClass
+    public static void useScratchChangeLog() throws IOException {
+        TestSupport.useScratchChangeLog();
+        TestSupport.discardMessages();
+    }
+
+    @Test
+    public void plainInventoryChangesDuringWalk() throws Exception {
+        changesDuringWalk(new Inventory("walked"));
+    }
+
+    @Test
+    public void concurrentInventoryChangesDuringWalk() throws Exception {
+        changesDuringWalk(new ConcurrentInventory("walked"));
+    }
+
+    @Test
+    public void shardedInventoryChangesDuringWalk() throws Exception {
+        changesDuringWalk(new ShardedInventory("walked"));
+    }
+
+    /**
+     * Starts a walk of a snapshot and leaves it unfinished, then adds and
+     * removes items on another thread, which must not wait for the walk.
+     */
+    private static void changesDuringWalk(Inventory inv) throws Exception {
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        Map<String, Integer> seen = new HashMap<>();
+        Iterator<Item> walk;
+        Item item;
+
+        for (int i = 0; i < ITEMS; i++)
+            inv.addNewItem(new Item("Item " + i, i));
+        try (InventorySnapshot snapshot = inv.snapshot()) {
+            walk = snapshot.items().iterator();
+            item = walk.next();
+            seen.put(item.getInfo(), item.getQuantity());
+            writer.submit(() -> {
+                inv.addNewItem(new Item("Added", 1));
+                inv.removeItem("Item 7");
+                inv.addToItem("Item 8", 100);
+            }).get(10, TimeUnit.SECONDS);
+            while (walk.hasNext()) {
+                item = walk.next();
+                assertNull(seen.put(item.getInfo(), item.getQuantity()));
+            }
+        } finally {
+            writer.shutdownNow();
+        }
+        assertEquals(ITEMS, seen.size());
+        assertFalse(seen.containsKey("Added"));
+        assertEquals(Integer.valueOf(7), seen.get("Item 7"));
+        assertEquals(Integer.valueOf(8), seen.get("Item 8"));
+        assertNotNull(inv.search("Added"));
+        assertNull(inv.search("Item 7"));
+        assertEquals(108, inv.search("Item 8").getQuantity());
+        assertEquals(ITEMS, inv.getItemCount());
+        inv.verifyStatistics();
+        // Later changes go to the copy without waiting for anything.
+        inv.removeItem("Added");
+        assertTrue(inv.search("Added") == null);
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests that the statistics an {@code Inventory} keeps as it changes, the
+ * total quantity, the number of items out of stock and the largest
+ * quantity, match a full scan after many threads changed it at once.
+ * @author Dr. Hoss
+ */
+public class InventoryStatisticsTest {
+
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 20000;
+    private static final int KEYS = 200;
+
+    @BeforeClass
+    public static void useScratchChangeLog() throws IOException {
+        TestSupport.useScratchChangeLog();
+    }
+
+    @Test
+    public void concurrentInventoryStaysConsistent()
+            throws InterruptedException {
+        mutateAndVerify(() -> new ConcurrentInventory("concurrent"));
+    }
+
+    @Test
+    public void shardedInventoryStaysConsistent()
+            throws InterruptedException {
+        mutateAndVerify(() -> new ShardedInventory("sharded", 8));
+    }
+
+    @Test
+    public void summaryMatchesTheGetters() {
+        Inventory inv = new ConcurrentInventory("summary");
+        InventorySummary summary;
+
+        inv.addNewItem(new Item("Bolt", 4));
+        inv.addNewItem(new Item("Nut", 0));
+        inv.addNewItem(new Item("Gear", 6));
+        inv.resetItem("Gear");
+        summary = inv.getSummary();
+        assertEquals(3, summary.getItemCount());
+        assertEquals(4, summary.getTotalQuantity());
+        assertEquals(2, summary.getZeroQuantityCount());
+        assertEquals(1, summary.getStockedCount());
+        inv.resetAllItems();
+        assertEquals(0, inv.getSummary().getTotalQuantity());
+        assertEquals(3, inv.getSummary().getZeroQuantityCount());
+    }
+
+    @Test
+    public void changesDoNotWaitForStockQueries() throws Exception {
+        StockIndex index = new StockIndex();
+        Item item = new Item("Bolt", 4);
+        CountDownLatch querying = new CountDownLatch(1);
+        CountDownLatch changed = new CountDownLatch(1);
+        ExecutorService reader = Executors.newSingleThreadExecutor();
+
+        index.itemAdded(item, item.getQuantity());
+        try {
+            // The live check runs while the query holds the index.
+            reader.submit(() -> index.largest(1, held -> {
+                querying.countDown();
+                try {
+                    return changed.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    return false;
+                }
+            }));
+            assertTrue(querying.await(10, TimeUnit.SECONDS));
+            item.addToQuantity(6);
+            index.quantityChanged(item, 4, 10);
+            index.itemAdded(new Item("Nut", 1), 1);
+            changed.countDown();
+            assertEquals(10, index.largest(1, held -> true).get(0)
+                    .getQuantity());
+            assertEquals(1, index.lowest(1, held -> true).get(0)
+                    .getQuantity());
+        } finally {
+            changed.countDown();
+            reader.shutdownNow();
+        }
+    }
+
+    @Test
+    public void resetsDuringChangesStayConsistent()
+            throws InterruptedException {
+        Inventory inv = new ConcurrentInventory("reset");
+
+        inv.findLargestStock(1);
+        TestSupport.runConcurrently(THREADS, number -> {
+            Random random = new Random(number);
+
+            for (int i = 0; i < ROUNDS; i++) {
+                if (number == 0 && i % 1000 == 0)
+                    inv.resetAllItems();
+                else
+                    change(inv, random);
+            }
+        });
+        inv.verifyStatistics();
+    }
+
+    private static void mutateAndVerify(Supplier<Inventory> factory)
+            throws InterruptedException {
+        Inventory inv = factory.get();
+        long total = 0;
+
+        // Build the stock index first, so the largest quantity is checked.
+        inv.findLargestStock(1);
+        TestSupport.runConcurrently(THREADS, number -> {
+            Random random = new Random(number);
+
+            for (int i = 0; i < ROUNDS; i++)
+                change(inv, random);
+        });
+        inv.verifyStatistics();
+        for (int i = 0; i < KEYS; i++)
+            if (inv.search(key(i)) != null)
+                total += inv.search(key(i)).getQuantity();
+        assertEquals(total, inv.getTotalQuantity());
+    }
+
+    /**
+     * Makes one random change. Other threads change the same items, so
+     * changes that lose a race are expected to fail.
+     */
+    private static void change(Inventory inv, Random random) {
+        String key = key(random.nextInt(KEYS));
+
+        try {
+            switch (random.nextInt(6)) {
+                case 0:  inv.addNewItem(new Item(key, random.nextInt(10)));
+                         break;
+                case 1:  inv.removeItem(key);
+                         break;
+                case 2:  inv.resetItem(key);
+                         break;
+                case 3:  inv.removeFromItem(key, 1);
+                         break;
+                default: inv.addToItem(key, random.nextInt(5));
+                         break;
+            }
+        } catch (IllegalStateException ex) {
+            // The item was emptied or removed by another thread.
+        }
+    }
+
+    private static String key(int number) {
+        return "Item " + number;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@code Item}: the quantity and generation packed into one
+ * stamped {@code long}, and quantity changes made with compare-and-set.
+ * @author Dr. Hoss
+ */
+public class ItemTest {
+
+    @Test
+    public void stampKeepsGenerationAndQuantityApart() {
+        long stamped = Item.stamp(7, Integer.MAX_VALUE);
+
+        assertEquals(7, Item.generationOf(stamped));
+        assertEquals(Integer.MAX_VALUE, Item.quantityOf(stamped));
+        stamped = Item.stamp(-1, 0);
+        assertEquals(-1, Item.generationOf(stamped));
+        assertEquals(0, Item.quantityOf(stamped));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeQuantityIsRejected() {
+        new Item("Widget", -1);
+    }
+
+    @Test
+    public void removingTooManyLeavesQuantity() {
+        Item item = new Item("Widget", 3);
+
+        try {
+            item.removeFromQuantity(4);
+            fail("Removed more items than exist.");
+        } catch (IllegalStateException ex) {
+            assertEquals(3, item.getQuantity());
+        }
+    }
+
+    @Test
+    public void addingPastTheLimitLeavesQuantity() {
+        Item item = new Item("Widget", Integer.MAX_VALUE - 1);
+
+        item.addToQuantity(1);
+        try {
+            item.addToQuantity(1);
+            fail("Added past the largest quantity.");
+        } catch (IllegalStateException ex) {
+            assertEquals(Integer.MAX_VALUE, item.getQuantity());
+        }
+    }
+
+    @Test
+    public void changesReturnPreviousStampedQuantity() {
+        Item item = new Item("Widget", 5);
+
+        assertEquals(Item.stamp(0, 5), item.getAndAdd(2));
+        assertEquals(Item.stamp(0, 7), item.getAndRemove(3));
+        assertEquals(Item.stamp(0, 4), item.getAndReset());
+        assertEquals(0, item.getQuantity());
+    }
+
+    @Test
+    public void concurrentChangesAreNotLost() throws InterruptedException {
+        Item item = new Item("Widget", 0);
+        int threads = 8;
+        int rounds = 100000;
+
+        TestSupport.runConcurrently(threads, number -> {
+            for (int i = 0; i < rounds; i++) {
+                item.addToQuantity(2);
+                item.removeFromQuantity(1);
+            }
+        });
+        assertEquals(threads * rounds, item.getQuantity());
+    }
+}
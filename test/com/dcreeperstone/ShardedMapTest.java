@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests the {@code ShardedMap} while several threads change it at once and
+ * another one iterates it, and the text save of a {@code ShardedInventory},
+ * which streams its shards to the file in chunks.
+ * @author Dr. Hoss
+ */
+public class ShardedMapTest {
+
+    private static final int THREADS = 8;
+    private static final int KEYS = 5000;
+
+    @BeforeClass
+    public static void useScratchChangeLog() throws IOException {
+        TestSupport.useScratchChangeLog();
+        TestSupport.discardMessages();
+    }
+
+    @Test
+    public void textSaveStreamsEveryShard() throws IOException {
+        File dir = Files.createTempDirectory("sharded").toFile();
+        Inventory inv = new ShardedInventory("sharded", 16);
+        char[] longInfo = new char[200000];
+        Inventory loaded;
+
+        Arrays.fill(longInfo, 'x');
+        for (int i = 0; i < KEYS * 20; i++)
+            inv.addNewItem(new Item("Item " + i, i));
+        inv.addNewItem(new Item(new String(longInfo), 7));
+        inv.writeDataTo(dir.getPath(), "inventory.txt", InventoryFormat.TEXT);
+        loaded = new Inventory(new File(dir, "inventory.txt"));
+        assertEquals("sharded", loaded.getName());
+        assertEquals(inv.getItemCount(), loaded.getItemCount());
+        assertEquals(inv.getTotalQuantity(), loaded.getTotalQuantity());
+        for (int i = 0; i < KEYS * 20; i++)
+            assertEquals(i, loaded.search("Item " + i).getQuantity());
+        assertEquals(7, loaded.search(new String(longInfo)).getQuantity());
+    }
+
+    @Test
+    public void concurrentPutsAndRemovesKeepEveryKey()
+            throws InterruptedException {
+        ShardedMap map = new ShardedMap(16);
+        AtomicInteger writing = new AtomicInteger(THREADS);
+        Set<String> keys = new HashSet<>();
+
+        // The last thread iterates the map until every writer is done.
+        TestSupport.runConcurrently(THREADS + 1, number -> {
+            Item item;
+
+            if (number == THREADS) {
+                while (writing.get() > 0)
+                    for (Item held : map.values())
+                        assertNotNull(held.getKey());
+                return;
+            }
+            try {
+                for (int i = 0; i < KEYS; i++) {
+                    item = new Item("Item " + number + "-" + i, i);
+                    assertNull(map.putIfAbsent(item.getKey(), item));
+                    if (i % 3 == 0)
+                        assertEquals(item, map.remove(item.getKey()));
+                }
+            } finally {
+                writing.decrementAndGet();
+            }
+        });
+
+        for (Item item : map.values())
+            keys.add(item.getKey());
+        assertEquals(THREADS * (KEYS - (KEYS + 2) / 3), map.size());
+        assertEquals(map.size(), keys.size());
+        for (int number = 0; number < THREADS; number++)
+            for (int i = 0; i < KEYS; i++)
+                assertEquals(i % 3 != 0, keys.contains(
+                        Item.foldCase("Item " + number + "-" + i)));
+    }
+
+    @Test
+    public void racingPutIfAbsentKeepsOneItem() throws InterruptedException {
+        ShardedMap map = new ShardedMap(4);
+        Item[] winners = new Item[KEYS];
+
+        TestSupport.runConcurrently(THREADS, number -> {
+            Item item;
+            Item held;
+
+            for (int i = 0; i < KEYS; i++) {
+                item = new Item("Shared " + i, number);
+                held = map.putIfAbsent(item.getKey(), item);
+                if (held == null)
+                    synchronized (winners) {
+                        assertNull(winners[i]);
+                        winners[i] = item;
+                    }
+            }
+        });
+        assertEquals(KEYS, map.size());
+        for (int i = 0; i < KEYS; i++)
+            assertEquals(winners[i], map.get(Item.foldCase("Shared " + i)));
+    }
+
+    @Test
+    public void keysLandInStableShards() {
+        ShardedMap map = new ShardedMap(8);
+        String key = Item.foldCase("Widget");
+
+        assertEquals(map.shardOf(key), map.shardOf(key));
+        map.put(key, new Item("Widget", 1));
+        assertEquals(1, map.copyShard(map.shardOf(key)).size());
+        map.clear();
+        assertEquals(0, map.size());
+    }
+}
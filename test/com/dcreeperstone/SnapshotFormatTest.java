@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests the binary snapshot format: a snapshot written by
+ * {@code SnapshotWriter} loads with the same items, and
+ * {@code SnapshotInventoryReader} rejects files whose magic, version,
+ * length or checksum is wrong instead of loading damaged data.
+ * @author Dr. Hoss
+ */
+public class SnapshotFormatTest {
+
+    private static final int ITEMS = 1000;
+
+    @BeforeClass
+    public static void useScratchChangeLog() throws IOException {
+        TestSupport.useScratchChangeLog();
+        TestSupport.discardMessages();
+    }
+
+    @Test
+    public void snapshotRoundTrips() throws IOException {
+        File file = writeSnapshot();
+        Inventory loaded;
+
+        assertTrue(SnapshotInventoryReader.isSnapshot(file));
+        loaded = new Inventory(file);
+        assertEquals("snapshot", loaded.getName());
+        assertEquals(ITEMS + 2, loaded.getItemCount());
+        for (int i = 0; i < ITEMS; i++)
+            assertEquals(i, loaded.search("Item " + i).getQuantity());
+        assertEquals(7, loaded.search("Caf\u00e9 cr\u00e8me").getQuantity());
+        assertEquals(0, loaded.search("").getQuantity());
+    }
+
+    @Test
+    public void textFileIsNotTakenForSnapshot() throws IOException {
+        File dir = Files.createTempDirectory("snapshots").toFile();
+        File file = new File(dir, "inventory.txt");
+        Inventory inv = new Inventory("text");
+
+        inv.addNewItem(new Item("Bolt", 3));
+        inv.writeDataTo(dir.getPath(), file.getName(), InventoryFormat.TEXT);
+        assertFalse(SnapshotInventoryReader.isSnapshot(file));
+        assertEquals(3, new Inventory(file).search("Bolt").getQuantity());
+    }
+
+    @Test
+    public void changedByteFailsChecksum() throws IOException {
+        File file = writeSnapshot();
+        byte[] contents = Files.readAllBytes(file.toPath());
+
+        contents[contents.length / 2] ^= 1;
+        Files.write(file.toPath(), contents);
+        assertRejected(file, "checksum");
+        assertEquals(0, new Inventory(file).getItemCount());
+    }
+
+    @Test
+    public void changedChecksumIsRejected() throws IOException {
+        File file = writeSnapshot();
+        byte[] contents = Files.readAllBytes(file.toPath());
+
+        contents[contents.length - 1] ^= 1;
+        Files.write(file.toPath(), contents);
+        assertRejected(file, "checksum");
+    }
+
+    @Test
+    public void truncatedSnapshotIsRejected() throws IOException {
+        File file = writeSnapshot();
+        byte[] contents = Files.readAllBytes(file.toPath());
+        byte[] shorter = new byte[contents.length - 5];
+
+        System.arraycopy(contents, 0, shorter, 0, shorter.length);
+        Files.write(file.toPath(), shorter);
+        assertRejected(file, "checksum");
+        Files.write(file.toPath(), new byte[] {contents[0], contents[1]});
+        assertRejected(file, "truncated");
+    }
+
+    @Test
+    public void unknownVersionIsRejected() throws IOException {
+        File file = writeSnapshot();
+        byte[] contents = Files.readAllBytes(file.toPath());
+
+        contents[SnapshotWriter.MAGIC.length] = 0x7f;
+        Files.write(file.toPath(), contents);
+        assertRejected(file, "version");
+    }
+
+    private static File writeSnapshot() throws IOException {
+        File dir = Files.createTempDirectory("snapshots").toFile();
+        Inventory inv = new Inventory("snapshot");
+
+        for (int i = 0; i < ITEMS; i++)
+            inv.addNewItem(new Item("Item " + i, i));
+        inv.addNewItem(new Item("Caf\u00e9 cr\u00e8me", 7));
+        inv.addNewItem(new Item("", 0));
+        inv.writeDataTo(dir.getPath(), "inventory.snap",
+                InventoryFormat.SNAPSHOT);
+
+        return new File(dir, "inventory.snap");
+    }
+
+    private static void assertRejected(File file, String reason)
+            throws IOException {
+        try {
+            new SnapshotInventoryReader(file).close();
+            fail("Damaged snapshot was read.");
+        } catch (InventoryFormatException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains(reason));
+        }
+    }
+}
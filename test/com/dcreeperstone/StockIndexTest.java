@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests the stock queries of an {@code Inventory}, which its
+ * {@code StockIndex} answers, against quantities kept aside, through
+ * changes, removals, resets of single items and of the whole list, and
+ * clears, and the reorder alerts it sends when items cross their threshold,
+ * also while many threads change them.
+ * @author Dr. Hoss
+ */
+public class StockIndexTest {
+
+    private static final int KEYS = 300;
+    private static final int OPERATIONS = 20000;
+    private static final int QUERY = 25;
+
+    @BeforeClass
+    public static void useScratchChangeLog() throws IOException {
+        TestSupport.useScratchChangeLog();
+    }
+
+    @Test
+    public void queriesMatchQuantitiesThroughResets() {
+        Inventory inv = new Inventory("stock");
+        Map<String, Integer> quantities = new HashMap<>();
+        Map<String, Integer> thresholds = new HashMap<>();
+        Random random = new Random(7);
+        String key;
+        Integer held;
+        int amount;
+
+        TestSupport.discardMessages();
+        // The first query builds the index, so later changes update it.
+        inv.findLowestStock(1);
+        for (int i = 0; i < OPERATIONS; i++) {
+            key = "Item " + random.nextInt(KEYS);
+            amount = random.nextInt(50);
+            switch (random.nextInt(20)) {
+                case 0:
+                    inv.resetAllItems();
+                    quantities.replaceAll((item, quantity) -> 0);
+                    break;
+                case 1:
+                    if (random.nextInt(10) == 0) {
+                        inv.clearInventory();
+                        quantities.clear();
+                        thresholds.clear();
+                    }
+                    break;
+                case 2:
+                    inv.resetItem(key);
+                    quantities.computeIfPresent(key, (item, quantity) -> 0);
+                    break;
+                case 3:
+                    inv.removeItem(key);
+                    quantities.remove(key);
+                    thresholds.remove(key);
+                    break;
+                case 4:
+                case 5:
+                    inv.setReorderThreshold(key, amount);
+                    if (quantities.containsKey(key))
+                        thresholds.put(key, amount);
+                    break;
+                case 6:
+                case 7:
+                case 8:
+                    held = quantities.get(key);
+                    if (held != null && held >= amount) {
+                        inv.removeFromItem(key, amount);
+                        quantities.put(key, held - amount);
+                    }
+                    break;
+                default:
+                    if (quantities.containsKey(key)) {
+                        inv.addToItem(key, amount);
+                        quantities.merge(key, amount, Integer::sum);
+                    } else {
+                        inv.addNewItem(new Item(key, amount));
+                        quantities.put(key, amount);
+                    }
+                    break;
+            }
+            if (i % 100 == 0)
+                assertQueries(inv, quantities, thresholds);
+        }
+        assertQueries(inv, quantities, thresholds);
+    }
+
+    @Test
+    public void alertsFollowThresholdCrossings() {
+        Inventory inv = new Inventory("reorder");
+        List<String> alerts = new ArrayList<>();
+
+        TestSupport.discardMessages();
+        inv.addNewItem(new Item("Bolt", 10));
+        inv.addReorderListener(new ReorderListener() {
+            @Override
+            public void belowThreshold(Item item, int quantity,
+                    int threshold) {
+                alerts.add("below " + item.getInfo() + " " + quantity);
+            }
+
+            @Override
+            public void restocked(Item item, int quantity, int threshold) {
+                alerts.add("restocked " + item.getInfo() + " " + quantity);
+            }
+        });
+        inv.setReorderThreshold("bolt", 5);
+        inv.removeFromItem("Bolt", 4);
+        inv.removeFromItem("Bolt", 2);
+        inv.removeFromItem("Bolt", 1);
+        inv.addToItem("Bolt", 2);
+        inv.resetAllItems();
+        inv.addToItem("Bolt", 9);
+        inv.setReorderThreshold("Bolt", 10);
+        inv.setReorderThreshold("Bolt", 0);
+        assertEquals(Arrays.asList("below Bolt 4", "restocked Bolt 5",
+                "below Bolt 0", "restocked Bolt 9", "below Bolt 9",
+                "restocked Bolt 9"), alerts);
+    }
+
+    @Test
+    public void concurrentChangesSendBalancedAlerts()
+            throws InterruptedException {
+        Inventory inv = new ConcurrentInventory("reorder");
+        AtomicInteger below = new AtomicInteger();
+        AtomicInteger restocked = new AtomicInteger();
+        int keys = 20;
+
+        TestSupport.discardMessages();
+        for (int i = 0; i < keys; i++) {
+            inv.addNewItem(new Item("Item " + i, 50));
+            inv.setReorderThreshold("Item " + i, 50);
+        }
+        inv.addReorderListener(new ReorderListener() {
+            @Override
+            public void belowThreshold(Item item, int quantity,
+                    int threshold) {
+                below.incrementAndGet();
+            }
+
+            @Override
+            public void restocked(Item item, int quantity, int threshold) {
+                restocked.incrementAndGet();
+            }
+        });
+        TestSupport.runConcurrently(8, thread -> {
+            Random random = new Random(thread);
+            String key;
+
+            for (int i = 0; i < OPERATIONS; i++) {
+                key = "Item " + random.nextInt(keys);
+                inv.addToItem(key, 1);
+                inv.removeFromItem(key, 1);
+            }
+        });
+        // Every item is back at its threshold, so each fall was followed by
+        // exactly one restock.
+        assertEquals(below.get(), restocked.get());
+        assertEquals(0, inv.findBelowThreshold(keys).size());
+    }
+
+    private static void assertQueries(Inventory inv,
+            Map<String, Integer> quantities,
+            Map<String, Integer> thresholds) {
+        List<Integer> sorted = new ArrayList<>(quantities.values());
+        List<Integer> below = new ArrayList<>();
+
+        Collections.sort(sorted);
+        for (Map.Entry<String, Integer> entry : thresholds.entrySet())
+            if (quantities.get(entry.getKey()) < entry.getValue())
+                below.add(quantities.get(entry.getKey()));
+        Collections.sort(below);
+
+        assertEquals(head(sorted, QUERY),
+                quantitiesOf(inv.findLowestStock(QUERY)));
+        Collections.reverse(sorted);
+        assertEquals(head(sorted, QUERY),
+                quantitiesOf(inv.findLargestStock(QUERY)));
+        assertEquals(head(below, QUERY),
+                quantitiesOf(inv.findBelowThreshold(QUERY)));
+    }
+
+    private static List<Integer> head(List<Integer> values, int count) {
+        return values.subList(0, Math.min(count, values.size()));
+    }
+
+    private static List<Integer> quantitiesOf(List<Item> items) {
+        List<Integer> quantities = new ArrayList<>();
+
+        for (Item item : items)
+            quantities.add(item.getQuantity());
+
+        return quantities;
+    }
+}
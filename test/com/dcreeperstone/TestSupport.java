@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+
+/**
+ * The {@code TestSupport} class holds the setup shared by the tests.
+ * @author Dr. Hoss
+ */
+final class TestSupport {
+
+    private TestSupport() {}
+
+    /**
+     * Sends change log lines to a temporary file instead of {@code log.txt}.
+     * @throws IOException If the temporary file cannot be created.
+     */
+    static void useScratchChangeLog() throws IOException {
+        File logFile = File.createTempFile("test-log", ".txt");
+
+        logFile.deleteOnExit();
+        ChangeLog.setDefault(new ChangeLog(logFile,
+                ChangeLog.FlushPolicy.everyRecords(4096), 65536));
+    }
+
+    /**
+     * Discards the messages for the operator that the calling thread causes,
+     * such as the one printed for every missing item.
+     */
+    static void discardMessages() {
+        Inventory.reportTo(new PrintWriter(new Writer() {
+            @Override
+            public void write(char[] buffer, int offset, int length) {
+                // Discard messages printed on misses.
+            }
+
+            @Override
+            public void flush() {
+                // Nothing is buffered.
+            }
+
+            @Override
+            public void close() {
+                // Nothing to release.
+            }
+        }));
+    }
+
+    /**
+     * Runs the task on the specified number of threads at once and waits
+     * for all of them, failing if any of them failed. The messages the
+     * threads cause are discarded.
+     * @param threads The number of threads.
+     * @param task The task, given the number of its thread.
+     * @throws InterruptedException If the wait is interrupted.
+     */
+    static void runConcurrently(int threads, ThreadTask task)
+            throws InterruptedException {
+        Thread[] running = new Thread[threads];
+        Throwable[] failure = new Throwable[1];
+
+        for (int i = 0; i < threads; i++) {
+            int number = i;
+
+            running[i] = new Thread(() -> {
+                discardMessages();
+                task.run(number);
+            });
+            running[i].setUncaughtExceptionHandler((thread, ex) -> {
+                synchronized (failure) {
+                    if (failure[0] == null)
+                        failure[0] = ex;
+                }
+            });
+            running[i].start();
+        }
+        for (Thread thread : running)
+            thread.join();
+        if (failure[0] != null)
+            throw new AssertionError("A thread failed.", failure[0]);
+    }
+
+    /**
+     * The {@code ThreadTask} interface is the work of one thread in
+     * {@code runConcurrently}.
+     */
+    interface ThreadTask {
+
+        /**
+         * Does the work of one thread.
+         * @param number The number of the thread, from 0.
+         */
+        void run(int number);
+    }
+}
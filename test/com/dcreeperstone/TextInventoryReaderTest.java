@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2019 Dr. Creeperstone Agency
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.dcreeperstone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests reading the text format with {@code TextInventoryReader}: items
+ * with empty or blank infos are read back as saved, while blank lines
+ * between records and at the end of the file are skipped.
+ * @author Dr. Hoss
+ */
+public class TextInventoryReaderTest {
+
+    @BeforeClass
+    public static void useScratchChangeLog() throws IOException {
+        TestSupport.useScratchChangeLog();
+        TestSupport.discardMessages();
+    }
+
+    @Test
+    public void blankInfosRoundTrip() throws IOException {
+        File dir = Files.createTempDirectory("text").toFile();
+        Inventory inv = new Inventory("blank");
+        List<String> infos = Arrays.asList("", " ", "\t", "Bolt", "  ",
+                "7");
+        Inventory loaded;
+
+        for (int i = 0; i < infos.size(); i++)
+            inv.addNewItem(new Item(infos.get(i), i + 1));
+        inv.writeDataTo(dir.getPath(), "inventory.txt", InventoryFormat.TEXT);
+        loaded = new Inventory(new File(dir, "inventory.txt"));
+        assertEquals(infos.size(), loaded.getItemCount());
+        for (int i = 0; i < infos.size(); i++)
+            assertEquals(i + 1, loaded.search(infos.get(i)).getQuantity());
+    }
+
+    @Test
+    public void separatorLinesAreSkipped() throws IOException {
+        File file = write("name\n\nBolt\n4\n\n \nNut\n6\n\n\n5\n\n\n");
+
+        try (TextInventoryReader invReader = new TextInventoryReader(file)) {
+            assertEquals("name", invReader.getName());
+            assertRecord(invReader, "Bolt", 4);
+            assertRecord(invReader, "Nut", 6);
+            assertRecord(invReader, "", 5);
+            assertFalse(invReader.next());
+        }
+    }
+
+    private static void assertRecord(TextInventoryReader invReader,
+            String info, int quantity) throws IOException {
+        assertTrue(invReader.next());
+        assertEquals(info, invReader.getInfo());
+        assertEquals(quantity, invReader.getQuantity());
+    }
+
+    private static File write(String contents) throws IOException {
+        File file = File.createTempFile("inventory", ".txt");
+
+        file.deleteOnExit();
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+
+        return file;
+    }
+}